@@ -34,6 +34,10 @@ public class TexturedQuad implements Sprite
 	private int _shader;
 	/** The alpha value to tint this sprite, for fading */
 	private float _alpha;
+	/** The color multiplied with this sprite's RGB components when drawn, in [0, 1]. White leaves the sprite unchanged */
+	private float _tintR, _tintG, _tintB;
+	/** The part of the texture this sprite shows (e.g. its region of a texture atlas): left, top, width and height, in texture coordinates */
+	private float _regionU, _regionV, _regionW, _regionH;
 	
 	/**
 	 * Loads a textured quad from an image in the apk's resource storage
@@ -89,6 +93,13 @@ public class TexturedQuad implements Sprite
 		_overrideShader = false;
 		_shader = 0;
 		_alpha = 1.f;
+		_tintR = 1.f;
+		_tintG = 1.f;
+		_tintB = 1.f;
+		_regionU = 0.f;
+		_regionV = 0.f;
+		_regionW = 1.f;
+		_regionH = 1.f;
 
 		_texture = tex;
 		_width = w;
@@ -107,6 +118,13 @@ public class TexturedQuad implements Sprite
 		_overrideShader = false;
 		_shader = 0;
 		_alpha = 1.f;
+		_tintR = 1.f;
+		_tintG = 1.f;
+		_tintB = 1.f;
+		_regionU = 0.f;
+		_regionV = 0.f;
+		_regionW = 1.f;
+		_regionH = 1.f;
 
 		_texture = agl.CreateEmptyTexture();
 		GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, b, 0);
@@ -157,6 +175,112 @@ public class TexturedQuad implements Sprite
 		_alpha = a;
 	}
 	
+	/** Gets the red component of the color this sprite is tinted with, in [0, 1] */
+	public float getTintR()
+	{
+		return _tintR;
+	}
+	
+	/** Gets the green component of the color this sprite is tinted with, in [0, 1] */
+	public float getTintG()
+	{
+		return _tintG;
+	}
+	
+	/** Gets the blue component of the color this sprite is tinted with, in [0, 1] */
+	public float getTintB()
+	{
+		return _tintB;
+	}
+	
+	/**
+	 * Sets the color multiplied with this sprite's RGB components when drawn, so one monochrome texture
+	 * can be drawn in several colors. Works with custom shaders that declare agl's tint uniform (see agl.Tint())
+	 * @param r The red component of the tint color, in [0, 1]
+	 * @param g The green component of the tint color, in [0, 1]
+	 * @param b The blue component of the tint color, in [0, 1]
+	 */
+	public void setTint(float r, float g, float b)
+	{
+		_tintR = r;
+		_tintG = g;
+		_tintB = b;
+	}
+	
+	/** Gets a value indicating whether this sprite is drawn with a tint other than white */
+	public boolean isTinted()
+	{
+		return _tintR != 1.f || _tintG != 1.f || _tintB != 1.f;
+	}
+	
+	/** Gets the left edge of the part of the texture this sprite shows, in texture coordinates */
+	public float getRegionU()
+	{
+		return _regionU;
+	}
+	
+	/** Gets the top edge of the part of the texture this sprite shows, in texture coordinates */
+	public float getRegionV()
+	{
+		return _regionV;
+	}
+	
+	/** Gets the width of the part of the texture this sprite shows, in texture coordinates */
+	public float getRegionWidth()
+	{
+		return _regionW;
+	}
+	
+	/** Gets the height of the part of the texture this sprite shows, in texture coordinates */
+	public float getRegionHeight()
+	{
+		return _regionH;
+	}
+	
+	/**
+	 * Sets the part of the texture this sprite shows, so that sprites can share one texture (e.g. an atlas).
+	 * The sprite's width and height should be the region's size in texels. Works with custom shaders that
+	 * declare agl's texture region uniform (see agl.TexRegion())
+	 * @param u The left edge of the region, in texture coordinates
+	 * @param v The top edge of the region, in texture coordinates
+	 * @param w The width of the region, in texture coordinates
+	 * @param h The height of the region, in texture coordinates
+	 */
+	public void setRegion(float u, float v, float w, float h)
+	{
+		_regionU = u;
+		_regionV = v;
+		_regionW = w;
+		_regionH = h;
+	}
+	
+	/** Gets a value indicating whether this sprite shows only part of its texture */
+	public boolean hasRegion()
+	{
+		return _regionU != 0.f || _regionV != 0.f || _regionW != 1.f || _regionH != 1.f;
+	}
+	
+	/** 
+	 * Sets agl's tint and texture region to this sprite's, for drawing its texture with agl directly 
+	 * (e.g. with agl.InstanceBitmapBezier()). Call endDraw() afterwards
+	 */
+	public void beginDraw()
+	{
+		if (isTinted())
+			agl.Tint(_tintR, _tintG, _tintB);
+		if (hasRegion())
+			agl.TexRegion(_regionU, _regionV, _regionW, _regionH);
+	}
+	
+	/** Resets the agl state set by beginDraw() */
+	public void endDraw()
+	{
+		if (isTinted())
+			agl.Tint(1.f, 1.f, 1.f);
+		if (hasRegion())
+			agl.TexRegion(0.f, 0.f, 1.f, 1.f);
+	}
+	
 	/** Gets a value indicating whether this sprite's custom shader is used for rendering rather than AGL's built-in quad renderer */
 	public boolean useCustomShader()
 	{
@@ -245,9 +369,13 @@ public class TexturedQuad implements Sprite
 	@Override
 	public void draw(Kernel kernel) 
 	{
+		beginDraw();
+		
 		if (_overrideShader)
 			agl.DrawBitmapWithShaderTransformed(_texture, _width, _height, _shader, _translation.x, _translation.y, _rotation, _scale.x, _scale.y, _alpha);
 		else
 			agl.DrawBitmapWithoutShaderTransformed(_texture, _width, _height, _translation.x, _translation.y, _rotation, _scale.x, _scale.y, _alpha);
+		
+		endDraw();
 	}
 }
@@ -51,24 +51,27 @@ const char _agl_quad_vshader[] =
 		""
 		"uniform mat4 aglModelview;"
 		"uniform mat4 aglVirtualTransform;"
+		"uniform vec4 aglTexRegion;"
 		""
-		"varying lowp vec2 texcoord;"
+		"varying mediump vec2 texcoord;"
 		""
 		"void main()"
 		"{"
 		"	gl_Position = aglVirtualTransform * aglModelview * vec4(aglPosition, 0.0, 1.0);"
-		"	texcoord = aglPosition;"
+		"	texcoord = aglTexRegion.xy + aglPosition * aglTexRegion.zw;"
 		"}";
 
 const char _agl_quad_fshader[] =
 		"uniform sampler2D aglTexture;"
 		"uniform lowp float aglAlpha;"
+		"uniform lowp vec3 aglTint;"
 		""
-		"varying lowp vec2 texcoord;"
+		"varying mediump vec2 texcoord;"
 		""
 		"void main()"
 		"{"
 		"	gl_FragColor = texture2D(aglTexture, texcoord);"
+		"   gl_FragColor.rgb *= aglTint;"
 		"   gl_FragColor *= aglAlpha;"
 		"}";
 
@@ -91,6 +94,10 @@ GLuint _agl_quad_elems = 0;				// Element buffer contain the textured quad's ind
 GLint _agl_quad_program = 0;			// The program used to draw textured quads
 GLint _agl_bound_shader = 0;			// The currently bound shader. Used to set aglPosition in aglTexturedQuad() if applicable.
 GLfloat _agl_alpha = 1.f;				// The current alpha channel value, between 0 and 1
+GLfloat _agl_tint_r = 1.f;				// The red component of the current tint color
+GLfloat _agl_tint_g = 1.f;				// The green component of the current tint color
+GLfloat _agl_tint_b = 1.f;				// The blue component of the current tint color
+GLfloat _agl_region[4] = { 0.f, 0.f, 1.f, 1.f };	// The current texture region: left, top, width and height in texture coordinates
 
 #define LOG_ENABLED 0
 
@@ -521,6 +528,8 @@ void  aglUseShader(GLint shader)
 	aglUniformMat4(shader, "aglVirtualTransform", _agl_virtualTransform.data);
 	aglUniformTexture(shader, "aglTexture", 0);	// For texture 0
 	aglUniform(shader, "aglAlpha", _agl_alpha);
+	aglUniform3(shader, "aglTint", _agl_tint_r, _agl_tint_g, _agl_tint_b);	// No-op for custom shaders without a tint
+	aglUniform4(shader, "aglTexRegion", _agl_region[0], _agl_region[1], _agl_region[2], _agl_region[3]);
 
 	_agl_bound_shader = shader;
 }
@@ -842,6 +851,21 @@ void  aglClearColor(GLfloat r, GLfloat g, GLfloat b)
 	glClearColor(r, g, b, 1.f);
 }
 
+void  aglTint(GLfloat r, GLfloat g, GLfloat b)
+{
+	_agl_tint_r = r;
+	_agl_tint_g = g;
+	_agl_tint_b = b;
+}
+
+void  aglTexRegion(GLfloat u, GLfloat v, GLfloat w, GLfloat h)
+{
+	_agl_region[0] = u;
+	_agl_region[1] = v;
+	_agl_region[2] = w;
+	_agl_region[3] = h;
+}
+
 void  aglBeginFrame()
 {
 	glClear(GL_DEPTH_BUFFER_BIT | GL_COLOR_BUFFER_BIT);
@@ -1301,6 +1325,16 @@ void Java_dkilian_andy_jni_agl_ClearColor(JNIEnv *env, jobject *thiz, jfloat r,
 	aglClearColor(r, g, b);
 }
 
+void Java_dkilian_andy_jni_agl_Tint(JNIEnv *env, jobject *thiz, jfloat r, jfloat g, jfloat b)
+{
+	aglTint(r, g, b);
+}
+
+void Java_dkilian_andy_jni_agl_TexRegion(JNIEnv *env, jobject *thiz, jfloat u, jfloat v, jfloat w, jfloat h)
+{
+	aglTexRegion(u, v, w, h);
+}
+
 void Java_dkilian_andy_jni_agl_BeginFrame(JNIEnv *env, jobject *thiz)
 {
 	aglBeginFrame();
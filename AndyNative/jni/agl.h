@@ -60,6 +60,8 @@ void  aglInstanceBitmapBezier(GLint tex, GLint w, GLint h, GLfloat *controlPoint
 void  aglInstanceBitmapCatmull(GLint tex, GLint w, GLint h, GLfloat *controlPoints, GLint numSteps, GLfloat rot, GLfloat xscale, GLfloat yscale, GLfloat alpha);
 void  aglDrawAlongBezierPath(GLint tex, GLint w, GLint h, GLfloat *controlPoints, GLint numPoints ,GLfloat t, GLfloat rot, GLfloat xscale, GLfloat yscale, GLfloat alpha);
 void  aglClearColor(GLfloat r, GLfloat g, GLfloat b);
+void  aglTint(GLfloat r, GLfloat g, GLfloat b);
+void  aglTexRegion(GLfloat u, GLfloat v, GLfloat w, GLfloat h);
 void  aglBeginFrame();
 void  aglEndFrame();
 GLint aglCreateFBO(GLint w, GLint h);
@@ -124,6 +126,8 @@ void Java_dkilian_andy_jni_agl_InstanceBitmapBezier(JNIEnv *env, jobject *thiz,
 void Java_dkilian_andy_jni_agl_InstanceBitmapCatmull(JNIEnv *env, jobject *thiz, jint tex, jint w, jint h, jfloatArray controlPoints, jint numSteps, jfloat rot, jfloat xscale, jfloat yscale, jfloat alpha);
 void Java_dkilian_andy_jni_agl_DrawAlongBezierPath(JNIEnv *env, jobject *thiz, jint tex, jint w, jint h, jfloatArray controlPoints, jint numPoints, jfloat t, jfloat rot, jfloat xscale, jfloat yscale, jfloat alpha);
 void Java_dkilian_andy_jni_agl_ClearColor(JNIEnv *env, jobject *thiz, jfloat r, jfloat g, jfloat b);
+void Java_dkilian_andy_jni_agl_Tint(JNIEnv *env, jobject *thiz, jfloat r, jfloat g, jfloat b);
+void Java_dkilian_andy_jni_agl_TexRegion(JNIEnv *env, jobject *thiz, jfloat u, jfloat v, jfloat w, jfloat h);
 void Java_dkilian_andy_jni_agl_BeginFrame(JNIEnv *env, jobject *thiz);
 void Java_dkilian_andy_jni_agl_EndFrame(JNIEnv *env, jobject *thiz);
 jint Java_dkilian_andy_jni_agl_CreateFBO(JNIEnv *env, jobject *thiz, jint w, jint h);
@@ -472,6 +472,27 @@ public class agl
 	 */
 	public static native void ClearColor(float r, float g, float b);
 	
+	/**
+	 * Sets the color multiplied with the RGB components of every pixel drawn from now on, by the built-in
+	 * quad shader or any custom shader with a "uniform lowp vec3 aglTint". Alpha values are unaffected.
+	 * Set a tint of white (1, 1, 1) to draw sprites unchanged
+	 * @param r The red component of the tint color, in [0, 1]
+	 * @param g The green component of the tint color, in [0, 1]
+	 * @param b The blue component of the tint color, in [0, 1]
+	 */
+	public static native void Tint(float r, float g, float b);
+	
+	/**
+	 * Sets the rectangle of the texture that sprites drawn from now on are mapped to, e.g. one sprite's
+	 * region of a texture atlas, by the built-in quad shader or any custom shader with a "uniform vec4
+	 * aglTexRegion". Set a region of (0, 0, 1, 1) to draw whole textures
+	 * @param u The left edge of the region, in texture coordinates
+	 * @param v The top edge of the region, in texture coordinates
+	 * @param w The width of the region, in texture coordinates
+	 * @param h The height of the region, in texture coordinates
+	 */
+	public static native void TexRegion(float u, float v, float w, float h);
+	
 	/**
 	 * Does all initialization needed to draw a single frame. Should be called at the beginning of each draw().
 	 */
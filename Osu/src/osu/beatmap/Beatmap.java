@@ -6,6 +6,8 @@ import java.util.Vector;
 import osu.game.Background;
 import osu.game.BreakTiming;
 import osu.game.ComboColor;
+import osu.game.HitObjectStore;
+import osu.game.TimingIndex;
 import osu.game.TimingPoint;
 
 /**
@@ -42,9 +44,12 @@ public class Beatmap {
 	private LinkedList<BreakTiming> break_timings; // List of breaks in the song (no controls or HP drain)
 	
 	private LinkedList<TimingPoint> timing_points; // Changes in tempo, BPM, and the like
+	private TimingIndex timing_index; // Built from timing_points on first use
 	
 	private Vector<ComboColor> combo_colors; // Control colors
 	
+	private HitObjectStore hit_objects; // Everything the player interacts with, in file order
+	
 	
 	// *** CONSTRUCTORS *** //
 	public Beatmap()
@@ -83,11 +88,13 @@ public class Beatmap {
 		
 		// Timing Points
 		timing_points = null;
+		timing_index = null;
 		
 		// Colours
 		combo_colors = null;
 		
-		// TODO: Hit Objects
+		// Hit Objects
+		hit_objects = null;
 	}
 	
 	
@@ -119,10 +126,12 @@ public class Beatmap {
 	public void setBackground(Background back) { background = back; }
 	public void setBreakTimings(LinkedList<BreakTiming> timings) { break_timings = timings; }
 	
-	public void setTimingPoints(LinkedList<TimingPoint> points) { timing_points = points; }
+	public void setTimingPoints(LinkedList<TimingPoint> points) { timing_points = points; timing_index = null; }
 	
 	public void setComboColors(Vector<ComboColor> colors) { combo_colors = colors; }
 	
+	public void setHitObjects(HitObjectStore objects) { hit_objects = objects; }
+	
 	
 	// *** ACCESSORS - GET *** //
 	public String getAudioFilename() { return audio_filename; }
@@ -154,6 +163,16 @@ public class Beatmap {
 	
 	public LinkedList<TimingPoint> getTimingPoint() { return timing_points; }
 	
+	/** Returns the resolved timing points, building them the first time this is called */
+	public TimingIndex getTimingIndex()
+	{
+		if (timing_index == null)
+			timing_index = new TimingIndex(timing_points);
+		return timing_index;
+	}
+	
 	public Vector<ComboColor> getComboColors() { return combo_colors; }
 	
+	public HitObjectStore getHitObjects() { return hit_objects; }
+	
 }
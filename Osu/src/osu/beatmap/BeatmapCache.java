@@ -0,0 +1,513 @@
+package osu.beatmap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedList;
+import java.util.Vector;
+import java.util.zip.CRC32;
+
+import android.util.Log;
+
+import osu.game.Background;
+import osu.game.BreakTiming;
+import osu.game.ComboColor;
+import osu.game.HOSliderType;
+import osu.game.HitObjectStore;
+import osu.game.TimingPoint;
+
+/**
+ * Stores fully parsed beatmaps in a compact binary format so that a beatmap that
+ * has been played before can be loaded without parsing its .osu file again.
+ * 
+ * Each .osu file gets one cache file in the cache directory. The cache file's header
+ * records the size, modification time and CRC32 of the .osu file it was made from;
+ * a cache file is only used if the size matches and either the modification time or
+ * the CRC32 matches as well. Cache files are read through a MappedByteBuffer.
+ */
+public class BeatmapCache
+{
+	/** Identifies a beatmap cache file ("OSUC") */
+	public static final int MAGIC = 0x4f535543;
+	/** The version of the cache format. Cache files with a different version are ignored */
+	public static final int VERSION = 2;
+	/** The extension given to cache files */
+	public static final String EXTENSION = ".bmc";
+	
+	/** The offset of the .osu modification time in a cache file's header (after the magic, version and size) */
+	private static final int MTIME_OFFSET = 16;
+	/** The slider types by ordinal, as stored. values() copies the array on every call */
+	private static final HOSliderType[] SLIDER_TYPES = HOSliderType.values();
+	
+	/** The directory cache files are stored in */
+	private File _dir;
+	
+	/**
+	 * Creates a beatmap cache
+	 * @param dir The directory to store cache files in. Created on the first store() if it does not exist.
+	 */
+	public BeatmapCache(File dir)
+	{
+		_dir = dir;
+	}
+	
+	/** Gets the directory cache files are stored in */
+	public File getDirectory()
+	{
+		return _dir;
+	}
+	
+	/** Gets the cache file used for the .osu file at the given path */
+	public File cacheFileFor(String path)
+	{
+		String name = new File(path).getName();
+		StringBuilder sb = new StringBuilder(48);
+		for (int i = 0; i < name.length() && i < 32; ++i)
+		{
+			char c = name.charAt(i);
+			sb.append((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ? c : '_');
+		}
+		sb.append('-').append(Integer.toHexString(path.hashCode())).append(EXTENSION);
+		return new File(_dir, sb.toString());
+	}
+	
+	/**
+	 * Loads the cached beatmap for the .osu file at the given path
+	 * @param path The path to the .osu file
+	 * @return The beatmap, or null if there is no valid cache entry for the file
+	 */
+	public Beatmap load(String path)
+	{
+		File cache = cacheFileFor(path);
+		if (!cache.isFile())
+			return null;
+		
+		try
+		{
+			BeatmapSource set = BeatmapSource.forPath(path); // The .osu file may be in a .osz archive
+			String name = set.nameOf(path);
+			if (!set.exists(name))
+				return null;
+			
+			Beatmap beatmap = null;
+			long touch = -1;
+			
+			RandomAccessFile raf = new RandomAccessFile(cache, "r");
+			try
+			{
+				FileChannel channel = raf.getChannel();
+				MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				
+				if (in.getInt() != MAGIC || in.getInt() != VERSION)
+					return null;
+				
+				long size = in.getLong();
+				long mtime = in.getLong();
+				int crc = in.getInt();
+				if (!path.equals(getString(in)) || size != set.length(name))
+					return null;
+				
+				if (mtime != set.lastModified(name))
+				{
+					// Touched or copied but possibly unchanged; only trust the contents
+					if (crc != set.checksum(name))
+						return null;
+					touch = set.lastModified(name);
+				}
+				
+				beatmap = readBeatmap(in);
+			}
+			finally
+			{
+				raf.close();
+			}
+			
+			if (touch >= 0) // Remember the new modification time so the next load skips the checksum
+			{
+				raf = new RandomAccessFile(cache, "rw");
+				try
+				{
+					raf.seek(MTIME_OFFSET);
+					raf.writeLong(touch);
+				}
+				finally
+				{
+					raf.close();
+				}
+			}
+			
+			return beatmap;
+		}
+		catch (IOException ex)
+		{
+			Log.w("BeatmapCache", "Can't read cache file " + cache.getPath(), ex);
+		}
+		catch (BufferUnderflowException ex)
+		{
+			Log.w("BeatmapCache", "Truncated cache file " + cache.getPath(), ex);
+		}
+		catch (RuntimeException ex)
+		{
+			Log.w("BeatmapCache", "Corrupt cache file " + cache.getPath(), ex);
+		}
+		
+		cache.delete();
+		return null;
+	}
+	
+	/**
+	 * Stores a parsed beatmap in the cache. Failures are logged and otherwise ignored,
+	 * since the beatmap can always be parsed again.
+	 * @param path The path to the .osu file the beatmap was parsed from
+	 * @param beatmap The parsed beatmap
+	 */
+	public void store(String path, Beatmap beatmap)
+	{
+		File cache = cacheFileFor(path);
+		File temp = new File(cache.getPath() + ".tmp");
+		
+		try
+		{
+			if (!_dir.isDirectory() && !_dir.mkdirs())
+				throw new IOException("Can't create cache directory " + _dir.getPath());
+			
+			BeatmapSource set = BeatmapSource.forPath(path);
+			String name = set.nameOf(path);
+			long size = set.length(name);
+			long mtime = set.lastModified(name);
+			int crc = set.checksum(name);
+			
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			try
+			{
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(size);
+				out.writeLong(mtime);
+				out.writeInt(crc);
+				putString(out, path);
+				writeBeatmap(out, beatmap);
+			}
+			finally
+			{
+				out.close();
+			}
+			
+			if (!temp.renameTo(cache))
+				throw new IOException("Can't rename " + temp.getPath() + " to " + cache.getPath());
+		}
+		catch (IOException ex)
+		{
+			Log.w("BeatmapCache", "Can't write cache file for " + path, ex);
+			temp.delete();
+		}
+	}
+	
+	/** Computes the CRC32 of a file's contents */
+	public static int checksum(File f) throws IOException
+	{
+		CRC32 crc = new CRC32();
+		byte[] buf = new byte[16 * 1024];
+		
+		InputStream in = new BufferedInputStream(new FileInputStream(f));
+		try
+		{
+			int read;
+			while ((read = in.read(buf)) > 0)
+				crc.update(buf, 0, read);
+		}
+		finally
+		{
+			in.close();
+		}
+		
+		return (int)crc.getValue();
+	}
+	
+	/** Writes everything in a beatmap, in the order readBeatmap() expects */
+	private static void writeBeatmap(DataOutputStream out, Beatmap b) throws IOException
+	{
+		// General
+		putString(out, b.getAudioFilename());
+		out.writeLong(b.getAudioLeadIn());
+		out.writeLong(b.getPreviewTime());
+		out.writeInt(b.getCountdownStyle());
+		putString(out, b.getSampleSet());
+		out.writeFloat(b.getStackLeniency());
+		out.writeInt(b.getPlayMode());
+		out.writeBoolean(b.getLetterboxInBreaks());
+		putString(out, b.getSkinPreference());
+		out.writeInt(b.getCountdownOffset());
+		out.writeBoolean(b.getStoryFireInFront());
+		out.writeBoolean(b.getEpilepsyWarning());
+		
+		// Editor
+		Editor e = b.getEditor();
+		out.writeBoolean(e != null);
+		if (e != null)
+		{
+			out.writeFloat(e.distance_spacing);
+			out.writeInt(e.beat_divisor);
+			out.writeInt(e.grid_size);
+		}
+		
+		// Metadata
+		Metadata m = b.getMetadata();
+		out.writeBoolean(m != null);
+		if (m != null)
+		{
+			putString(out, m.title);
+			putString(out, m.artist);
+			putString(out, m.creator);
+			putString(out, m.version);
+			putString(out, m.source);
+			putString(out, m.tags);
+		}
+		
+		// Difficulty
+		out.writeInt(b.getHPDrainRate());
+		out.writeInt(b.getCircleSize());
+		out.writeInt(b.getOverallDifficulty());
+		out.writeInt(b.getApproachRate());
+		out.writeFloat(b.getSliderMultiplier());
+		out.writeFloat(b.getSliderTickRate());
+		
+		// Events
+		Background bg = b.getBackground();
+		out.writeFloat(bg.getBveUn1());
+		out.writeFloat(bg.getBveUn2());
+		putString(out, bg.getImagePath());
+		out.writeFloat(bg.getBctUn1());
+		out.writeFloat(bg.getBctUn2());
+		out.writeInt(bg.getR());
+		out.writeInt(bg.getG());
+		out.writeInt(bg.getB());
+		
+		out.writeInt(b.getBreakTimings().size());
+		for (BreakTiming bt : b.getBreakTimings())
+		{
+			out.writeInt(bt.getUnknown());
+			out.writeLong(bt.getStartTime());
+			out.writeLong(bt.getEndTime());
+		}
+		
+		// Timing points
+		out.writeInt(b.getTimingPoint().size());
+		for (TimingPoint tp : b.getTimingPoint())
+		{
+			out.writeLong(tp.getOffset());
+			out.writeDouble(tp.getBPM());
+			out.writeInt(tp.getTimeSignature());
+			out.writeInt(tp.getSampleSet());
+			out.writeInt(tp.getCustomSampleSet());
+			out.writeInt(tp.getVolume());
+			out.writeBoolean(tp.getInheritance());
+			out.writeBoolean(tp.getKiai());
+		}
+		
+		// Colours
+		out.writeInt(b.getComboColors().size());
+		for (ComboColor c : b.getComboColors())
+		{
+			out.writeByte(c.getR());
+			out.writeByte(c.getG());
+			out.writeByte(c.getB());
+		}
+		
+		// Hit objects
+		HitObjectStore objects = b.getHitObjects();
+		out.writeInt(objects.size());
+		for (int i = 0; i < objects.size(); ++i)
+		{
+			byte type = objects.getType(i);
+			out.writeByte(type);
+			out.writeInt(objects.getX(i));
+			out.writeInt(objects.getY(i));
+			out.writeLong(objects.getTiming(i));
+			out.writeByte(objects.getFlags(i));
+			out.writeInt(objects.getSoundType(i));
+			
+			if (type == HitObjectStore.SLIDER)
+			{
+				out.writeByte(objects.getSliderType(i).ordinal());
+				out.writeInt(objects.getRepeats(i));
+				out.writeFloat(objects.getPathLength(i));
+				out.writeInt(objects.getPathPointCount(i));
+				for (int j = 0; j < objects.getPathPointCount(i); ++j)
+				{
+					out.writeFloat(objects.getPathX(i, j));
+					out.writeFloat(objects.getPathY(i, j));
+				}
+				out.writeInt(objects.getSoundPointCount(i));
+				for (int j = 0; j < objects.getSoundPointCount(i); ++j)
+					out.writeInt(objects.getSoundPoint(i, j));
+			}
+			else if (type == HitObjectStore.SPINNER)
+			{
+				out.writeLong(objects.getEndTiming(i));
+			}
+		}
+	}
+	
+	/** Reads a beatmap written by writeBeatmap() */
+	private static Beatmap readBeatmap(MappedByteBuffer in)
+	{
+		Beatmap b = new Beatmap();
+		
+		// General
+		b.setAudioFilename(getString(in));
+		b.setAudioLeadIn(in.getLong());
+		b.setPreviewTime(in.getLong());
+		b.setCountdownStyle(in.getInt());
+		b.setSampleSet(getString(in));
+		b.setStackLeniency(in.getFloat());
+		b.setPlayMode(in.getInt());
+		b.setLetterboxInBreaks(in.get() != 0);
+		b.setSkinPreference(getString(in));
+		b.setCountdownOffset(in.getInt());
+		b.setStoryFireInFront(in.get() != 0);
+		b.setEpilepsyWarning(in.get() != 0);
+		
+		// Editor
+		if (in.get() != 0)
+		{
+			Editor e = new Editor();
+			e.distance_spacing = in.getFloat();
+			e.beat_divisor = in.getInt();
+			e.grid_size = in.getInt();
+			b.setEditor(e);
+		}
+		
+		// Metadata
+		if (in.get() != 0)
+		{
+			Metadata m = new Metadata();
+			m.title = getString(in);
+			m.artist = getString(in);
+			m.creator = getString(in);
+			m.version = getString(in);
+			m.source = getString(in);
+			m.tags = getString(in);
+			b.setMetadata(m);
+		}
+		
+		// Difficulty
+		b.setHPDrainRate(in.getInt());
+		b.setCircleSize(in.getInt());
+		b.setOverallDifficulty(in.getInt());
+		b.setApproachRate(in.getInt());
+		b.setSliderMultiplier(in.getFloat());
+		b.setSliderTickRate(in.getFloat());
+		
+		// Events
+		Background bg = new Background();
+		bg.setBveUn1(in.getFloat());
+		bg.setBveUn2(in.getFloat());
+		bg.setImagePath(getString(in));
+		bg.setBctUn1(in.getFloat());
+		bg.setBctUn2(in.getFloat());
+		bg.setR(in.getInt());
+		bg.setG(in.getInt());
+		bg.setB(in.getInt());
+		b.setBackground(bg);
+		
+		LinkedList<BreakTiming> breaks = new LinkedList<BreakTiming>();
+		for (int i = in.getInt(); i > 0; --i)
+			breaks.add(new BreakTiming(in.getInt(), in.getLong(), in.getLong()));
+		b.setBreakTimings(breaks);
+		
+		// Timing points
+		LinkedList<TimingPoint> points = new LinkedList<TimingPoint>();
+		for (int i = in.getInt(); i > 0; --i)
+		{
+			TimingPoint tp = new TimingPoint();
+			tp.setOffset(in.getLong());
+			tp.setBPM(in.getDouble());
+			tp.setTimeSignature(in.getInt());
+			tp.setSampleSet(in.getInt());
+			tp.setCustomSampleSet(in.getInt());
+			tp.setVolume(in.getInt());
+			tp.setInheritance(in.get() != 0);
+			tp.setKiai(in.get() != 0);
+			points.add(tp);
+		}
+		b.setTimingPoints(points);
+		
+		// Colours
+		int numColors = in.getInt();
+		Vector<ComboColor> colors = new Vector<ComboColor>(numColors);
+		for (int i = 0; i < numColors; ++i)
+			colors.add(new ComboColor(in.get() & 0xff, in.get() & 0xff, in.get() & 0xff));
+		b.setComboColors(colors);
+		
+		// Hit objects
+		int numObjects = in.getInt();
+		HitObjectStore objects = new HitObjectStore(numObjects);
+		for (int i = 0; i < numObjects; ++i)
+		{
+			byte type = in.get();
+			int x = in.getInt();
+			int y = in.getInt();
+			long timing = in.getLong();
+			boolean newCombo = (in.get() & HitObjectStore.FLAG_NEW_COMBO) != 0;
+			int sound = in.getInt();
+			
+			if (type == HitObjectStore.SLIDER)
+			{
+				objects.addSlider(x, y, timing, newCombo, sound, SLIDER_TYPES[in.get()]);
+				objects.setRepeats(i, in.getInt());
+				objects.setPathLength(i, in.getFloat());
+				for (int j = in.getInt(); j > 0; --j)
+					objects.addPathPoint(in.getFloat(), in.getFloat());
+				for (int j = in.getInt(); j > 0; --j)
+					objects.addSoundPoint(in.getInt());
+			}
+			else if (type == HitObjectStore.SPINNER)
+			{
+				objects.addSpinner(x, y, timing, newCombo, sound, in.getLong());
+			}
+			else
+			{
+				objects.addButton(x, y, timing, newCombo, sound);
+			}
+		}
+		b.setHitObjects(objects);
+		
+		return b;
+	}
+	
+	/** Writes a possibly-null string as a length (-1 for null) followed by its UTF-16 chars */
+	private static void putString(DataOutputStream out, String s) throws IOException
+	{
+		if (s == null)
+		{
+			out.writeInt(-1);
+			return;
+		}
+		
+		out.writeInt(s.length());
+		out.writeChars(s);
+	}
+	
+	/** Reads a string written by putString() */
+	private static String getString(MappedByteBuffer in)
+	{
+		int len = in.getInt();
+		if (len < 0)
+			return null;
+		
+		char[] chars = new char[len];
+		in.asCharBuffer().get(chars);
+		in.position(in.position() + 2 * len);
+		return new String(chars);
+	}
+}
@@ -1,26 +1,30 @@
 package osu.beatmap;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import dkilian.andy.Kernel;
 import dkilian.andy.TexturedQuad;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.media.MediaPlayer;
 import android.util.DisplayMetrics;
 import android.util.Log;
-import osu.controls.Button;
-import osu.controls.Ring;
-import osu.controls.Slider;
-import osu.controls.Spinner;
+import osu.controls.Control;
 import osu.game.ComboColor;
-import osu.game.HOButton;
-import osu.game.HOSlider;
-import osu.game.HOSpinner;
-import osu.game.HitObject;
-import osu.graphics.BitmapTint;
+import osu.graphics.LayeredQuad;
+import osu.graphics.SpriteCache;
+import osu.graphics.TextureAtlas;
+import osu.graphics.UploadQueue;
 import osu.main.R;
-import osu.parser.Parser;
+import osu.parser.BufferParser;
 import osu.parser.ParserContainer;
 import osu.parser.ParserUtil;
 
@@ -33,17 +37,31 @@ import osu.parser.ParserUtil;
  */
 public class BeatmapLoader 
 {
-	/** Allows the loading thread to ask the main thread to load a bitmap into an opengl texture in a draw event */
-	private class CrossThreadLoad
+	/** The name of the directory, under the application's cache directory, that parsed beatmaps are cached in */
+	public static final String CACHE_DIRECTORY = "beatmaps";
+	/** The name of the directory, under the application's cache directory, that decoded game sprites are cached in */
+	public static final String SPRITE_DIRECTORY = "sprites";
+	/** Beatmap files at least this large (in bytes) have their controls created during playback by a ControlStreamer */
+	public static final long STREAMING_FILE_SIZE = 512 * 1024;
+	/** The most worker threads that load a beatmap's assets */
+	public static final int MAX_LOAD_THREADS = 4;
+	/** How often the progress is updated while the assets load, in milliseconds */
+	public static final long PROGRESS_INTERVAL = 50;
+	
+	/** Uploads the loading thread's bitmaps to textures during draw events */
+	private UploadQueue _uploads = new UploadQueue();
+	
+	/** Decoded game sprites, shared by every loader so that loading another beatmap doesn't decode them again */
+	private static SpriteCache _sprites;
+	
+	/** Gets the sprite cache every loader shares, creating it on first use */
+	private static synchronized SpriteCache sprites(Kernel kernel)
 	{
-		/** The bitmap containing the data to load */
-		public Bitmap bitmap;
-		/** Receives the loaded data */
-		public TexturedQuad quad;
+		if (_sprites == null)
+			_sprites = new SpriteCache(new File(kernel.getActivity().getCacheDir(), SPRITE_DIRECTORY));
+		return _sprites;
 	}
 	
-	private CrossThreadLoad _load = new CrossThreadLoad();
-	
 	/** Loads data on a separate thread, allowing a load screen to be shown on the main thread without blocking */
 	private class LoadThread implements Runnable
 	{
@@ -62,37 +80,99 @@ public class BeatmapLoader
 		/** Whether or not this thread is running */
 		public boolean running;
 		/** Set to true to prematurely end loading when it is convenient for this thread to do so */
-		public boolean cancelled;
+		public volatile boolean cancelled;
 		/** The kernel containing the resource cache to load assets from */
 		public Kernel kernel;
 		/** The highest number ever reached in a single combo. Used to pre-render text */
 		public int highestCombo;
+		/** Whether or not the beatmap's controls are created during playback */
+		public boolean streaming;
+		/** When streaming, the byte offset of the beatmap's hit objects in its file */
+		public long hitObjectsOffset;
+		/** Whether or not edits to the beatmap file are applied during playback (see BeatmapWatcher) */
+		public boolean watch;
+		/** The tasks loading the beatmap's assets while they run, or null */
+		public volatile TaskGraph graph;
+		
+		/** Queues a bitmap to be uploaded to a texture during a doGLTasks() call, without waiting for it */
+		private Future<TexturedQuad> upload(Bitmap b)
+		{
+			return _uploads.submit(b.getConfig() == Bitmap.Config.ARGB_8888 ? b : b.copy(Bitmap.Config.ARGB_8888, false));
+		}
 		
-		/** Performs a cross-thread GL quad loading operation */
-		private TexturedQuad crossload(Bitmap b)
+		/** Waits for an upload to finish. Returns null if loading is cancelled first */
+		private TexturedQuad await(Future<TexturedQuad> upload)
 		{
-			synchronized (_load) 
+			try
 			{
-				_load.bitmap = b;
-				_load.quad = null;
+				return upload.get();
 			}
-			
-			TexturedQuad quad = null;
-			while (quad == null)
+			catch (CancellationException ex)
+			{
+				return null;
+			}
+			catch (InterruptedException ex)
+			{
+				cancelled = true;
+				return null;
+			}
+			catch (ExecutionException ex)
+			{
+				progress = "Can't upload texture: " + ex.getCause().toString();
+				Log.e("BeatmapLoader", progress, ex.getCause());
+				return null;
+			}
+		}
+		
+		/** Adds a task that gets one of the game's drawables from the sprite cache, or decodes and caches it */
+		private TaskGraph.Node<Bitmap> decode(TaskGraph g, final int id, final String name)
+		{
+			final SpriteCache cache = sprites(kernel);
+			final long version = new File(kernel.getActivity().getPackageCodePath()).lastModified(); // Changes whenever the app is installed
+			return g.add(name, new Callable<Bitmap>()
+			{
+				@Override
+				public Bitmap call() throws IOException
+				{
+					Bitmap b = cache.get(id, version, SpriteCache.UNTINTED);
+					if (b != null)
+						return b;
+					
+					BitmapFactory.Options opt = new BitmapFactory.Options(); // Not shared, since decoding writes to it
+					opt.inTargetDensity = DisplayMetrics.DENSITY_DEFAULT;
+					b = BitmapFactory.decodeResource(kernel.getActivity().getResources(), id, opt);
+					if (b == null)
+						throw new IOException("Can't decode " + name);
+					if (b.getConfig() != Bitmap.Config.ARGB_8888)
+						b = b.copy(Bitmap.Config.ARGB_8888, false);
+					
+					cache.put(id, version, SpriteCache.UNTINTED, b);
+					return b;
+				}
+			});
+		}
+		
+		/** Decodes an image in the beatmap's set, or returns null (and logs why) if it can't be read */
+		private Bitmap decodeImage(BeatmapSource set, String name)
+		{
+			try
 			{
-				synchronized (_load)
+				InputStream in = set.open(name);
+				try
+				{
+					return BitmapFactory.decodeStream(in);
+				}
+				finally
 				{
-					quad = _load.quad;
+					in.close();
 				}
 			}
-			
-			synchronized (_load)
+			catch (IOException ex)
 			{
-				_load.bitmap = null;
-				_load.quad = null;
+				progress = "Can't read image " + set.pathOf(name) + ": " + ex.toString();
+				Log.e("BeatmapLoader", progress, ex);
+				return null;
 			}
-			
-			return quad;
 		}
 		
 		/** Creates a new loading thread */
@@ -100,6 +180,8 @@ public class BeatmapLoader
 		{
 			path = "";
 			running = false;
+			watch = false;
+			cancelled = false;
 			init();
 		}
 		
@@ -111,8 +193,9 @@ public class BeatmapLoader
 			itemsLoaded = 0;
 			itemsToLoad = 0;
 			progress = "Initializing osu! ...";
-			cancelled = false;
 			highestCombo = 0;
+			streaming = false;
+			hitObjectsOffset = -1;
 		}
 
 		/** Entry point */
@@ -122,20 +205,58 @@ public class BeatmapLoader
 			running = true;
 			init();
 			load();
+			
+			// The player won't be used, so don't leave its beatmap file open
+			if (cancelled && player != null && player.getStreamer() != null)
+				player.getStreamer().cancel();
+			
 			running = false;
 		}
 		
 		/** Loads the beatmap */
 		private void load()
 		{
-			// Parse the beatmap
-			ParserContainer pc = new ParserContainer();
-			Parser parser = new Parser();
+			// Load the beatmap from the binary cache, or parse it if it isn't cached.
+			// Long beatmaps are parsed without their hit objects, which are streamed during playback instead
+			BeatmapCache cache = new BeatmapCache(new File(kernel.getActivity().getCacheDir(), CACHE_DIRECTORY));
+			BeatmapSource set; // The song directory or .osz archive the beatmap is in
 			try
 			{
+				set = BeatmapSource.forPath(path);
+				streaming = set.length(set.nameOf(path)) >= STREAMING_FILE_SIZE;
+				if (watch && !new File(path).isFile())
+				{
+					Log.w("BeatmapLoader", "Edits aren't applied during playback for beatmaps in .osz archives");
+					watch = false;
+				}
+				
 				progress = "Parsing .osu ...";
-				parser.parseResource(path, pc);
-				beatmap = ParserUtil.parserContainerToBeatmap(pc);
+				long parseStart = System.nanoTime();
+				beatmap = streaming ? null : cache.load(path);
+				if (streaming)
+				{
+					ParserContainer pc = new ParserContainer();
+					BufferParser parser = new BufferParser();
+					parser.setSkipHitObjects(true);
+					parser.parseResource(path, pc);
+					beatmap = ParserUtil.parserContainerToBeatmap(pc);
+					hitObjectsOffset = parser.getHitObjectsByteOffset();
+					streaming = hitObjectsOffset >= 0;
+					Log.v("BeatmapLoader", "Parsed header for streaming in " + (System.nanoTime() - parseStart) / 1000000 + "ms");
+				}
+				else if (beatmap != null)
+				{
+					Log.v("BeatmapLoader", "Loaded " + beatmap.getHitObjects().size() + " cached hit objects in " + (System.nanoTime() - parseStart) / 1000000 + "ms");
+				}
+				else
+				{
+					ParserContainer pc = new ParserContainer();
+					BufferParser parser = new BufferParser();
+					parser.parseResource(path, pc);
+					beatmap = ParserUtil.parserContainerToBeatmap(pc);
+					Log.v("BeatmapLoader", "Parsed " + pc.hit_objects.size() + " hit objects in " + (System.nanoTime() - parseStart) / 1000000 + "ms");
+					cache.store(path, beatmap);
+				}
 				progress += "done";
 			}
 			catch (Exception ex)
@@ -146,236 +267,264 @@ public class BeatmapLoader
 			}
 			
 			// SHIIIIIIT
-			if (pc.combo_colors.size() == 0)
+			if (beatmap.getComboColors().size() == 0)
 			{
-				pc.combo_colors.add(new ComboColor(255,   0, 0));
-				pc.combo_colors.add(new ComboColor(255, 128, 0));
+				beatmap.getComboColors().add(new ComboColor(255,   0, 0));
+				beatmap.getComboColors().add(new ComboColor(255, 128, 0));
 			}
 			
-			// Count the assets to load
-			int numCombos = beatmap.getComboColors().size();
-			itemsToLoad += 4;            	// button up, down, chrome, shadow
-			itemsToLoad += 2 * numCombos;	// button up/down recoloring/rendering
-			itemsToLoad += 1;            	// slider return arrow
-			itemsToLoad += 4 * numCombos;	// slider cap, fill, nub-up, nub-down recoloring/rendering
-			itemsToLoad += 5;				// spinner mask, fill, no-fill, spiral, text
-			itemsToLoad += 2;				// approach ring shadow and fill
-			itemsToLoad += 2 * numCombos;	// approach ring recoloring/rendering 	
-			itemsToLoad += 1;				// 'miss' icon
-			itemsToLoad += 2;				// health fill and bar
-			itemsToLoad += 1;				// Create all controls
-			itemsToLoad += 3;            	// beatmap background, audio file	
+			// Everything below is a graph of tasks run on a worker pool: the drawables are decoded, then
+			// packed into an atlas whose pages are queued for upload, while the background is decoded and
+			// the audio is prepared alongside
+			player = new BeatmapPlayer(beatmap);
+			final BeatmapSource source = set;
+			final MediaPlayer audio = player.getMediaPlayer();
+			final String audioName = beatmap.getAudioFilename();
+			final String bgname = beatmap.getBackground().getImagePath();
+			int threads = Math.min(Runtime.getRuntime().availableProcessors(), MAX_LOAD_THREADS);
+			TaskGraph g = new TaskGraph(threads, Thread.currentThread().getPriority());
 			
-			// Load control assets
-			HashMap<ComboColor, TexturedQuad> buttonUps = new HashMap<ComboColor, TexturedQuad>();
-			HashMap<ComboColor, TexturedQuad> buttonDowns = new HashMap<ComboColor, TexturedQuad>();
-			HashMap<ComboColor, TexturedQuad> sliderCaps = new HashMap<ComboColor, TexturedQuad>();
-			HashMap<ComboColor, TexturedQuad> sliderFills = new HashMap<ComboColor, TexturedQuad>();
-			HashMap<ComboColor, TexturedQuad> sliderNubUps = new HashMap<ComboColor, TexturedQuad>();
-			HashMap<ComboColor, TexturedQuad> sliderNubDowns = new HashMap<ComboColor, TexturedQuad>();
-			HashMap<ComboColor, TexturedQuad> rings = new HashMap<ComboColor, TexturedQuad>();
+			TaskGraph.Node<Bitmap> buttonUp = decode(g, R.drawable.button_up, ":/drawable/button_up");
+			TaskGraph.Node<Bitmap> buttonDown = decode(g, R.drawable.button_down, ":/drawable/button_down");
+			TaskGraph.Node<Bitmap> buttonShadow = decode(g, R.drawable.button_shadow, ":/drawable/button_shadow");
+			TaskGraph.Node<Bitmap> buttonChrome = decode(g, R.drawable.button_chrome, ":/drawable/button_chrome");
+			TaskGraph.Node<Bitmap> ring = decode(g, R.drawable.ring, ":/drawable/ring");
+			TaskGraph.Node<Bitmap> ringShadow = decode(g, R.drawable.ring_shadow, ":/drawable/ring_shadow");
+			TaskGraph.Node<Bitmap> sliderReturn = decode(g, R.drawable.slider_return, ":/drawable/slider_return");
+			TaskGraph.Node<Bitmap> spinnerSpiral = decode(g, R.drawable.spinner_spiral, ":/drawable/spinner_spiral");
+			TaskGraph.Node<Bitmap> spinnerFill = decode(g, R.drawable.spinner_fill, ":/drawable/spinner_fill");
+			TaskGraph.Node<Bitmap> spinnerNoFill = decode(g, R.drawable.spinner_nofill, ":/drawable/spinner_nofill");
+			TaskGraph.Node<Bitmap> spinnerMask = decode(g, R.drawable.spinner_mask, ":/drawable/spinner_mask");
+			TaskGraph.Node<Bitmap> spinnerText = decode(g, R.drawable.spinner_text, ":/drawable/spinner_text");
+			TaskGraph.Node<Bitmap> missIcon = decode(g, R.drawable.no, ":/drawable/no");
+			TaskGraph.Node<Bitmap> healthFill = decode(g, R.drawable.health, ":/drawable/health");
+			TaskGraph.Node<Bitmap> healthBar = decode(g, R.drawable.health_bar, ":/drawable/health_bar");
+			TaskGraph.Node<Bitmap> healthDanger = decode(g, R.drawable.health_danger, ":/drawable/health_danger");
 			
-			BitmapFactory.Options opt = new BitmapFactory.Options();
-			opt.inTargetDensity = DisplayMetrics.DENSITY_DEFAULT;
-
-			progress = ":/drawable/button_up";
-			Bitmap buttonUp = BitmapFactory.decodeResource(kernel.getActivity().getResources(), R.drawable.button_up, opt);
-			++itemsLoaded; if (cancelled) return;
-			progress = ":/drawable/button_down";
-			Bitmap buttonDown = BitmapFactory.decodeResource(kernel.getActivity().getResources(), R.drawable.button_down, opt);
-			++itemsLoaded; if (cancelled) return;
-			progress = ":/drawable/button_shadow";
-			Bitmap buttonShadow = BitmapFactory.decodeResource(kernel.getActivity().getResources(), R.drawable.button_shadow, opt);
-			++itemsLoaded; if (cancelled) return;
-			progress = ":/drawable/button_chrome";
-			Bitmap buttonChrome = BitmapFactory.decodeResource(kernel.getActivity().getResources(), R.drawable.button_chrome, opt);
-			++itemsLoaded; if (cancelled) return;
+			// The gameplay sprites are packed into an atlas of a page or two, each uploaded as one texture
+			final TaskGraph.Node<?>[] sprites = { buttonUp, buttonDown, buttonShadow, buttonChrome, ring, ringShadow, sliderReturn, 
+			                                      spinnerSpiral, spinnerFill, spinnerNoFill, spinnerMask, spinnerText, missIcon, 
+			                                      healthFill, healthBar, healthDanger };
+			final TaskGraph.Node<TextureAtlas> atlas = g.add("Packing sprites ...", new Callable<TextureAtlas>()
+			{
+				@Override
+				public TextureAtlas call()
+				{
+					TextureAtlas a = new TextureAtlas();
+					for (int i = 0; i < sprites.length; ++i)
+						a.add(sprites[i].getName(), (Bitmap)sprites[i].get());
+					a.pack();
+					return a;
+				}
+			}, sprites);
+			TaskGraph.Node<ArrayList<Future<TexturedQuad>>> pages = g.add("Uploading sprites ...", new Callable<ArrayList<Future<TexturedQuad>>>()
+			{
+				@Override
+				public ArrayList<Future<TexturedQuad>> call()
+				{
+					ArrayList<Future<TexturedQuad>> uploads = new ArrayList<Future<TexturedQuad>>();
+					for (int i = 0; i < atlas.get().getPageCount(); ++i)
+						uploads.add(upload(atlas.get().getPage(i)));
+					return uploads;
+				}
+			}, atlas);
 			
-			for (int i = 0; i < beatmap.getComboColors().size(); ++i)
+			TaskGraph.Node<Future<TexturedQuad>> background = null;
+			if (bgname == null || !set.exists(bgname))
 			{
-				ComboColor c = beatmap.getComboColors().get(i);
-				progress = String.format("Coloring button (%d, %d, %d)", c.getR(), c.getG(), c.getB());
-				
-				buttonUps.put(c, crossload(Button.render(buttonUp, buttonShadow, buttonChrome, c)));
-				++itemsLoaded; if (cancelled) return;
-				buttonDowns.put(c, crossload(Button.render(buttonDown, buttonShadow, buttonChrome, c)));
-				++itemsLoaded; if (cancelled) return;
+				progress = "Background image doesn't exist: " + set.pathOf(String.valueOf(bgname));
+				Log.e("BeatmapLoader", progress);
+			}
+			else
+			{
+				background = g.add(bgname, new Callable<Future<TexturedQuad>>()
+				{
+					@Override
+					public Future<TexturedQuad> call()
+					{
+						Bitmap bg = decodeImage(source, bgname);
+						return bg == null ? null : upload(bg);
+					}
+				});
 			}
-
-			progress = ":/drawable/slider_return";
-			TexturedQuad sliderReturn = crossload(BitmapFactory.decodeResource(kernel.getActivity().getResources(), R.drawable.slider_return, opt));
-			++itemsLoaded; if (cancelled) return;
 			
-			for (int i = 0; i < beatmap.getComboColors().size(); ++i)
+			g.add(audioName, new Callable<Void>()
 			{
-				ComboColor c = beatmap.getComboColors().get(i);
-				progress = String.format("Coloring slider (%d, %d, %d)" ,c.getR(), c.getG(), c.getB());
-				
-				Bitmap sliderUp = BitmapTint.apply(buttonUp, c);
-				Bitmap sliderDown = BitmapTint.apply(buttonDown, c);
-				Bitmap sliderChrome = buttonChrome;
-				Bitmap sliderShadow = buttonShadow;
-				
-				sliderCaps.put(c, crossload(Button.render(sliderUp, sliderShadow, sliderChrome)));
-				++itemsLoaded; if (cancelled) return;
-				sliderFills.put(c, crossload(Button.render(sliderUp, sliderShadow, sliderUp)));
-				++itemsLoaded; if (cancelled) return;
-				sliderNubUps.put(c, crossload(Button.render(sliderUp, sliderShadow, sliderChrome)));
-				++itemsLoaded; if (cancelled) return;
-				sliderNubDowns.put(c, crossload(Button.render(sliderDown, sliderShadow, sliderChrome)));
-				++itemsLoaded; if (cancelled) return;
+				@Override
+				public Void call() throws Exception
+				{
+					try
+					{
+						source.setDataSource(audio, audioName);
+						audio.prepare();
+						return null;
+					}
+					catch (Exception ex)
+					{
+						IOException e = new IOException("Can't load beatmap audio: " + ex.toString()); // IOException(String, Throwable) isn't available on all the APIs we support
+						e.initCause(ex);
+						throw e;
+					}
+				}
+			});
+			
+			// Run the graph, reporting progress as its tasks finish
+			itemsToLoad = g.size() + 2; // Parsing, the graph and creating the controls
+			itemsLoaded = 1;            // Parsing
+			graph = g;
+			if (cancelled) return;
+			
+			long graphStart = System.nanoTime();
+			g.start();
+			try
+			{
+				while (!g.await(PROGRESS_INTERVAL))
+				{
+					itemsLoaded = 1 + g.getCompletedCount();
+					if (g.getLastCompleted() != null)
+						progress = g.getLastCompleted();
+				}
 			}
+			catch (CancellationException ex)
+			{
+				return;
+			}
+			catch (InterruptedException ex)
+			{
+				g.cancel();
+				return;
+			}
+			catch (ExecutionException ex)
+			{
+				progress = "Can't load beatmap assets: " + ex.getCause().toString();
+				Log.e("BeatmapLoader", progress, ex.getCause());
+				return;
+			}
+			finally
+			{
+				graph = null;
+			}
+			itemsLoaded = 1 + g.size();
+			Log.v("BeatmapLoader", "Ran " + g.size() + " loading tasks on " + threads + " threads in " + (System.nanoTime() - graphStart) / 1000000 + "ms");
+			if (cancelled) return;
 
-			progress = ":/drawable/spinner_spiral";
-			TexturedQuad spinnerSpiral = crossload(BitmapFactory.decodeResource(kernel.getActivity().getResources(), R.drawable.spinner_spiral, opt));
-			++itemsLoaded; if (cancelled) return;
-			progress = ":/drawable/spinner_fill";
-			TexturedQuad spinnerFill = crossload(BitmapFactory.decodeResource(kernel.getActivity().getResources(), R.drawable.spinner_fill, opt));
-			++itemsLoaded; if (cancelled) return;
-			progress = ":/drawable/spinner_nofill";
-			TexturedQuad spinnerNoFill = crossload(BitmapFactory.decodeResource(kernel.getActivity().getResources(), R.drawable.spinner_nofill, opt));
-			++itemsLoaded; if (cancelled) return;
-			progress = ":/drawable/spinner_mask";
-			TexturedQuad spinnerMask = crossload(BitmapFactory.decodeResource(kernel.getActivity().getResources(), R.drawable.spinner_mask, opt));
-			++itemsLoaded; if (cancelled) return;
-			progress = ":/drawable/spinner_text";
-			TexturedQuad spinnerText = crossload(BitmapFactory.decodeResource(kernel.getActivity().getResources(), R.drawable.spinner_text, opt));
-			++itemsLoaded; if (cancelled) return;
-
-			progress = ":/drawable/ring";
-			Bitmap ring = BitmapFactory.decodeResource(kernel.getActivity().getResources(), R.drawable.ring, opt);
-			++itemsLoaded; if (cancelled) return;
-			progress = ":/drawable/ring_shadow";
-			Bitmap ringShadow = BitmapFactory.decodeResource(kernel.getActivity().getResources(), R.drawable.ring_shadow, opt);
-			++itemsLoaded; if (cancelled) return;
-			
-			for (int i = 0; i < beatmap.getComboColors().size(); ++i)
+			// Create controls, once the draw thread has caught up with the uploads
+			progress = "Uploading textures ...";
+			TexturedQuad[] pageQuads = new TexturedQuad[pages.get().size()];
+			for (int i = 0; i < pageQuads.length; ++i)
 			{
-				ComboColor c = beatmap.getComboColors().get(i);
-				progress = String.format("Coloring ring (%d, %d, %d)", c.getR(), c.getG(), c.getB());
-				
-				rings.put(c, crossload(Ring.render(ring, ringShadow, c)));
-				++itemsLoaded; if (cancelled) return;
+				pageQuads[i] = await(pages.get().get(i));
+				if (pageQuads[i] == null)
+					return;
 			}
+			Log.v("BeatmapLoader", "Packed " + sprites.length + " sprites into " + pageQuads.length + " atlas pages");
 			
-			progress = ":/drawable/no";
-			TexturedQuad missIcon = crossload(BitmapFactory.decodeResource(kernel.getActivity().getResources(), R.drawable.no, opt));
-			++itemsLoaded; if (cancelled) return;
-
-			progress = ":/drawable/health";
-			TexturedQuad healthFill = crossload(BitmapFactory.decodeResource(kernel.getActivity().getResources(), R.drawable.health, opt));
-			++itemsLoaded; if (cancelled) return;
-			progress = ":/drawable/health_bar";
-			TexturedQuad healthBar = crossload(BitmapFactory.decodeResource(kernel.getActivity().getResources(), R.drawable.health_bar, opt));
-			++itemsLoaded; if (cancelled) return;
-			progress = ":/drawable/health_danger";
-			TexturedQuad healthDanger = crossload(BitmapFactory.decodeResource(kernel.getActivity().getResources(), R.drawable.health_danger, opt));
-			++itemsLoaded; if (cancelled) return;
-
-			// Create controls
-			progress = "Initializing UI ...";
-			player = new BeatmapPlayer(beatmap);
-			player.setMissIcon(missIcon);
-			player.setHealthBar(healthBar);
-			player.setHealthFill(healthFill);
-			player.setLowHealth(healthDanger);
+			TextureAtlas a = atlas.get();
+			player.setMissIcon(a.region(missIcon.getName(), pageQuads));
+			player.setHealthBar(a.region(healthBar.getName(), pageQuads));
+			player.setHealthFill(a.region(healthFill.getName(), pageQuads));
+			player.setLowHealth(a.region(healthDanger.getName(), pageQuads));
+			if (background != null && background.get() != null)
+				player.setBackground(await(background.get()));
 			
-			int combo = 0;
-			int comboNumber = 1;
-			int timingPoint = 0;
-			float lastbpm = (float)beatmap.getTimingPoint().get(0).getBPM();
+			TexturedQuad up = a.region(buttonUp.getName(), pageQuads);
+			TexturedQuad down = a.region(buttonDown.getName(), pageQuads);
+			TexturedQuad shadow = a.region(buttonShadow.getName(), pageQuads);
+			TexturedQuad chrome = a.region(buttonChrome.getName(), pageQuads);
+			TexturedQuad ringFill = a.region(ring.getName(), pageQuads);
+			TexturedQuad ringBack = a.region(ringShadow.getName(), pageQuads);
 			
-			for (int i = 0; i < pc.hit_objects.size(); ++i)
+			// Every combo color shares the same monochrome sprites, tinted as they're drawn.
+			// Slider caps and nubs look the same as buttons, so they share sprites too
+			HashMap<ComboColor, TexturedQuad> buttonUps = new HashMap<ComboColor, TexturedQuad>();
+			HashMap<ComboColor, TexturedQuad> buttonDowns = new HashMap<ComboColor, TexturedQuad>();
+			HashMap<ComboColor, TexturedQuad> sliderFills = new HashMap<ComboColor, TexturedQuad>();
+			HashMap<ComboColor, TexturedQuad> rings = new HashMap<ComboColor, TexturedQuad>();
+			for (int i = 0; i < beatmap.getComboColors().size(); ++i)
 			{
-				if (highestCombo < comboNumber)
-					highestCombo = comboNumber;
+				ComboColor c = beatmap.getComboColors().get(i);
 				
-				HitObject ho = pc.hit_objects.get(i);
-				if (ho.getNewCombo())
-				{
-					combo = (combo + 1) % beatmap.getComboColors().size();
-					comboNumber = 1;
-				}
+				LayeredQuad q = new LayeredQuad(up.getWidth(), up.getHeight());
+				q.add(shadow);
+				q.add(up, c);
+				q.add(chrome);
+				buttonUps.put(c, q);
 				
-				ComboColor color = beatmap.getComboColors().get(combo);
+				q = new LayeredQuad(down.getWidth(), down.getHeight());
+				q.add(shadow);
+				q.add(down, c);
+				q.add(chrome);
+				buttonDowns.put(c, q);
 				
-				while (timingPoint+1 < beatmap.getTimingPoint().size() && beatmap.getTimingPoint().get(timingPoint+1).getOffset() < ho.getTiming())
-				{
-					++timingPoint;
-					float bpm = (float)beatmap.getTimingPoint().get(timingPoint).getBPM();
-					if (bpm < 0)
-					{
-//						lastbpm *= bpm / -100.f;
-						lastbpm *= -100.f / bpm; // derp
-						Log.v("BeatmapLoader", "Now at timing point " + timingPoint + ", with relative beat length " + (bpm / -100.f));
-						Log.v("BeatmapLoader", "Beatlength is now " + lastbpm);
-					}
-					else
-					{
-						lastbpm = bpm;
-						Log.v("BeatmapLoader", "Now at timing point " + timingPoint + ", with absolute beat length " + bpm);
-					}
-				}
+				q = new LayeredQuad(up.getWidth(), up.getHeight());
+				q.add(shadow);
+				q.add(up, c);
+				q.add(up, c);
+				sliderFills.put(c, q);
 				
-				// What happens when an object's start time happens to be negative?
-				if (ho.getClass() == HOButton.class)
+				q = new LayeredQuad(ringFill.getWidth(), ringFill.getHeight());
+				q.add(ringBack);
+				q.add(ringFill, c);
+				rings.put(c, q);
+			}
+			
+			ControlFactory factory = new ControlFactory(beatmap, player.getTextCache(), buttonUps, buttonDowns,
+					                                    buttonUps, sliderFills, buttonUps, buttonDowns, 
+					                                    a.region(sliderReturn.getName(), pageQuads), rings, a.region(spinnerSpiral.getName(), pageQuads), 
+					                                    a.region(spinnerNoFill.getName(), pageQuads), a.region(spinnerFill.getName(), pageQuads), 
+					                                    a.region(spinnerMask.getName(), pageQuads), a.region(spinnerText.getName(), pageQuads));
+			if (cancelled) return;
+			
+			progress = "Initializing UI ...";
+			ArrayList<Control> controls = new ArrayList<Control>();
+			if (streaming)
+			{
+				// Create the first few seconds' worth now, and the rest during playback
+				try
 				{
-					HOButton event = (HOButton)ho;
-					Button b = new Button(event, buttonUps.get(color), buttonDowns.get(color), null, player.getTextCache(), Integer.toString(comboNumber++));
-					b.setApproachRing(new Ring(rings.get(color)));
-					player.add(b, lastbpm);
+					ControlStreamer streamer = new ControlStreamer(path, hitObjectsOffset, factory);
+					streamer.fill(0.f);
+					player.setStreamer(streamer);
 				}
-				else if (ho.getClass() == HOSlider.class)
+				catch (Exception ex)
 				{
-					HOSlider event = (HOSlider)ho;
-					Slider s = new Slider(event, lastbpm, beatmap.getSliderMultiplier(), event.getPathLength(), sliderCaps.get(color),
-							              sliderFills.get(color), sliderNubUps.get(color), sliderNubDowns.get(color), sliderReturn, null,
-							              player.getTextCache(), Integer.toString(comboNumber++));
-					s.setApproachRing(new Ring(rings.get(color)));
-					player.add(s, lastbpm);
+					progress = "Can't read hit objects: " + ex.toString();
+					Log.e("BeatmapLoader", progress, ex);
+					return;
 				}
-				else if (ho.getClass() == HOSpinner.class)
+				
+				player.getStreamer().drain(controls);
+				
+				if (watch)
+					Log.w("BeatmapLoader", "Edits aren't applied during playback for beatmaps this large");
+			}
+			else if (watch)
+			{
+				// The watcher creates the controls line by line so it can replace them later
+				try
 				{
-					HOSpinner event = (HOSpinner)ho;
-					Spinner s = new Spinner(event, spinnerSpiral, spinnerNoFill, spinnerFill, spinnerMask, spinnerText, null);
-					s.setApproachRing(new Ring(rings.get(color)));
-					player.add(s, lastbpm);
+					BeatmapWatcher watcher = new BeatmapWatcher(path, beatmap, factory);
+					watcher.createAll(controls);
+					player.setWatcher(watcher);
 				}
-				else
+				catch (Exception ex)
 				{
-					Log.w("BeatmapLoader", "Unrecognized hitobject: " + ho.getClass().toString());
+					progress = "Can't read hit objects: " + ex.toString();
+					Log.e("BeatmapLoader", progress, ex);
+					return;
 				}
 			}
-			++itemsLoaded; if (cancelled) return;
-			
-			// Load beatmap's assets
-			progress = beatmap.getBackground().getImagePath();
-			String folder = path.contains(File.separator) ? path.substring(0, path.lastIndexOf(File.separator)) : path;
-			String bgpath = folder + File.separator + beatmap.getBackground().getImagePath();
-			if (!new File(bgpath).exists())
-			{
-				progress = "Background image doesn't exist: " + bgpath;
-				Log.e("BeatmapLoader", progress);
-			}
 			else
 			{
-				player.setBackground(crossload(BitmapFactory.decodeFile(bgpath).copy(Bitmap.Config.ARGB_8888, false)));
-				++itemsLoaded; if (cancelled) return;
+				controls.ensureCapacity(beatmap.getHitObjects().size());
+				factory.create(beatmap.getHitObjects(), 0, beatmap.getHitObjects().size(), controls);
 			}
 			
-			progress = beatmap.getAudioFilename();
-			String audiopath = folder + File.separator + beatmap.getAudioFilename();
-			try
-			{
-				player.getMediaPlayer().setDataSource(audiopath);
-				player.getMediaPlayer().prepare();
-			}
-			catch (Exception ex)
-			{
-				progress = "Can't load beatmap audio: " + ex.toString();
-				Log.e("BeatmapLoader", progress, ex);
-				return;
-			}
+			for (int i = 0; i < controls.size(); ++i)
+				player.add(controls.get(i));
+			
+			// Combo numbers past those seen so far are rendered when first drawn
+			highestCombo = factory.getHighestCombo();
 			++itemsLoaded; if (cancelled) return;
 			
 			progress = "done!";
@@ -384,23 +533,60 @@ public class BeatmapLoader
 	
 	/** The thread that loads data for this loaded */
 	private LoadThread _thread;
+	/** Runs _thread, once begin() is called */
+	private Thread _worker;
 	
 	/**
 	 * Creates a new asynchronous beatmap laoded
 	 * @param path The path to the .osu file containing the beatmap to load
 	 */
 	public BeatmapLoader(Kernel kernel, String path)
+	{
+		this(kernel, path, false);
+	}
+	
+	/**
+	 * Creates a new asynchronous beatmap loader
+	 * @param path The path to the .osu file containing the beatmap to load
+	 * @param watch Whether or not edits to the file are applied while the beatmap is played
+	 */
+	public BeatmapLoader(Kernel kernel, String path, boolean watch)
 	{
 		_thread = new LoadThread();
 		_thread.kernel = kernel;
 		_thread.path = path;
+		_thread.watch = watch;
 	}
 	
 	/** Begins asynchronously loading a beatmap */
 	public void begin()
+	{
+		begin(Thread.NORM_PRIORITY);
+	}
+	
+	/** Begins asynchronously loading a beatmap on a thread with the given priority */
+	public void begin(int priority)
 	{
 		_thread.running = true;
-		new Thread(_thread).start();
+		_worker = new Thread(_thread);
+		_worker.setPriority(priority);
+		_worker.start();
+	}
+	
+	/** Changes the priority of the loading thread, if it's been started */
+	public void setPriority(int priority)
+	{
+		if (_worker != null)
+			_worker.setPriority(priority);
+		TaskGraph graph = _thread.graph;
+		if (graph != null)
+			graph.setPriority(priority);
+	}
+	
+	/** Gets the path of the beatmap being loaded */
+	public String getPath()
+	{
+		return _thread.path;
 	}
 	
 	/** Gets a value indicating whether a beatmap is being loaded by this object */
@@ -414,7 +600,7 @@ public class BeatmapLoader
 	{
 		if (_thread.itemsToLoad == 0)
 			return -1.f;
-		return (float)(1 + _thread.itemsLoaded) / (float)_thread.itemsToLoad;
+		return (float)_thread.itemsLoaded / (float)_thread.itemsToLoad;
 	}
 	
 	/** Gets the progress string a load screen may display to show the user what aspect of the load process is executing */
@@ -423,13 +609,33 @@ public class BeatmapLoader
 		return _thread.progress;
 	}
 	
-	/** Does tasks that can only be done on the main thread, during a draw() call */
+	/** Does tasks that can only be done on the main thread, during a draw() call: uploads textures until the upload budget is spent */
 	public void doGLTasks()
 	{
-		synchronized (_load) 
+		_uploads.upload();
+	}
+	
+	/** Sets the time doGLTasks() may spend uploading textures per call, in nanoseconds (see UploadQueue) */
+	public void setUploadBudget(long nanos)
+	{
+		_uploads.setBudget(nanos);
+	}
+	
+	/** 
+	 * Frees the textures and audio player of a beatmap that won't be played. Call during a draw() call,
+	 * once isLoading() is false 
+	 */
+	public void release()
+	{
+		_uploads.deleteAll();
+		
+		BeatmapPlayer player = _thread.player;
+		_thread.player = null;
+		if (player != null)
 		{
-			if (_load.bitmap != null && _load.quad == null)
-				_load.quad = new TexturedQuad(_load.bitmap.copy(Bitmap.Config.ARGB_8888, false));
+			if (player.getStreamer() != null)
+				player.getStreamer().cancel();
+			player.getMediaPlayer().release();
 		}
 	}
 	
@@ -437,6 +643,10 @@ public class BeatmapLoader
 	public void cancel()
 	{
 		_thread.cancelled = true;
+		TaskGraph graph = _thread.graph;
+		if (graph != null)
+			graph.cancel();
+		_uploads.cancelAll(); // Wakes the thread if it's waiting on an upload
 	}
 	
 	/** Gets the beatmap loaded by this loader */
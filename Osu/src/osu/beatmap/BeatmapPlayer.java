@@ -1,5 +1,6 @@
 package osu.beatmap;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -56,6 +57,18 @@ public class BeatmapPlayer implements ButtonCallback, SliderCallback, SpinnerCal
 	public static final int SPINNER_SCORE = 100;
 	/** The number of seconds after a beatmap music is allowed to keep playing. If the remaining duration is longer than this value, the beatmap just stops */
 	public static final float MUSIC_END_TIME = 30.f;
+	/** When streaming, the number of controls that have gone on-deck before they are removed from _controls */
+	public static final int STREAM_COMPACT_THRESHOLD = 64;
+	
+	/** Orders controls by their start times */
+	private static final Comparator<Control> START_TIME_ORDER = new Comparator<Control>() 
+	{
+		@Override
+		public int compare(Control object1, Control object2) 
+		{
+			return (int)((object1.getStartTime() - object2.getStartTime()) * 1000.f);
+		}
+	};
 	
 	/** The beatmap this player plays */
 	private Beatmap _beatmap;
@@ -109,6 +122,14 @@ public class BeatmapPlayer implements ButtonCallback, SliderCallback, SpinnerCal
 	private int _totalObjects;
 	/** Mike used a linked list. Linked lists make garbage. Ergo this. */
 	private ArrayList<BreakTiming> _breaks;
+	/** Creates controls during playback for long beatmaps, or null if every control was added up front */
+	private ControlStreamer _streamer;
+	/** Receives controls drained from _streamer */
+	private ArrayList<Control> _streamed;
+	/** Patches the controls when the beatmap file is edited during play, or null */
+	private BeatmapWatcher _watcher;
+	/** Whether or not begin() has been called, after which added controls are inserted in order */
+	private boolean _begun;
 	
 	/** Determines whether or not the game is in the middle of a break period */
 	private boolean isBreak(float time)
@@ -178,6 +199,10 @@ public class BeatmapPlayer implements ButtonCallback, SliderCallback, SpinnerCal
 		_dt = 0.f;
 		_numHit = 0;
 		_totalObjects = 0;
+		_streamer = null;
+		_streamed = new ArrayList<Control>();
+		_watcher = null;
+		_begun = false;
 		
 		Paint p = new Paint();
 		_textCache = new PrerenderCache(p);
@@ -294,8 +319,38 @@ public class BeatmapPlayer implements ButtonCallback, SliderCallback, SpinnerCal
 		_controls = c;
 	}
 	
-	/** Adds a control to this beatmap */
+	/** Gets the streamer that creates this beatmap's controls during playback, or null if they are all added up front */
+	public ControlStreamer getStreamer()
+	{
+		return _streamer;
+	}
+	
+	/** Sets the streamer that creates this beatmap's controls during playback, or null if they are all added up front */
+	public void setStreamer(ControlStreamer streamer)
+	{
+		_streamer = streamer;
+	}
+	
+	/** Gets the watcher that patches the controls when the beatmap file is edited, or null */
+	public BeatmapWatcher getWatcher()
+	{
+		return _watcher;
+	}
+	
+	/** Sets the watcher that patches the controls when the beatmap file is edited, or null */
+	public void setWatcher(BeatmapWatcher watcher)
+	{
+		_watcher = watcher;
+	}
+	
+	/** Adds a control to this beatmap. The beat length is unused; see add(Control) */
 	public void add(Control c, float beatLength)
+	{
+		add(c);
+	}
+	
+	/** Adds a control to this beatmap */
+	public void add(Control c)
 	{			
 		if (c.getClass() == Button.class)
 		{
@@ -306,7 +361,7 @@ public class BeatmapPlayer implements ButtonCallback, SliderCallback, SpinnerCal
 			m.setStartTime(((Button)c).getEndTime() + GRACE_PERIOD);
 			m.setEndTime(m.getStartTime() + Miss.ANIMATION_TIME);
 			
-			_controls.add(m);
+			insert(m);
 			_misses.put(c, m);
 		}
 		else if (c.getClass() == Slider.class)
@@ -323,11 +378,11 @@ public class BeatmapPlayer implements ButtonCallback, SliderCallback, SpinnerCal
 			
 			if ((event.getRepeats() & 1) != 0)
 			{
-				m.setX(event.getPathPoints().get(event.getPathPoints().size() - 1).x);
-				m.setY(event.getPathPoints().get(event.getPathPoints().size() - 1).y);
+				m.setX(event.getPathX(event.getPathPointCount() - 1));
+				m.setY(event.getPathY(event.getPathPointCount() - 1));
 			}
 			
-			_controls.add(m);
+			insert(m);
 			_misses.put(c, m);
 		}
 		else if (c.getClass() == Spinner.class)
@@ -338,14 +393,19 @@ public class BeatmapPlayer implements ButtonCallback, SliderCallback, SpinnerCal
 		if (_firstControlTime > c.getStartTime())
 			_firstControlTime = c.getStartTime();
 
-		_controls.add(c);
+		insert(c);
 		++_totalObjects;
 	}
 
-	/** Removes a control from this beatmap */
+	/** Removes a control (and its miss indicator) from this beatmap */
 	public void remove(Control c)
 	{
-		_controls.add(c);
+		Miss m = _misses.remove(c);
+		if (m != null)
+			removeControl(m);
+		removeControl(c);
+		_notMissed.remove(c);
+		--_totalObjects;
 		
 		if (c.getClass() == Button.class)
 			((Button)c).unregister(this);
@@ -355,30 +415,160 @@ public class BeatmapPlayer implements ButtonCallback, SliderCallback, SpinnerCal
 			((Spinner)c).unregister(this);
 	}
 	
+	/** 
+	 * Adds a control to _controls. Before playback it's appended (begin() sorts); during 
+	 * playback it's inserted in order among the controls that aren't on-deck yet
+	 */
+	private void insert(Control c)
+	{
+		if (!_begun)
+		{
+			_controls.add(c);
+			return;
+		}
+		
+		int lo = _nextControl, hi = _controls.size();
+		while (lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if (START_TIME_ORDER.compare(_controls.get(mid), c) <= 0)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		_controls.add(lo, c);
+	}
+	
+	/** Takes a control out of _controls and out of play */
+	private void removeControl(Control c)
+	{
+		int i = _controls.indexOf(c);
+		if (i >= 0)
+		{
+			_controls.remove(i);
+			if (i < _nextControl)
+				--_nextControl;
+		}
+		
+		synchronized (_onDeck)
+		{
+			_onDeck.remove(c);
+		}
+	}
+	
 	/** Initializes playback */
 	public void begin()
 	{
-		Collections.sort(_controls, new Comparator<Control>() 
-		{
-			@Override
-			public int compare(Control object1, Control object2) 
-			{
-				return (int)((object1.getStartTime() - object2.getStartTime()) * 1000.f);
-			}
-		});
+		Collections.sort(_controls, START_TIME_ORDER);
+		_begun = true;
+		
+		if (_streamer != null)
+			_streamer.start();
+		if (_watcher != null)
+			_watcher.start();
 		
 		_player.start();
 	}
 	
+	/** 
+	 * Pauses the audio and stops the control streamer and watcher, if any. The audio is paused 
+	 * rather than stopped, so reset() can rewind it without preparing it again 
+	 */
+	private void stop()
+	{
+		_player.pause();
+		
+		if (_streamer != null)
+			_streamer.cancel();
+		if (_watcher != null)
+			_watcher.cancel();
+	}
+	
+	/** Adds the controls the streamer has created since the last frame and drops controls that are done with */
+	private void updateStream(float t)
+	{
+		_streamer.setTime(t);
+		
+		if (_streamer.drain(_streamed) > 0)
+		{
+			for (int i = 0; i < _streamed.size(); ++i)
+				add(_streamed.get(i));
+			_streamed.clear();
+		}
+		
+		if (_nextControl >= STREAM_COMPACT_THRESHOLD)
+		{
+			_controls.subList(0, _nextControl).clear();
+			_nextControl = 0;
+		}
+	}
+	
 	/** Ends playback prematurely (e.g. due to a game over/loss condition) */
 	public void end() {}
 	
+	/**
+	 * Rewinds the beatmap after it has been played or failed, so begin() can play it again without 
+	 * loading it again. The controls, textures, text cache and prepared audio are kept
+	 * @throws IOException If the beatmap is streamed and its file can't be opened again
+	 */
+	public void reset() throws IOException
+	{
+		synchronized (_onDeck)
+		{
+			_onDeck.clear();
+		}
+		_nextControl = 0;
+		_notMissed.clear();
+		
+		if (_streamer != null)
+		{
+			// The controls already played were dropped, so they're created again
+			_streamer = _streamer.restart();
+			_controls.clear();
+			_misses.clear();
+			_totalObjects = 0;
+			_firstControlTime = Float.MAX_VALUE;
+			_begun = false;
+			
+			_streamer.fill(0.f);
+			_streamer.drain(_streamed);
+			for (int i = 0; i < _streamed.size(); ++i)
+				add(_streamed.get(i));
+			_streamed.clear();
+		}
+		else
+		{
+			for (int i = 0; i < _controls.size(); ++i)
+				_controls.get(i).reset();
+		}
+		
+		_health = 1.f;
+		_healthDrainEnabled = true;
+		_score = 0;
+		_scoreDirty = true;
+		_dt = 0.f;
+		_numHit = 0;
+		_player.seekTo(0);
+	}
+	
+	/** Frees the audio player and stops the background threads, once the beatmap won't be played again */
+	public void release()
+	{
+		stop();
+		_player.release();
+	}
+	
 	/** Does per-frame updating needed by this player */
 	public void update(Kernel kernel, float t, float dt)
 	{
 		t = _player.getCurrentPosition() / 1000.f - GRACE_PERIOD;
 		_dt = dt;
 		
+		if (_streamer != null)
+			updateStream(t);
+		if (_watcher != null)
+			_watcher.apply(this);
+		
 		// Manage health
 		if (t < _firstControlTime)
 		{
@@ -425,8 +615,8 @@ public class BeatmapPlayer implements ButtonCallback, SliderCallback, SpinnerCal
 			
 			if (_health <= 0.f)	// game over, man! game over!
 			{
-				_player.stop();
-				kernel.swapScreen(new ScoreScreen(0, 0, true));	// encapsulation? what's that?
+				stop();
+				kernel.swapScreen(new ScoreScreen(0, 0, true, this));	// encapsulation? what's that?
 				return;
 			}
 		}
@@ -446,6 +636,13 @@ public class BeatmapPlayer implements ButtonCallback, SliderCallback, SpinnerCal
 					_health -= HP_MISS;
 					if (_health < 0.f) _health = 0.f;
 				}
+				
+				// Streamed beatmaps can be arbitrarily long, so forget controls once they're gone
+				if (_streamer != null)
+				{
+					_misses.remove(c);
+					_notMissed.remove(c);
+				}
 			}
 		}
 		
@@ -481,10 +678,11 @@ public class BeatmapPlayer implements ButtonCallback, SliderCallback, SpinnerCal
 		
 		// Done?
 		if (!_player.isPlaying() || 
-			(_player.getDuration() - _player.getCurrentPosition() > MUSIC_END_TIME * 1000.f && _onDeck.isEmpty() && _nextControl == _controls.size()))
+			(_player.getDuration() - _player.getCurrentPosition() > MUSIC_END_TIME * 1000.f && _onDeck.isEmpty() && _nextControl == _controls.size() &&
+			 (_streamer == null || _streamer.isFinished())))
 		{
-			_player.stop();
-			kernel.swapScreen(new ScoreScreen(_numHit, _totalObjects, false));
+			stop();
+			kernel.swapScreen(new ScoreScreen(_numHit, _totalObjects, false, this));
 			return;
 		}
 	}
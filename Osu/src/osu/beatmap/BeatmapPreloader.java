@@ -0,0 +1,148 @@
+package osu.beatmap;
+
+import java.util.ArrayList;
+
+import osu.graphics.UploadQueue;
+
+import dkilian.andy.Kernel;
+
+/**
+ * Speculatively loads the beatmaps the player is likely to play, so a load screen can take over
+ * a loader that is already partway done (or finished) instead of starting from scratch.
+ * 
+ * The song select screen calls focus() once its selection has settled. Only the focused beatmap
+ * is ever loading; a few finished candidates are kept in case the player scrolls back to them.
+ * Loaders that are dropped are cancelled, and their textures and audio players are freed from
+ * doGLTasks() once their threads end.
+ * 
+ * focus(), take() and release() are called from update(), and doGLTasks() from draw().
+ * 
+ * @author dkilian
+ */
+public class BeatmapPreloader
+{
+	/** The most candidates kept at once, counting the focused one */
+	public static final int MAX_CANDIDATES = 2;
+	/** The priority of a speculative loading thread, so it doesn't slow down scrolling */
+	public static final int PRELOAD_PRIORITY = Thread.MIN_PRIORITY;
+	/** The time a speculative load may spend uploading textures per frame, in nanoseconds, so scrolling stays smooth */
+	public static final long PRELOAD_UPLOAD_BUDGET = 1000 * 1000;
+	
+	/** The kernel loaders load assets from */
+	private Kernel _kernel;
+	/** Loaders of the candidates, most recently focused first */
+	private ArrayList<BeatmapLoader> _candidates;
+	/** Loaders that were dropped, waiting for their threads to end so they can be freed */
+	private ArrayList<BeatmapLoader> _released;
+	/** Whether or not the beatmaps loaded apply edits to their files while they're played */
+	private boolean _watch;
+	
+	/** Creates a preloader with no candidates */
+	public BeatmapPreloader(Kernel kernel)
+	{
+		this(kernel, false);
+	}
+	
+	/**
+	 * Creates a preloader with no candidates
+	 * @param watch Whether or not the beatmaps loaded apply edits to their files while they're played (see BeatmapWatcher)
+	 */
+	public BeatmapPreloader(Kernel kernel, boolean watch)
+	{
+		_kernel = kernel;
+		_watch = watch;
+		_candidates = new ArrayList<BeatmapLoader>();
+		_released = new ArrayList<BeatmapLoader>();
+	}
+	
+	/**
+	 * Makes a beatmap the focused candidate, and starts loading it if it isn't a candidate already.
+	 * Other candidates that are still loading are cancelled, and the least recently focused ones
+	 * past MAX_CANDIDATES are dropped
+	 * @param path The path to the beatmap's .osu file, or null to only cancel candidates still loading
+	 */
+	public synchronized void focus(String path)
+	{
+		BeatmapLoader focused = null;
+		for (int i = _candidates.size() - 1; i >= 0; --i)
+		{
+			BeatmapLoader loader = _candidates.get(i);
+			if (path != null && path.equals(loader.getPath()))
+				focused = _candidates.remove(i);
+			else if (loader.isLoading())
+				drop(i);
+		}
+		
+		if (path == null)
+			return;
+		
+		if (focused == null)
+		{
+			focused = new BeatmapLoader(_kernel, path, _watch);
+			focused.setUploadBudget(PRELOAD_UPLOAD_BUDGET);
+			focused.begin(PRELOAD_PRIORITY);
+		}
+		_candidates.add(0, focused);
+		
+		while (_candidates.size() > MAX_CANDIDATES)
+			drop(_candidates.size() - 1);
+	}
+	
+	/**
+	 * Hands over the loader of a beatmap, which may still be loading, and drops every other candidate.
+	 * The loader's doGLTasks() must be called from then on, as for a loader that was just begun
+	 * @return The beatmap's loader, or null if it isn't a candidate
+	 */
+	public synchronized BeatmapLoader take(String path)
+	{
+		BeatmapLoader taken = null;
+		for (int i = _candidates.size() - 1; i >= 0; --i)
+		{
+			if (taken == null && _candidates.get(i).getPath().equals(path))
+				taken = _candidates.remove(i);
+			else
+				drop(i);
+		}
+		
+		if (taken != null)
+		{
+			taken.setPriority(Thread.NORM_PRIORITY);
+			taken.setUploadBudget(UploadQueue.DEFAULT_BUDGET);
+		}
+		return taken;
+	}
+	
+	/** Cancels and drops every candidate */
+	public synchronized void release()
+	{
+		for (int i = _candidates.size() - 1; i >= 0; --i)
+			drop(i);
+	}
+	
+	/** Gets whether every dropped loader has been freed */
+	public synchronized boolean isIdle()
+	{
+		return _released.isEmpty();
+	}
+	
+	/** Uploads the candidates' textures and frees dropped loaders whose threads have ended. Call during a draw() call */
+	public synchronized void doGLTasks()
+	{
+		for (int i = 0; i < _candidates.size(); ++i)
+			_candidates.get(i).doGLTasks();
+		
+		for (int i = _released.size() - 1; i >= 0; --i)
+		{
+			if (!_released.get(i).isLoading())
+				_released.remove(i).release();
+		}
+	}
+	
+	/** Cancels a candidate and moves it to the released list */
+	private void drop(int i)
+	{
+		BeatmapLoader loader = _candidates.remove(i);
+		loader.cancel();
+		_released.add(loader);
+	}
+}
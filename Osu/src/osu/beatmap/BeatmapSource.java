@@ -0,0 +1,290 @@
+package osu.beatmap;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Locale;
+
+import android.media.MediaPlayer;
+
+/**
+ * The files of one beatmap set: either a song directory or a .osz archive (see OszArchive),
+ * which are read in place. The library scanner, the parsers and the loader read beatmap files,
+ * backgrounds and audio through a source, so both kinds of set are handled the same way.
+ * 
+ * Files are named relative to the set. A file's path is the set's path, a separator and its
+ * name, so a beatmap in an archive has a path like "/sdcard/osu/beatmaps/123 Song.osz/Song [Hard].osu";
+ * forPath() finds the source of such a path.
+ * 
+ * @author dkilian
+ */
+public abstract class BeatmapSource
+{
+	/** The extension of beatmap files */
+	public static final String BEATMAP_EXTENSION = ".osu";
+	
+	/**
+	 * Gets the source of a beatmap set in the library directory
+	 * @param file A song directory or .osz archive
+	 * @return The set's source, or null if the file is neither
+	 * @throws IOException If the file is an archive that can't be read
+	 */
+	public static BeatmapSource forSet(File file) throws IOException
+	{
+		if (file.isDirectory())
+			return new DirectorySource(file);
+		if (OszArchive.isArchive(file.getName()) && file.isFile())
+			return new ArchiveSource(OszArchive.open(file));
+		return null;
+	}
+	
+	/**
+	 * Gets the source holding the file at the given path: the archive in the path if there is one
+	 * (a file whose name ends with .osz, followed by a separator), or the file's directory
+	 * @throws IOException If the path is in an archive that can't be read
+	 */
+	public static BeatmapSource forPath(String path) throws IOException
+	{
+		String lower = path.toLowerCase(Locale.ENGLISH);
+		String marker = OszArchive.EXTENSION + File.separator;
+		for (int i = lower.indexOf(marker); i >= 0; i = lower.indexOf(marker, i + 1))
+		{
+			File archive = new File(path.substring(0, i + OszArchive.EXTENSION.length()));
+			if (archive.isFile())
+				return new ArchiveSource(OszArchive.open(archive));
+		}
+		
+		File parent = new File(path).getParentFile();
+		return new DirectorySource(parent != null ? parent : new File("."));
+	}
+	
+	/** Gets the path of the set: the directory or the archive file */
+	public abstract String getPath();
+	
+	/** Gets the names of the set's beatmap (.osu) files, in listing order. Files in subdirectories are not listed */
+	public abstract String[] listBeatmaps();
+	
+	/** Gets whether the set has a file with the given name */
+	public abstract boolean exists(String name);
+	
+	/** Gets the size of a file in bytes, or 0 if it doesn't exist */
+	public abstract long length(String name);
+	
+	/** Gets the modification time of a file, or 0 if it doesn't exist */
+	public abstract long lastModified(String name);
+	
+	/**
+	 * Computes the CRC32 of a file's contents. Archives store it, so it isn't computed for them
+	 * @throws IOException If the file can't be read
+	 */
+	public abstract int checksum(String name) throws IOException;
+	
+	/**
+	 * Opens a file for reading. skip() seeks, except in compressed archive entries
+	 * @throws IOException If the file doesn't exist or can't be read
+	 */
+	public abstract InputStream open(String name) throws IOException;
+	
+	/**
+	 * Sets a file as a media player's data source
+	 * @throws IOException If the file doesn't exist or can't be played from where it is
+	 */
+	public abstract void setDataSource(MediaPlayer player, String name) throws IOException;
+	
+	/** Gets the path of a file in the set */
+	public String pathOf(String name)
+	{
+		return getPath() + File.separator + name;
+	}
+	
+	/** Gets the name of the file at the given path in the set (see pathOf()) */
+	public String nameOf(String path)
+	{
+		return path.substring(getPath().length() + 1);
+	}
+	
+	/** Gets whether a file name is that of a beatmap file */
+	protected static boolean isBeatmap(String name)
+	{
+		return name.endsWith(BEATMAP_EXTENSION);
+	}
+	
+	/**
+	 * A song directory
+	 */
+	private static class DirectorySource extends BeatmapSource
+	{
+		/** The directory */
+		private File _dir;
+		/** The directory's absolute path */
+		private String _path;
+		
+		/** Creates the source of a directory */
+		public DirectorySource(File dir)
+		{
+			_dir = dir;
+			_path = dir.getAbsolutePath();
+		}
+		
+		@Override
+		public String getPath()
+		{
+			return _path;
+		}
+		
+		@Override
+		public String[] listBeatmaps()
+		{
+			String[] names = _dir.list();
+			if (names == null)
+				return new String[0];
+			
+			ArrayList<String> beatmaps = new ArrayList<String>();
+			for (int i = 0; i < names.length; ++i)
+			{
+				if (!isBeatmap(names[i]))
+					continue;
+				File f = new File(_dir, names[i]);
+				if (f.isFile() && f.canRead()) // Only get readable files
+					beatmaps.add(names[i]);
+			}
+			return beatmaps.toArray(new String[beatmaps.size()]);
+		}
+		
+		@Override
+		public boolean exists(String name)
+		{
+			return new File(_dir, name).exists();
+		}
+		
+		@Override
+		public long length(String name)
+		{
+			return new File(_dir, name).length();
+		}
+		
+		@Override
+		public long lastModified(String name)
+		{
+			return new File(_dir, name).lastModified();
+		}
+		
+		@Override
+		public int checksum(String name) throws IOException
+		{
+			return BeatmapCache.checksum(new File(_dir, name));
+		}
+		
+		@Override
+		public InputStream open(String name) throws IOException
+		{
+			return new FileInputStream(new File(_dir, name));
+		}
+		
+		@Override
+		public void setDataSource(MediaPlayer player, String name) throws IOException
+		{
+			player.setDataSource(pathOf(name));
+		}
+	}
+	
+	/**
+	 * A .osz archive
+	 */
+	private static class ArchiveSource extends BeatmapSource
+	{
+		/** The archive */
+		private OszArchive _archive;
+		/** The archive's absolute path */
+		private String _path;
+		
+		/** Creates the source of an archive */
+		public ArchiveSource(OszArchive archive)
+		{
+			_archive = archive;
+			_path = archive.getFile().getAbsolutePath();
+		}
+		
+		@Override
+		public String getPath()
+		{
+			return _path;
+		}
+		
+		@Override
+		public String[] listBeatmaps()
+		{
+			ArrayList<OszArchive.Entry> entries = _archive.getEntries();
+			ArrayList<String> beatmaps = new ArrayList<String>();
+			for (int i = 0; i < entries.size(); ++i)
+			{
+				String name = entries.get(i).getName();
+				if (isBeatmap(name) && name.indexOf('/') < 0)
+					beatmaps.add(name);
+			}
+			return beatmaps.toArray(new String[beatmaps.size()]);
+		}
+		
+		@Override
+		public boolean exists(String name)
+		{
+			return _archive.getEntry(name) != null;
+		}
+		
+		@Override
+		public long length(String name)
+		{
+			OszArchive.Entry e = _archive.getEntry(name);
+			return e == null ? 0 : e.getSize();
+		}
+		
+		@Override
+		public long lastModified(String name)
+		{
+			OszArchive.Entry e = _archive.getEntry(name);
+			return e == null ? 0 : e.getTime();
+		}
+		
+		@Override
+		public int checksum(String name) throws IOException
+		{
+			return entry(name).getCrc();
+		}
+		
+		@Override
+		public InputStream open(String name) throws IOException
+		{
+			return _archive.open(entry(name));
+		}
+		
+		@Override
+		public void setDataSource(MediaPlayer player, String name) throws IOException
+		{
+			// The player can only read a range of a file, so the audio has to be stored uncompressed
+			OszArchive.Entry e = entry(name);
+			if (e.getMethod() != OszArchive.STORED)
+				throw new IOException("Compressed audio can't be played from " + _path + ": " + name);
+			
+			FileInputStream in = new FileInputStream(_archive.getFile());
+			try
+			{
+				player.setDataSource(in.getFD(), _archive.getDataOffset(e), e.getSize());
+			}
+			finally
+			{
+				in.close(); // The player keeps its own copy of the descriptor
+			}
+		}
+		
+		/** Gets an entry, which must exist */
+		private OszArchive.Entry entry(String name) throws IOException
+		{
+			OszArchive.Entry e = _archive.getEntry(name);
+			if (e == null)
+				throw new IOException("No " + name + " in " + _path);
+			return e;
+		}
+	}
+}
@@ -0,0 +1,288 @@
+package osu.beatmap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.util.Log;
+
+import osu.controls.Control;
+import osu.controls.Slider;
+import osu.game.HitObjectStore;
+import osu.parser.IncrementalParser;
+import osu.parser.ParseException;
+
+/**
+ * Watches the file of the beatmap being played for edits and patches the player's controls
+ * without reloading the beatmap, for quick turnaround while mapping.<br><br>
+ * 
+ * Only the hit object lines that changed are parsed again (see IncrementalParser). Their
+ * controls are replaced, along with the controls after them whose combo color or number
+ * changed as a result, and sliders after a changed timing point. The replacement controls are
+ * created on the watcher's thread and handed to the player, which swaps them in on its next
+ * update(). Textures and audio are reused. Edits to other sections are not applied.
+ * 
+ * @author dkilian
+ */
+public class BeatmapWatcher implements Runnable
+{
+	/** How often the beatmap file is checked for changes, in milliseconds */
+	public static final long POLL_INTERVAL = 50;
+	
+	/** The state of one hit object line */
+	private static class Line
+	{
+		/** The control created for the line, or null if the line has no (supported) hit object */
+		public Control control;
+		/** The index of the combo color after this line */
+		public int combo;
+		/** The next combo number after this line */
+		public int comboNumber;
+	}
+	
+	/** The controls to swap out and in, for one edit */
+	private static class Patch
+	{
+		/** The controls to remove from the player */
+		public ArrayList<Control> removed = new ArrayList<Control>();
+		/** The controls to add to the player */
+		public ArrayList<Control> added = new ArrayList<Control>();
+		/** When the edit was noticed, for measuring the turnaround */
+		public long noticed;
+	}
+	
+	/** The beatmap being played */
+	private Beatmap _beatmap;
+	/** Reads the beatmap file and tells what changed */
+	private IncrementalParser _parser;
+	/** Creates controls for the changed hit objects */
+	private ControlFactory _factory;
+	/** The state of each hit object line of the last version read */
+	private ArrayList<Line> _lines;
+	/** Receives single hit objects while creating controls. Reused */
+	private HitObjectStore _scratch;
+	/** Patches waiting for the player. Guarded by itself */
+	private ArrayList<Patch> _patches;
+	/** Whether or not the background thread should stop */
+	private volatile boolean _cancelled;
+	/** Whether or not the background thread is running. Guarded by this */
+	private boolean _running;
+	
+	/**
+	 * Creates a new beatmap watcher
+	 * @param path The path to the beatmap file
+	 * @param beatmap The beatmap, as loaded from the file
+	 * @param factory Creates controls. Owned by this watcher from now on
+	 */
+	public BeatmapWatcher(String path, Beatmap beatmap, ControlFactory factory)
+	{
+		_beatmap = beatmap;
+		_parser = new IncrementalParser(path);
+		_factory = factory;
+		_lines = new ArrayList<Line>();
+		_scratch = new HitObjectStore(1);
+		_patches = new ArrayList<Patch>();
+		_cancelled = false;
+		_running = false;
+	}
+	
+	/**
+	 * Reads the beatmap file and creates the controls for all of its hit objects. Call once,
+	 * before start(), in place of creating the controls with the factory directly
+	 * @param out Receives the controls, in the order of the hit objects
+	 */
+	public void createAll(List<Control> out) throws IOException, ParseException
+	{
+		_parser.update();
+		
+		Patch patch = new Patch();
+		for (int i = 0; i < _parser.getHitObjectLineCount(); ++i)
+		{
+			Line line = new Line();
+			_lines.add(line);
+			recreate(i, patch);
+		}
+		
+		out.addAll(patch.added);
+	}
+	
+	/** Starts watching the beatmap file on a background thread, or resumes watching after cancel() */
+	public synchronized void start()
+	{
+		_cancelled = false;
+		if (!_running) // Otherwise the thread hasn't noticed the cancellation yet, and carries on
+		{
+			_running = true;
+			new Thread(this).start();
+		}
+	}
+	
+	/** Stops watching the beatmap file. The thread may not immediately end. */
+	public void cancel()
+	{
+		_cancelled = true;
+	}
+	
+	/**
+	 * Swaps in the controls for any edits made since the last call. Called by the player's update()
+	 * @param player The player to patch
+	 */
+	public void apply(BeatmapPlayer player)
+	{
+		synchronized (_patches)
+		{
+			for (int i = 0; i < _patches.size(); ++i)
+			{
+				Patch patch = _patches.get(i);
+				for (int j = 0; j < patch.removed.size(); ++j)
+					player.remove(patch.removed.get(j));
+				for (int j = 0; j < patch.added.size(); ++j)
+					player.add(patch.added.get(j));
+				
+				Log.v("BeatmapWatcher", "Replaced " + patch.removed.size() + " controls with " + patch.added.size() + ", " +
+				                        (System.nanoTime() - patch.noticed) / 1000000 + "ms after the edit was noticed");
+			}
+			_patches.clear();
+		}
+	}
+	
+	/** Entry point of the background thread */
+	@Override
+	public void run()
+	{
+		while (keepRunning())
+		{
+			if (_parser.isModified())
+			{
+				try
+				{
+					Patch patch = reparse();
+					if (patch != null)
+					{
+						synchronized (_patches)
+						{
+							_patches.add(patch);
+						}
+					}
+				}
+				catch (Exception ex)
+				{
+					Log.e("BeatmapWatcher", "Can't apply the edit to " + _parser.getPath() + ": " + ex.toString(), ex);
+				}
+			}
+			
+			try
+			{
+				Thread.sleep(POLL_INTERVAL);
+			}
+			catch (InterruptedException ex)
+			{
+				_cancelled = true;
+			}
+		}
+	}
+	
+	/** Checks whether the background thread should carry on, and marks it stopped if not */
+	private synchronized boolean keepRunning()
+	{
+		if (_cancelled)
+			_running = false;
+		return _running;
+	}
+	
+	/**
+	 * Reads the changed beatmap file and works out which controls to replace
+	 * @return The controls to replace, or null if nothing that can be applied changed
+	 */
+	private Patch reparse() throws IOException, ParseException
+	{
+		long noticed = System.nanoTime();
+		IncrementalParser.Change change = _parser.update();
+		if (change == null)
+			return null;
+		
+		if (change.header_changed)
+			Log.w("BeatmapWatcher", "Only changes to [HitObjects] and [TimingPoints] are applied while playing; reload the beatmap to see the rest");
+		
+		Patch patch = new Patch();
+		patch.noticed = noticed;
+		
+		// Swap the changed lines' state, then re-create their controls and any controls after
+		// them whose combo color or number changes as a result
+		int start = change.hit_object_start;
+		int recreated = start;
+		if (change.hitObjectsChanged())
+		{
+			List<Line> old = _lines.subList(start, start + change.hit_objects_removed);
+			for (int i = 0; i < old.size(); ++i)
+				if (old.get(i).control != null)
+					patch.removed.add(old.get(i).control);
+			old.clear();
+			
+			for (int i = 0; i < change.hit_objects_added; ++i)
+				_lines.add(start + i, new Line());
+			
+			while (recreated < _lines.size())
+			{
+				if (!recreate(recreated, patch) && recreated >= start + change.hit_objects_added)
+					break;
+				++recreated;
+			}
+		}
+		
+		// Sliders get their speed from the timing points, so re-create the ones after the change
+		if (change.timing_points != null)
+		{
+			_beatmap.setTimingPoints(change.timing_points);
+			_factory.resetTiming();
+			
+			for (int i = 0; i < _lines.size(); ++i)
+			{
+				if (i >= start && i < recreated)
+					continue;
+				
+				Line line = _lines.get(i);
+				if (line.control != null && line.control.getClass() == Slider.class &&
+					((Slider)line.control).getEvent().getTiming() >= change.timing_offset)
+					recreate(i, patch);
+			}
+		}
+		
+		if (patch.removed.isEmpty() && patch.added.isEmpty())
+			return null;
+		return patch;
+	}
+	
+	/**
+	 * Re-creates the control for a hit object line from its text and the combo state after the
+	 * line before it, and updates the line's state
+	 * @param i The index of the line
+	 * @param patch Receives the old control (if any) as removed and the new one as added
+	 * @return Whether the combo state after the line changed, i.e. whether the lines after it need re-creating too
+	 */
+	private boolean recreate(int i, Patch patch)
+	{
+		Line line = _lines.get(i);
+		Line previous = i > 0 ? _lines.get(i - 1) : null;
+		_factory.setComboState(previous == null ? 0 : previous.combo, previous == null ? 1 : previous.comboNumber);
+		
+		Control control = null;
+		_scratch.clear();
+		if (_parser.parseHitObject(i, _scratch))
+		{
+			int n = patch.added.size();
+			_factory.create(_scratch, 0, 1, patch.added);
+			if (patch.added.size() > n)
+				control = patch.added.get(n);
+		}
+		
+		if (line.control != null)
+			patch.removed.add(line.control);
+		line.control = control;
+		
+		boolean changed = line.combo != _factory.getCombo() || line.comboNumber != _factory.getComboNumber();
+		line.combo = _factory.getCombo();
+		line.comboNumber = _factory.getComboNumber();
+		return changed;
+	}
+}
@@ -0,0 +1,190 @@
+package osu.beatmap;
+
+import java.util.HashMap;
+import java.util.List;
+
+import android.util.Log;
+
+import osu.controls.Button;
+import osu.controls.Control;
+import osu.controls.Ring;
+import osu.controls.Slider;
+import osu.controls.Spinner;
+import osu.game.ComboColor;
+import osu.game.HOButton;
+import osu.game.HOSlider;
+import osu.game.HOSpinner;
+import osu.game.HitObjectStore;
+import osu.game.TimingIndex;
+import dkilian.andy.PrerenderCache;
+import dkilian.andy.TexturedQuad;
+
+/**
+ * Turns hit objects into controls, using graphics that have already been loaded.
+ * Hit objects must be given in file order, possibly over several calls to create(), since the
+ * combo colors and numbers carry over from one object to the next.
+ * 
+ * @author dkilian
+ */
+public class ControlFactory
+{
+	/** The beatmap the hit objects belong to */
+	private Beatmap _beatmap;
+	/** Finds the timing point in effect for each hit object */
+	private TimingIndex.Cursor _timing;
+	/** Caches pre-rendered combo numbers */
+	private PrerenderCache _textCache;
+	/** Button graphics, by combo color */
+	private HashMap<ComboColor, TexturedQuad> _buttonUps, _buttonDowns;
+	/** Slider graphics, by combo color */
+	private HashMap<ComboColor, TexturedQuad> _sliderCaps, _sliderFills, _sliderNubUps, _sliderNubDowns;
+	/** Approach ring graphics, by combo color */
+	private HashMap<ComboColor, TexturedQuad> _rings;
+	/** The arrow drawn on a slider cap when the slider repeats */
+	private TexturedQuad _sliderReturn;
+	/** Spinner graphics */
+	private TexturedQuad _spinnerSpiral, _spinnerNoFill, _spinnerFill, _spinnerMask, _spinnerText;
+	/** The index of the current combo color */
+	private int _combo;
+	/** The number the next button or slider is labeled with */
+	private int _comboNumber;
+	/** The highest combo number reached so far */
+	private int _highestCombo;
+	
+	/**
+	 * Creates a new control factory
+	 * @param beatmap The beatmap the hit objects belong to
+	 * @param textCache Caches pre-rendered combo numbers
+	 * @param buttonUps Button graphics when not pressed, by combo color
+	 * @param buttonDowns Button graphics when pressed, by combo color
+	 * @param sliderCaps Slider cap graphics, by combo color
+	 * @param sliderFills Slider fill graphics, by combo color
+	 * @param sliderNubUps Slider nub graphics when not pressed, by combo color
+	 * @param sliderNubDowns Slider nub graphics when pressed, by combo color
+	 * @param sliderReturn The arrow drawn on a slider cap when the slider repeats
+	 * @param rings Approach ring graphics, by combo color
+	 * @param spinnerSpiral, spinnerNoFill, spinnerFill, spinnerMask, spinnerText Spinner graphics
+	 */
+	public ControlFactory(Beatmap beatmap, PrerenderCache textCache,
+			              HashMap<ComboColor, TexturedQuad> buttonUps, HashMap<ComboColor, TexturedQuad> buttonDowns,
+			              HashMap<ComboColor, TexturedQuad> sliderCaps, HashMap<ComboColor, TexturedQuad> sliderFills,
+			              HashMap<ComboColor, TexturedQuad> sliderNubUps, HashMap<ComboColor, TexturedQuad> sliderNubDowns,
+			              TexturedQuad sliderReturn, HashMap<ComboColor, TexturedQuad> rings,
+			              TexturedQuad spinnerSpiral, TexturedQuad spinnerNoFill, TexturedQuad spinnerFill, TexturedQuad spinnerMask, TexturedQuad spinnerText)
+	{
+		_beatmap = beatmap;
+		_timing = beatmap.getTimingIndex().cursor();
+		_textCache = textCache;
+		_buttonUps = buttonUps;
+		_buttonDowns = buttonDowns;
+		_sliderCaps = sliderCaps;
+		_sliderFills = sliderFills;
+		_sliderNubUps = sliderNubUps;
+		_sliderNubDowns = sliderNubDowns;
+		_sliderReturn = sliderReturn;
+		_rings = rings;
+		_spinnerSpiral = spinnerSpiral;
+		_spinnerNoFill = spinnerNoFill;
+		_spinnerFill = spinnerFill;
+		_spinnerMask = spinnerMask;
+		_spinnerText = spinnerText;
+		_combo = 0;
+		_comboNumber = 1;
+		_highestCombo = 0;
+	}
+	
+	/** Gets the highest combo number any control created so far receives */
+	public int getHighestCombo()
+	{
+		return _highestCombo;
+	}
+	
+	/** Gets the index of the combo color the last control created was given */
+	public int getCombo()
+	{
+		return _combo;
+	}
+	
+	/** Gets the number the next button or slider is labeled with, unless it starts a new combo */
+	public int getComboNumber()
+	{
+		return _comboNumber;
+	}
+	
+	/**
+	 * Sets the combo state, e.g. to the state after some earlier hit object in order to re-create
+	 * the controls after it
+	 * @param combo The index of the current combo color
+	 * @param comboNumber The number the next button or slider is labeled with, unless it starts a new combo
+	 */
+	public void setComboState(int combo, int comboNumber)
+	{
+		_combo = combo;
+		_comboNumber = comboNumber;
+	}
+	
+	/** Picks up changes to the beatmap's timing points */
+	public void resetTiming()
+	{
+		_timing = _beatmap.getTimingIndex().cursor();
+	}
+	
+	/**
+	 * Creates the controls for a range of hit objects
+	 * @param objects The hit objects
+	 * @param start The index of the first hit object to create a control for
+	 * @param end One past the index of the last hit object to create a control for
+	 * @param out Receives the controls, in the order of the hit objects
+	 */
+	public void create(HitObjectStore objects, int start, int end, List<Control> out)
+	{
+		for (int i = start; i < end; ++i)
+		{
+			if (_highestCombo < _comboNumber)
+				_highestCombo = _comboNumber;
+			
+			if (objects.getNewCombo(i))
+			{
+				_combo = (_combo + 1) % _beatmap.getComboColors().size();
+				_comboNumber = 1;
+			}
+			
+			ComboColor color = _beatmap.getComboColors().get(_combo);
+			
+			_timing.seek(objects.getTiming(i));
+			
+			// What happens when an object's start time happens to be negative?
+			switch (objects.getType(i))
+			{
+			case HitObjectStore.BUTTON:
+			{
+				HOButton event = (HOButton)objects.get(i);
+				Button b = new Button(event, _buttonUps.get(color), _buttonDowns.get(color), null, _textCache, Integer.toString(_comboNumber++));
+				b.setApproachRing(new Ring(_rings.get(color)));
+				out.add(b);
+				break;
+			}
+			case HitObjectStore.SLIDER:
+			{
+				HOSlider event = (HOSlider)objects.get(i);
+				Slider s = new Slider(event, _timing.getSliderBeatLength(), _beatmap.getSliderMultiplier(), event.getPathLength(), _sliderCaps.get(color),
+						              _sliderFills.get(color), _sliderNubUps.get(color), _sliderNubDowns.get(color), _sliderReturn, null,
+						              _textCache, Integer.toString(_comboNumber++));
+				s.setApproachRing(new Ring(_rings.get(color)));
+				out.add(s);
+				break;
+			}
+			case HitObjectStore.SPINNER:
+			{
+				HOSpinner event = (HOSpinner)objects.get(i);
+				Spinner s = new Spinner(event, _spinnerSpiral, _spinnerNoFill, _spinnerFill, _spinnerMask, _spinnerText, null);
+				s.setApproachRing(new Ring(_rings.get(color)));
+				out.add(s);
+				break;
+			}
+			default:
+				Log.w("ControlFactory", "Unrecognized hitobject type: " + objects.getType(i));
+			}
+		}
+	}
+}
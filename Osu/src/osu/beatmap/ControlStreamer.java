@@ -0,0 +1,246 @@
+package osu.beatmap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.util.Log;
+
+import osu.controls.Control;
+import osu.game.HitObjectStore;
+import osu.parser.HitObjectReader;
+
+/**
+ * Creates a beatmap's controls a few seconds ahead of playback on a background thread,
+ * instead of creating every control before the beatmap starts. Hit objects are read from
+ * the file a chunk at a time, so only a bounded window of hit objects and controls is in
+ * memory at once. Used for beatmaps that are too long to load up front.
+ * 
+ * @author dkilian
+ */
+public class ControlStreamer implements Runnable
+{
+	/** How far ahead of the playback position controls are created, in seconds */
+	public static final float LOOKAHEAD = 5.f;
+	/** The number of hit objects read from the file at a time */
+	public static final int CHUNK_SIZE = 32;
+	
+	/** Reads hit objects from the beatmap file */
+	private HitObjectReader _reader;
+	/** The path of the beatmap file and the byte offset of its hit objects, or null if the reader was given */
+	private String _path;
+	/** The byte offset _reader started at, if _path isn't null */
+	private long _offset;
+	/** Turns hit objects into controls */
+	private ControlFactory _factory;
+	/** Receives each chunk of hit objects. Reused between chunks */
+	private HitObjectStore _chunk;
+	/** Controls that have been created but not yet drained by the player. Guarded by itself */
+	private ArrayList<Control> _ready;
+	/** The timing of the last hit object read, in seconds */
+	private volatile float _lastTiming;
+	/** The latest playback position reported by the player, in seconds */
+	private volatile float _time;
+	/** Whether or not the last hit object has been read and its control moved to _ready. Guarded by _ready */
+	private boolean _exhausted;
+	/** Whether or not the background thread should stop */
+	private volatile boolean _cancelled;
+	/** Whether or not the background thread has been started */
+	private boolean _started;
+	/** The background thread waits on this until more controls are needed */
+	private Object _signal;
+	
+	/**
+	 * Creates a new control streamer
+	 * @param reader Reads the beatmap's hit objects, starting with the first one
+	 * @param factory Creates controls for the hit objects read
+	 */
+	public ControlStreamer(HitObjectReader reader, ControlFactory factory)
+	{
+		_reader = reader;
+		_factory = factory;
+		_chunk = new HitObjectStore(CHUNK_SIZE);
+		_ready = new ArrayList<Control>();
+		_lastTiming = Float.NEGATIVE_INFINITY;
+		_time = 0.f;
+		_exhausted = false;
+		_cancelled = false;
+		_started = false;
+		_signal = new Object();
+	}
+	
+	/**
+	 * Creates a new control streamer that can be restarted (see restart())
+	 * @param path The path to the beatmap file
+	 * @param byteOffset The byte offset of the beatmap's first hit object (see BufferParser.getHitObjectsByteOffset())
+	 * @param factory Creates controls for the hit objects read
+	 * @throws IOException If the file can't be opened
+	 */
+	public ControlStreamer(String path, long byteOffset, ControlFactory factory) throws IOException
+	{
+		this(new HitObjectReader(path, byteOffset), factory);
+		_path = path;
+		_offset = byteOffset;
+	}
+	
+	/**
+	 * Cancels this streamer and creates one that starts again from the first hit object, so the
+	 * beatmap can be played again. The factory is shared, and its combo state is rewound
+	 * @throws IOException If this streamer wasn't created from a path, or the file can't be opened again
+	 */
+	public ControlStreamer restart() throws IOException
+	{
+		if (_path == null)
+			throw new IOException("Can't restart a streamer that was given its reader");
+		
+		cancel();
+		synchronized (this) // Waits out a fill() in progress, which uses the factory
+		{
+			_factory.setComboState(0, 1);
+			_factory.resetTiming();
+		}
+		return new ControlStreamer(_path, _offset, _factory);
+	}
+	
+	/**
+	 * Reads hit objects and creates their controls until the controls reach LOOKAHEAD seconds
+	 * past the given time, or until the file has been read completely
+	 * @param t The playback position, in seconds
+	 */
+	public synchronized void fill(float t)
+	{
+		try
+		{
+			while (!_cancelled && !_reader.isFinished() && _lastTiming < t + LOOKAHEAD)
+			{
+				_chunk.clear();
+				_reader.read(_chunk, CHUNK_SIZE);
+				
+				ArrayList<Control> controls = new ArrayList<Control>(_chunk.size());
+				if (_chunk.size() > 0)
+				{
+					_lastTiming = _chunk.getTiming(_chunk.size() - 1) / 1000.f;
+					_factory.create(_chunk, 0, _chunk.size(), controls);
+				}
+				
+				synchronized (_ready)
+				{
+					_ready.addAll(controls);
+					_exhausted = _reader.isFinished();
+				}
+			}
+		}
+		catch (IOException ex)
+		{
+			Log.e("ControlStreamer", "Can't read hit objects: " + ex.toString(), ex);
+			close();
+			synchronized (_ready)
+			{
+				_exhausted = true;
+			}
+		}
+	}
+	
+	/** Starts creating controls on a background thread */
+	public synchronized void start()
+	{
+		if (_started || _cancelled)
+			return;
+		
+		_started = true;
+		new Thread(this).start();
+	}
+	
+	/** Stops the background thread, which closes the beatmap file. The thread may not immediately end. */
+	public void cancel()
+	{
+		_cancelled = true;
+		synchronized (_signal)
+		{
+			_signal.notifyAll();
+		}
+		
+		synchronized (this)
+		{
+			if (!_started)
+				close();
+		}
+	}
+	
+	/** Tells the background thread the current playback position, in seconds */
+	public void setTime(float t)
+	{
+		_time = t;
+		if (t + LOOKAHEAD > _lastTiming)
+		{
+			synchronized (_signal)
+			{
+				_signal.notifyAll();
+			}
+		}
+	}
+	
+	/**
+	 * Moves every control created since the last call into the given list
+	 * @return The number of controls moved
+	 */
+	public int drain(List<Control> out)
+	{
+		synchronized (_ready)
+		{
+			int n = _ready.size();
+			out.addAll(_ready);
+			_ready.clear();
+			return n;
+		}
+	}
+	
+	/** Gets a value indicating whether every control has been created and drained */
+	public boolean isFinished()
+	{
+		synchronized (_ready)
+		{
+			return _exhausted && _ready.isEmpty();
+		}
+	}
+	
+	/** Entry point of the background thread */
+	@Override
+	public void run()
+	{
+		try
+		{
+			while (!_cancelled && !_reader.isFinished())
+			{
+				fill(_time);
+				
+				synchronized (_signal)
+				{
+					if (!_cancelled && _lastTiming >= _time + LOOKAHEAD)
+						_signal.wait(250);
+				}
+			}
+		}
+		catch (InterruptedException ex)
+		{
+			// Nobody interrupts this thread; treat it like a cancellation
+		}
+		finally
+		{
+			close();
+		}
+	}
+	
+	/** Closes the beatmap file */
+	private void close()
+	{
+		try
+		{
+			_reader.close();
+		}
+		catch (IOException ex)
+		{
+			Log.e("ControlStreamer", "Can't close beatmap: " + ex.toString());
+		}
+	}
+}
@@ -0,0 +1,538 @@
+package osu.beatmap;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads the files of a .osz beatmap set (a zip archive) in place, without extracting it.
+ * 
+ * The archive's central directory is read once, when the archive is opened, and the offset,
+ * sizes and CRC32 of every entry are kept. Opening an entry then only needs to read its local
+ * header (once) and seek to its data. Stored entries are read straight from the archive, with
+ * skip() seeking; deflated entries are inflated as they are read. Each stream opens the archive
+ * file on its own, so entries can be read on several threads at once.
+ * 
+ * open() keeps the directories of the most recently used archives, so that listing, scanning
+ * and loading the same set doesn't read the central directory again. A cached directory is
+ * dropped once the archive's size or modification time changes.
+ * 
+ * ZIP64 and encrypted archives are not supported.
+ * 
+ * @author dkilian
+ */
+public class OszArchive
+{
+	/** The extension of beatmap set archives */
+	public static final String EXTENSION = ".osz";
+	/** The most archive directories kept by open() */
+	public static final int MAX_CACHED = 16;
+	
+	/** Signature of the end of central directory record */
+	private static final int END_SIGNATURE = 0x06054b50;
+	/** Signature of a central directory file header */
+	private static final int CENTRAL_SIGNATURE = 0x02014b50;
+	/** Signature of a local file header */
+	private static final int LOCAL_SIGNATURE = 0x04034b50;
+	/** The size of the end of central directory record, without its comment */
+	private static final int END_SIZE = 22;
+	/** The size of a central directory file header, without its name, extra field and comment */
+	private static final int CENTRAL_SIZE = 46;
+	/** The size of a local file header, without its name and extra field */
+	private static final int LOCAL_SIZE = 30;
+	/** The compression method of entries stored as they are */
+	public static final int STORED = 0;
+	/** The compression method of deflated entries */
+	public static final int DEFLATED = 8;
+	/** The size of the buffers entries are read through */
+	private static final int BUFFER_SIZE = 8 * 1024;
+	
+	/**
+	 * One file in an archive
+	 */
+	public static class Entry
+	{
+		/** The entry's name: its path in the archive, with '/' separators */
+		private String _name;
+		/** The compression method, STORED or DEFLATED */
+		private int _method;
+		/** The CRC32 of the uncompressed data */
+		private int _crc;
+		/** The size of the data in the archive */
+		private long _compressedSize;
+		/** The size of the uncompressed data */
+		private long _size;
+		/** The modification time, in milliseconds since the epoch */
+		private long _time;
+		/** The offset of the entry's local header in the archive */
+		private long _headerOffset;
+		/** The offset of the entry's data in the archive, or -1 until the local header has been read */
+		private long _dataOffset;
+		
+		/** Gets the entry's path in the archive, with '/' separators */
+		public String getName()
+		{
+			return _name;
+		}
+		
+		/** Gets the compression method, STORED or DEFLATED */
+		public int getMethod()
+		{
+			return _method;
+		}
+		
+		/** Gets the CRC32 of the uncompressed data */
+		public int getCrc()
+		{
+			return _crc;
+		}
+		
+		/** Gets the size of the uncompressed data */
+		public long getSize()
+		{
+			return _size;
+		}
+		
+		/** Gets the size of the data in the archive */
+		public long getCompressedSize()
+		{
+			return _compressedSize;
+		}
+		
+		/** Gets the modification time, in milliseconds since the epoch (with two second precision) */
+		public long getTime()
+		{
+			return _time;
+		}
+		
+		/** Gets whether this entry is a directory */
+		public boolean isDirectory()
+		{
+			return _name.endsWith("/");
+		}
+	}
+	
+	/** The most recently used archives by path, least recently used first */
+	private static LinkedHashMap<String, OszArchive> _cache = new LinkedHashMap<String, OszArchive>(16, .75f, true)
+	{
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, OszArchive> eldest)
+		{
+			return size() > MAX_CACHED;
+		}
+	};
+	
+	/** The archive file */
+	private File _file;
+	/** The size of the archive file when its directory was read */
+	private long _length;
+	/** The modification time of the archive file when its directory was read */
+	private long _lastModified;
+	/** The entries, in the order of the central directory */
+	private ArrayList<Entry> _entries;
+	/** The entries by name */
+	private HashMap<String, Entry> _byName;
+	/** The entries by lower-cased name, for names that differ from the archive's in case only */
+	private HashMap<String, Entry> _byLowerName;
+	
+	/**
+	 * Gets whether a file name is that of a beatmap set archive
+	 */
+	public static boolean isArchive(String name)
+	{
+		return name.regionMatches(true, name.length() - EXTENSION.length(), EXTENSION, 0, EXTENSION.length());
+	}
+	
+	/**
+	 * Opens an archive, reusing its directory if it was read before and the file hasn't changed
+	 * @param file The archive file
+	 * @return The archive
+	 * @throws IOException If the file can't be read or isn't a zip archive
+	 */
+	public static OszArchive open(File file) throws IOException
+	{
+		String path = file.getAbsolutePath();
+		long length = file.length(), lastModified = file.lastModified();
+		
+		synchronized (_cache)
+		{
+			OszArchive archive = _cache.get(path);
+			if (archive != null && archive._length == length && archive._lastModified == lastModified)
+				return archive;
+		}
+		
+		// Read the directory outside the lock, so one slow archive doesn't hold up the others
+		OszArchive archive = new OszArchive(file, length, lastModified);
+		synchronized (_cache)
+		{
+			_cache.put(path, archive);
+		}
+		return archive;
+	}
+	
+	/**
+	 * Reads the central directory of an archive
+	 * @param file The archive file
+	 * @param length The size of the file
+	 * @param lastModified The modification time of the file
+	 */
+	private OszArchive(File file, long length, long lastModified) throws IOException
+	{
+		_file = file;
+		_length = length;
+		_lastModified = lastModified;
+		_entries = new ArrayList<Entry>();
+		_byName = new HashMap<String, Entry>();
+		_byLowerName = new HashMap<String, Entry>();
+		
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			// The end record is at the very end, unless the archive has a comment (at most 64K)
+			int tail = (int)Math.min(length, END_SIZE + 0xFFFF);
+			byte[] buf = new byte[tail];
+			raf.seek(length - tail);
+			raf.readFully(buf);
+			
+			int end = -1;
+			for (int i = tail - END_SIZE; i >= 0 && end < 0; --i)
+				if (int32(buf, i) == END_SIGNATURE)
+					end = i;
+			if (end < 0)
+				throw new IOException("Not a zip archive: " + file.getPath());
+			
+			int count = int16(buf, end + 10);
+			long dirSize = int32(buf, end + 12) & 0xFFFFFFFFL;
+			long dirOffset = int32(buf, end + 16) & 0xFFFFFFFFL;
+			if (count == 0xFFFF || dirOffset == 0xFFFFFFFFL)
+				throw new IOException("ZIP64 archives are not supported: " + file.getPath());
+			if (dirOffset + dirSize > length)
+				throw new IOException("Truncated zip archive: " + file.getPath());
+			
+			byte[] dir = new byte[(int)dirSize];
+			raf.seek(dirOffset);
+			raf.readFully(dir);
+			readDirectory(dir, count);
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+	
+	/** Parses the central directory's file headers */
+	private void readDirectory(byte[] dir, int count) throws IOException
+	{
+		Calendar cal = Calendar.getInstance();
+		int pos = 0;
+		for (int i = 0; i < count; ++i)
+		{
+			if (pos + CENTRAL_SIZE > dir.length || int32(dir, pos) != CENTRAL_SIGNATURE)
+				throw new IOException("Corrupt zip directory: " + _file.getPath());
+			
+			int flags = int16(dir, pos + 8);
+			int nameLength = int16(dir, pos + 28);
+			int extraLength = int16(dir, pos + 30);
+			int commentLength = int16(dir, pos + 32);
+			if (pos + CENTRAL_SIZE + nameLength > dir.length)
+				throw new IOException("Corrupt zip directory: " + _file.getPath());
+			
+			Entry e = new Entry();
+			e._method = int16(dir, pos + 10);
+			e._time = dosTime(cal, int16(dir, pos + 14), int16(dir, pos + 12));
+			e._crc = int32(dir, pos + 16);
+			e._compressedSize = int32(dir, pos + 20) & 0xFFFFFFFFL;
+			e._size = int32(dir, pos + 24) & 0xFFFFFFFFL;
+			e._headerOffset = int32(dir, pos + 42) & 0xFFFFFFFFL;
+			e._dataOffset = -1;
+			e._name = new String(dir, pos + CENTRAL_SIZE, nameLength, "UTF-8").replace('\\', '/'); // Like java.util.zip.ZipFile
+			pos += CENTRAL_SIZE + nameLength + extraLength + commentLength;
+			
+			if (e._compressedSize == 0xFFFFFFFFL || e._size == 0xFFFFFFFFL || e._headerOffset == 0xFFFFFFFFL)
+				throw new IOException("ZIP64 archives are not supported: " + _file.getPath());
+			if ((flags & 1) != 0 || (e._method != STORED && e._method != DEFLATED)) // Encrypted or unsupported; leave it out
+				continue;
+			
+			_entries.add(e);
+			_byName.put(e._name, e);
+			_byLowerName.put(e._name.toLowerCase(Locale.ENGLISH), e);
+		}
+	}
+	
+	/** Gets the archive file */
+	public File getFile()
+	{
+		return _file;
+	}
+	
+	/** Gets the entries, in the order of the central directory */
+	public ArrayList<Entry> getEntries()
+	{
+		return _entries;
+	}
+	
+	/**
+	 * Gets an entry by name. Names that differ from the entry's in case only, or that use '\\'
+	 * separators, are accepted too, since .osu files name their images and audio that way at times.
+	 * @return The entry, or null if there is none
+	 */
+	public Entry getEntry(String name)
+	{
+		Entry e = _byName.get(name);
+		if (e != null)
+			return e;
+		
+		name = name.replace('\\', '/');
+		e = _byName.get(name);
+		return e != null ? e : _byLowerName.get(name.toLowerCase(Locale.ENGLISH));
+	}
+	
+	/**
+	 * Gets the offset of an entry's data in the archive file, reading its local header the first time
+	 */
+	public long getDataOffset(Entry e) throws IOException
+	{
+		synchronized (e)
+		{
+			if (e._dataOffset >= 0)
+				return e._dataOffset;
+			
+			byte[] header = new byte[LOCAL_SIZE];
+			RandomAccessFile raf = new RandomAccessFile(_file, "r");
+			try
+			{
+				raf.seek(e._headerOffset);
+				raf.readFully(header);
+			}
+			finally
+			{
+				raf.close();
+			}
+			
+			if (int32(header, 0) != LOCAL_SIGNATURE)
+				throw new IOException("Corrupt zip entry " + e._name + " in " + _file.getPath());
+			
+			// The local name and extra field can differ in length from the central directory's
+			e._dataOffset = e._headerOffset + LOCAL_SIZE + int16(header, 26) + int16(header, 28);
+			if (e._dataOffset + e._compressedSize > _length)
+				throw new IOException("Truncated zip entry " + e._name + " in " + _file.getPath());
+			return e._dataOffset;
+		}
+	}
+	
+	/**
+	 * Opens an entry for reading. Stored entries seek on skip(); deflated ones are inflated as they are read.
+	 * @return A stream of the entry's uncompressed data. Close it when done
+	 */
+	public InputStream open(Entry e) throws IOException
+	{
+		EntryStream raw = new EntryStream(_file, getDataOffset(e), e._compressedSize);
+		if (e._method == STORED)
+			return raw;
+		return new EntryInflaterStream(raw, e._size);
+	}
+	
+	/** Reads a little-endian 16 bit value */
+	private static int int16(byte[] b, int i)
+	{
+		return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8;
+	}
+	
+	/** Reads a little-endian 32 bit value */
+	private static int int32(byte[] b, int i)
+	{
+		return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+	}
+	
+	/** Converts an MS-DOS date and time (local time, two second precision) to milliseconds since the epoch */
+	private static long dosTime(Calendar cal, int date, int time)
+	{
+		cal.clear();
+		cal.set(1980 + (date >> 9), ((date >> 5) & 0xF) - 1, date & 0x1F, time >> 11, (time >> 5) & 0x3F, (time & 0x1F) * 2);
+		return cal.getTimeInMillis();
+	}
+	
+	/**
+	 * Reads a range of the archive file through a buffer; skipping seeks
+	 */
+	private static class EntryStream extends InputStream
+	{
+		/** The archive file, or null once closed */
+		private RandomAccessFile _raf;
+		/** The read buffer */
+		private byte[] _buf;
+		/** The valid bytes in the buffer, and the read position in it */
+		private int _len, _pos;
+		/** The bytes of the range not yet read into the buffer */
+		private long _remaining;
+		
+		/**
+		 * Opens a range of a file
+		 * @param file The file
+		 * @param offset The start of the range
+		 * @param length The length of the range
+		 */
+		public EntryStream(File file, long offset, long length) throws IOException
+		{
+			_raf = new RandomAccessFile(file, "r");
+			_raf.seek(offset);
+			_buf = new byte[(int)Math.min(BUFFER_SIZE, Math.max(length, 1))];
+			_len = _pos = 0;
+			_remaining = length;
+		}
+		
+		@Override
+		public int read() throws IOException
+		{
+			if (_pos == _len && !fill())
+				return -1;
+			return _buf[_pos++] & 0xFF;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			if (len == 0)
+				return 0;
+			if (_pos == _len && !fill())
+				return -1;
+			
+			int n = Math.min(len, _len - _pos);
+			System.arraycopy(_buf, _pos, b, off, n);
+			_pos += n;
+			return n;
+		}
+		
+		@Override
+		public long skip(long n) throws IOException
+		{
+			if (n <= 0)
+				return 0;
+			
+			int buffered = _len - _pos;
+			if (n <= buffered)
+			{
+				_pos += (int)n;
+				return n;
+			}
+			
+			long seek = Math.min(n - buffered, _remaining);
+			_raf.seek(_raf.getFilePointer() + seek);
+			_remaining -= seek;
+			_len = _pos = 0;
+			return buffered + seek;
+		}
+		
+		@Override
+		public int available()
+		{
+			return (int)Math.min(Integer.MAX_VALUE, _len - _pos + _remaining);
+		}
+		
+		@Override
+		public void close() throws IOException
+		{
+			if (_raf != null)
+			{
+				_raf.close();
+				_raf = null;
+			}
+		}
+		
+		/** Reads the next part of the range into the buffer */
+		private boolean fill() throws IOException
+		{
+			if (_remaining == 0)
+				return false;
+			
+			int n = _raf.read(_buf, 0, (int)Math.min(_buf.length, _remaining));
+			if (n < 0)
+				throw new EOFException("Unexpected end of zip archive");
+			_remaining -= n;
+			_len = n;
+			_pos = 0;
+			return true;
+		}
+	}
+	
+	/**
+	 * Inflates a deflated entry, like the streams of java.util.zip.ZipFile
+	 */
+	private static class EntryInflaterStream extends InflaterInputStream
+	{
+		/** The uncompressed bytes not yet read */
+		private long _remaining;
+		/** Whether the dummy byte the inflater may need after the data has been given to it */
+		private boolean _eof;
+		/** Whether the stream has been closed */
+		private boolean _closed;
+		
+		/**
+		 * Inflates a deflated range of an archive
+		 * @param in The deflated data
+		 * @param size The size of the uncompressed data
+		 */
+		public EntryInflaterStream(InputStream in, long size)
+		{
+			super(in, new Inflater(true), BUFFER_SIZE);
+			_remaining = size;
+			_eof = false;
+			_closed = false;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			int n = super.read(b, off, len);
+			if (n > 0)
+				_remaining -= n;
+			return n;
+		}
+		
+		@Override
+		public int available() throws IOException
+		{
+			return _closed ? 0 : (int)Math.min(Integer.MAX_VALUE, Math.max(_remaining, 0));
+		}
+		
+		@Override
+		public void close() throws IOException
+		{
+			if (!_closed)
+			{
+				_closed = true;
+				inf.end(); // Not done by InflaterInputStream for an inflater it was given
+				super.close();
+			}
+		}
+		
+		@Override
+		protected void fill() throws IOException
+		{
+			if (_eof)
+				throw new EOFException("Unexpected end of deflated zip entry");
+			
+			len = in.read(buf, 0, buf.length);
+			if (len < 0)
+			{
+				// A raw inflater can need one more byte after the end of the data
+				buf[0] = 0;
+				len = 1;
+				_eof = true;
+			}
+			inf.setInput(buf, 0, len);
+		}
+	}
+}
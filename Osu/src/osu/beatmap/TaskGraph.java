@@ -0,0 +1,293 @@
+package osu.beatmap;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs a fixed set of tasks on a pool of worker threads, each as soon as the tasks it depends on
+ * have finished, so that independent work runs concurrently. Used by BeatmapLoader, whose assets
+ * form a small graph: decoded drawables feed the sprite atlas, which feeds the texture uploads.
+ *
+ * Tasks are added with add() before start(). A task reads its dependencies' results with get(),
+ * which never blocks, since a task only runs once its dependencies are done. If a task throws,
+ * the tasks that haven't started are skipped and await() throws the exception.
+ *
+ * @author dkilian
+ */
+public class TaskGraph
+{
+	/** A task in the graph, and its result once it has run */
+	public static class Node<T>
+	{
+		/** Describes the task, for progress reporting */
+		private String _name;
+		/** The task */
+		private Callable<T> _work;
+		/** The tasks that depend on this one */
+		private ArrayList<Node<?>> _dependents;
+		/** The number of dependencies that haven't finished yet. Guarded by the graph */
+		private int _waitingOn;
+		/** The task's result */
+		private T _result;
+		/** Whether or not the task has finished */
+		private volatile boolean _done;
+
+		/** Creates a task that waits on the given number of dependencies */
+		private Node(String name, Callable<T> work, int dependencies)
+		{
+			_name = name;
+			_work = work;
+			_dependents = new ArrayList<Node<?>>();
+			_waitingOn = dependencies;
+			_done = false;
+		}
+
+		/** Gets the description of this task */
+		public String getName()
+		{
+			return _name;
+		}
+
+		/** Gets whether or not this task has finished */
+		public boolean isDone()
+		{
+			return _done;
+		}
+
+		/**
+		 * Gets this task's result
+		 * @throws IllegalStateException If the task hasn't finished
+		 */
+		public T get()
+		{
+			if (!_done)
+				throw new IllegalStateException(_name + " hasn't finished");
+			return _result;
+		}
+	}
+
+	/** Every task, in the order added */
+	private ArrayList<Node<?>> _nodes;
+	/** The number of worker threads */
+	private int _threads;
+	/** The worker threads' priority */
+	private volatile int _priority;
+	/** The worker threads created so far, so their priority can be changed. Guarded by itself */
+	private ArrayList<Thread> _workers;
+	/** Runs the tasks, once started */
+	private ExecutorService _pool;
+	/** The number of tasks that have finished. Guarded by this */
+	private int _completed;
+	/** The name of the task that finished last, or null. Guarded by this */
+	private String _lastCompleted;
+	/** The first exception a task threw, or null. Guarded by this */
+	private Throwable _failure;
+	/** Whether or not start() has been called. Guarded by this */
+	private boolean _started;
+	/** Whether or not cancel() has been called. Guarded by this */
+	private boolean _cancelled;
+
+	/**
+	 * Creates an empty task graph
+	 * @param threads The number of worker threads to run the tasks on
+	 * @param priority The worker threads' priority
+	 */
+	public TaskGraph(int threads, int priority)
+	{
+		_nodes = new ArrayList<Node<?>>();
+		_threads = Math.max(threads, 1);
+		_priority = priority;
+		_workers = new ArrayList<Thread>();
+		_completed = 0;
+		_lastCompleted = null;
+		_failure = null;
+		_started = false;
+		_cancelled = false;
+	}
+
+	/**
+	 * Adds a task
+	 * @param name Describes the task, for progress reporting
+	 * @param work The task. It may call get() on its dependencies
+	 * @param dependencies The tasks that must finish before this one runs
+	 * @throws IllegalStateException If the graph has been started
+	 */
+	public synchronized <T> Node<T> add(String name, Callable<T> work, Node<?>... dependencies)
+	{
+		if (_started)
+			throw new IllegalStateException("Tasks can't be added once the graph has started");
+
+		Node<T> node = new Node<T>(name, work, dependencies.length);
+		for (int i = 0; i < dependencies.length; ++i)
+			dependencies[i]._dependents.add(node);
+		_nodes.add(node);
+		return node;
+	}
+
+	/** Gets the number of tasks */
+	public synchronized int size()
+	{
+		return _nodes.size();
+	}
+
+	/** Gets the number of tasks that have finished */
+	public synchronized int getCompletedCount()
+	{
+		return _completed;
+	}
+
+	/** Gets the name of the task that finished last, or null if none has */
+	public synchronized String getLastCompleted()
+	{
+		return _lastCompleted;
+	}
+
+	/** Changes the priority of the worker threads */
+	public void setPriority(int priority)
+	{
+		_priority = priority;
+		synchronized (_workers)
+		{
+			for (int i = 0; i < _workers.size(); ++i)
+				_workers.get(i).setPriority(priority);
+		}
+	}
+
+	/** Starts running the tasks that don't depend on any others */
+	public synchronized void start()
+	{
+		if (_started)
+			return;
+		_started = true;
+
+		_pool = Executors.newFixedThreadPool(_threads, new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, "TaskGraph");
+				t.setPriority(_priority);
+				synchronized (_workers)
+				{
+					_workers.add(t);
+				}
+				return t;
+			}
+		});
+
+		for (int i = 0; i < _nodes.size(); ++i)
+			if (_nodes.get(i)._waitingOn == 0)
+				schedule(_nodes.get(i));
+
+		if (_nodes.isEmpty())
+			_pool.shutdown();
+	}
+
+	/**
+	 * Waits for every task to finish
+	 * @param millis The longest time to wait, in milliseconds
+	 * @return Whether or not every task has finished
+	 * @throws ExecutionException If a task threw
+	 * @throws CancellationException If the graph was cancelled
+	 * @throws InterruptedException If the waiting thread is interrupted
+	 */
+	public synchronized boolean await(long millis) throws ExecutionException, InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + millis;
+		while (true)
+		{
+			if (_failure != null)
+				throw new ExecutionException(_failure);
+			if (_cancelled)
+				throw new CancellationException();
+			if (_completed == _nodes.size())
+				return true;
+
+			long left = deadline - System.currentTimeMillis();
+			if (left <= 0)
+				return false;
+			wait(left);
+		}
+	}
+
+	/** Skips the tasks that haven't started and stops the worker threads. Tasks already running finish first */
+	public void cancel()
+	{
+		ExecutorService pool;
+		synchronized (this)
+		{
+			_cancelled = true;
+			pool = _pool;
+			notifyAll();
+		}
+
+		if (pool != null)
+			pool.shutdownNow();
+	}
+
+	/** Gives a task to the pool. Called with the lock held */
+	private void schedule(final Node<?> node)
+	{
+		_pool.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				execute(node);
+			}
+		});
+	}
+
+	/** Runs a task on a worker thread and schedules the tasks that were waiting on it */
+	private <T> void execute(Node<T> node)
+	{
+		synchronized (this)
+		{
+			if (_cancelled || _failure != null)
+				return;
+		}
+
+		try
+		{
+			node._result = node._work.call();
+		}
+		catch (Throwable ex) // Includes running out of memory, which would otherwise leave await() waiting forever
+		{
+			synchronized (this)
+			{
+				if (_failure == null)
+					_failure = ex;
+				notifyAll();
+			}
+			_pool.shutdownNow();
+			return;
+		}
+
+		synchronized (this)
+		{
+			node._done = true;
+			node._work = null; // Let go of whatever the task captured
+			++_completed;
+			_lastCompleted = node._name;
+
+			if (!_cancelled && _failure == null)
+			{
+				for (int i = 0; i < node._dependents.size(); ++i)
+				{
+					Node<?> dependent = node._dependents.get(i);
+					if (--dependent._waitingOn == 0)
+						schedule(dependent);
+				}
+			}
+
+			if (_completed == _nodes.size())
+				_pool.shutdown();
+			notifyAll();
+		}
+	}
+}
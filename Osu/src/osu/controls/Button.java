@@ -81,8 +81,7 @@ public class Button implements Control
 	
 	/**
 	 * Tints and renders a button from its components. All components should have the same pixel dimensions.
-	 * @param button The monochrome fill component to tint (note that this object will be modified in 
-	 * place - reload or copy the original monochrome component to do a different tinting operation)
+	 * @param button The monochrome fill component to tint. Not modified
 	 * @param shadow The drop shadow below the fill component
 	 * @param chrome The chrome above the fill component
 	 * @param color The color to tint the button's fill componenet
@@ -90,14 +89,12 @@ public class Button implements Control
 	 */
 	public static Bitmap render(Bitmap button, Bitmap shadow, Bitmap chrome, int color)
 	{
-		button = BitmapTint.apply(button, color);
-		return render(button, shadow, chrome);
+		return BitmapTint.compose(shadow, button, chrome, color);
 	}
 
 	/**
 	 * Tints and renders a button from its components. All components should have the same pixel dimensions.
-	 * @param button The monochrome fill component to tint (note that this object will be modified in 
-	 * place - reload or copy the original monochrome component to do a different tinting operation)
+	 * @param button The monochrome fill component to tint. Not modified
 	 * @param shadow The drop shadow below the fill component
 	 * @param chrome The chrome above the fill component
 	 * @param color The color to tint the button's fill componenet
@@ -105,8 +102,7 @@ public class Button implements Control
 	 */
 	public static Bitmap render(Bitmap button, Bitmap shadow, Bitmap chrome, ComboColor color)
 	{
-		button = BitmapTint.apply(button, color);
-		return render(button, shadow, chrome);
+		return BitmapTint.compose(shadow, button, chrome, color);
 	}
 	
 	/** Updates the boundaries of this control using its image */
@@ -338,6 +334,15 @@ public class Button implements Control
 		if (_approach != null)
 			_approach.update(kernel, t, dt);
 	}
+	
+	/** Rewinds this button to before it was pressed */
+	@Override
+	public void reset()
+	{
+		_pressed = false;
+		if (_approach != null)
+			_approach.reset();
+	}
 
 	@Override
 	public void draw(Kernel kernel, float t, float dt) 
@@ -65,6 +65,9 @@ public interface Control
 	 * @param dt The amount of time that passed between the previous and current frame, in partial seconds 
 	 */
 	public void update(Kernel kernel, float t, float dt);
+	
+	/** Rewinds any state this control picked up during play, so the beatmap can be played again from the start */
+	public void reset();
 
 	/**
 	 * Renders this control
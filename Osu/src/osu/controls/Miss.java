@@ -143,6 +143,13 @@ public class Miss implements Control
 	/** Performs per-frame actions required by this icon */
 	@Override
 	public void update(Kernel kernel, float t, float dt) {}
+	
+	/** Makes this icon appear again unless it's cancelled */
+	@Override
+	public void reset()
+	{
+		_buttonHit = false;
+	}
 
 	@Override
 	public void draw(Kernel kernel, float t, float dt) 
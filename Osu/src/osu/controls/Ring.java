@@ -72,8 +72,7 @@ public class Ring implements Control
 	 */
 	public static Bitmap render(Bitmap ring, Bitmap shadow, int color)
 	{
-		ring = BitmapTint.apply(ring, color);
-		return render(ring, shadow);
+		return BitmapTint.compose(shadow, ring, null, color);
 	}
 
 	/**
@@ -85,8 +84,7 @@ public class Ring implements Control
 	 */
 	public static Bitmap render(Bitmap ring, Bitmap shadow, ComboColor color)
 	{
-		ring = BitmapTint.apply(ring, color);
-		return render(ring, shadow);
+		return BitmapTint.compose(shadow, ring, null, color);
 	}
 	
 	/**
@@ -337,6 +335,10 @@ public class Ring implements Control
 	/** Does per-frame updating required by this ring */
 	@Override
 	public void update(Kernel kernel, float t, float dt) {}
+	
+	/** Not used, since the control that owns this ring sets it up again */
+	@Override
+	public void reset() {}
 
 	/** Renders this ring */
 	@Override
@@ -3,14 +3,13 @@ package osu.controls;
 import java.util.ArrayList;
 
 import osu.game.HOSlider;
+import osu.graphics.LayeredQuad;
 import osu.math.Bezier;
-import android.graphics.Point;
 import android.graphics.PointF;
 import android.graphics.Rect;
 import dkilian.andy.Kernel;
 import dkilian.andy.PrerenderCache;
 import dkilian.andy.TexturedQuad;
-import dkilian.andy.jni.agl;
 
 /**
  * Handles interaction with a slider, using a slider hit-object
@@ -97,15 +96,10 @@ public class Slider implements Control
 		_textCache = textCache;
 		_text = text;
 
-		_bezier = new float[_event.getPathPoints().size() * 2 + 2];
-		int i = 0;
-		_bezier[i++] = _x;
-		_bezier[i++] = _y;
-		for (Point p : _event.getPathPoints())
-		{
-			_bezier[i++] = p.x;
-			_bezier[i++] = p.y;
-		}
+		_bezier = new float[_event.getPathPointCount() * 2 + 2];
+		_bezier[0] = _x;
+		_bezier[1] = _y;
+		System.arraycopy(_event.getPath(), 0, _bezier, 2, _event.getPathPointCount() * 2);
 		
 		_velocity = 100.f / (beatLength / 1000.f) * sliderMultiplier / length;
 		_bezierUpper = length / Bezier.length(_bezier, .01f);
@@ -150,15 +144,10 @@ public class Slider implements Control
 		_textCache = textCache;
 		_text = text;
 		
-		_bezier = new float[_event.getPathPoints().size() * 2 + 2];
-		int i = 0;
-		_bezier[i++] = _x;
-		_bezier[i++] = _y;
-		for (Point p : _event.getPathPoints())
-		{
-			_bezier[i++] = p.x;
-			_bezier[i++] = p.y;
-		}
+		_bezier = new float[_event.getPathPointCount() * 2 + 2];
+		_bezier[0] = _x;
+		_bezier[1] = _y;
+		System.arraycopy(_event.getPath(), 0, _bezier, 2, _event.getPathPointCount() * 2);
 		
 		_velocity = 100.f / (beatLength / 1000.f) * sliderMultiplier / length;
 		_bezierUpper = length / Bezier.length(_bezier, .01f);
@@ -414,6 +403,17 @@ public class Slider implements Control
 		           Math.abs(kernel.getTouch().getY() - _nubPoint.y) < dh;
 	}
 
+	/** Rewinds this slider's nub, and moves its approach ring back to the start of the slider */
+	@Override
+	public void reset()
+	{
+		_repeatIteration = 0;
+		_t = 0.f;
+		_pressed = false;
+		_nubPoint.x = _nubPoint.y = 0.f;
+		setApproachRing(_approach); // update() pins the ring to the nub
+	}
+
 	/** Renders this slider */
 	@Override
 	public void draw(Kernel kernel, float t, float dt) 
@@ -432,8 +432,8 @@ public class Slider implements Control
 			float endx = _point.x;
 			float endy = _point.y;
 			
-			agl.InstanceBitmapBezier(_fill.getTexture(), _fill.getWidth(), _fill.getHeight(), _bezier, _bezier.length / 2, (int)(_event.getPathLength() / LENGTH_PER_STEP), 
-					                 0.f, _bezierUpper, 0.f, SCALE_FACTOR, SCALE_FACTOR, alpha);
+			LayeredQuad.instanceBitmapBezier(_fill, _bezier, _bezier.length / 2, (int)(_event.getPathLength() / LENGTH_PER_STEP), 
+					                         0.f, _bezierUpper, 0.f, SCALE_FACTOR, SCALE_FACTOR, alpha);
 			_cap.setAlpha(alpha);
 			_cap.getScale().x = SCALE_FACTOR;
 			_cap.getScale().y = SCALE_FACTOR;
@@ -477,7 +477,7 @@ public class Slider implements Control
 				}
 
 				TexturedQuad nub = _pressed ? _nubDown : _nubUp;	
-				agl.DrawAlongBezierPath(nub.getTexture(), nub.getWidth(), nub.getHeight(), _bezier, _bezier.length / 2, _t, 0.f, scale, scale, alpha);
+				LayeredQuad.drawAlongBezierPath(nub, _bezier, _bezier.length / 2, _t, 0.f, scale, scale, alpha);
 			}
 			
 			if (_text != null && t * 1000.f < _event.getTiming())
@@ -316,6 +316,18 @@ public class Spinner implements Control
 		if (_power < 0.f) _power = 0.f;
 	}
 
+	/** Rewinds this spinner's rotation and charge */
+	@Override
+	public void reset()
+	{
+		_prevX = _prevY = 0.f;
+		_isDown = false;
+		_rotation = 0.f;
+		_power = 0.f;
+		if (_approach != null)
+			_approach.reset();
+	}
+
 	/** Draws this spinner */
 	@Override
 	public void draw(Kernel kernel, float t, float dt) 
@@ -1,6 +1,6 @@
 package osu.game;
 
-import java.util.LinkedList;
+import java.util.List;
 
 import android.graphics.Point;
 
@@ -18,8 +18,8 @@ public class HOSlider extends HitObject {
 	private HOSliderType slider_type;
 	
 	// Bezier variables
-	private LinkedList<Point> path_points; // The points that make up the given path - used for bezier curves
-	private LinkedList<Integer> sound_points; // The sound each of the points makes when hit them
+	private float[] path; // The points that make up the given path - used for bezier curves, packed as [x1 y1 ... xn yn]
+	private int[] sound_points; // The sound each of the points makes when hit them
 	
 	// General Variables (?)
 	private int repeats; // Number of times this slider path should be followed back and forth
@@ -38,16 +38,21 @@ public class HOSlider extends HitObject {
 		
 		sound_type = sound;
 		
-		path_points = new LinkedList<Point>();
-		sound_points = new LinkedList<Integer>();
+		path = new float[0];
+		sound_points = new int[0];
 	}
 
 	
 	// *** ACCESSORS *** //
 	public HOSliderType getSliderType() { return slider_type; }
 	
-	public LinkedList<Point> getPathPoints() { return path_points; }
-	public LinkedList<Integer> getSoundPoints() { return sound_points; }
+	/** Returns the path points, packed as [x1 y1 ... xn yn] */
+	public float[] getPath() { return path; }
+	public int getPathPointCount() { return path.length / 2; }
+	public float getPathX(int point) { return path[point * 2]; }
+	public float getPathY(int point) { return path[point * 2 + 1]; }
+	
+	public int[] getSoundPoints() { return sound_points; }
 	
 	public int getRepeats() { return repeats; }
 	public float getPathLength() { return path_length; }
@@ -75,8 +80,30 @@ public class HOSlider extends HitObject {
 		}
 	}
 	
-	public void setPathPoints(LinkedList<Point> points) { path_points = points; }
-	public void setSoundPoints(LinkedList<Integer> points) { sound_points = points; }
+	/** Sets the path points, packed as [x1 y1 ... xn yn] */
+	public void setPath(float[] points) { path = points; }
+	public void setSoundPoints(int[] points) { sound_points = points; }
+	
+	/** Sets the path points from a list of points */
+	public void setPathPoints(List<Point> points)
+	{
+		path = new float[points.size() * 2];
+		int i = 0;
+		for (Point p : points)
+		{
+			path[i++] = p.x;
+			path[i++] = p.y;
+		}
+	}
+	
+	/** Sets the sound points from a list of sounds */
+	public void setSoundPoints(List<Integer> points)
+	{
+		sound_points = new int[points.size()];
+		int i = 0;
+		for (Integer sound : points)
+			sound_points[i++] = sound;
+	}
 	
 	public void setRepeats(int reps) { repeats = reps; }
 	public void setPathLength(float len) { path_length = len; }
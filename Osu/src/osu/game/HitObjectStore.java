@@ -0,0 +1,474 @@
+package osu.game;
+
+/**
+ * Column-based (struct-of-arrays) storage for all the hit objects of a beatmap.<br><br>
+ * 
+ * Every hit object is an index into a set of primitive arrays, and the control points and
+ * sounds of all sliders are packed into one shared array each. This gives O(1) indexed
+ * access and a handful of objects per beatmap instead of several per hit object.
+ * Objects are kept in the order they were added (file order).<br><br>
+ * 
+ * Use get() to create a HitObject for a single index when one is needed (e.g. for a control).
+ */
+public class HitObjectStore {
+	
+	// *** CONSTANTS *** //
+	// Object types
+	public static final byte BUTTON = 0;
+	public static final byte SLIDER = 1;
+	public static final byte SPINNER = 2;
+	
+	// Object flags
+	public static final byte FLAG_NEW_COMBO = 1;
+	
+	private static final int INITIAL_CAPACITY = 64;
+	private static final HOSliderType[] SLIDER_TYPES = HOSliderType.values(); // values() copies the array on every call
+	
+	
+	// Storage
+	private int size;
+	
+	// Every object
+	private int[] x, y;
+	private long[] timing;
+	private byte[] type;
+	private byte[] flags;
+	private int[] sound_type;
+	
+	// Sliders (unused for other types)
+	private byte[] slider_type;
+	private int[] repeats;
+	private float[] path_length;
+	private int[] path_start, path_count; // In points, into path
+	private int[] sound_start, sound_count; // Into sounds
+	
+	// Spinners (unused for other types)
+	private long[] end_timing;
+	
+	// Packed slider data, shared by all sliders
+	private float[] path; // x1 y1 x2 y2 ... xn yn
+	private int path_size; // In floats
+	private int[] sounds;
+	private int sounds_size;
+	
+	
+	// *** CONSTRUCTORS *** //
+	public HitObjectStore()
+	{
+		this(INITIAL_CAPACITY);
+	}
+	
+	
+	public HitObjectStore(int capacity)
+	{
+		if (capacity < 1)
+			capacity = 1;
+		
+		size = 0;
+		
+		x = new int[capacity];
+		y = new int[capacity];
+		timing = new long[capacity];
+		type = new byte[capacity];
+		flags = new byte[capacity];
+		sound_type = new int[capacity];
+		
+		slider_type = new byte[capacity];
+		repeats = new int[capacity];
+		path_length = new float[capacity];
+		path_start = new int[capacity];
+		path_count = new int[capacity];
+		sound_start = new int[capacity];
+		sound_count = new int[capacity];
+		
+		end_timing = new long[capacity];
+		
+		path = new float[capacity * 4];
+		path_size = 0;
+		sounds = new int[capacity];
+		sounds_size = 0;
+	}
+	
+	
+	// *** BUILDING *** //
+	/**
+	 * Appends a button and returns its index.
+	 */
+	public int addButton(int x_pos, int y_pos, long time_millis, boolean is_new_combo, int sound)
+	{
+		return add(BUTTON, x_pos, y_pos, time_millis, is_new_combo, sound);
+	}
+	
+	
+	/**
+	 * Appends a slider with no path points or sounds and returns its index.
+	 * Path points and sounds are added to the last slider with addPathPoint() and addSoundPoint().
+	 * 
+	 * @throws UnsupportedOperationException If the slider type is not supported (see HOSlider.setSliderType).
+	 */
+	public int addSlider(int x_pos, int y_pos, long time_millis, boolean is_new_combo, int sound, HOSliderType s_type) throws UnsupportedOperationException
+	{
+		checkSliderType(s_type);
+		
+		int i = add(SLIDER, x_pos, y_pos, time_millis, is_new_combo, sound);
+		slider_type[i] = (byte)s_type.ordinal();
+		path_start[i] = path_size / 2;
+		sound_start[i] = sounds_size;
+		
+		return i;
+	}
+	
+	
+	/**
+	 * Appends a spinner and returns its index.
+	 */
+	public int addSpinner(int x_pos, int y_pos, long time_millis, boolean is_new_combo, int sound, long end_millis)
+	{
+		int i = add(SPINNER, x_pos, y_pos, time_millis, is_new_combo, sound);
+		end_timing[i] = end_millis;
+		
+		return i;
+	}
+	
+	
+	/**
+	 * Appends a copy of the given hit object and returns its index.
+	 */
+	public int add(HitObject ho)
+	{
+		if (ho.getClass() == HOSlider.class)
+		{
+			HOSlider s = (HOSlider)ho;
+			int i = addSlider(s.getX(), s.getY(), s.getTiming(), s.getNewCombo(), s.getSoundType(), s.getSliderType());
+			setRepeats(i, s.getRepeats());
+			setPathLength(i, s.getPathLength());
+			
+			float[] points = s.getPath();
+			for (int p = 0; p < s.getPathPointCount() * 2; p += 2)
+				addPathPoint(points[p], points[p + 1]);
+			int[] s_sounds = s.getSoundPoints();
+			for (int p = 0; p < s_sounds.length; ++p)
+				addSoundPoint(s_sounds[p]);
+			
+			return i;
+		}
+		else if (ho.getClass() == HOSpinner.class)
+			return addSpinner(ho.getX(), ho.getY(), ho.getTiming(), ho.getNewCombo(), ho.getSoundType(), ((HOSpinner)ho).getEndTiming());
+		
+		return addButton(ho.getX(), ho.getY(), ho.getTiming(), ho.getNewCombo(), ho.getSoundType());
+	}
+	
+	
+	/**
+	 * Appends copies of all the objects in the given store, in order.
+	 */
+	public void addAll(HitObjectStore other)
+	{
+		int base = size, n = other.size;
+		ensureCapacity(size + n);
+		
+		System.arraycopy(other.x, 0, x, base, n);
+		System.arraycopy(other.y, 0, y, base, n);
+		System.arraycopy(other.timing, 0, timing, base, n);
+		System.arraycopy(other.type, 0, type, base, n);
+		System.arraycopy(other.flags, 0, flags, base, n);
+		System.arraycopy(other.sound_type, 0, sound_type, base, n);
+		
+		System.arraycopy(other.slider_type, 0, slider_type, base, n);
+		System.arraycopy(other.repeats, 0, repeats, base, n);
+		System.arraycopy(other.path_length, 0, path_length, base, n);
+		System.arraycopy(other.path_start, 0, path_start, base, n);
+		System.arraycopy(other.path_count, 0, path_count, base, n);
+		System.arraycopy(other.sound_start, 0, sound_start, base, n);
+		System.arraycopy(other.sound_count, 0, sound_count, base, n);
+		
+		System.arraycopy(other.end_timing, 0, end_timing, base, n);
+		
+		// Packed slider data goes after ours, so the copied sliders' offsets move by our sizes
+		int point_base = path_size / 2, sound_base = sounds_size;
+		if (path_size + other.path_size > path.length)
+			path = grow(path, path_size + other.path_size);
+		System.arraycopy(other.path, 0, path, path_size, other.path_size);
+		path_size += other.path_size;
+		
+		if (sounds_size + other.sounds_size > sounds.length)
+			sounds = grow(sounds, sounds_size + other.sounds_size);
+		System.arraycopy(other.sounds, 0, sounds, sounds_size, other.sounds_size);
+		sounds_size += other.sounds_size;
+		
+		for (int i = base; i < base + n; ++i)
+		{
+			if (type[i] == SLIDER)
+			{
+				path_start[i] += point_base;
+				sound_start[i] += sound_base;
+			}
+		}
+		
+		size += n;
+	}
+	
+	
+	/**
+	 * Adds a path point to the last object, which must be a slider.
+	 */
+	public void addPathPoint(float px, float py)
+	{
+		int i = lastSlider();
+		
+		if (path_size + 2 > path.length)
+			path = grow(path, path_size + 2);
+		path[path_size++] = px;
+		path[path_size++] = py;
+		++path_count[i];
+	}
+	
+	
+	/**
+	 * Adds a sound point to the last object, which must be a slider.
+	 */
+	public void addSoundPoint(int sound)
+	{
+		int i = lastSlider();
+		
+		if (sounds_size == sounds.length)
+			sounds = grow(sounds, sounds_size + 1);
+		sounds[sounds_size++] = sound;
+		++sound_count[i];
+	}
+	
+	
+	public void setRepeats(int i, int reps) { repeats[i] = reps; }
+	public void setPathLength(int i, float len) { path_length[i] = len; }
+	
+	
+	/**
+	 * Removes the last object (and its path points and sounds, if it is a slider).
+	 * Used to drop an object that failed to parse after it was added.
+	 */
+	public void removeLast()
+	{
+		if (size == 0)
+			return;
+		
+		--size;
+		if (type[size] == SLIDER)
+		{
+			path_size = path_start[size] * 2;
+			sounds_size = sound_start[size];
+		}
+	}
+	
+	
+	/**
+	 * Removes all objects, keeping the allocated arrays.
+	 */
+	public void clear()
+	{
+		size = 0;
+		path_size = 0;
+		sounds_size = 0;
+	}
+	
+	
+	/**
+	 * Makes sure all per-object arrays can hold at least the given number of objects.
+	 */
+	public void ensureCapacity(int capacity)
+	{
+		if (capacity <= x.length)
+			return;
+		
+		int n = Math.max(capacity, x.length * 2);
+		
+		x = grow(x, n);
+		y = grow(y, n);
+		timing = grow(timing, n);
+		type = grow(type, n);
+		flags = grow(flags, n);
+		sound_type = grow(sound_type, n);
+		
+		slider_type = grow(slider_type, n);
+		repeats = grow(repeats, n);
+		path_length = grow(path_length, n);
+		path_start = grow(path_start, n);
+		path_count = grow(path_count, n);
+		sound_start = grow(sound_start, n);
+		sound_count = grow(sound_count, n);
+		
+		end_timing = grow(end_timing, n);
+	}
+	
+	
+	// *** ACCESSORS *** //
+	/** Returns the number of hit objects in this store */
+	public int size() { return size; }
+	
+	public int getX(int i) { return x[i]; }
+	public int getY(int i) { return y[i]; }
+	
+	public long getTiming(int i) { return timing[i]; }
+	
+	/** Returns BUTTON, SLIDER or SPINNER */
+	public byte getType(int i) { return type[i]; }
+	
+	public byte getFlags(int i) { return flags[i]; }
+	public boolean getNewCombo(int i) { return (flags[i] & FLAG_NEW_COMBO) != 0; }
+	
+	public int getSoundType(int i) { return sound_type[i]; }
+	
+	// Sliders
+	public HOSliderType getSliderType(int i) { return SLIDER_TYPES[slider_type[i]]; }
+	public int getRepeats(int i) { return repeats[i]; }
+	public float getPathLength(int i) { return path_length[i]; }
+	
+	/** Returns the number of path points of the slider at the given index */
+	public int getPathPointCount(int i) { return path_count[i]; }
+	/** Returns the x coordinate of the given path point of the slider at the given index */
+	public float getPathX(int i, int point) { return path[(path_start[i] + point) * 2]; }
+	/** Returns the y coordinate of the given path point of the slider at the given index */
+	public float getPathY(int i, int point) { return path[(path_start[i] + point) * 2 + 1]; }
+	
+	/**
+	 * Copies the path points of the slider at the given index into dst, in the format [x1 y1 ... xn yn].
+	 * 
+	 * @param dst The array to copy into. Must have room for getPathPointCount(i) * 2 floats after offset.
+	 * @param offset The index in dst to start copying to.
+	 */
+	public void copyPath(int i, float[] dst, int offset)
+	{
+		System.arraycopy(path, path_start[i] * 2, dst, offset, path_count[i] * 2);
+	}
+	
+	public int getSoundPointCount(int i) { return sound_count[i]; }
+	public int getSoundPoint(int i, int point) { return sounds[sound_start[i] + point]; }
+	
+	// Spinners
+	public long getEndTiming(int i) { return end_timing[i]; }
+	
+	
+	/**
+	 * Creates a HitObject (HOButton, HOSlider or HOSpinner) with the values of the object
+	 * at the given index. The HitObject is a copy; changing it does not change this store.
+	 */
+	public HitObject get(int i)
+	{
+		switch (type[i])
+		{
+		case SLIDER:
+			HOSlider slider = new HOSlider(x[i], y[i], timing[i], getNewCombo(i), sound_type[i]);
+			slider.setSliderType(getSliderType(i));
+			slider.setRepeats(repeats[i]);
+			slider.setPathLength(path_length[i]);
+			
+			float[] points = new float[path_count[i] * 2];
+			copyPath(i, points, 0);
+			slider.setPath(points);
+			
+			int[] s_sounds = new int[sound_count[i]];
+			System.arraycopy(sounds, sound_start[i], s_sounds, 0, s_sounds.length);
+			slider.setSoundPoints(s_sounds);
+			
+			return slider;
+		
+		case SPINNER:
+			HOSpinner spinner = new HOSpinner(x[i], y[i], timing[i], getNewCombo(i), sound_type[i]);
+			spinner.setEndTiming(end_timing[i]);
+			return spinner;
+		
+		default:
+			return new HOButton(x[i], y[i], timing[i], getNewCombo(i), sound_type[i]);
+		}
+	}
+	
+	
+	// *** RAW ACCESS *** //
+	/**
+	 * Returns the packed path points of all sliders, in the format [x1 y1 ... xn yn].
+	 * Only the first getPackedPathSize() floats are used. Slider i's points start at
+	 * point getPathStart(i) (float index getPathStart(i) * 2).
+	 */
+	public float[] getPackedPath() { return path; }
+	public int getPackedPathSize() { return path_size; }
+	public int getPathStart(int i) { return path_start[i]; }
+	
+	
+	/**
+	 * Returns the packed sounds of all sliders. Only the first getPackedSoundsSize() ints are used.
+	 * Slider i's sounds start at index getSoundStart(i).
+	 */
+	public int[] getPackedSounds() { return sounds; }
+	public int getPackedSoundsSize() { return sounds_size; }
+	public int getSoundStart(int i) { return sound_start[i]; }
+	
+	
+	// *** HELPER METHODS *** //
+	/**
+	 * Appends the values shared by all objects and returns the new index.
+	 */
+	private int add(byte o_type, int x_pos, int y_pos, long time_millis, boolean is_new_combo, int sound)
+	{
+		if (size == x.length)
+			ensureCapacity(size + 1);
+		
+		int i = size++;
+		x[i] = x_pos;
+		y[i] = y_pos;
+		timing[i] = time_millis;
+		type[i] = o_type;
+		flags[i] = is_new_combo ? FLAG_NEW_COMBO : 0;
+		sound_type[i] = sound;
+		
+		slider_type[i] = 0;
+		repeats[i] = 0;
+		path_length[i] = 0;
+		path_start[i] = 0;
+		path_count[i] = 0;
+		sound_start[i] = 0;
+		sound_count[i] = 0;
+		end_timing[i] = 0;
+		
+		return i;
+	}
+	
+	
+	/**
+	 * Returns the index of the last object, throwing IllegalStateException if it is not a slider.
+	 */
+	private int lastSlider()
+	{
+		if (size == 0 || type[size - 1] != SLIDER)
+			throw new IllegalStateException("The last hit object is not a slider.");
+		
+		return size - 1;
+	}
+	
+	
+	/**
+	 * Same as HOSlider.setSliderType's checking, without needing an HOSlider.
+	 */
+	private static void checkSliderType(HOSliderType s_type) throws UnsupportedOperationException
+	{
+		switch (s_type)
+		{
+		case BEZIER:
+			return;
+		
+		// Currently unsupported
+		case LINEAR:
+		case CATMULL:
+			throw new UnsupportedOperationException(s_type.toString() + " is not supported by this version of osu!");
+		
+		default:
+			throw new UnsupportedOperationException(s_type.toString() + " is unrecognized by osu! in general.");
+		}
+	}
+	
+	
+	// Array growing (Arrays.copyOf isn't available on all the APIs we support)
+	private static int[] grow(int[] a, int min) { int[] b = new int[Math.max(min, a.length * 2)]; System.arraycopy(a, 0, b, 0, a.length); return b; }
+	private static long[] grow(long[] a, int min) { long[] b = new long[Math.max(min, a.length * 2)]; System.arraycopy(a, 0, b, 0, a.length); return b; }
+	private static float[] grow(float[] a, int min) { float[] b = new float[Math.max(min, a.length * 2)]; System.arraycopy(a, 0, b, 0, a.length); return b; }
+	private static byte[] grow(byte[] a, int min) { byte[] b = new byte[Math.max(min, a.length * 2)]; System.arraycopy(a, 0, b, 0, a.length); return b; }
+	
+}
@@ -0,0 +1,215 @@
+package osu.game;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * An immutable, resolved view of a beatmap's timing points that answers "what timing applies
+ * at time t" in O(log n), or in amortised O(1) through a Cursor for increasing times.<br><br>
+ * 
+ * Inherited (negative BPM) points are resolved against the uninherited point before them:
+ * they keep its beat length and time signature and set their own slider velocity multiplier
+ * (-100 / value). Every point carries its own kiai flag, sample sets and volume.<br><br>
+ * 
+ * Times before the first point use the first point's values.
+ */
+public class TimingIndex {
+	
+	// *** CONSTANTS *** //
+	/** The beat length used when a beatmap has no uninherited timing point at all */
+	public static final float DEFAULT_BEAT_LENGTH = 500.f;
+	
+	
+	// Storage (one entry per timing point, sorted by offset)
+	private final int size;
+	private final long[] offset; // In millis
+	private final float[] beat_length; // Millis per beat of the governing uninherited point
+	private final float[] velocity; // Slider velocity multiplier (1 for uninherited points)
+	private final int[] time_signature;
+	private final boolean[] kiai;
+	private final int[] sample_set;
+	private final int[] sample_set_custom;
+	private final int[] volume;
+	
+	
+	// *** CONSTRUCTORS *** //
+	/**
+	 * Builds the index from the given timing points (in any order; points with the same offset
+	 * keep their relative order, so the later one wins).
+	 */
+	public TimingIndex(Collection<TimingPoint> points)
+	{
+		ArrayList<TimingPoint> sorted = new ArrayList<TimingPoint>(points);
+		Collections.sort(sorted, new Comparator<TimingPoint>() {
+			@Override
+			public int compare(TimingPoint a, TimingPoint b)
+			{
+				return a.getOffset() < b.getOffset() ? -1 : a.getOffset() > b.getOffset() ? 1 : 0;
+			}
+		});
+		
+		size = sorted.size();
+		offset = new long[size];
+		beat_length = new float[size];
+		velocity = new float[size];
+		time_signature = new int[size];
+		kiai = new boolean[size];
+		sample_set = new int[size];
+		sample_set_custom = new int[size];
+		volume = new int[size];
+		
+		// Inherited points before the first uninherited one use its beat length
+		float base = DEFAULT_BEAT_LENGTH;
+		int signature = 4;
+		for (int i = 0; i < size; ++i)
+		{
+			if (sorted.get(i).getBPM() > 0)
+			{
+				base = (float)sorted.get(i).getBPM();
+				signature = sorted.get(i).getTimeSignature();
+				break;
+			}
+		}
+		
+		for (int i = 0; i < size; ++i)
+		{
+			TimingPoint tp = sorted.get(i);
+			double bpm = tp.getBPM();
+			
+			if (bpm > 0) // Uninherited
+			{
+				base = (float)bpm;
+				signature = tp.getTimeSignature();
+				velocity[i] = 1.f;
+			}
+			else if (bpm < 0) // Inherited
+				velocity[i] = (float)(-100.0 / bpm);
+			else
+				velocity[i] = 1.f;
+			
+			offset[i] = tp.getOffset();
+			beat_length[i] = base;
+			time_signature[i] = signature;
+			kiai[i] = tp.getKiai();
+			sample_set[i] = tp.getSampleSet();
+			sample_set_custom[i] = tp.getCustomSampleSet();
+			volume[i] = tp.getVolume();
+		}
+	}
+	
+	
+	// *** QUERIES *** //
+	/**
+	 * Returns the index of the timing point in effect at the given time (the last point whose
+	 * offset is at or before it), or 0 if the time is before every point. Returns -1 if this
+	 * index is empty.
+	 */
+	public int indexAt(long time)
+	{
+		if (size == 0)
+			return -1;
+		
+		int lo = 0, hi = size - 1;
+		while (lo < hi)
+		{
+			int mid = (lo + hi + 1) >>> 1;
+			if (offset[mid] <= time)
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+		
+		return lo;
+	}
+	
+	
+	/** Returns the beat length (millis per beat) in effect at the given time */
+	public float getBeatLength(long time) { int i = indexAt(time); return i < 0 ? DEFAULT_BEAT_LENGTH : beat_length[i]; }
+	
+	/** Returns the slider velocity multiplier in effect at the given time */
+	public float getVelocity(long time) { int i = indexAt(time); return i < 0 ? 1.f : velocity[i]; }
+	
+	/**
+	 * Returns the beat length scaled by the inverse of the slider velocity multiplier at the
+	 * given time; i.e. the beat length a slider should use so that its speed includes inherited
+	 * velocity changes.
+	 */
+	public float getSliderBeatLength(long time) { int i = indexAt(time); return i < 0 ? DEFAULT_BEAT_LENGTH : beat_length[i] / velocity[i]; }
+	
+	public boolean getKiai(long time) { int i = indexAt(time); return i >= 0 && kiai[i]; }
+	
+	
+	// *** ACCESSORS *** //
+	/** Returns the number of timing points */
+	public int size() { return size; }
+	
+	public long getOffset(int i) { return offset[i]; }
+	public float getBeatLengthAt(int i) { return beat_length[i]; }
+	public float getVelocityAt(int i) { return velocity[i]; }
+	public float getSliderBeatLengthAt(int i) { return beat_length[i] / velocity[i]; }
+	public int getTimeSignatureAt(int i) { return time_signature[i]; }
+	public boolean getKiaiAt(int i) { return kiai[i]; }
+	public int getSampleSetAt(int i) { return sample_set[i]; }
+	public int getCustomSampleSetAt(int i) { return sample_set_custom[i]; }
+	public int getVolumeAt(int i) { return volume[i]; }
+	
+	
+	/** Creates a cursor positioned before the first timing point */
+	public Cursor cursor() { return new Cursor(); }
+	
+	
+	// *** CURSOR *** //
+	/**
+	 * Tracks the timing point in effect during playback. Seeking forward walks the points one at
+	 * a time (amortised O(1) for increasing times); seeking backward falls back to a binary search.
+	 * A cursor is not thread-safe, but any number of cursors can share one index.
+	 */
+	public class Cursor {
+		
+		private int current; // The index of the point in effect, or -1 if the index is empty
+		private long time; // The last time sought to
+		
+		
+		private Cursor()
+		{
+			current = size == 0 ? -1 : 0;
+			time = Long.MIN_VALUE;
+		}
+		
+		
+		/**
+		 * Moves this cursor to the given time and returns the index of the timing point in effect.
+		 */
+		public int seek(long t)
+		{
+			if (size == 0)
+				return -1;
+			
+			if (t < time)
+				current = indexAt(t);
+			else
+			{
+				while (current + 1 < size && offset[current + 1] <= t)
+					++current;
+			}
+			
+			time = t;
+			return current;
+		}
+		
+		
+		/** Returns the index of the timing point in effect at the last time sought to */
+		public int getIndex() { return current; }
+		
+		public float getBeatLength() { return current < 0 ? DEFAULT_BEAT_LENGTH : beat_length[current]; }
+		public float getVelocity() { return current < 0 ? 1.f : velocity[current]; }
+		public float getSliderBeatLength() { return current < 0 ? DEFAULT_BEAT_LENGTH : beat_length[current] / velocity[current]; }
+		public boolean getKiai() { return current >= 0 && kiai[current]; }
+		public int getSampleSet() { return current < 0 ? 0 : sample_set[current]; }
+		public int getVolume() { return current < 0 ? 100 : volume[current]; }
+		
+	}
+	
+}
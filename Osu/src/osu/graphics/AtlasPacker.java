@@ -0,0 +1,290 @@
+package osu.graphics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Packs rectangles (e.g. sprites) onto as few fixed-size pages (e.g. textures) as it can, with a
+ * margin of padding around each, using the skyline bottom-left heuristic. Pure Java, so packing can
+ * be checked off the device.
+ * 
+ * Rectangles are added with add(), then placed by pack(). Packing is deterministic: the same
+ * rectangles added in the same order are always placed in the same spots. Rectangles are placed
+ * tallest first (then widest, then in the order added), each on the first page it fits on, as
+ * far up and then as far left as the page's skyline allows.
+ * 
+ * The padding is kept clear of other rectangles so it can be filled with a copy of the rectangle's
+ * edge, which keeps filtering from blending in its neighbors. Padding stays on the page, so a
+ * rectangle and its padding must fit on one.
+ * 
+ * @author dkilian
+ */
+public class AtlasPacker
+{
+	/** A run of the skyline: the lowest free row over a range of columns */
+	private static class Segment
+	{
+		/** The leftmost column */
+		public int x;
+		/** The first free row */
+		public int y;
+		/** The number of columns */
+		public int width;
+		
+		/** Creates a run of the skyline */
+		public Segment(int x, int y, int width)
+		{
+			this.x = x;
+			this.y = y;
+			this.width = width;
+		}
+	}
+	
+	/** The width of each page */
+	private int _pageWidth;
+	/** The height of each page */
+	private int _pageHeight;
+	/** The space kept clear around each rectangle */
+	private int _padding;
+	/** The widths of the rectangles, in the order added */
+	private int[] _widths;
+	/** The heights of the rectangles, in the order added */
+	private int[] _heights;
+	/** The number of rectangles added */
+	private int _count;
+	/** The page each rectangle is placed on, once packed */
+	private int[] _pages;
+	/** The left edge of each rectangle on its page, not counting padding, once packed */
+	private int[] _xs;
+	/** The top edge of each rectangle on its page, not counting padding, once packed */
+	private int[] _ys;
+	/** Each page's skyline, left to right, once packed */
+	private ArrayList<ArrayList<Segment>> _skylines;
+	/** The number of columns and rows each page uses, counting padding, once packed */
+	private ArrayList<int[]> _extents;
+	
+	/**
+	 * Creates a packer with no rectangles
+	 * @param pageWidth The width of each page
+	 * @param pageHeight The height of each page
+	 * @param padding The space kept clear on every side of each rectangle
+	 */
+	public AtlasPacker(int pageWidth, int pageHeight, int padding)
+	{
+		_pageWidth = pageWidth;
+		_pageHeight = pageHeight;
+		_padding = padding;
+		_widths = new int[16];
+		_heights = new int[16];
+		_count = 0;
+		_pages = null;
+		_xs = null;
+		_ys = null;
+		_skylines = new ArrayList<ArrayList<Segment>>();
+		_extents = new ArrayList<int[]>();
+	}
+	
+	/**
+	 * Adds a rectangle to be packed
+	 * @return The rectangle's index, which is the number of rectangles added before it
+	 * @throws IllegalArgumentException If the rectangle and its padding don't fit on a page
+	 * @throws IllegalStateException If pack() has been called
+	 */
+	public int add(int w, int h)
+	{
+		if (_pages != null)
+			throw new IllegalStateException("Rectangles can't be added once packed");
+		if (w <= 0 || h <= 0 || w + 2 * _padding > _pageWidth || h + 2 * _padding > _pageHeight)
+			throw new IllegalArgumentException("Can't fit a " + w + "x" + h + " rectangle on a " + _pageWidth + "x" + _pageHeight + " page");
+		
+		if (_count == _widths.length)
+		{
+			_widths = grow(_widths);
+			_heights = grow(_heights);
+		}
+		_widths[_count] = w;
+		_heights[_count] = h;
+		return _count++;
+	}
+	
+	/** Doubles an array's length (Arrays.copyOf isn't available on all the APIs we support) */
+	private static int[] grow(int[] a)
+	{
+		int[] b = new int[a.length * 2];
+		System.arraycopy(a, 0, b, 0, a.length);
+		return b;
+	}
+	
+	/** Places every rectangle. Does nothing if they have been placed already */
+	public void pack()
+	{
+		if (_pages != null)
+			return;
+		
+		_pages = new int[_count];
+		_xs = new int[_count];
+		_ys = new int[_count];
+		
+		Integer[] order = new Integer[_count];
+		for (int i = 0; i < _count; ++i)
+			order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>()
+		{
+			@Override
+			public int compare(Integer a, Integer b)
+			{
+				if (_heights[a] != _heights[b])
+					return _heights[a] > _heights[b] ? -1 : 1;
+				if (_widths[a] != _widths[b])
+					return _widths[a] > _widths[b] ? -1 : 1;
+				return a < b ? -1 : (a > b ? 1 : 0);
+			}
+		});
+		
+		for (int i = 0; i < order.length; ++i)
+		{
+			int r = order[i];
+			int w = _widths[r] + 2 * _padding, h = _heights[r] + 2 * _padding;
+			
+			int page = 0;
+			while (page < _skylines.size() && !place(page, r, w, h))
+				++page;
+			
+			if (page == _skylines.size())
+			{
+				ArrayList<Segment> skyline = new ArrayList<Segment>();
+				skyline.add(new Segment(0, 0, _pageWidth));
+				_skylines.add(skyline);
+				_extents.add(new int[2]);
+				place(page, r, w, h); // Always fits on an empty page, as add() checked
+			}
+		}
+	}
+	
+	/** Gets the number of rectangles added */
+	public int getCount()
+	{
+		return _count;
+	}
+	
+	/** Gets the width of a rectangle, not counting padding */
+	public int getWidth(int i)
+	{
+		return _widths[i];
+	}
+	
+	/** Gets the height of a rectangle, not counting padding */
+	public int getHeight(int i)
+	{
+		return _heights[i];
+	}
+	
+	/** Gets the page a rectangle is placed on. Only valid once packed */
+	public int getPage(int i)
+	{
+		return _pages[i];
+	}
+	
+	/** Gets the left edge of a rectangle on its page, not counting padding. Only valid once packed */
+	public int getX(int i)
+	{
+		return _xs[i];
+	}
+	
+	/** Gets the top edge of a rectangle on its page, not counting padding. Only valid once packed */
+	public int getY(int i)
+	{
+		return _ys[i];
+	}
+	
+	/** Gets the number of pages the rectangles are placed on. Only valid once packed */
+	public int getPageCount()
+	{
+		return _skylines.size();
+	}
+	
+	/** Gets the number of columns a page's rectangles use, counting padding, which is all a page needs to be. Only valid once packed */
+	public int getUsedWidth(int page)
+	{
+		return _extents.get(page)[0];
+	}
+	
+	/** Gets the number of rows a page's rectangles use, counting padding, which is all a page needs to be. Only valid once packed */
+	public int getUsedHeight(int page)
+	{
+		return _extents.get(page)[1];
+	}
+	
+	/**
+	 * Places a rectangle on a page, at the skyline's topmost (then leftmost) spot it fits
+	 * @param page The page
+	 * @param r The rectangle's index
+	 * @param w The width of the rectangle, counting padding
+	 * @param h The height of the rectangle, counting padding
+	 * @return Whether or not the rectangle fits on the page
+	 */
+	private boolean place(int page, int r, int w, int h)
+	{
+		ArrayList<Segment> skyline = _skylines.get(page);
+		int best = -1, bestX = 0, bestY = _pageHeight;
+		for (int i = 0; i < skyline.size(); ++i)
+		{
+			int x = skyline.get(i).x;
+			if (x + w > _pageWidth)
+				break;
+			
+			// The rectangle rests on the highest segment under it
+			int y = 0;
+			for (int j = i; j < skyline.size() && skyline.get(j).x < x + w; ++j)
+				y = Math.max(y, skyline.get(j).y);
+			
+			if (y + h <= _pageHeight && y < bestY)
+			{
+				best = i;
+				bestX = x;
+				bestY = y;
+			}
+		}
+		if (best < 0)
+			return false;
+		
+		// Raise the skyline under the rectangle
+		Segment top = new Segment(bestX, bestY + h, w);
+		int i = best;
+		while (i < skyline.size() && skyline.get(i).x < bestX + w)
+		{
+			Segment s = skyline.get(i);
+			int right = s.x + s.width;
+			if (right <= bestX + w)
+				skyline.remove(i);
+			else
+			{
+				s.width = right - (bestX + w);
+				s.x = bestX + w;
+				break;
+			}
+		}
+		skyline.add(best, top);
+		
+		// Merge neighbors of the same height, so later searches have fewer segments to check
+		for (int j = skyline.size() - 1; j > 0; --j)
+		{
+			Segment left = skyline.get(j - 1), right = skyline.get(j);
+			if (left.y == right.y)
+			{
+				left.width += right.width;
+				skyline.remove(j);
+			}
+		}
+		
+		_pages[r] = page;
+		_xs[r] = bestX + _padding;
+		_ys[r] = bestY + _padding;
+		
+		int[] extent = _extents.get(page);
+		extent[0] = Math.max(extent[0], bestX + w);
+		extent[1] = Math.max(extent[1], bestY + h);
+		return true;
+	}
+}
@@ -9,10 +9,17 @@ import android.graphics.Color;
  * a tint color of white leaves the source image unchanged, and a tint of black turns the 
  * entire image black. Alpha values are preserved in image tinting operations
  * 
+ * The pixel work is done by a TintKernel shared by every caller, one call at a time, so that its
+ * scratch buffers are reused rather than allocated for every sprite. Only small buffers are kept
+ * (see TintKernel.MAX_KEPT_SCRATCH), since nothing releases the shared kernel.
+ * 
  * @author dkilian
  */
 public class BitmapTint 
 {
+	/** Does the pixel work for every tinting operation. Also locks its scratch buffers */
+	private static final TintKernel _kernel = new TintKernel();
+	
 	/**
 	 * Tints an image
 	 * @param img The image to tint
@@ -45,9 +52,18 @@ public class BitmapTint
 	 */
 	public static Bitmap apply(Bitmap img, int r, int g, int b)
 	{
-		float div = 1.f / 255.f;
+		int w = img.getWidth(), h = img.getHeight();
+		Bitmap target = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+		target.setDensity(img.getDensity());
 		
-		return apply(img, r * div, g * div, b * div);
+		synchronized (_kernel)
+		{
+			int[] pixels = _kernel.scratch(0, w * h);
+			img.getPixels(pixels, 0, w, 0, 0, w, h);
+			_kernel.tint(pixels, pixels, w, h, r, g, b);
+			target.setPixels(pixels, 0, w, 0, 0, w, h);
+		}
+		return target;
 	}
 	
 	/**
@@ -60,22 +76,73 @@ public class BitmapTint
 	 */
 	public static Bitmap apply(Bitmap img, float r, float g, float b)
 	{
-		Bitmap target = img.copy(Bitmap.Config.ARGB_8888, true);
-		
-		float norm = 1.f / 255.f;
-		float unnorm = 255.f;
+		return apply(img, Math.round(r * 255.f), Math.round(g * 255.f), Math.round(b * 255.f));
+	}
+	
+	/**
+	 * Tints a sprite's body and composites it over its shadow and under its chrome, in one pass.
+	 * All components should have the same pixel dimensions
+	 * @param shadow The drop shadow below the body, or null for none
+	 * @param body The monochrome body to tint. Not modified
+	 * @param chrome The chrome above the body, or null for none
+	 * @param c The ARGB color by which to tint the body
+	 * @return The composited image
+	 */
+	public static Bitmap compose(Bitmap shadow, Bitmap body, Bitmap chrome, int c)
+	{
+		return compose(shadow, body, chrome, Color.red(c), Color.green(c), Color.blue(c));
+	}
+	
+	/**
+	 * Tints a sprite's body and composites it over its shadow and under its chrome, in one pass.
+	 * All components should have the same pixel dimensions
+	 * @param shadow The drop shadow below the body, or null for none
+	 * @param body The monochrome body to tint. Not modified
+	 * @param chrome The chrome above the body, or null for none
+	 * @param c The color by which to tint the body
+	 * @return The composited image
+	 */
+	public static Bitmap compose(Bitmap shadow, Bitmap body, Bitmap chrome, ComboColor c)
+	{
+		return compose(shadow, body, chrome, c.getR(), c.getG(), c.getB());
+	}
+	
+	/**
+	 * Tints a sprite's body and composites it over its shadow and under its chrome, in one pass.
+	 * All components should have the same pixel dimensions
+	 * @param shadow The drop shadow below the body, or null for none
+	 * @param body The monochrome body to tint. Not modified
+	 * @param chrome The chrome above the body, or null for none
+	 * @param r The red component of the color by which to tint the body, in [0,255]
+	 * @param g The green component of the color by which to tint the body, in [0,255]
+	 * @param b The blue component of the color by which to tint the body, in [0,255]
+	 * @return The composited image
+	 */
+	public static Bitmap compose(Bitmap shadow, Bitmap body, Bitmap chrome, int r, int g, int b)
+	{
+		int w = body.getWidth(), h = body.getHeight();
+		Bitmap target = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+		target.setDensity(body.getDensity());
 		
-		int[] pixels = new int[target.getWidth() * target.getHeight()];
-		img.getPixels(pixels, 0, target.getWidth(), 0, 0, target.getWidth(), target.getHeight());
-		for (int i = 0; i < pixels.length; ++i)
+		synchronized (_kernel)
 		{
-			float red = r * (norm * Color.red(pixels[i]));
-			float green = g * (norm * Color.green(pixels[i]));
-			float blue = b * (norm * Color.blue(pixels[i]));
+			int[] s = null, c = null;
+			int[] pixels = _kernel.scratch(0, w * h);
+			body.getPixels(pixels, 0, w, 0, 0, w, h);
+			if (shadow != null)
+			{
+				s = _kernel.scratch(1, w * h);
+				shadow.getPixels(s, 0, w, 0, 0, w, h);
+			}
+			if (chrome != null)
+			{
+				c = _kernel.scratch(2, w * h);
+				chrome.getPixels(c, 0, w, 0, 0, w, h);
+			}
 			
-			pixels[i] = Color.argb(Color.alpha(pixels[i]), (int)(red * unnorm), (int)(green * unnorm), (int)(blue * unnorm));
+			_kernel.compose(s, pixels, c, pixels, w, h, r, g, b);
+			target.setPixels(pixels, 0, w, 0, 0, w, h);
 		}
-		target.setPixels(pixels, 0, target.getWidth(), 0, 0, target.getWidth(), target.getHeight());
 		return target;
 	}
 }
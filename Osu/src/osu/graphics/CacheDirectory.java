@@ -0,0 +1,67 @@
+package osu.graphics;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Keeps a cache directory (such as ThumbnailCache's or SpriteCache's) within a size. Caches mark
+ * a file as used by setting its modification time when they read it, so the files used least
+ * recently are the ones with the oldest modification times.
+ * 
+ * @author dkilian
+ */
+public class CacheDirectory
+{
+	/**
+	 * Deletes the least recently used cache files until a directory holds at most the given
+	 * number of bytes of them. Anything else in the directory (such as a temporary file left over
+	 * from a write that didn't finish) is deleted too. Does nothing if the directory doesn't exist.
+	 * @param dir The cache directory
+	 * @param extension The extension of the cache files
+	 * @param maxBytes The most bytes of cache files to keep
+	 */
+	public static void trim(File dir, String extension, long maxBytes)
+	{
+		File[] files = dir.listFiles();
+		if (files == null)
+			return;
+		
+		final long[] times = new long[files.length];
+		long total = 0;
+		for (int i = 0; i < files.length; ++i)
+		{
+			if (!files[i].getName().endsWith(extension))
+			{
+				files[i].delete();
+				continue;
+			}
+			times[i] = files[i].lastModified();
+			total += files[i].length();
+		}
+		if (total <= maxBytes)
+			return;
+		
+		Integer[] order = new Integer[files.length];
+		for (int i = 0; i < order.length; ++i)
+			order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>()
+		{
+			@Override
+			public int compare(Integer a, Integer b)
+			{
+				return times[a] < times[b] ? -1 : (times[a] > times[b] ? 1 : 0);
+			}
+		});
+		
+		for (int i = 0; i < order.length && total > maxBytes; ++i)
+		{
+			File f = files[order[i]];
+			if (!f.getName().endsWith(extension))
+				continue; // Already deleted
+			long length = f.length();
+			if (f.delete())
+				total -= length;
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package osu.graphics;
+
+import java.util.ArrayList;
+
+import osu.game.ComboColor;
+
+import dkilian.andy.Kernel;
+import dkilian.andy.TexturedQuad;
+import dkilian.andy.jni.agl;
+
+/**
+ * A sprite drawn as a stack of textured quads that share its transform and alpha, bottom layer first,
+ * each in its own tint. Lets a control be drawn in any combo color from its monochrome parts (e.g. a
+ * button's shadow, fill and chrome) instead of from an image tinted and composited for each color:
+ * the parts are uploaded once and shared by the layered quads of every color.
+ * 
+ * Drawing the layers in turn gives the same pixels as drawing the composited image, except while
+ * fading, when a lower layer shows through a little where it is covered by an upper one.
+ * 
+ * @author dkilian
+ */
+public class LayeredQuad extends TexturedQuad
+{
+	/** The layers, bottom first. Each shares its texture with other sprites, but has its own transform and tint */
+	private ArrayList<TexturedQuad> _layers;
+	
+	/**
+	 * Creates a sprite with no layers
+	 * @param w The width of the sprite, which should match its layers', in texels
+	 * @param h The height of the sprite, which should match its layers', in texels
+	 */
+	public LayeredQuad(int w, int h)
+	{
+		super(0, w, h);
+		_layers = new ArrayList<TexturedQuad>();
+	}
+	
+	/**
+	 * Adds an untinted layer on top of the others
+	 * @param part The layer's image. Its texture is shared, not copied
+	 */
+	public void add(TexturedQuad part)
+	{
+		add(part, 1.f, 1.f, 1.f);
+	}
+	
+	/**
+	 * Adds a layer on top of the others
+	 * @param part The layer's monochrome image. Its texture is shared, not copied
+	 * @param c The color to tint the layer
+	 */
+	public void add(TexturedQuad part, ComboColor c)
+	{
+		float div = 1.f / 255.f;
+		add(part, c.getR() * div, c.getG() * div, c.getB() * div);
+	}
+	
+	/**
+	 * Adds a layer on top of the others
+	 * @param part The layer's image. Its texture is shared, not copied
+	 * @param r The red component of the color to tint the layer, in [0, 1]
+	 * @param g The green component of the color to tint the layer, in [0, 1]
+	 * @param b The blue component of the color to tint the layer, in [0, 1]
+	 */
+	public void add(TexturedQuad part, float r, float g, float b)
+	{
+		TexturedQuad layer = new TexturedQuad(part.getTexture(), part.getWidth(), part.getHeight());
+		layer.setRegion(part.getRegionU(), part.getRegionV(), part.getRegionWidth(), part.getRegionHeight());
+		layer.setTint(r, g, b);
+		_layers.add(layer);
+		
+		if (_layers.size() == 1)
+		{
+			setTexture(part.getTexture(), getWidth(), getHeight());
+			setRegion(part.getRegionU(), part.getRegionV(), part.getRegionWidth(), part.getRegionHeight());
+		}
+	}
+	
+	/** Gets the number of layers */
+	public int getLayerCount()
+	{
+		return _layers.size();
+	}
+	
+	/** Gets a layer, counting from the bottom */
+	public TexturedQuad getLayer(int i)
+	{
+		return _layers.get(i);
+	}
+	
+	/** Renders every layer, bottom first, with this sprite's transform and alpha */
+	@Override
+	public void draw(Kernel kernel)
+	{
+		for (int i = 0; i < _layers.size(); ++i)
+		{
+			TexturedQuad layer = _layers.get(i);
+			layer.getTranslation().x = getTranslation().x;
+			layer.getTranslation().y = getTranslation().y;
+			layer.setRotation(getRotation());
+			layer.getScale().x = getScale().x;
+			layer.getScale().y = getScale().y;
+			layer.setAlpha(getAlpha());
+			layer.draw(kernel);
+		}
+	}
+	
+	/**
+	 * Draws copies of a sprite along a Bezier path, as agl.InstanceBitmapBezier() does, in the sprite's tint
+	 * and texture region. A layered quad is drawn a layer at a time, each along the whole path
+	 * @param q The sprite to draw
+	 * @see agl#InstanceBitmapBezier(int, int, int, float[], int, int, float, float, float, float, float, float)
+	 */
+	public static void instanceBitmapBezier(TexturedQuad q, float[] controlPoints, int numPoints, int numSteps, float tmin, float tmax, float rot, float xscale, float yscale, float alpha)
+	{
+		if (q instanceof LayeredQuad)
+		{
+			LayeredQuad l = (LayeredQuad)q;
+			for (int i = 0; i < l._layers.size(); ++i)
+				instanceBitmapBezier(l._layers.get(i), controlPoints, numPoints, numSteps, tmin, tmax, rot, xscale, yscale, alpha);
+			return;
+		}
+		
+		q.beginDraw();
+		agl.InstanceBitmapBezier(q.getTexture(), q.getWidth(), q.getHeight(), controlPoints, numPoints, numSteps, tmin, tmax, rot, xscale, yscale, alpha);
+		q.endDraw();
+	}
+	
+	/**
+	 * Draws a sprite at a point along a Bezier path, as agl.DrawAlongBezierPath() does, in the sprite's tint and texture region
+	 * @param q The sprite to draw. A layered quad is drawn a layer at a time
+	 * @see agl#DrawAlongBezierPath(int, int, int, float[], int, float, float, float, float, float)
+	 */
+	public static void drawAlongBezierPath(TexturedQuad q, float[] controlPoints, int numPoints, float t, float rot, float xscale, float yscale, float alpha)
+	{
+		if (q instanceof LayeredQuad)
+		{
+			LayeredQuad l = (LayeredQuad)q;
+			for (int i = 0; i < l._layers.size(); ++i)
+				drawAlongBezierPath(l._layers.get(i), controlPoints, numPoints, t, rot, xscale, yscale, alpha);
+			return;
+		}
+		
+		q.beginDraw();
+		agl.DrawAlongBezierPath(q.getTexture(), q.getWidth(), q.getHeight(), controlPoints, numPoints, t, rot, xscale, yscale, alpha);
+		q.endDraw();
+	}
+}
@@ -0,0 +1,260 @@
+package osu.graphics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+/**
+ * Keeps decoded game sprites between beatmap loads, so a load (including every speculative load
+ * song select starts as the player scrolls) doesn't decode the same drawables again.
+ * 
+ * Sprites are keyed by the asset they were made from, the asset's version and the color they were
+ * tinted with (UNTINTED if none). A least-recently-used set of sprites is kept in memory, up to a
+ * number of bytes; sprites too large to fit a quarter of that are only kept on disk, so that a load,
+ * which asks for the same sprites in the same order every time, doesn't keep evicting the sprites
+ * it is about to ask for again. On disk, a sprite is stored as its raw ARGB_8888 pixels, which are
+ * copied straight into a bitmap instead of being decoded.
+ * 
+ * Cached bitmaps are shared, so they must not be changed or recycled. May be used from any thread.
+ * 
+ * @author dkilian
+ */
+public class SpriteCache
+{
+	/** The color given for sprites that aren't tinted */
+	public static final int UNTINTED = 0xffffffff;
+	/** The default memory budget, in bytes */
+	public static final int DEFAULT_MEMORY_BUDGET = 2 * 1024 * 1024;
+	/** The cache directory is trimmed to this many bytes when the cache is first used */
+	public static final long DISK_BUDGET = 16 * 1024 * 1024;
+	/** Identifies a sprite cache file ("OSSP") */
+	public static final int MAGIC = 0x4f535350;
+	/** The extension given to cache files */
+	public static final String EXTENSION = ".argb";
+	
+	/** The size of a cache file's header: the magic number, width and height */
+	private static final int HEADER_SIZE = 12;
+	
+	/** The directory sprites are stored in */
+	private File _dir;
+	/** The most bytes the sprites in memory may use */
+	private int _budget;
+	/** The bytes the sprites in memory use. Guarded by this */
+	private int _used;
+	/** The sprites in memory by key, least recently used first. Guarded by this */
+	private LinkedHashMap<String, Bitmap> _memory;
+	/** Whether or not the cache directory has been trimmed. Guarded by this */
+	private boolean _trimmed;
+	
+	/**
+	 * Creates a sprite cache with the default memory budget
+	 * @param dir The directory to store sprites in. Created when the first sprite is stored
+	 */
+	public SpriteCache(File dir)
+	{
+		this(dir, DEFAULT_MEMORY_BUDGET);
+	}
+	
+	/**
+	 * Creates a sprite cache
+	 * @param dir The directory to store sprites in. Created when the first sprite is stored
+	 * @param budget The most bytes the sprites kept in memory may use
+	 */
+	public SpriteCache(File dir, int budget)
+	{
+		_dir = dir;
+		_budget = budget;
+		_used = 0;
+		_memory = new LinkedHashMap<String, Bitmap>(16, .75f, true);
+		_trimmed = false;
+	}
+	
+	/**
+	 * Gets a cached sprite, from memory or else from disk
+	 * @param asset The ID of the asset the sprite was made from
+	 * @param version The version of the asset, e.g. the time the app was installed
+	 * @param color The ARGB color the sprite was tinted with, or UNTINTED
+	 * @return The sprite in ARGB_8888, or null if it isn't cached
+	 */
+	public Bitmap get(int asset, long version, int color)
+	{
+		String key = keyFor(asset, version, color);
+		synchronized (this)
+		{
+			trimOnce();
+			Bitmap b = _memory.get(key);
+			if (b != null)
+				return b;
+		}
+		
+		File f = new File(_dir, key);
+		if (!f.isFile())
+			return null;
+		
+		Bitmap b = read(f);
+		if (b == null)
+			f.delete();
+		else
+		{
+			f.setLastModified(System.currentTimeMillis()); // Recently used, for CacheDirectory.trim()
+			remember(key, b);
+		}
+		return b;
+	}
+	
+	/**
+	 * Caches a sprite in memory and on disk. Failing to write it to disk is logged and otherwise ignored
+	 * @param asset The ID of the asset the sprite was made from
+	 * @param version The version of the asset, e.g. the time the app was installed
+	 * @param color The ARGB color the sprite was tinted with, or UNTINTED
+	 * @param b The sprite, in ARGB_8888, which must not be changed or recycled from now on
+	 */
+	public void put(int asset, long version, int color, Bitmap b)
+	{
+		String key = keyFor(asset, version, color);
+		synchronized (this)
+		{
+			trimOnce();
+		}
+		
+		write(new File(_dir, key), b);
+		remember(key, b);
+	}
+	
+	/** Drops every sprite kept in memory. The sprites stay on disk */
+	public synchronized void clear()
+	{
+		_memory.clear();
+		_used = 0;
+	}
+	
+	/** Gets the bytes the sprites kept in memory use */
+	public synchronized int getMemoryBytes()
+	{
+		return _used;
+	}
+	
+	/** Gets the name of the cache file of a sprite, which is also its key in memory */
+	private static String keyFor(int asset, long version, int color)
+	{
+		StringBuilder sb = new StringBuilder(40);
+		sb.append(Integer.toHexString(asset))
+		  .append('-').append(Long.toHexString(version))
+		  .append('-').append(Integer.toHexString(color))
+		  .append(EXTENSION);
+		return sb.toString();
+	}
+	
+	/** Keeps a sprite in memory if it's small enough, evicting the least recently used sprites to stay in budget */
+	private synchronized void remember(String key, Bitmap b)
+	{
+		int bytes = b.getRowBytes() * b.getHeight();
+		if (bytes > _budget / 4)
+			return;
+		
+		Bitmap old = _memory.put(key, b);
+		if (old != null)
+			_used -= old.getRowBytes() * old.getHeight();
+		_used += bytes;
+		
+		Iterator<Map.Entry<String, Bitmap>> it = _memory.entrySet().iterator();
+		while (_used > _budget && it.hasNext())
+		{
+			Bitmap lru = it.next().getValue();
+			if (lru == b)
+				break;
+			it.remove();
+			_used -= lru.getRowBytes() * lru.getHeight();
+		}
+	}
+	
+	/** Reads a cache file, or returns null (and logs why) if it can't be read */
+	private static Bitmap read(File f)
+	{
+		try
+		{
+			RandomAccessFile raf = new RandomAccessFile(f, "r");
+			try
+			{
+				FileChannel channel = raf.getChannel();
+				MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				if (channel.size() < HEADER_SIZE || in.getInt() != MAGIC)
+					return null;
+				
+				int w = in.getInt();
+				int h = in.getInt();
+				if (w <= 0 || h <= 0 || in.remaining() != 4L * w * h)
+					return null;
+				
+				Bitmap b = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+				b.copyPixelsFromBuffer(in);
+				return b;
+			}
+			finally
+			{
+				raf.close();
+			}
+		}
+		catch (IOException ex)
+		{
+			Log.w("SpriteCache", "Can't read cached sprite " + f.getPath(), ex);
+			return null;
+		}
+	}
+	
+	/** Writes a cache file. Failures are logged and otherwise ignored, since the sprite can always be made again */
+	private void write(File f, Bitmap b)
+	{
+		File temp = new File(f.getPath() + "." + Thread.currentThread().getId() + ".tmp"); // Loading threads may write the same sprite at once
+		try
+		{
+			if (!_dir.isDirectory() && !_dir.mkdirs())
+				throw new IOException("Can't create sprite directory " + _dir.getPath());
+			
+			ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + b.getRowBytes() * b.getHeight());
+			buf.putInt(MAGIC).putInt(b.getWidth()).putInt(b.getHeight());
+			b.copyPixelsToBuffer(buf);
+			buf.flip();
+			
+			FileOutputStream out = new FileOutputStream(temp);
+			try
+			{
+				FileChannel channel = out.getChannel();
+				while (buf.hasRemaining())
+					channel.write(buf);
+			}
+			finally
+			{
+				out.close();
+			}
+			
+			if (!temp.renameTo(f))
+				throw new IOException("Can't rename " + temp.getPath() + " to " + f.getPath());
+		}
+		catch (IOException ex)
+		{
+			Log.w("SpriteCache", "Can't write sprite " + f.getPath(), ex);
+			temp.delete();
+		}
+	}
+	
+	/** Trims the cache directory to DISK_BUDGET the first time the cache is used. Called with the lock held */
+	private void trimOnce()
+	{
+		if (_trimmed)
+			return;
+		_trimmed = true;
+		
+		CacheDirectory.trim(_dir, EXTENSION, DISK_BUDGET);
+	}
+}
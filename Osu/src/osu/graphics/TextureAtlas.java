@@ -0,0 +1,158 @@
+package osu.graphics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import android.graphics.Bitmap;
+
+import dkilian.andy.TexturedQuad;
+
+/**
+ * Packs sprites into a few large pages (see AtlasPacker), so that they can be uploaded as a few
+ * textures instead of one each, and so that sprites sharing a page can later be drawn together.
+ * 
+ * Sprites are added by name, then packed into page bitmaps with pack(), which may run on any
+ * thread. Once the pages have been uploaded, region() makes a quad that draws one sprite's part
+ * of its page. Each sprite's edge pixels are copied into the padding around it, so that filtering
+ * at its edges samples the sprite itself, as it would clamped to the edge of its own texture.
+ * 
+ * @author dkilian
+ */
+public class TextureAtlas
+{
+	/** The default largest width of a page. GLES 2 devices commonly support textures at least this large */
+	public static final int PAGE_WIDTH = 2048;
+	/** The default largest height of a page */
+	public static final int PAGE_HEIGHT = 2048;
+	/** The default space around each sprite, filled with copies of its edge */
+	public static final int PADDING = 2;
+	
+	/** Places the sprites */
+	private AtlasPacker _packer;
+	/** The space around each sprite */
+	private int _padding;
+	/** The sprites, in the order added. Dropped once packed */
+	private ArrayList<Bitmap> _sprites;
+	/** Each sprite's index by name */
+	private HashMap<String, Integer> _names;
+	/** The packed pages, or null if not packed yet */
+	private Bitmap[] _pages;
+	
+	/** Creates an empty atlas with the default page size and padding */
+	public TextureAtlas()
+	{
+		this(PAGE_WIDTH, PAGE_HEIGHT, PADDING);
+	}
+	
+	/**
+	 * Creates an empty atlas
+	 * @param pageWidth The largest width of a page, in pixels
+	 * @param pageHeight The largest height of a page, in pixels
+	 * @param padding The space around each sprite, in pixels
+	 */
+	public TextureAtlas(int pageWidth, int pageHeight, int padding)
+	{
+		_packer = new AtlasPacker(pageWidth, pageHeight, padding);
+		_padding = padding;
+		_sprites = new ArrayList<Bitmap>();
+		_names = new HashMap<String, Integer>();
+		_pages = null;
+	}
+	
+	/**
+	 * Adds a sprite
+	 * @param name The name to look the sprite up by in region()
+	 * @param b The sprite's image, which is copied into a page by pack()
+	 * @throws IllegalArgumentException If the sprite doesn't fit on a page, or another sprite has the same name
+	 */
+	public void add(String name, Bitmap b)
+	{
+		if (_names.containsKey(name))
+			throw new IllegalArgumentException("The atlas already has a sprite named " + name);
+		
+		_names.put(name, _packer.add(b.getWidth(), b.getHeight()));
+		_sprites.add(b);
+	}
+	
+	/** Places the sprites and copies them into page bitmaps (in ARGB_8888), each just large enough to hold its sprites */
+	public void pack()
+	{
+		if (_pages != null)
+			return;
+		
+		_packer.pack();
+		_pages = new Bitmap[_packer.getPageCount()];
+		for (int i = 0; i < _pages.length; ++i)
+			_pages[i] = Bitmap.createBitmap(_packer.getUsedWidth(i), _packer.getUsedHeight(i), Bitmap.Config.ARGB_8888);
+		
+		int[] cell = null;
+		for (int i = 0; i < _sprites.size(); ++i)
+		{
+			Bitmap b = _sprites.get(i);
+			int w = b.getWidth(), h = b.getHeight();
+			int p = _padding, cw = w + 2 * p, ch = h + 2 * p;
+			if (cell == null || cell.length < cw * ch)
+				cell = new int[cw * ch];
+			
+			// Copy the sprite into the middle of its cell, then its edges out to the cell's
+			b.getPixels(cell, p * cw + p, cw, 0, 0, w, h);
+			for (int y = p; y < p + h; ++y)
+			{
+				int row = y * cw;
+				for (int x = 0; x < p; ++x)
+				{
+					cell[row + x] = cell[row + p];
+					cell[row + p + w + x] = cell[row + p + w - 1];
+				}
+			}
+			for (int y = 0; y < p; ++y)
+			{
+				System.arraycopy(cell, p * cw, cell, y * cw, cw);
+				System.arraycopy(cell, (p + h - 1) * cw, cell, (p + h + y) * cw, cw);
+			}
+			
+			_pages[_packer.getPage(i)].setPixels(cell, 0, cw, _packer.getX(i) - p, _packer.getY(i) - p, cw, ch);
+		}
+		_sprites = null; // The pages hold copies
+	}
+	
+	/** Gets the number of pages. Only valid once packed */
+	public int getPageCount()
+	{
+		return _pages.length;
+	}
+	
+	/** Gets a page's bitmap, to be uploaded. Only valid once packed */
+	public Bitmap getPage(int page)
+	{
+		return _pages[page];
+	}
+	
+	/** Gets whether or not the atlas has a sprite with the given name */
+	public boolean contains(String name)
+	{
+		return _names.containsKey(name);
+	}
+	
+	/**
+	 * Creates a quad that draws a sprite's part of its page. Only valid once packed
+	 * @param name The sprite's name
+	 * @param pages The uploaded pages, in order. The quad shares its page's texture
+	 * @return A quad the size of the sprite
+	 * @throws IllegalArgumentException If the atlas has no sprite with the given name
+	 */
+	public TexturedQuad region(String name, TexturedQuad[] pages)
+	{
+		Integer i = _names.get(name);
+		if (i == null)
+			throw new IllegalArgumentException("The atlas has no sprite named " + name);
+		
+		int page = _packer.getPage(i);
+		float pw = _pages[page].getWidth(), ph = _pages[page].getHeight();
+		int w = _packer.getWidth(i), h = _packer.getHeight(i);
+		
+		TexturedQuad q = new TexturedQuad(pages[page].getTexture(), w, h);
+		q.setRegion(_packer.getX(i) / pw, _packer.getY(i) / ph, w / pw, h / ph);
+		return q;
+	}
+}
@@ -0,0 +1,519 @@
+package osu.graphics;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import osu.beatmap.BeatmapSource;
+
+import dkilian.andy.TexturedQuad;
+import dkilian.andy.jni.agl;
+
+/**
+ * Keeps small versions of beatmap background images for song select, so that scrolling through
+ * the library never waits on decoding a full-size JPEG.
+ * 
+ * Thumbnails are made on a background thread: the image is decoded at the largest power-of-two
+ * sample size that still covers the thumbnail size, scaled down to fit it, and written to the
+ * cache directory as a small JPEG. The cache file's name is made from the image's path, size and
+ * modification time, so an image that changes gets a new thumbnail and the old one is eventually
+ * trimmed. Requests are served newest first, since the rows the user has scrolled to most recently
+ * are the ones on screen; older requests beyond MAX_REQUESTS are dropped.
+ * 
+ * Decoded thumbnails are uploaded to textures on the GL thread, at most UPLOADS_PER_FRAME per
+ * call to upload(). The textures are kept in a least-recently-used cache limited to a number of
+ * bytes of texture memory. Everything except request(), cancel() and release() must be called on the GL thread.
+ * 
+ * @author dkilian
+ */
+public class ThumbnailCache
+{
+	/** The default maximum thumbnail width, in pixels */
+	public static final int DEFAULT_WIDTH = 256;
+	/** The default maximum thumbnail height, in pixels */
+	public static final int DEFAULT_HEIGHT = 192;
+	/** The default texture memory budget, in bytes (enough for about 40 default-size thumbnails) */
+	public static final int DEFAULT_TEXTURE_BUDGET = 8 * 1024 * 1024;
+	/** The cache directory is trimmed to this many bytes when the decoding thread starts */
+	public static final long DISK_BUDGET = 16 * 1024 * 1024;
+	/** The most thumbnails uploaded to textures in one call to upload(), so uploads don't stall a frame */
+	public static final int UPLOADS_PER_FRAME = 2;
+	/** The most requests kept waiting; the oldest are dropped first */
+	public static final int MAX_REQUESTS = 32;
+	/** The JPEG quality thumbnails are stored at */
+	public static final int JPEG_QUALITY = 85;
+	/** The extension given to cache files */
+	public static final String EXTENSION = ".jpg";
+	
+	/** A thumbnail uploaded to a texture */
+	private static class Entry
+	{
+		/** The thumbnail's texture */
+		public TexturedQuad quad;
+		/** The size of the texture in bytes */
+		public int bytes;
+	}
+	
+	/** A decoded thumbnail waiting to be uploaded, or an image that couldn't be decoded (null bitmap) */
+	private static class Decoded
+	{
+		/** The path of the full-size image */
+		public String path;
+		/** The thumbnail, or null if there is none */
+		public Bitmap bitmap;
+	}
+	
+	/** The directory thumbnails are stored in */
+	private File _dir;
+	/** The maximum thumbnail width in pixels */
+	private int _maxWidth;
+	/** The maximum thumbnail height in pixels */
+	private int _maxHeight;
+	/** The most bytes of texture memory the cached textures may use */
+	private int _budget;
+	/** The bytes of texture memory the cached textures use */
+	private int _used;
+	/** The cached textures by image path, least recently used first. GL thread only */
+	private LinkedHashMap<String, Entry> _textures;
+	/** Images that couldn't be decoded, which aren't requested again. GL thread only */
+	private HashSet<String> _failed;
+	/** Requested image paths, newest last. Also locks the request and result queues */
+	private ArrayList<String> _requests;
+	/** Paths that are requested, being decoded or decoded but not uploaded yet */
+	private HashSet<String> _pending;
+	/** Decoded thumbnails waiting for upload() */
+	private ArrayList<Decoded> _decoded;
+	/** The decoding thread, or null if it hasn't been started */
+	private Thread _thread;
+	/** Whether release() has been called */
+	private volatile boolean _released;
+	
+	/**
+	 * Creates a thumbnail cache with the default thumbnail size and texture budget
+	 * @param dir The directory to store thumbnails in. Created when the first thumbnail is stored.
+	 */
+	public ThumbnailCache(File dir)
+	{
+		this(dir, DEFAULT_WIDTH, DEFAULT_HEIGHT, DEFAULT_TEXTURE_BUDGET);
+	}
+	
+	/**
+	 * Creates a thumbnail cache
+	 * @param dir The directory to store thumbnails in. Created when the first thumbnail is stored.
+	 * @param maxWidth The maximum thumbnail width in pixels
+	 * @param maxHeight The maximum thumbnail height in pixels
+	 * @param budget The most bytes of texture memory the cached thumbnails may use
+	 */
+	public ThumbnailCache(File dir, int maxWidth, int maxHeight, int budget)
+	{
+		_dir = dir;
+		_maxWidth = maxWidth;
+		_maxHeight = maxHeight;
+		_budget = budget;
+		_used = 0;
+		_textures = new LinkedHashMap<String, Entry>(16, .75f, true);
+		_failed = new HashSet<String>();
+		_requests = new ArrayList<String>();
+		_pending = new HashSet<String>();
+		_decoded = new ArrayList<Decoded>();
+		_thread = null;
+		_released = false;
+	}
+	
+	/**
+	 * Gets the thumbnail of an image, requesting it if it isn't uploaded yet. Never blocks on decoding.
+	 * @param path The path of the full-size image
+	 * @return The thumbnail, or null if it isn't ready (or the image can't be decoded)
+	 */
+	public TexturedQuad get(String path)
+	{
+		Entry e = _textures.get(path);
+		if (e != null)
+			return e.quad;
+		
+		if (!_failed.contains(path))
+			request(path);
+		return null;
+	}
+	
+	/**
+	 * Asks for an image's thumbnail to be made in the background, ahead of get(), unless it is already
+	 * uploaded or the image can't be decoded. Unlike request(), doesn't make uploaded thumbnails again.
+	 * @param path The path of the full-size image
+	 */
+	public void prefetch(String path)
+	{
+		if (!_textures.containsKey(path) && !_failed.contains(path)) // containsKey() leaves the use order alone
+			request(path);
+	}
+	
+	/**
+	 * Asks for an image's thumbnail to be made in the background, ahead of get(). This can't check
+	 * the textures, which belong to the GL thread, so a thumbnail that is already uploaded is decoded
+	 * and uploaded again; on the GL thread, use prefetch() instead. May be called from any thread.
+	 * @param path The path of the full-size image
+	 */
+	public void request(String path)
+	{
+		synchronized (_requests)
+		{
+			if (_released)
+				return;
+			
+			if (_pending.contains(path))
+			{
+				// Still queued? Move it to the front; otherwise it's being decoded or waiting for upload
+				if (_requests.remove(path))
+					_requests.add(path);
+				return;
+			}
+			
+			if (_requests.size() >= MAX_REQUESTS)
+				_pending.remove(_requests.remove(0));
+			_requests.add(path);
+			_pending.add(path);
+			
+			if (_thread == null)
+			{
+				_thread = new Thread(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						decodeLoop();
+					}
+				}, "ThumbnailCache");
+				_thread.setPriority(Thread.MIN_PRIORITY);
+				_thread.setDaemon(true);
+				_thread.start();
+			}
+			else
+				_requests.notify();
+		}
+	}
+	
+	/**
+	 * Drops the requests that haven't started decoding, e.g. when the rows that made them scrolled
+	 * out of view. May be called from any thread.
+	 */
+	public void cancel()
+	{
+		synchronized (_requests)
+		{
+			_pending.removeAll(_requests);
+			_requests.clear();
+		}
+	}
+	
+	/**
+	 * Uploads up to UPLOADS_PER_FRAME decoded thumbnails to textures, evicting the least recently
+	 * used textures to stay in budget. Call once per frame, before get().
+	 */
+	public void upload()
+	{
+		for (int i = 0; i < UPLOADS_PER_FRAME; ++i)
+		{
+			Decoded d;
+			synchronized (_requests)
+			{
+				if (_decoded.isEmpty())
+					return;
+				d = _decoded.remove(0);
+				_pending.remove(d.path);
+			}
+			
+			if (d.bitmap == null)
+			{
+				_failed.add(d.path);
+				continue;
+			}
+			
+			Entry e = new Entry();
+			e.quad = new TexturedQuad(d.bitmap);
+			e.bytes = d.bitmap.getRowBytes() * d.bitmap.getHeight();
+			d.bitmap.recycle();
+			
+			Entry old = _textures.put(d.path, e);
+			if (old != null)
+				delete(old);
+			_used += e.bytes;
+			
+			// Evict, but never the texture just uploaded
+			Iterator<Map.Entry<String, Entry>> it = _textures.entrySet().iterator();
+			while (_used > _budget && it.hasNext())
+			{
+				Entry lru = it.next().getValue();
+				if (lru == e)
+					break;
+				it.remove();
+				delete(lru);
+			}
+		}
+	}
+	
+	/**
+	 * Deletes every cached texture. The thumbnails stay on disk, and are uploaded again when requested.
+	 */
+	public void clear()
+	{
+		for (Entry e : _textures.values())
+			agl.DeleteTexture(e.quad.getTexture());
+		_textures.clear();
+		_failed.clear();
+		_used = 0;
+	}
+	
+	/**
+	 * Stops the decoding thread and drops every request and decoded thumbnail. Call clear() on the
+	 * GL thread as well to delete the textures. May be called from any thread.
+	 */
+	public void release()
+	{
+		synchronized (_requests)
+		{
+			_released = true;
+			_requests.clear();
+			_pending.clear();
+			for (int i = 0; i < _decoded.size(); ++i)
+				if (_decoded.get(i).bitmap != null)
+					_decoded.get(i).bitmap.recycle();
+			_decoded.clear();
+			_requests.notify();
+		}
+	}
+	
+	/** Gets the bytes of texture memory the cached thumbnails use */
+	public int getTextureBytes()
+	{
+		return _used;
+	}
+	
+	/** Gets the number of thumbnails uploaded to textures */
+	public int getTextureCount()
+	{
+		return _textures.size();
+	}
+	
+	/** Deletes an evicted entry's texture */
+	private void delete(Entry e)
+	{
+		agl.DeleteTexture(e.quad.getTexture());
+		_used -= e.bytes;
+	}
+	
+	/**
+	 * Gets the cache file used for an image's thumbnail
+	 * @param path The path of the full-size image
+	 * @param size The size of the image file in bytes
+	 * @param mtime The modification time of the image file
+	 */
+	public File cacheFileFor(String path, long size, long mtime)
+	{
+		CRC32 crc = new CRC32();
+		for (int i = 0; i < path.length(); ++i)
+		{
+			char c = path.charAt(i);
+			crc.update(c >>> 8);
+			crc.update(c);
+		}
+		
+		StringBuilder sb = new StringBuilder(64);
+		sb.append(Integer.toHexString(path.hashCode())).append(Long.toHexString(crc.getValue()))
+		  .append('-').append(Long.toHexString(size))
+		  .append('-').append(Long.toHexString(mtime))
+		  .append(EXTENSION);
+		return new File(_dir, sb.toString());
+	}
+	
+	/**
+	 * Makes the thumbnails of requested images, newest request first, until release() is called
+	 */
+	private void decodeLoop()
+	{
+		CacheDirectory.trim(_dir, EXTENSION, DISK_BUDGET);
+		
+		while (true)
+		{
+			Decoded d = new Decoded();
+			synchronized (_requests)
+			{
+				while (_requests.isEmpty() && !_released)
+				{
+					try
+					{
+						_requests.wait();
+					}
+					catch (InterruptedException ex)
+					{
+						return;
+					}
+				}
+				if (_released)
+					return;
+				
+				d.path = _requests.remove(_requests.size() - 1);
+			}
+			
+			try
+			{
+				d.bitmap = thumbnail(d.path);
+			}
+			catch (IOException ex)
+			{
+				Log.w("ThumbnailCache", "Can't read " + d.path, ex);
+				d.bitmap = null;
+			}
+			catch (RuntimeException ex) // A corrupt image
+			{
+				Log.w("ThumbnailCache", "Can't make a thumbnail of " + d.path, ex);
+				d.bitmap = null;
+			}
+			catch (OutOfMemoryError ex)
+			{
+				Log.w("ThumbnailCache", "Out of memory making a thumbnail of " + d.path);
+				d.bitmap = null;
+			}
+			
+			synchronized (_requests)
+			{
+				if (_released || !_pending.contains(d.path))
+				{
+					if (d.bitmap != null)
+						d.bitmap.recycle();
+				}
+				else
+					_decoded.add(d);
+			}
+		}
+	}
+	
+	/**
+	 * Loads an image's thumbnail from the cache directory, or makes it and stores it there
+	 * @param path The path of the full-size image, which may be in a .osz archive
+	 * @return The thumbnail in ARGB_8888, or null if the image doesn't exist or can't be decoded
+	 */
+	private Bitmap thumbnail(String path) throws IOException
+	{
+		BeatmapSource set = BeatmapSource.forPath(path); // The image may be in a .osz archive
+		String name = set.nameOf(path);
+		if (!set.exists(name))
+			return null;
+		
+		BitmapFactory.Options opt = new BitmapFactory.Options();
+		opt.inPreferredConfig = Bitmap.Config.ARGB_8888;
+		
+		File cache = cacheFileFor(path, set.length(name), set.lastModified(name));
+		if (cache.isFile())
+		{
+			Bitmap b = BitmapFactory.decodeFile(cache.getPath(), opt);
+			if (b != null)
+			{
+				cache.setLastModified(System.currentTimeMillis()); // Recently used, for CacheDirectory.trim()
+				return argb(b);
+			}
+			cache.delete();
+		}
+		
+		// Find the image's size, then decode it at the largest sample size that still covers the thumbnail
+		opt.inJustDecodeBounds = true;
+		decode(set, name, opt);
+		if (opt.outWidth <= 0 || opt.outHeight <= 0)
+			return null;
+		
+		int sample = 1;
+		while (opt.outWidth / (sample * 2) >= _maxWidth && opt.outHeight / (sample * 2) >= _maxHeight)
+			sample *= 2;
+		opt.inJustDecodeBounds = false;
+		opt.inSampleSize = sample;
+		
+		Bitmap b = decode(set, name, opt);
+		if (b == null)
+			return null;
+		
+		// Fit the thumbnail size, keeping the aspect ratio. Even dimensions, like Prerender's textures
+		float scale = Math.min(1.f, Math.min((float)_maxWidth / b.getWidth(), (float)_maxHeight / b.getHeight()));
+		int w = Math.max(2, (int)(b.getWidth() * scale) & ~1);
+		int h = Math.max(2, (int)(b.getHeight() * scale) & ~1);
+		if (w != b.getWidth() || h != b.getHeight())
+		{
+			Bitmap scaled = Bitmap.createScaledBitmap(b, w, h, true);
+			if (scaled != b)
+				b.recycle();
+			b = scaled;
+		}
+		
+		store(cache, b);
+		return argb(b);
+	}
+	
+	/** Decodes an image in a beatmap set */
+	private static Bitmap decode(BeatmapSource set, String name, BitmapFactory.Options opt) throws IOException
+	{
+		InputStream in = set.open(name);
+		try
+		{
+			return BitmapFactory.decodeStream(in, null, opt);
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+	
+	/**
+	 * Writes a thumbnail to its cache file. Failures are logged and otherwise ignored,
+	 * since the thumbnail can always be made again.
+	 */
+	private void store(File cache, Bitmap b)
+	{
+		File temp = new File(cache.getPath() + ".tmp");
+		try
+		{
+			if (!_dir.isDirectory() && !_dir.mkdirs())
+				throw new IOException("Can't create thumbnail directory " + _dir.getPath());
+			
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(temp));
+			try
+			{
+				if (!b.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out))
+					throw new IOException("Can't compress thumbnail");
+			}
+			finally
+			{
+				out.close();
+			}
+			
+			if (!temp.renameTo(cache))
+				throw new IOException("Can't rename " + temp.getPath() + " to " + cache.getPath());
+		}
+		catch (IOException ex)
+		{
+			Log.w("ThumbnailCache", "Can't write thumbnail " + cache.getPath(), ex);
+			temp.delete();
+		}
+	}
+	
+	/** Normalizes a decoded thumbnail to ARGB_8888 (see TexturedQuad.fromResource()) */
+	private static Bitmap argb(Bitmap b)
+	{
+		if (b.getConfig() == Bitmap.Config.ARGB_8888)
+			return b;
+		
+		Bitmap copy = b.copy(Bitmap.Config.ARGB_8888, false);
+		b.recycle();
+		return copy;
+	}
+}
@@ -0,0 +1,284 @@
+package osu.graphics;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Tints and composites images held as int[] buffers of non-premultiplied ARGB pixels (the format of
+ * Bitmap.getPixels()), using 8-bit fixed-point arithmetic. Pure Java, so it runs the same on and off
+ * the device.
+ * 
+ * A tint multiplies each pixel's RGB components by a color and leaves alpha alone, as BitmapTint
+ * always has. compose() tints the body of a sprite and draws it over its shadow and under its chrome
+ * (as Canvas would with the default paint) in one pass over the pixels, without the tinted body or
+ * partial results ever being stored.
+ * 
+ * Images of at least PARALLEL_THRESHOLD pixels are split into bands of rows, one per worker thread.
+ * Buffers from scratch() of up to MAX_KEPT_SCRATCH pixels are kept and reused by later calls, so a
+ * kernel (and its scratch buffers) must be used by one thread at a time. Larger buffers are made for
+ * each call and not kept, so that one large image doesn't pin megabytes of heap for good.
+ * 
+ * @author dkilian
+ */
+public class TintKernel
+{
+	/** Images with at least this many pixels are split across worker threads */
+	public static final int PARALLEL_THRESHOLD = 64 * 1024;
+	/** The number of scratch buffers */
+	public static final int SCRATCH_SLOTS = 4;
+	/** The largest scratch buffer kept between calls, in pixels: enough for the button and ring sprites */
+	public static final int MAX_KEPT_SCRATCH = 128 * 128;
+	
+	/** 65536 * 255 / a, rounded, for undoing premultiplication by a */
+	private static final int[] UNPREMULTIPLY = new int[256];
+	
+	static
+	{
+		for (int a = 1; a < 256; ++a)
+			UNPREMULTIPLY[a] = (255 * 65536 + a / 2) / a;
+	}
+	
+	/** Work on a band of rows */
+	private interface Rows
+	{
+		/** Processes rows [from, to) */
+		public void run(int from, int to);
+	}
+	
+	/** The number of bands a large image is split into */
+	private int _threads;
+	/** Runs every band but the first, which the calling thread runs. Created on first use */
+	private ExecutorService _pool;
+	/** Scratch buffers, by slot */
+	private int[][] _scratch;
+	
+	/** Creates a kernel that splits large images across every core */
+	public TintKernel()
+	{
+		this(Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Creates a kernel
+	 * @param threads The most threads, counting the calling thread, a large image is split across
+	 */
+	public TintKernel(int threads)
+	{
+		_threads = Math.max(threads, 1);
+		_pool = null;
+		_scratch = new int[SCRATCH_SLOTS][];
+	}
+	
+	/**
+	 * Gets a scratch buffer, which is reused by later calls with the same slot if it holds at most
+	 * MAX_KEPT_SCRATCH pixels. Larger buffers are new for every call
+	 * @param slot Which buffer, in [0, SCRATCH_SLOTS)
+	 * @param size The least number of pixels the buffer must hold
+	 */
+	public int[] scratch(int slot, int size)
+	{
+		if (size > MAX_KEPT_SCRATCH)
+			return new int[size];
+		if (_scratch[slot] == null || _scratch[slot].length < size)
+			_scratch[slot] = new int[size];
+		return _scratch[slot];
+	}
+	
+	/** Drops the scratch buffers and stops the worker threads. The kernel may still be used, and starts them again */
+	public synchronized void release()
+	{
+		_scratch = new int[SCRATCH_SLOTS][];
+		if (_pool != null)
+			_pool.shutdown();
+		_pool = null;
+	}
+	
+	/** Converts a color component in [0, 255] to a fixed-point factor in [0, 256], so that 255 leaves pixels unchanged */
+	public static int factor(int c)
+	{
+		return c + (c >>> 7);
+	}
+	
+	/**
+	 * Tints an image
+	 * @param src The image's pixels
+	 * @param dst Receives the tinted pixels. May be src
+	 * @param w The width of the image
+	 * @param h The height of the image
+	 * @param r The red component of the tint color, in [0, 255]
+	 * @param g The green component of the tint color, in [0, 255]
+	 * @param b The blue component of the tint color, in [0, 255]
+	 */
+	public void tint(final int[] src, final int[] dst, final int w, int h, int r, int g, int b)
+	{
+		final int fr = factor(r), fg = factor(g), fb = factor(b);
+		run(w, h, new Rows()
+		{
+			@Override
+			public void run(int from, int to)
+			{
+				for (int i = from * w, end = to * w; i < end; ++i)
+				{
+					int p = src[i];
+					dst[i] = (p & 0xff000000)
+					       | ((((p >>> 16) & 0xff) * fr >> 8) << 16)
+					       | ((((p >>> 8) & 0xff) * fg >> 8) << 8)
+					       | ((p & 0xff) * fb >> 8);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Tints a sprite's body and draws it over its shadow and under its chrome, in one pass. All three
+	 * images must have the same dimensions
+	 * @param shadow The pixels drawn first, untinted, or null for none
+	 * @param body The pixels to tint, drawn over the shadow
+	 * @param chrome The pixels drawn last, untinted, or null for none
+	 * @param dst Receives the composited pixels. May be one of the inputs
+	 * @param w The width of the images
+	 * @param h The height of the images
+	 * @param r The red component of the body's tint color, in [0, 255]
+	 * @param g The green component of the body's tint color, in [0, 255]
+	 * @param b The blue component of the body's tint color, in [0, 255]
+	 */
+	public void compose(final int[] shadow, final int[] body, final int[] chrome, final int[] dst, final int w, int h, int r, int g, int b)
+	{
+		final int fr = factor(r), fg = factor(g), fb = factor(b);
+		run(w, h, new Rows()
+		{
+			@Override
+			public void run(int from, int to)
+			{
+				for (int i = from * w, end = to * w; i < end; ++i)
+				{
+					int p = 0; // Premultiplied
+					if (shadow != null)
+						p = over(p, shadow[i], 256, 256, 256);
+					p = over(p, body[i], fr, fg, fb);
+					if (chrome != null)
+						p = over(p, chrome[i], 256, 256, 256);
+					dst[i] = unpremultiply(p);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Draws a tinted pixel over a premultiplied one
+	 * @param dst The premultiplied pixel drawn over
+	 * @param src The non-premultiplied pixel to draw
+	 * @param fr, fg, fb The tint factors (see factor())
+	 * @return The premultiplied result
+	 */
+	private static int over(int dst, int src, int fr, int fg, int fb)
+	{
+		int sa = src >>> 24;
+		if (sa == 0)
+			return dst;
+		
+		int inv = 255 - sa;
+		int a = sa + mul255(dst >>> 24, inv);
+		int r = mul255(((src >>> 16) & 0xff) * fr >> 8, sa) + mul255((dst >>> 16) & 0xff, inv);
+		int g = mul255(((src >>> 8) & 0xff) * fg >> 8, sa) + mul255((dst >>> 8) & 0xff, inv);
+		int b = mul255((src & 0xff) * fb >> 8, sa) + mul255(dst & 0xff, inv);
+		return (a << 24) | (r << 16) | (g << 8) | b;
+	}
+	
+	/** Converts a premultiplied pixel back to non-premultiplied */
+	private static int unpremultiply(int p)
+	{
+		int a = p >>> 24;
+		if (a == 0)
+			return 0;
+		if (a == 255)
+			return p;
+		
+		int k = UNPREMULTIPLY[a];
+		int r = Math.min(255, (((p >>> 16) & 0xff) * k + 32768) >>> 16);
+		int g = Math.min(255, (((p >>> 8) & 0xff) * k + 32768) >>> 16);
+		int b = Math.min(255, ((p & 0xff) * k + 32768) >>> 16);
+		return (a << 24) | (r << 16) | (g << 8) | b;
+	}
+	
+	/** Computes x * y / 255 for x, y in [0, 255], rounded to nearest */
+	private static int mul255(int x, int y)
+	{
+		int t = x * y + 128;
+		return (t + (t >>> 8)) >>> 8;
+	}
+	
+	/** Runs work over every row of an image, split into bands across the worker threads if the image is large */
+	private void run(int w, int h, final Rows rows)
+	{
+		int bands = (long)w * h >= PARALLEL_THRESHOLD ? Math.min(_threads, h) : 1;
+		if (bands <= 1)
+		{
+			rows.run(0, h);
+			return;
+		}
+		
+		ExecutorService pool = pool();
+		ArrayList<Future<?>> futures = new ArrayList<Future<?>>(bands - 1);
+		for (int i = 1; i < bands; ++i)
+		{
+			final int from = h * i / bands, to = h * (i + 1) / bands;
+			futures.add(pool.submit(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					rows.run(from, to);
+				}
+			}));
+		}
+		
+		rows.run(0, h / bands);
+		
+		boolean interrupted = false;
+		for (int i = 0; i < futures.size(); ++i)
+		{
+			while (true)
+			{
+				try
+				{
+					futures.get(i).get();
+					break;
+				}
+				catch (InterruptedException ex)
+				{
+					interrupted = true; // The bands still have to finish before their buffers can be used
+				}
+				catch (ExecutionException ex)
+				{
+					throw new RuntimeException(ex.getCause());
+				}
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+	
+	/** Gets the worker threads, starting them if need be */
+	private synchronized ExecutorService pool()
+	{
+		if (_pool == null)
+		{
+			_pool = Executors.newFixedThreadPool(_threads - 1, new ThreadFactory()
+			{
+				@Override
+				public Thread newThread(Runnable r)
+				{
+					Thread t = new Thread(r, "TintKernel");
+					t.setDaemon(true); // Idle workers shouldn't keep the process alive
+					return t;
+				}
+			});
+		}
+		return _pool;
+	}
+}
@@ -0,0 +1,147 @@
+package osu.graphics;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import android.graphics.Bitmap;
+
+import dkilian.andy.TexturedQuad;
+import dkilian.andy.jni.agl;
+
+/**
+ * Uploads bitmaps to textures on the GL thread for threads that can't make GL calls themselves.
+ * 
+ * Any thread submits a bitmap and gets a future for its quad back straight away, so it can go on
+ * preparing the next bitmap while earlier ones wait to be uploaded. The GL thread calls upload()
+ * once per frame, which uploads bitmaps in the order they were submitted until a time budget is
+ * spent. A thread that needs a quad waits on its future, which blocks rather than spins.
+ * 
+ * Every quad uploaded is remembered, so the textures of a load that is abandoned can be deleted
+ * with deleteAll().
+ * 
+ * @author dkilian
+ */
+public class UploadQueue
+{
+	/** The default time upload() may spend per frame, in nanoseconds */
+	public static final long DEFAULT_BUDGET = 4 * 1000 * 1000;
+	
+	/** Uploads waiting for the GL thread. Guarded by this */
+	private LinkedList<FutureTask<TexturedQuad>> _pending;
+	/** Every quad uploaded so far. Guarded by this */
+	private ArrayList<TexturedQuad> _uploaded;
+	/** The time upload() may spend per frame, in nanoseconds */
+	private volatile long _budget;
+	/** Whether or not cancelAll() has been called, after which submitted uploads are cancelled straight away */
+	private boolean _cancelled;
+	
+	/** Creates an empty upload queue with the default budget */
+	public UploadQueue()
+	{
+		_pending = new LinkedList<FutureTask<TexturedQuad>>();
+		_uploaded = new ArrayList<TexturedQuad>();
+		_budget = DEFAULT_BUDGET;
+		_cancelled = false;
+	}
+	
+	/** Gets the time upload() may spend per frame, in nanoseconds */
+	public long getBudget()
+	{
+		return _budget;
+	}
+	
+	/** Sets the time upload() may spend per frame, in nanoseconds. At least one bitmap is uploaded per call regardless */
+	public void setBudget(long nanos)
+	{
+		_budget = nanos;
+	}
+	
+	/**
+	 * Queues a bitmap to be uploaded to a texture. May be called from any thread
+	 * @param b The bitmap, which must not be changed or recycled until the upload is done
+	 * @return The future quad. Its get() throws CancellationException if the upload is cancelled
+	 */
+	public Future<TexturedQuad> submit(final Bitmap b)
+	{
+		FutureTask<TexturedQuad> task = new FutureTask<TexturedQuad>(new Callable<TexturedQuad>()
+		{
+			@Override
+			public TexturedQuad call()
+			{
+				TexturedQuad quad = new TexturedQuad(b);
+				synchronized (UploadQueue.this)
+				{
+					_uploaded.add(quad);
+				}
+				return quad;
+			}
+		});
+		
+		synchronized (this)
+		{
+			if (_cancelled)
+				task.cancel(false);
+			else
+				_pending.add(task);
+		}
+		return task;
+	}
+	
+	/**
+	 * Uploads queued bitmaps until the time budget is spent. Call on the GL thread
+	 * @return The number of bitmaps uploaded
+	 */
+	public int upload()
+	{
+		long deadline = System.nanoTime() + _budget;
+		int uploaded = 0;
+		do
+		{
+			FutureTask<TexturedQuad> task;
+			synchronized (this)
+			{
+				task = _pending.poll();
+			}
+			if (task == null)
+				break;
+			
+			task.run(); // Does nothing if the task was cancelled
+			++uploaded;
+		}
+		while (System.nanoTime() < deadline);
+		
+		return uploaded;
+	}
+	
+	/** Gets the number of bitmaps waiting to be uploaded */
+	public synchronized int getPendingCount()
+	{
+		return _pending.size();
+	}
+	
+	/** Cancels every waiting upload and every upload submitted from now on, waking any thread waiting on one */
+	public void cancelAll()
+	{
+		ArrayList<FutureTask<TexturedQuad>> cancelled;
+		synchronized (this)
+		{
+			_cancelled = true;
+			cancelled = new ArrayList<FutureTask<TexturedQuad>>(_pending);
+			_pending.clear();
+		}
+		
+		for (int i = 0; i < cancelled.size(); ++i)
+			cancelled.get(i).cancel(false);
+	}
+	
+	/** Deletes the texture of every quad uploaded so far. Call on the GL thread */
+	public synchronized void deleteAll()
+	{
+		for (int i = 0; i < _uploaded.size(); ++i)
+			agl.DeleteTexture(_uploaded.get(i).getTexture());
+		_uploaded.clear();
+	}
+}
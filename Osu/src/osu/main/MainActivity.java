@@ -6,6 +6,13 @@ import dkilian.andy.Screen;
 
 public class MainActivity extends KernelActivity
 {
+	/** 
+	 * Boolean launch flag: beatmaps played from song select apply edits to their .osu files while
+	 * they're played (see BeatmapWatcher), for mapping on the device. Set it when launching, e.g.
+	 * <code>adb shell am start -n osu.main/.MainActivity --ez osu.main.WATCH true</code>
+	 */
+	public static final String EXTRA_WATCH = "osu.main.WATCH";
+	
 	@Override
 	protected boolean enableOpenGL() 
 	{
@@ -1,27 +1,67 @@
 package osu.menu;
 
-import osu.beatmap.Metadata;
-
 /**
  * Used to describe a single beatmap file on disk (only one for one difficulty).
  * Contains the file's metadata and the path to the file.
  */
 public class BeatmapDescriptor implements Comparable<BeatmapDescriptor> {
-
-	private Metadata metadata;
+	
+	private CompactMetadata metadata; // Strings are shared through the library's StringPool
 	private String path; // Absolute path
 	
+	// General
+	private String audio_filename;
+	private long preview_time;
+	private String background_filename; // From [Events]
+	
+	// Difficulty
+	private int hp_drain_rate;
+	private int circle_size;
 	private int overall_difficulty;
+	private int approach_rate;
+	private float slider_multiplier;
+	private float slider_tick_rate;
+	
+	private int hit_object_count; // -1 if unknown
+	private int circle_count, slider_count, spinner_count; // -1 if unknown
+	private long length; // Start (or spinner end) time of the last hit object in millis, -1 if unknown
+	private float min_bpm, max_bpm; // -1 if unknown
+	
+	// File (for telling whether the summary is still up to date)
+	private long file_size; // In bytes, -1 if unknown
+	private long last_modified; // As File.lastModified(), -1 if unknown
+	private int checksum; // CRC32 of the whole file, 0 if unknown
 	
 	
 	// *** CONSTRUCTORS *** //
 	public BeatmapDescriptor(String file_path)
 	{
-		metadata = new Metadata();
+		metadata = null;
 		
 		path = file_path;
 		
+		audio_filename = null;
+		preview_time = -1;
+		background_filename = null;
+		
+		hp_drain_rate = -1;
+		circle_size = -1;
 		overall_difficulty = -1;
+		approach_rate = -1;
+		slider_multiplier = -1;
+		slider_tick_rate = -1;
+		
+		hit_object_count = -1;
+		circle_count = -1;
+		slider_count = -1;
+		spinner_count = -1;
+		length = -1;
+		min_bpm = -1;
+		max_bpm = -1;
+		
+		file_size = -1;
+		last_modified = -1;
+		checksum = 0;
 	}
 	
 	
@@ -39,13 +79,57 @@ public class BeatmapDescriptor implements Comparable<BeatmapDescriptor> {
 	
 	
 	// *** ACCESSORS *** //
-	public void setMetadata(Metadata meta) { metadata = meta; }
+	public void setMetadata(CompactMetadata meta) { metadata = meta; }
+	public void setAudioFilename(String s) { audio_filename = s; }
+	public void setPreviewTime(long l) { preview_time = l; }
+	public void setBackgroundFilename(String s) { background_filename = s; }
+	public void setHPDrainRate(int i) { hp_drain_rate = i; }
+	public void setCircleSize(int i) { circle_size = i; }
 	public void setOverallDifficulty(int i) { overall_difficulty = i; }
+	public void setApproachRate(int i) { approach_rate = i; }
+	public void setSliderMultiplier(float f) { slider_multiplier = f; }
+	public void setSliderTickRate(float f) { slider_tick_rate = f; }
+	public void setHitObjectCount(int i) { hit_object_count = i; }
+	public void setHitObjectCounts(int circles, int sliders, int spinners) { circle_count = circles; slider_count = sliders; spinner_count = spinners; }
+	public void setLength(long l) { length = l; }
+	public void setBPMRange(float min, float max) { min_bpm = min; max_bpm = max; }
+	public void setFileSize(long l) { file_size = l; }
+	public void setLastModified(long l) { last_modified = l; }
+	public void setChecksum(int i) { checksum = i; }
 	
 	
-	public Metadata getMetadata() { return metadata; }
+	/** Returns the metadata, or null if it hasn't been set */
+	public CompactMetadata getMetadata() { return metadata; }
 	/** Returns the absolute path to the file */
 	public String getPath() { return path; }
+	/** Returns the audio file name relative to the beatmap's directory, or null if none was given */
+	public String getAudioFilename() { return audio_filename; }
+	/** Returns the song preview time in milliseconds, or -1 if none was given */
+	public long getPreviewTime() { return preview_time; }
+	/** Returns the background image file name relative to the beatmap's directory, or null if none was given */
+	public String getBackgroundFilename() { return background_filename; }
+	public int getHPDrainRate() { return hp_drain_rate; }
+	public int getCircleSize() { return circle_size; }
 	public int getOverallDifficulty() { return overall_difficulty; }
+	public int getApproachRate() { return approach_rate; }
+	public float getSliderMultiplier() { return slider_multiplier; }
+	public float getSliderTickRate() { return slider_tick_rate; }
+	/** Returns the number of hit objects in the beatmap, or -1 if they were not counted */
+	public int getHitObjectCount() { return hit_object_count; }
+	public int getCircleCount() { return circle_count; }
+	public int getSliderCount() { return slider_count; }
+	public int getSpinnerCount() { return spinner_count; }
+	/** Returns the start time (end time for spinners) of the last hit object in milliseconds, or -1 if unknown */
+	public long getLength() { return length; }
+	/** Returns the lowest BPM of the beatmap's timing points, or -1 if unknown */
+	public float getMinBPM() { return min_bpm; }
+	/** Returns the highest BPM of the beatmap's timing points, or -1 if unknown */
+	public float getMaxBPM() { return max_bpm; }
+	/** Returns the size of the file when it was scanned, or -1 if unknown */
+	public long getFileSize() { return file_size; }
+	/** Returns the modification time of the file when it was scanned, or -1 if unknown */
+	public long getLastModified() { return last_modified; }
+	/** Returns the CRC32 of the file's contents, or 0 if unknown */
+	public int getChecksum() { return checksum; }
 	
 }
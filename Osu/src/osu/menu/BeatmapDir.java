@@ -2,8 +2,6 @@ package osu.menu;
 
 import java.util.ArrayList;
 
-import osu.beatmap.Metadata;
-
 /**
  * Holds several BeatmapDescriptors to represent a single song on the disk.
  * File paths to the beatmaps are found in the beatmaps themselves while the path
@@ -17,7 +15,7 @@ public class BeatmapDir implements Comparable<BeatmapDir> {
 
 	private boolean exists; // Tells whether or not any beatmap files exist in this dir
 	
-	private Metadata metadata; // Metadata taken from the first file found - all information useful EXCEPT version (that's difficulty)
+	private CompactMetadata metadata; // Metadata taken from the first file found - all information useful EXCEPT version (that's difficulty)
 	private ArrayList<BeatmapDescriptor> beatmaps;
 	private String path; // Absolute path
 	
@@ -29,14 +27,18 @@ public class BeatmapDir implements Comparable<BeatmapDir> {
 		metadata = null;
 		
 		beatmaps = new ArrayList<BeatmapDescriptor>();
-		dir_path = path;
+		path = dir_path;
 	}
 	
 	
 	// *** IMPORTANT METHODS *** //
-	/** Returns comparison of BeatmapDir by title (alphabetical ordering) */
+	/** Returns comparison of BeatmapDir by title (alphabetical ordering), then by path so the order doesn't depend on the order dirs were found in */
 	@Override
-	public int compareTo(BeatmapDir another) { return this.metadata.title.compareTo(another.metadata.title); }
+	public int compareTo(BeatmapDir another)
+	{
+		int c = this.metadata.getTitle().compareTo(another.metadata.getTitle());
+		return c != 0 ? c : this.path.compareTo(another.path);
+	}
 	
 	
 	// *** ACCESSORS *** //
@@ -75,7 +77,7 @@ public class BeatmapDir implements Comparable<BeatmapDir> {
 	/** Says whether or not any beatmap files exist in this dir */
 	public boolean exists() { return exists; }
 	
-	public Metadata getMetadata() { return metadata; }
+	public CompactMetadata getMetadata() { return metadata; }
 	public ArrayList<BeatmapDescriptor> getBeatmapDescriptors() { return beatmaps; }
 	/** Returns the absolute path to the file */
 	public String getPath() { return path; }
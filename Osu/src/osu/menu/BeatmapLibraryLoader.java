@@ -4,16 +4,20 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
-import osu.beatmap.Metadata;
+import osu.beatmap.BeatmapSource;
 import osu.parser.ParseException;
-import osu.parser.Parser;
+import osu.parser.SummaryScanner;
 
 import android.util.Log;
 
 /**
  * Given a path to the beatmap library directory, loads all BeatmapDirs in that path,
- * and their subsequent BeatampDiscriptors.
+ * and their subsequent BeatampDiscriptors. A BeatmapDir is either a song directory or a .osz
+ * archive, which is read without extracting it.
  */
 public class BeatmapLibraryLoader {
 	
@@ -26,26 +30,78 @@ public class BeatmapLibraryLoader {
 	 */
 	public static ArrayList<BeatmapDir> getBeatmapDirs(String lib_path) throws IOException
 	{
-		Parser parser = new Parser();
-		ArrayList<BeatmapDir> lib = new ArrayList<BeatmapDir>();
+		return getBeatmapDirs(lib_path, new StringPool());
+	}
+	
+	
+	/**
+	 * Returns an ArrayList of BeatmapDir to represent the osu! beatmap library at the given path,
+	 * with the metadata strings of all beatmaps interned in the given pool.
+	 * 
+	 * @see #getBeatmapDirs(String)
+	 */
+	public static ArrayList<BeatmapDir> getBeatmapDirs(String lib_path, StringPool pool) throws IOException
+	{
+		return getBeatmapDirs(lib_path, pool, null);
+	}
+	
+	
+	/**
+	 * Returns an ArrayList of BeatmapDir to represent the osu! beatmap library at the given path,
+	 * reusing the summaries in the given index for files that haven't changed since they were
+	 * indexed (same size, and same modification time or checksum). Only new and changed files are
+	 * scanned. The index is brought up to date and flushed.
+	 * 
+	 * @param index The index, or null to scan every file.
+	 * @see #getBeatmapDirs(String)
+	 */
+	public static ArrayList<BeatmapDir> getBeatmapDirs(String lib_path, StringPool pool, LibraryIndex index) throws IOException
+	{
+		return getBeatmapDirs(lib_path, pool, index, new LibraryWalker());
+	}
+	
+	
+	/**
+	 * Returns an ArrayList of BeatmapDir to represent the osu! beatmap library at the given path,
+	 * listing and scanning the song directories on the walker's threads.
+	 * 
+	 * @see #getBeatmapDirs(String, StringPool, LibraryIndex)
+	 */
+	public static ArrayList<BeatmapDir> getBeatmapDirs(String lib_path, StringPool pool, final LibraryIndex index, LibraryWalker walker) throws IOException
+	{
+		final Set<String> seen = Collections.synchronizedSet(new HashSet<String>()); // Paths of the beatmap files found
+		final List<BeatmapDir> found = Collections.synchronizedList(new ArrayList<BeatmapDir>());
 		
 		// Open library dir
 		File lib_dir = new File(lib_path);
-		if (!lib_dir.isDirectory())
+		File[] dirs = lib_dir.listFiles();
+		if (!lib_dir.isDirectory() || dirs == null)
 			throw new IOException("Specified lib_path is not a directory.");
 		
-		// Iterate through beatmap dirs in lib
-		for (File cur : lib_dir.listFiles())
-		{
-			if (!cur.isDirectory()) // Only get directories
-				continue;
-			
-			try {
-				// Access & add the internal beatmap
-				lib.add(handleBeatmapDir(parser, cur));
-			} catch (IOException ex) {
-				Log.e("BeatmapLibraryLoader.getBeatmapDirs", "Error loading beatmap files: " + ex.toString());
+		// Iterate through beatmap dirs in lib, in no particular order
+		walker.walk(dirs, pool, new LibraryWalker.Visitor() {
+			@Override
+			public boolean visit(BeatmapSource set, String[] beatmaps, SummaryScanner scanner)
+			{
+				try {
+					// Access & add the internal beatmap
+					found.add(handleBeatmapDir(scanner, set, beatmaps, index, seen));
+				} catch (IOException ex) {
+					Log.e("BeatmapLibraryLoader.getBeatmapDirs", "Error loading beatmap files: " + ex.toString());
+				}
+				return true;
 			}
+		});
+		ArrayList<BeatmapDir> lib = new ArrayList<BeatmapDir>(found);
+		
+		// Forget files that are gone
+		if (index != null)
+		{
+			ArrayList<String> indexed = index.getPaths();
+			for (int i = 0; i < indexed.size(); ++i)
+				if (!seen.contains(indexed.get(i)))
+					index.remove(indexed.get(i));
+			index.flush();
 		}
 		
 		// Alphabetically sort by title
@@ -58,37 +114,68 @@ public class BeatmapLibraryLoader {
 	
 	// *** HELPER METHODS *** //
 	/**
-	 * Searches into a single beatmap directory and creates/returns the BeatmapDir object to represent it.
+	 * Searches into a single beatmap set (directory or archive) and creates/returns the BeatmapDir
+	 * object to represent it. The paths of the beatmap files found are added to seen. Called on the
+	 * walker's threads.
 	 */
-	private static BeatmapDir handleBeatmapDir(Parser parser, File dir) throws IOException
+	private static BeatmapDir handleBeatmapDir(SummaryScanner scanner, BeatmapSource set, String[] beatmaps, LibraryIndex index, Set<String> seen) throws IOException
 	{
-		BeatmapDir beatmap_dir = new BeatmapDir(dir.getAbsolutePath());
+		BeatmapDir beatmap_dir = new BeatmapDir(set.getPath());
 		
-		// Iterate over all beatmaps (".osu") in the directory
-		for (File beatmap : dir.listFiles(new BeatmapFilenameFilter()))
+		// Iterate over all beatmaps (".osu") in the set
+		for (String beatmap : beatmaps)
 		{
-			if (!beatmap.isFile() && !beatmap.canRead()) // Only get readable files
-				continue;
+			String path = set.pathOf(beatmap);
+			seen.add(path);
 			
 			try {
-				// Get metadata and difficulty for files
-				Metadata metadata = parser.parseMetadataResource(beatmap.getAbsolutePath());
-				int difficulty = parser.parseOverallDifficulty(beatmap.getAbsolutePath());
+				BeatmapDescriptor des = index == null ? null : index.get(path);
+				if (des != null && !isCurrent(des, set, beatmap, index))
+					des = null;
 				
-				BeatmapDescriptor des = new BeatmapDescriptor(beatmap.getAbsolutePath());
-				des.setMetadata(metadata);
-				des.setOverallDifficulty(difficulty);
+				if (des == null)
+				{
+					// Get metadata, difficulty and hit object count for files in one pass
+					des = scanner.scan(set, beatmap, true);
+					if (index != null)
+						index.put(des);
+				}
 				
 				beatmap_dir.addBeatmapDescriptor(des);
 			} catch (ParseException ex) {
-				Log.e("BeatmapLibraryLoader.handleBeatmapDir", "Error parsing beatmap metadata/difficulty for " + beatmap.getAbsolutePath() + ": " + ex.toString());
+				Log.e("BeatmapLibraryLoader.handleBeatmapDir", "Error parsing beatmap metadata/difficulty for " + path + ": " + ex.toString());
+				if (index != null)
+					index.remove(path); // Don't list it from the index either
 			}
 		}
 		
 		if (!beatmap_dir.exists()) // No beatmap files found in the dir
-			throw new IOException("Beatmap Dir, \"" + dir.getAbsolutePath() + "\", contains no beatmap files.");
+			throw new IOException("Beatmap Dir, \"" + set.getPath() + "\", contains no beatmap files.");
 		
 		return beatmap_dir;
 	}
 	
+	
+	/**
+	 * Returns true if the indexed summary still describes the named file of the set: the size matches
+	 * and either the modification time or the checksum matches as well. If only the checksum matches,
+	 * the file was touched or copied without changing, and the index is given the new modification time.
+	 * (Archives store the checksums of their files, so repacked archives are cheap to check.)
+	 */
+	static boolean isCurrent(BeatmapDescriptor des, BeatmapSource set, String name, LibraryIndex index) throws IOException
+	{
+		if (des.getFileSize() != set.length(name))
+			return false;
+		long modified = set.lastModified(name);
+		if (des.getLastModified() == modified)
+			return true;
+		
+		if (des.getChecksum() == 0 || des.getChecksum() != set.checksum(name))
+			return false;
+		
+		des.setLastModified(modified);
+		index.put(des);
+		return true;
+	}
+	
 }
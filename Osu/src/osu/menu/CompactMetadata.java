@@ -0,0 +1,126 @@
+package osu.menu;
+
+import osu.beatmap.Metadata;
+
+/**
+ * A beatmap's metadata as it is kept by the beatmap library: every field is stored as an id in a
+ * library-wide StringPool, and the tags are split into words once, so that the difficulties of a
+ * song share their strings and two records can be compared by comparing ids.<br><br>
+ * 
+ * Records are immutable. Records from the same pool can be compared with sameSong().
+ */
+public class CompactMetadata {
+	
+	// Storage
+	private StringPool pool;
+	private int title, artist, creator, version, source; // String ids in pool
+	private int[] tags; // String ids of the tags' words, in order
+	
+	
+	// *** CONSTRUCTORS *** //
+	/**
+	 * Creates a record of the given metadata, adding its strings to the given pool.
+	 */
+	public CompactMetadata(StringPool pool, Metadata meta)
+	{
+		this.pool = pool;
+		title = pool.intern(meta.title);
+		artist = pool.intern(meta.artist);
+		creator = pool.intern(meta.creator);
+		version = pool.intern(meta.version);
+		source = pool.intern(meta.source);
+		tags = pool.tokenize(meta.tags);
+	}
+	
+	
+	/**
+	 * Creates a record from string ids that are already in the given pool (see LibraryIndex).
+	 */
+	CompactMetadata(StringPool pool, int title, int artist, int creator, int version, int source, int[] tags)
+	{
+		this.pool = pool;
+		this.title = title;
+		this.artist = artist;
+		this.creator = creator;
+		this.version = version;
+		this.source = source;
+		this.tags = tags;
+	}
+	
+	
+	// *** IMPORTANT METHODS *** //
+	/**
+	 * Returns true if the other record describes (a difficulty of) the same song: the same title,
+	 * artist, creator and source. Both records must come from the same pool.
+	 */
+	public boolean sameSong(CompactMetadata other)
+	{
+		return title == other.title && artist == other.artist && creator == other.creator && source == other.source;
+	}
+	
+	
+	/**
+	 * Returns true if the tags contain the given word (case sensitive).
+	 */
+	public boolean hasTag(String word)
+	{
+		int id = pool.find(word);
+		if (id == StringPool.NULL_ID)
+			return false;
+		
+		for (int i = 0; i < tags.length; ++i)
+			if (tags[i] == id)
+				return true;
+		return false;
+	}
+	
+	
+	/**
+	 * Expands the record into a new Metadata (the tags are joined with single spaces).
+	 */
+	public Metadata toMetadata()
+	{
+		Metadata meta = new Metadata();
+		meta.title = getTitle();
+		meta.artist = getArtist();
+		meta.creator = getCreator();
+		meta.version = getVersion();
+		meta.source = getSource();
+		meta.tags = getTags();
+		return meta;
+	}
+	
+	
+	// *** ACCESSORS *** //
+	public String getTitle() { return pool.get(title); }
+	public String getArtist() { return pool.get(artist); }
+	public String getCreator() { return pool.get(creator); }
+	/** Returns the difficulty version (ex: Standard) */
+	public String getVersion() { return pool.get(version); }
+	public String getSource() { return pool.get(source); }
+	
+	/** Returns the tags joined with single spaces. Builds a new string on every call */
+	public String getTags()
+	{
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < tags.length; ++i)
+		{
+			if (i > 0)
+				sb.append(' ');
+			sb.append(pool.get(tags[i]));
+		}
+		return sb.toString();
+	}
+	
+	
+	public int getTitleId() { return title; }
+	public int getArtistId() { return artist; }
+	public int getCreatorId() { return creator; }
+	public int getVersionId() { return version; }
+	public int getSourceId() { return source; }
+	/** Returns the ids of the tags' words, in order. Do not modify */
+	public int[] getTagIds() { return tags; }
+	
+	public StringPool getPool() { return pool; }
+	
+}
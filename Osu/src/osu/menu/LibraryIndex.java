@@ -0,0 +1,546 @@
+package osu.menu;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.zip.CRC32;
+
+import android.util.Log;
+
+/**
+ * A persistent index of the beatmap library, so that the song list can be shown at startup by
+ * reading one file instead of listing the library directory and scanning every beatmap.<br><br>
+ * 
+ * The index holds a BeatmapDescriptor for each .osu file: its summary along with the file's
+ * size, modification time and checksum, from which BeatmapLibraryLoader can tell which files
+ * changed since they were indexed. It is stored in two files in the index directory:<br>
+ * - SNAPSHOT_FILE: every entry, in library order, with each distinct string stored once in a
+ *   table up front. Read in one sequential pass.<br>
+ * - LOG_FILE: changes since the snapshot, appended as they are made and replayed on load.<br><br>
+ * 
+ * flush() appends the pending changes to the log and compacts the index (writes a new snapshot
+ * and empties the log) once the log has grown large. Every snapshot and log record carries a
+ * CRC32; a corrupt snapshot is ignored and the log is replayed up to its first bad record, after
+ * which the index is compacted so nothing is appended after the bad record.<br><br>
+ * 
+ * All methods are synchronized, so the index can be brought up to date on a background thread.
+ */
+public class LibraryIndex {
+	
+	// *** CONSTANTS *** //
+	/** Identifies an index file ("OSUL") */
+	public static final int MAGIC = 0x4f53554c;
+	/** The version of the index format. Index files with a different version are ignored */
+	public static final int VERSION = 2;
+	public static final String SNAPSHOT_FILE = "library.idx";
+	public static final String LOG_FILE = "library.log";
+	
+	/** The log is compacted once it holds at least this many records, and more than half as many as there are entries */
+	public static final int COMPACT_RECORDS = 256;
+	
+	private static final byte RECORD_PUT = 1;
+	private static final byte RECORD_REMOVE = 2;
+	
+	
+	// Storage
+	private File dir;
+	private StringPool pool; // Receives the metadata strings of the entries read
+	private LinkedHashMap<String, BeatmapDescriptor> entries; // By absolute path
+	
+	private int log_records; // Records in the log file
+	private ByteArrayOutputStream pending; // Log records not yet appended to the log file
+	private DataOutputStream pending_out;
+	private int pending_records;
+	private ByteArrayOutputStream record; // The record being written
+	private DataOutputStream record_out;
+	
+	
+	// *** CONSTRUCTORS *** //
+	/**
+	 * Creates an empty index stored in the given directory (created when first written). Call
+	 * load() to read what is stored there.
+	 * 
+	 * @param pool The pool the metadata of the entries read is interned in.
+	 */
+	public LibraryIndex(File dir, StringPool pool)
+	{
+		this.dir = dir;
+		this.pool = pool;
+		entries = new LinkedHashMap<String, BeatmapDescriptor>();
+		
+		log_records = 0;
+		pending = new ByteArrayOutputStream(4 * 1024);
+		pending_out = new DataOutputStream(pending);
+		pending_records = 0;
+		record = new ByteArrayOutputStream(256);
+		record_out = new DataOutputStream(record);
+	}
+	
+	
+	// *** ACTION *** //
+	/**
+	 * Reads the stored index, replacing the entries in memory. Unreadable parts are logged and
+	 * skipped.
+	 * 
+	 * @return True if the index has any entries.
+	 */
+	public synchronized boolean load()
+	{
+		entries.clear();
+		log_records = 0;
+		pending.reset();
+		pending_records = 0;
+		
+		boolean damaged = false;
+		File snapshot = new File(dir, SNAPSHOT_FILE);
+		if (snapshot.isFile())
+		{
+			try {
+				readSnapshot(snapshot);
+			} catch (IOException ex) {
+				Log.w("LibraryIndex.load", "Ignoring damaged snapshot " + snapshot.getPath() + ": " + ex.toString());
+				entries.clear();
+				damaged = true;
+			}
+		}
+		
+		File log = new File(dir, LOG_FILE);
+		if (log.isFile())
+		{
+			try {
+				readLog(log);
+			} catch (IOException ex) {
+				Log.w("LibraryIndex.load", "Replayed " + log_records + " records of damaged log " + log.getPath() + ": " + ex.toString());
+				damaged = true;
+			}
+		}
+		
+		if (damaged)
+			compact();
+		
+		return !entries.isEmpty();
+	}
+	
+	
+	/**
+	 * Adds or replaces the entry for the descriptor's file. The change is stored by flush().
+	 */
+	public synchronized void put(BeatmapDescriptor des)
+	{
+		entries.put(des.getPath(), des); // Keeps its place if it was there before, as replaying the log does
+		
+		try {
+			record.reset();
+			record_out.writeByte(RECORD_PUT);
+			writeEntry(record_out, des, null);
+			endRecord();
+		} catch (IOException ex) {
+			throw new RuntimeException(ex); // Can't happen writing to memory
+		}
+	}
+	
+	
+	/**
+	 * Removes the entry for the file at the given path, if there is one. The change is stored by flush().
+	 */
+	public synchronized void remove(String path)
+	{
+		if (entries.remove(path) == null)
+			return;
+		
+		try {
+			record.reset();
+			record_out.writeByte(RECORD_REMOVE);
+			record_out.writeUTF(path);
+			endRecord();
+		} catch (IOException ex) {
+			throw new RuntimeException(ex); // Can't happen writing to memory
+		}
+	}
+	
+	
+	/**
+	 * Appends the changes made since the last flush to the log, and compacts the index if the log
+	 * has grown large. Failures are logged; the changes are then lost (the files they describe
+	 * are scanned again next time).
+	 */
+	public synchronized void flush()
+	{
+		if (pending_records == 0)
+			return;
+		
+		File log = new File(dir, LOG_FILE);
+		try {
+			if (!dir.isDirectory() && !dir.mkdirs())
+				throw new IOException("Can't create index directory " + dir.getPath());
+			
+			boolean fresh = !log.isFile() || log.length() == 0;
+			DataOutputStream out = new DataOutputStream(new FileOutputStream(log, true));
+			try {
+				if (fresh)
+				{
+					out.writeInt(MAGIC);
+					out.writeInt(VERSION);
+				}
+				pending.writeTo(out);
+			} finally {
+				out.close();
+			}
+			
+			log_records += pending_records;
+		} catch (IOException ex) {
+			Log.w("LibraryIndex.flush", "Can't append to " + log.getPath() + ": " + ex.toString());
+		}
+		
+		pending.reset();
+		pending_records = 0;
+		
+		// Relative to the entries, so filling a new index writes snapshots of geometrically growing sizes
+		if (log_records >= COMPACT_RECORDS && log_records > entries.size() / 2)
+			compact();
+	}
+	
+	
+	/**
+	 * Writes all entries to a new snapshot, in library order, and empties the log. Pending
+	 * changes are included.
+	 */
+	public synchronized void compact()
+	{
+		File snapshot = new File(dir, SNAPSHOT_FILE);
+		File temp = new File(dir, SNAPSHOT_FILE + ".tmp");
+		try {
+			if (!dir.isDirectory() && !dir.mkdirs())
+				throw new IOException("Can't create index directory " + dir.getPath());
+			
+			// Entries first, so the string table can be written before them
+			StringPool table = new StringPool();
+			ByteArrayOutputStream body = new ByteArrayOutputStream(entries.size() * 128 + 16);
+			DataOutputStream body_out = new DataOutputStream(body);
+			
+			ArrayList<BeatmapDir> dirs = getBeatmapDirs();
+			int count = 0;
+			for (int i = 0; i < dirs.size(); ++i)
+			{
+				ArrayList<BeatmapDescriptor> beatmaps = dirs.get(i).getBeatmapDescriptors();
+				for (int j = 0; j < beatmaps.size(); ++j)
+					writeEntry(body_out, beatmaps.get(j), table);
+				count += beatmaps.size();
+			}
+			
+			ByteArrayOutputStream file = new ByteArrayOutputStream(body.size() + table.size() * 16 + 64);
+			DataOutputStream out = new DataOutputStream(file);
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(table.size());
+			for (int i = 0; i < table.size(); ++i)
+				out.writeUTF(table.get(i));
+			out.writeInt(count);
+			body.writeTo(out);
+			
+			CRC32 crc = new CRC32();
+			byte[] bytes = file.toByteArray();
+			crc.update(bytes, 0, bytes.length);
+			
+			FileOutputStream fos = new FileOutputStream(temp);
+			try {
+				fos.write(bytes);
+				new DataOutputStream(fos).writeInt((int)crc.getValue());
+			} finally {
+				fos.close();
+			}
+			
+			if (!temp.renameTo(snapshot))
+				throw new IOException("Can't rename " + temp.getPath() + " to " + snapshot.getPath());
+			
+			new File(dir, LOG_FILE).delete();
+			log_records = 0;
+			pending.reset();
+			pending_records = 0;
+		} catch (IOException ex) {
+			Log.w("LibraryIndex.compact", "Can't write " + snapshot.getPath() + ": " + ex.toString());
+			temp.delete();
+		}
+	}
+	
+	
+	// *** ACCESSORS *** //
+	/**
+	 * Returns the entries grouped into BeatmapDirs (one per directory), sorted by title as
+	 * BeatmapLibraryLoader returns them.
+	 */
+	public synchronized ArrayList<BeatmapDir> getBeatmapDirs()
+	{
+		HashMap<String, BeatmapDir> by_path = new HashMap<String, BeatmapDir>();
+		ArrayList<BeatmapDir> lib = new ArrayList<BeatmapDir>();
+		for (BeatmapDescriptor des : entries.values())
+		{
+			String path = des.getPath();
+			String dir_path = path.substring(0, Math.max(path.lastIndexOf(File.separatorChar), 0));
+			
+			BeatmapDir beatmap_dir = by_path.get(dir_path);
+			if (beatmap_dir == null)
+			{
+				beatmap_dir = new BeatmapDir(dir_path);
+				by_path.put(dir_path, beatmap_dir);
+				lib.add(beatmap_dir);
+			}
+			beatmap_dir.addBeatmapDescriptor(des);
+		}
+		
+		Collections.sort(lib);
+		return lib;
+	}
+	
+	
+	/** Returns the entry for the file at the given path, or null if there is none */
+	public synchronized BeatmapDescriptor get(String path) { return entries.get(path); }
+	
+	/** Returns the paths of all entries */
+	public synchronized ArrayList<String> getPaths() { return new ArrayList<String>(entries.keySet()); }
+	
+	public synchronized int size() { return entries.size(); }
+	public File getDirectory() { return dir; }
+	
+	
+	// *** HELPER METHODS *** //
+	/**
+	 * Reads a snapshot file into the entries.
+	 */
+	private void readSnapshot(File file) throws IOException
+	{
+		byte[] bytes = readFile(file);
+		if (bytes.length < 12)
+			throw new EOFException("Truncated snapshot");
+		
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length - 4);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		in.skip(bytes.length - 4);
+		if (in.readInt() != (int)crc.getValue())
+			throw new IOException("Checksum mismatch");
+		
+		in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 4));
+		if (in.readInt() != MAGIC || in.readInt() != VERSION)
+			throw new IOException("Not an index snapshot of version " + VERSION);
+		
+		String[] table = new String[in.readInt()];
+		for (int i = 0; i < table.length; ++i)
+			table[i] = in.readUTF();
+		
+		int count = in.readInt();
+		for (int i = 0; i < count; ++i)
+		{
+			BeatmapDescriptor des = readEntry(in, table);
+			entries.put(des.getPath(), des);
+		}
+	}
+	
+	
+	/**
+	 * Replays a log file over the entries, up to its end or its first bad record.
+	 */
+	private void readLog(File file) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(readFile(file)));
+		if (in.readInt() != MAGIC || in.readInt() != VERSION)
+			throw new IOException("Not an index log of version " + VERSION);
+		
+		CRC32 crc = new CRC32();
+		while (in.available() > 0)
+		{
+			int length = in.readInt(); // Not covered by the CRC, so check it before allocating
+			if (length < 0 || length > in.available())
+				throw new IOException("Bad record length " + length);
+			byte[] record = new byte[length];
+			in.readFully(record);
+			crc.reset();
+			crc.update(record, 0, record.length);
+			if (in.readInt() != (int)crc.getValue())
+				throw new IOException("Checksum mismatch");
+			
+			DataInputStream rec = new DataInputStream(new ByteArrayInputStream(record));
+			byte type = rec.readByte();
+			if (type == RECORD_PUT)
+			{
+				BeatmapDescriptor des = readEntry(rec, null);
+				entries.put(des.getPath(), des);
+			}
+			else if (type == RECORD_REMOVE)
+				entries.remove(rec.readUTF());
+			else
+				throw new IOException("Unknown record type " + type);
+			
+			++log_records;
+		}
+	}
+	
+	
+	/**
+	 * Appends the record written to record_out to the pending changes: length, record, CRC32.
+	 */
+	private void endRecord() throws IOException
+	{
+		byte[] bytes = record.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length);
+		
+		pending_out.writeInt(bytes.length);
+		pending_out.write(bytes);
+		pending_out.writeInt((int)crc.getValue());
+		++pending_records;
+	}
+	
+	
+	/**
+	 * Writes an entry. Strings are written as ids into the given table, or inline if it is null.
+	 */
+	private static void writeEntry(DataOutputStream out, BeatmapDescriptor des, StringPool table) throws IOException
+	{
+		String path = des.getPath();
+		int split = path.lastIndexOf(File.separatorChar) + 1;
+		putString(out, path.substring(0, split), table); // Shared by the difficulties of a song
+		putString(out, path.substring(split), table);
+		out.writeLong(des.getFileSize());
+		out.writeLong(des.getLastModified());
+		out.writeInt(des.getChecksum());
+		
+		CompactMetadata meta = des.getMetadata();
+		putString(out, meta.getTitle(), table);
+		putString(out, meta.getArtist(), table);
+		putString(out, meta.getCreator(), table);
+		putString(out, meta.getVersion(), table);
+		putString(out, meta.getSource(), table);
+		int[] tags = meta.getTagIds();
+		out.writeInt(tags.length);
+		for (int i = 0; i < tags.length; ++i)
+			putString(out, meta.getPool().get(tags[i]), table);
+		
+		putString(out, des.getAudioFilename(), table);
+		out.writeLong(des.getPreviewTime());
+		putString(out, des.getBackgroundFilename(), table);
+		
+		out.writeInt(des.getHPDrainRate());
+		out.writeInt(des.getCircleSize());
+		out.writeInt(des.getOverallDifficulty());
+		out.writeInt(des.getApproachRate());
+		out.writeFloat(des.getSliderMultiplier());
+		out.writeFloat(des.getSliderTickRate());
+		
+		out.writeInt(des.getHitObjectCount());
+		out.writeInt(des.getCircleCount());
+		out.writeInt(des.getSliderCount());
+		out.writeInt(des.getSpinnerCount());
+		out.writeLong(des.getLength());
+		out.writeFloat(des.getMinBPM());
+		out.writeFloat(des.getMaxBPM());
+	}
+	
+	
+	/**
+	 * Reads an entry written by writeEntry(), with the given string table (null for inline strings).
+	 */
+	private BeatmapDescriptor readEntry(DataInputStream in, String[] table) throws IOException
+	{
+		String dir_path = getString(in, table);
+		BeatmapDescriptor des = new BeatmapDescriptor(dir_path + getString(in, table));
+		des.setFileSize(in.readLong());
+		des.setLastModified(in.readLong());
+		des.setChecksum(in.readInt());
+		
+		int title = pool.intern(getString(in, table));
+		int artist = pool.intern(getString(in, table));
+		int creator = pool.intern(getString(in, table));
+		int version = pool.intern(getString(in, table));
+		int source = pool.intern(getString(in, table));
+		int[] tags = new int[in.readInt()];
+		for (int i = 0; i < tags.length; ++i)
+			tags[i] = pool.intern(getString(in, table));
+		des.setMetadata(new CompactMetadata(pool, title, artist, creator, version, source, tags));
+		
+		String audio = getString(in, table);
+		des.setAudioFilename(audio == null ? null : pool.get(pool.intern(audio)));
+		des.setPreviewTime(in.readLong());
+		des.setBackgroundFilename(getString(in, table));
+		
+		des.setHPDrainRate(in.readInt());
+		des.setCircleSize(in.readInt());
+		des.setOverallDifficulty(in.readInt());
+		des.setApproachRate(in.readInt());
+		des.setSliderMultiplier(in.readFloat());
+		des.setSliderTickRate(in.readFloat());
+		
+		des.setHitObjectCount(in.readInt());
+		int circles = in.readInt();
+		int sliders = in.readInt();
+		des.setHitObjectCounts(circles, sliders, in.readInt());
+		des.setLength(in.readLong());
+		float min_bpm = in.readFloat();
+		des.setBPMRange(min_bpm, in.readFloat());
+		
+		return des;
+	}
+	
+	
+	/** Writes a possibly-null string as an id into the table, or inline if the table is null */
+	private static void putString(DataOutputStream out, String s, StringPool table) throws IOException
+	{
+		if (table != null)
+			out.writeInt(table.intern(s));
+		else
+		{
+			out.writeBoolean(s != null);
+			if (s != null)
+				out.writeUTF(s);
+		}
+	}
+	
+	
+	/** Reads a string written by putString() */
+	private static String getString(DataInputStream in, String[] table) throws IOException
+	{
+		if (table != null)
+		{
+			int id = in.readInt();
+			if (id >= table.length)
+				throw new IOException("Bad string id " + id);
+			return id < 0 ? null : table[id];
+		}
+		
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+	
+	
+	/** Reads a whole file */
+	private static byte[] readFile(File file) throws IOException
+	{
+		byte[] bytes = new byte[(int)file.length()];
+		InputStream in = new FileInputStream(file);
+		try {
+			int read = 0;
+			while (read < bytes.length)
+			{
+				int n = in.read(bytes, read, bytes.length - read);
+				if (n < 0)
+					throw new EOFException("File shrank while reading");
+				read += n;
+			}
+		} finally {
+			in.close();
+		}
+		
+		return bytes;
+	}
+	
+}
@@ -0,0 +1,231 @@
+package osu.menu;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import osu.beatmap.BeatmapSource;
+import osu.parser.ParseException;
+import osu.parser.SummaryScanner;
+
+import android.util.Log;
+
+/**
+ * Brings a LibraryIndex up to date with the beatmap library on a background thread, and reports
+ * what changed as a stream of Changes, so a song list built from the index can be updated as the
+ * scan goes instead of waiting for it.<br><br>
+ * 
+ * Files are compared with their index entries by size and modification time (see
+ * BeatmapLibraryLoader); only new and changed files are scanned. Index entries whose files are
+ * gone (or no longer parse) are removed. The index is flushed every FLUSH_INTERVAL changes, so an
+ * interrupted scan keeps most of its work. The song directories are scanned on a LibraryWalker's
+ * threads, so changes from different directories arrive interleaved.<br><br>
+ * 
+ * The consumer calls drain() (e.g. once per frame) to take the changes made so far.
+ */
+public class LibraryScanner implements Runnable {
+	
+	/**
+	 * One change to the library.
+	 */
+	public static class Change {
+		
+		// NOTE: Fields intentionally left public for struct-like interaction.
+		/** The absolute path of the beatmap file */
+		public String path;
+		/** The new or updated summary of the file, or null if the file was removed */
+		public BeatmapDescriptor descriptor;
+		
+		
+		public Change(String path, BeatmapDescriptor descriptor)
+		{
+			this.path = path;
+			this.descriptor = descriptor;
+		}
+		
+	}
+	
+	
+	// *** CONSTANTS *** //
+	/** The number of changes after which the index is flushed during a scan */
+	public static final int FLUSH_INTERVAL = 64;
+	
+	
+	// Storage
+	private String lib_path;
+	private LibraryIndex index;
+	private StringPool pool;
+	private LibraryWalker walker;
+	
+	private ArrayList<Change> changes; // Not yet drained. Guarded by itself
+	private int unflushed; // Changes since the index was last flushed. Guarded by changes
+	private volatile boolean cancelled, finished;
+	private volatile String error; // Why the scan failed, or null
+	
+	
+	// *** CONSTRUCTORS *** //
+	/**
+	 * Creates a scanner for the library at the given path. Call start() to begin.
+	 * 
+	 * @param index The index to bring up to date. Its entries are taken to be what the consumer
+	 * already knows about, so load it (or leave it empty) first.
+	 * @param pool The pool metadata strings are interned in (usually the index's).
+	 */
+	public LibraryScanner(String lib_path, LibraryIndex index, StringPool pool)
+	{
+		this.lib_path = lib_path;
+		this.index = index;
+		this.pool = pool;
+		walker = new LibraryWalker();
+		
+		changes = new ArrayList<Change>();
+		unflushed = 0;
+		cancelled = false;
+		finished = false;
+		error = null;
+	}
+	
+	
+	// *** ACTION *** //
+	/** Starts scanning on a new thread */
+	public void start()
+	{
+		Thread thread = new Thread(this, "LibraryScanner");
+		thread.setPriority(Thread.MIN_PRIORITY); // Stay out of the way of the UI
+		thread.start();
+	}
+	
+	
+	/** Sets the threads and I/O limit to scan with. Call before start() */
+	public void setWalker(LibraryWalker walker) { this.walker = walker; }
+	
+	
+	/** Stops scanning as soon as possible. What was found so far is still flushed to the index */
+	public void cancel() { cancelled = true; }
+	
+	
+	/**
+	 * Moves the changes found since the last call to the given list, in the order they were found.
+	 * 
+	 * @return The number of changes moved.
+	 */
+	public int drain(List<Change> out)
+	{
+		synchronized (changes)
+		{
+			int n = changes.size();
+			out.addAll(changes);
+			changes.clear();
+			return n;
+		}
+	}
+	
+	
+	/** Entry point of the scanning thread */
+	@Override
+	public void run()
+	{
+		try {
+			File lib_dir = new File(lib_path);
+			File[] dirs = lib_dir.listFiles();
+			if (!lib_dir.isDirectory() || dirs == null)
+				throw new IOException("Specified lib_path is not a directory.");
+			
+			final Set<String> seen = Collections.synchronizedSet(new HashSet<String>(index.size() * 2 + 16));
+			walker.walk(dirs, pool, new LibraryWalker.Visitor() {
+				@Override
+				public boolean visit(BeatmapSource set, String[] beatmaps, SummaryScanner scanner)
+				{
+					for (int i = 0; i < beatmaps.length && !cancelled; ++i)
+					{
+						String path = set.pathOf(beatmaps[i]);
+						seen.add(path);
+						handleBeatmap(path, set, beatmaps[i], scanner);
+					}
+					return !cancelled;
+				}
+			});
+			
+			// Forget files that are gone, unless the scan was cut short and didn't see them all
+			if (!cancelled)
+			{
+				ArrayList<String> indexed = index.getPaths();
+				for (int i = 0; i < indexed.size(); ++i)
+				{
+					if (!seen.contains(indexed.get(i)))
+					{
+						index.remove(indexed.get(i));
+						post(indexed.get(i), null);
+					}
+				}
+			}
+		} catch (IOException ex) {
+			error = ex.toString();
+			Log.e("LibraryScanner.run", "Can't scan beatmap library: " + error);
+		} catch (RuntimeException ex) {
+			error = ex.toString();
+			Log.e("LibraryScanner.run", "Can't scan beatmap library: " + error, ex);
+		} finally {
+			index.flush();
+			finished = true;
+		}
+	}
+	
+	
+	// *** ACCESSORS *** //
+	/** Returns true once the scan is over and the index has been flushed (changes may still be waiting to be drained) */
+	public boolean isFinished() { return finished; }
+	
+	/** Returns why the scan failed, or null if it didn't (or hasn't yet) */
+	public String getError() { return error; }
+	
+	
+	// *** HELPER METHODS *** //
+	/**
+	 * Brings the index entry of one beatmap file up to date, posting a change if it changed.
+	 * Called on the walker's threads.
+	 */
+	private void handleBeatmap(String path, BeatmapSource set, String name, SummaryScanner scanner)
+	{
+		BeatmapDescriptor des = index.get(path);
+		try {
+			if (des != null && BeatmapLibraryLoader.isCurrent(des, set, name, index))
+				return;
+			
+			des = scanner.scan(set, name, true);
+			index.put(des);
+			post(path, des);
+		} catch (ParseException ex) {
+			Log.e("LibraryScanner.handleBeatmap", "Error parsing beatmap metadata/difficulty for " + path + ": " + ex.toString());
+			if (des != null)
+			{
+				index.remove(path);
+				post(path, null);
+			}
+		} catch (IOException ex) {
+			Log.e("LibraryScanner.handleBeatmap", "Can't read " + path + ": " + ex.toString());
+		}
+	}
+	
+	
+	/** Queues a change for the consumer and flushes the index every FLUSH_INTERVAL changes */
+	private void post(String path, BeatmapDescriptor des)
+	{
+		boolean flush;
+		synchronized (changes)
+		{
+			changes.add(new Change(path, des));
+			flush = ++unflushed >= FLUSH_INTERVAL;
+			if (flush)
+				unflushed = 0;
+		}
+		
+		if (flush) // Outside the lock, so drain() doesn't wait for the disk
+			index.flush();
+	}
+	
+}
@@ -0,0 +1,573 @@
+package osu.menu;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * An in-memory inverted index over the beatmap library, for searching and filtering the song list
+ * as the player types.<br><br>
+ * 
+ * Every beatmap is a document, numbered in the order it was added. The title, artist, creator,
+ * source, version and tags are split into lower case words (runs of letters and digits), and each
+ * distinct word has a posting list: the sorted numbers of the documents that contain it, in a plain
+ * int array. A query is a list of words; a document matches if every query word is the prefix of
+ * one of its words. Each query word is looked up in the sorted word list, the posting lists of the
+ * words it prefixes are merged into a bit set, and the bit sets of all query words are intersected.
+ * Once few documents are left, the remaining query words are checked against their words instead.
+ * Range filters on the overall difficulty, length, BPM and hit object count are then checked against
+ * plain arrays indexed by document.<br><br>
+ * 
+ * Beatmaps can be added and removed one at a time (see apply(), for LibraryScanner's changes).
+ * A removed beatmap's document is only marked dead; once more than half of the documents are dead
+ * they are renumbered. This class is not thread-safe.
+ */
+public class LibrarySearch {
+	
+	/**
+	 * A search: words that must all match, and ranges the numbers must fall in.
+	 */
+	public static class Query {
+		
+		// NOTE: Fields intentionally left public for struct-like interaction.
+		/** The words to search for, each matched as a prefix of any word of a beatmap. Empty or null matches everything */
+		public String text;
+		/** The range of the overall difficulty (inclusive) */
+		public int min_difficulty, max_difficulty;
+		/** The range of the length, in millis (inclusive) */
+		public long min_length, max_length;
+		/** The range of BPMs (inclusive). Matches beatmaps whose BPM range overlaps it */
+		public float min_bpm, max_bpm;
+		/** The range of the hit object count (inclusive) */
+		public int min_objects, max_objects;
+		
+		
+		/** Creates a query that matches everything */
+		public Query()
+		{
+			this("");
+		}
+		
+		
+		/** Creates a query for the given words, without range filters */
+		public Query(String text)
+		{
+			this.text = text;
+			min_difficulty = Integer.MIN_VALUE;
+			max_difficulty = Integer.MAX_VALUE;
+			min_length = Long.MIN_VALUE;
+			max_length = Long.MAX_VALUE;
+			min_bpm = Float.NEGATIVE_INFINITY;
+			max_bpm = Float.POSITIVE_INFINITY;
+			min_objects = Integer.MIN_VALUE;
+			max_objects = Integer.MAX_VALUE;
+		}
+		
+		
+		/** Returns true if any of the ranges is limited */
+		public boolean hasRanges()
+		{
+			return min_difficulty != Integer.MIN_VALUE || max_difficulty != Integer.MAX_VALUE ||
+			       min_length != Long.MIN_VALUE || max_length != Long.MAX_VALUE ||
+			       min_bpm != Float.NEGATIVE_INFINITY || max_bpm != Float.POSITIVE_INFINITY ||
+			       min_objects != Integer.MIN_VALUE || max_objects != Integer.MAX_VALUE;
+		}
+		
+	}
+	
+	
+	// *** CONSTANTS *** //
+	private static final int[] NO_WORDS = new int[0];
+	private static final int MIN_COMPACT = 1024; // Dead documents before renumbering is considered
+	
+	
+	// Storage
+	private StringPool words; // Lower case words; a word's id indexes postings
+	private int[][] postings; // Sorted document numbers per word; only the first posting_sizes[word] are used
+	private int[] posting_sizes;
+	private String[] sorted_words; // All words in order, for prefix lookups. Null when words were added since
+	private int[] sorted_ids; // The ids of sorted_words
+	private int[] word_ranks; // The position of each word in sorted_words, by id
+	private long posting_count; // Of all posting lists, dead documents included
+	private StringPool library_pool; // The pool of the first beatmap's metadata
+	private int[][] split_cache; // The word ids of each string of library_pool, indexed by its id
+	
+	private int doc_count; // Documents numbered so far, dead ones included
+	private BeatmapDescriptor[] docs; // Null for dead documents
+	private int[][] doc_words; // Each document's distinct word ids
+	private int[] difficulties, objects;
+	private long[] lengths;
+	private float[] min_bpms, max_bpms;
+	private BitSet live;
+	private int live_count;
+	private HashMap<String, Integer> paths; // Beatmap path -> its live document
+	
+	private BitSet scratch; // Postings of one query word
+	private StringBuilder builder; // For splitting words
+	
+	
+	// *** CONSTRUCTORS *** //
+	/**
+	 * Creates an empty index.
+	 */
+	public LibrarySearch()
+	{
+		clear();
+	}
+	
+	
+	// *** BUILDING *** //
+	/**
+	 * Adds a beatmap, replacing the one previously added with the same path. Splitting the metadata
+	 * into words is cached per string, for the beatmaps whose metadata is in the same pool as the
+	 * first one's (usually the whole library).
+	 */
+	public void put(BeatmapDescriptor des)
+	{
+		remove(des.getPath());
+		
+		int doc = doc_count++;
+		ensureDocs(doc_count);
+		docs[doc] = des;
+		difficulties[doc] = des.getOverallDifficulty();
+		objects[doc] = des.getHitObjectCount();
+		lengths[doc] = des.getLength();
+		min_bpms[doc] = des.getMinBPM();
+		max_bpms[doc] = des.getMaxBPM();
+		live.set(doc);
+		++live_count;
+		paths.put(des.getPath(), doc);
+		
+		// Collect the distinct words of all fields, then append the document to their posting lists.
+		// Documents are numbered in order, so the lists stay sorted.
+		CompactMetadata meta = des.getMetadata();
+		int[] ids = NO_WORDS;
+		int n = 0;
+		if (meta != null)
+		{
+			int[] tags = meta.getTagIds();
+			int[][] fields = new int[5 + tags.length][];
+			fields[0] = split(meta, meta.getTitleId());
+			fields[1] = split(meta, meta.getArtistId());
+			fields[2] = split(meta, meta.getCreatorId());
+			fields[3] = split(meta, meta.getSourceId());
+			fields[4] = split(meta, meta.getVersionId());
+			for (int i = 0; i < tags.length; ++i)
+				fields[5 + i] = split(meta, tags[i]);
+			
+			int total = 0;
+			for (int i = 0; i < fields.length; ++i)
+				total += fields[i].length;
+			ids = new int[total];
+			for (int i = 0; i < fields.length; ++i)
+				for (int j = 0; j < fields[i].length; ++j)
+					ids[n++] = fields[i][j];
+			
+			Arrays.sort(ids);
+			int distinct = 0;
+			for (int i = 0; i < n; ++i)
+				if (distinct == 0 || ids[distinct - 1] != ids[i])
+					ids[distinct++] = ids[i];
+			n = distinct;
+		}
+		
+		int[] distinct_ids = new int[n];
+		System.arraycopy(ids, 0, distinct_ids, 0, n);
+		doc_words[doc] = distinct_ids;
+		for (int i = 0; i < n; ++i)
+			addPosting(distinct_ids[i], doc);
+	}
+	
+	
+	/**
+	 * Removes the beatmap with the given path, if it was added.
+	 */
+	public void remove(String path)
+	{
+		Integer doc = paths.remove(path);
+		if (doc == null)
+			return;
+		
+		docs[doc] = null;
+		live.clear(doc);
+		--live_count;
+		
+		if (doc_count - live_count >= MIN_COMPACT && doc_count - live_count > live_count)
+			compact();
+	}
+	
+	
+	/**
+	 * Applies one change found by a LibraryScanner.
+	 */
+	public void apply(LibraryScanner.Change change)
+	{
+		if (change.descriptor == null)
+			remove(change.path);
+		else
+			put(change.descriptor);
+	}
+	
+	
+	/**
+	 * Removes every beatmap.
+	 */
+	public void clear()
+	{
+		words = new StringPool();
+		postings = new int[64][];
+		posting_sizes = new int[64];
+		sorted_words = null;
+		sorted_ids = null;
+		word_ranks = null;
+		posting_count = 0;
+		library_pool = null;
+		split_cache = new int[64][];
+		
+		doc_count = 0;
+		docs = new BeatmapDescriptor[64];
+		doc_words = new int[64][];
+		difficulties = new int[64];
+		objects = new int[64];
+		lengths = new long[64];
+		min_bpms = new float[64];
+		max_bpms = new float[64];
+		live = new BitSet();
+		live_count = 0;
+		paths = new HashMap<String, Integer>();
+		
+		scratch = new BitSet();
+		builder = new StringBuilder();
+	}
+	
+	
+	/**
+	 * Renumbers the live documents, dropping the dead ones from the posting lists.
+	 */
+	public void compact()
+	{
+		ArrayList<BeatmapDescriptor> kept = new ArrayList<BeatmapDescriptor>(live_count);
+		for (int doc = live.nextSetBit(0); doc >= 0; doc = live.nextSetBit(doc + 1))
+			kept.add(docs[doc]);
+		
+		clear();
+		for (int i = 0; i < kept.size(); ++i)
+			put(kept.get(i));
+	}
+	
+	
+	// *** SEARCHING *** //
+	/**
+	 * Finds the beatmaps matching the query.
+	 * 
+	 * @param out Receives the matching documents (see getDescriptor()). Cleared first.
+	 * @return The number of matches.
+	 */
+	public int search(Query query, BitSet out)
+	{
+		out.clear();
+		out.or(live);
+		
+		// Intersect the documents of each word, rarest word first, so later words have less to clear
+		String[] query_words = splitQuery(query.text);
+		int[][] ranges = new int[query_words.length][];
+		for (int i = 0; i < query_words.length; ++i)
+			ranges[i] = prefixRange(query_words[i]);
+		sortByPostings(ranges);
+		
+		int words_per_doc = doc_count == 0 ? 1 : (int)(posting_count / doc_count) + 1;
+		for (int i = 0; i < ranges.length && !out.isEmpty(); ++i)
+		{
+			if ((long)out.cardinality() * words_per_doc < ranges[i][2])
+			{
+				// Cheaper to look for the prefixed words among the words of the few documents left
+				for (int doc = out.nextSetBit(0); doc >= 0; doc = out.nextSetBit(doc + 1))
+					if (!hasWordIn(doc, ranges[i][0], ranges[i][1]))
+						out.clear(doc);
+				continue;
+			}
+			
+			scratch.clear();
+			for (int w = ranges[i][0]; w < ranges[i][1]; ++w)
+			{
+				int id = sorted_ids[w];
+				int[] list = postings[id];
+				for (int j = posting_sizes[id] - 1; j >= 0; --j) // Backwards, so the bit set grows once
+					scratch.set(list[j]);
+			}
+			out.and(scratch);
+		}
+		
+		if (query.hasRanges())
+			for (int doc = out.nextSetBit(0); doc >= 0; doc = out.nextSetBit(doc + 1))
+				if (!inRanges(doc, query))
+					out.clear(doc);
+		
+		return out.cardinality();
+	}
+	
+	
+	/**
+	 * Returns true if the beatmap with the given path matches the query (false if it wasn't added).
+	 * Cheaper than search() for checking a single beatmap.
+	 */
+	public boolean matches(String path, Query query)
+	{
+		Integer doc = paths.get(path);
+		if (doc == null)
+			return false;
+		if (query.hasRanges() && !inRanges(doc, query))
+			return false;
+		
+		String[] query_words = splitQuery(query.text);
+		for (int i = 0; i < query_words.length; ++i)
+		{
+			int[] range = prefixRange(query_words[i]);
+			if (!hasWordIn(doc, range[0], range[1]))
+				return false;
+		}
+		return true;
+	}
+	
+	
+	// *** ACCESSORS *** //
+	/** Returns the beatmap of a document, or null if it was removed */
+	public BeatmapDescriptor getDescriptor(int doc) { return docs[doc]; }
+	
+	/** Returns the document of the beatmap with the given path, or -1 if it wasn't added */
+	public int getDocument(String path)
+	{
+		Integer doc = paths.get(path);
+		return doc == null ? -1 : doc;
+	}
+	
+	/** Returns the number of beatmaps added (and not removed) */
+	public int size() { return live_count; }
+	
+	/** Returns the number of distinct words */
+	public int getWordCount() { return words.size(); }
+	
+	
+	// *** HELPER METHODS *** //
+	/**
+	 * Returns the word ids of a string of the library's pool, splitting it the first time.
+	 * The difficulties of a song share their strings, so most strings are only split once.
+	 */
+	private int[] split(CompactMetadata meta, int string_id)
+	{
+		if (string_id == StringPool.NULL_ID)
+			return NO_WORDS;
+		
+		if (library_pool == null)
+			library_pool = meta.getPool();
+		if (meta.getPool() != library_pool)
+			return intern(splitWords(meta.getPool().get(string_id)));
+		
+		if (string_id >= split_cache.length)
+		{
+			int[][] bigger = new int[Math.max(split_cache.length * 2, string_id + 1)][];
+			System.arraycopy(split_cache, 0, bigger, 0, split_cache.length);
+			split_cache = bigger;
+		}
+		
+		if (split_cache[string_id] == null)
+			split_cache[string_id] = intern(splitWords(library_pool.get(string_id)));
+		return split_cache[string_id];
+	}
+	
+	
+	/** Returns the ids of the given words, adding the new ones */
+	private int[] intern(ArrayList<String> found)
+	{
+		int[] ids = new int[found.size()];
+		for (int i = 0; i < ids.length; ++i)
+		{
+			int before = words.size();
+			ids[i] = words.intern(found.get(i));
+			if (words.size() != before)
+				sorted_words = null; // New word
+		}
+		return ids;
+	}
+	
+	
+	/**
+	 * Splits text into lower case words: the runs of letters and digits.
+	 */
+	private ArrayList<String> splitWords(String text)
+	{
+		ArrayList<String> found = new ArrayList<String>();
+		if (text == null)
+			return found;
+		
+		int n = text.length();
+		for (int i = 0; i < n; ++i)
+		{
+			char c = text.charAt(i);
+			if (Character.isLetterOrDigit(c))
+				builder.append(c);
+			
+			if ((!Character.isLetterOrDigit(c) || i == n - 1) && builder.length() > 0)
+			{
+				found.add(builder.toString().toLowerCase(Locale.ENGLISH));
+				builder.setLength(0);
+			}
+		}
+		return found;
+	}
+	
+	
+	/** Splits the text of a query into words (see splitWords()) */
+	private String[] splitQuery(String text)
+	{
+		ArrayList<String> found = splitWords(text);
+		return found.toArray(new String[found.size()]);
+	}
+	
+	
+	/**
+	 * Returns the range [first, end) of sorted_words that start with the given prefix, sorting the
+	 * words first if words were added since the last lookup.
+	 */
+	private int[] prefixRange(String prefix)
+	{
+		if (sorted_words == null)
+		{
+			int n = words.size();
+			sorted_words = new String[n];
+			for (int i = 0; i < n; ++i)
+				sorted_words[i] = words.get(i);
+			Arrays.sort(sorted_words);
+			
+			sorted_ids = new int[n];
+			word_ranks = new int[n];
+			for (int i = 0; i < n; ++i)
+			{
+				sorted_ids[i] = words.find(sorted_words[i]);
+				word_ranks[sorted_ids[i]] = i;
+			}
+		}
+		
+		int first = Arrays.binarySearch(sorted_words, prefix);
+		if (first < 0)
+			first = -first - 1;
+		int end = Arrays.binarySearch(sorted_words, prefix + Character.MAX_VALUE); // Never a word, since it isn't a letter or digit
+		if (end < 0)
+			end = -end - 1;
+		
+		return new int[] {first, end, 0};
+	}
+	
+	
+	/**
+	 * Sorts the ranges of prefixRange() by the total length of their posting lists, shortest first.
+	 */
+	private void sortByPostings(int[][] ranges)
+	{
+		for (int i = 0; i < ranges.length; ++i)
+			for (int w = ranges[i][0]; w < ranges[i][1]; ++w)
+				ranges[i][2] += posting_sizes[sorted_ids[w]];
+		
+		for (int i = 1; i < ranges.length; ++i) // Insertion sort; queries have a few words
+		{
+			int[] range = ranges[i];
+			int j = i;
+			for (; j > 0 && ranges[j - 1][2] > range[2]; --j)
+				ranges[j] = ranges[j - 1];
+			ranges[j] = range;
+		}
+	}
+	
+	
+	/** Returns true if a document has a word in the range [first, end) of sorted_words */
+	private boolean hasWordIn(int doc, int first, int end)
+	{
+		int[] ids = doc_words[doc];
+		for (int i = 0; i < ids.length; ++i)
+			if (word_ranks[ids[i]] >= first && word_ranks[ids[i]] < end)
+				return true;
+		return false;
+	}
+	
+	
+	/** Returns true if a document's numbers fall in all of the query's ranges */
+	private boolean inRanges(int doc, Query query)
+	{
+		return difficulties[doc] >= query.min_difficulty && difficulties[doc] <= query.max_difficulty &&
+		       lengths[doc] >= query.min_length && lengths[doc] <= query.max_length &&
+		       max_bpms[doc] >= query.min_bpm && min_bpms[doc] <= query.max_bpm &&
+		       objects[doc] >= query.min_objects && objects[doc] <= query.max_objects;
+	}
+	
+	
+	/** Appends a document to a word's posting list */
+	private void addPosting(int word, int doc)
+	{
+		if (word >= postings.length)
+		{
+			int size = Math.max(postings.length * 2, word + 1);
+			int[][] bigger = new int[size][];
+			System.arraycopy(postings, 0, bigger, 0, postings.length);
+			postings = bigger;
+			
+			int[] sizes = new int[size];
+			System.arraycopy(posting_sizes, 0, sizes, 0, posting_sizes.length);
+			posting_sizes = sizes;
+		}
+		
+		int[] list = postings[word];
+		int n = posting_sizes[word];
+		if (list == null || n == list.length)
+		{
+			int[] bigger = new int[list == null ? 4 : n * 2];
+			if (list != null)
+				System.arraycopy(list, 0, bigger, 0, n);
+			postings[word] = list = bigger;
+		}
+		list[n] = doc;
+		posting_sizes[word] = n + 1;
+		++posting_count;
+	}
+	
+	
+	/** Makes room for the given number of documents in the per-document arrays */
+	private void ensureDocs(int count)
+	{
+		if (count <= docs.length)
+			return;
+		
+		int size = Math.max(docs.length * 2, count);
+		BeatmapDescriptor[] new_docs = new BeatmapDescriptor[size];
+		System.arraycopy(docs, 0, new_docs, 0, docs.length);
+		docs = new_docs;
+		
+		int[][] new_words = new int[size][];
+		System.arraycopy(doc_words, 0, new_words, 0, doc_words.length);
+		doc_words = new_words;
+		
+		difficulties = grow(difficulties, size);
+		objects = grow(objects, size);
+		
+		long[] new_lengths = new long[size];
+		System.arraycopy(lengths, 0, new_lengths, 0, lengths.length);
+		lengths = new_lengths;
+		
+		float[] new_min = new float[size], new_max = new float[size];
+		System.arraycopy(min_bpms, 0, new_min, 0, min_bpms.length);
+		System.arraycopy(max_bpms, 0, new_max, 0, max_bpms.length);
+		min_bpms = new_min;
+		max_bpms = new_max;
+	}
+	
+	
+	/** Returns a copy of the array with the given length */
+	private static int[] grow(int[] a, int size)
+	{
+		int[] bigger = new int[size];
+		System.arraycopy(a, 0, bigger, 0, a.length);
+		return bigger;
+	}
+	
+}
@@ -0,0 +1,228 @@
+package osu.menu;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import osu.beatmap.BeatmapSource;
+import osu.parser.SummaryScanner;
+
+import android.util.Log;
+
+/**
+ * Walks the beatmap sets of a library on several threads, listing each set's beatmap files and
+ * handing them to a Visitor along with a SummaryScanner to summarize them with. A set is either a
+ * song directory or a .osz archive, read in place through a BeatmapSource. Used by
+ * BeatmapLibraryLoader and LibraryScanner.<br><br>
+ * 
+ * Each worker thread owns one SummaryScanner (and its buffers) for the whole walk. Workers take
+ * the next unvisited directory from a shared counter whenever they finish one, so a directory
+ * with many (or large) beatmaps doesn't hold up the others. The order in which directories are
+ * visited is therefore not fixed; visitors collect their results in a thread-safe way and sort
+ * them afterwards. The files of one directory are always visited together, in listing order.<br><br>
+ * 
+ * The I/O limit caps how many directories are read at the same time, independently of the thread
+ * count. Flash storage is fine with several readers, but slow SD cards get slower with each
+ * reader that seeks between files. Libraries with fewer than MIN_PARALLEL_DIRS directories, or a
+ * thread count of 1, are walked on the calling thread.
+ */
+public class LibraryWalker {
+	
+	/**
+	 * Handles the beatmap files of one beatmap set. Called on the worker threads, so
+	 * implementations must be thread-safe.
+	 */
+	public interface Visitor {
+		
+		/**
+		 * Handles the beatmap (.osu) files of one beatmap set.
+		 * 
+		 * @param set The song directory or archive.
+		 * @param beatmaps The names of its beatmap files, in listing order (may be empty).
+		 * @param scanner The calling worker's scanner, to summarize the files with.
+		 * @return False to stop the walk. Directories already being visited are still finished.
+		 */
+		public boolean visit(BeatmapSource set, String[] beatmaps, SummaryScanner scanner);
+		
+	}
+	
+	
+	// *** CONSTANTS *** //
+	/** Libraries with fewer song directories than this are walked sequentially */
+	public static final int MIN_PARALLEL_DIRS = 16;
+	/** Pass as the I/O limit to let every thread read at once */
+	public static final int NO_IO_LIMIT = 0;
+	
+	
+	// Storage
+	private int threads;
+	private int io_limit; // Directories read at once, NO_IO_LIMIT for as many as there are threads
+	
+	
+	// *** CONSTRUCTORS *** //
+	/**
+	 * Creates a walker that uses one thread per available processor, with no I/O limit.
+	 */
+	public LibraryWalker()
+	{
+		this(Runtime.getRuntime().availableProcessors(), NO_IO_LIMIT);
+	}
+	
+	
+	/**
+	 * Creates a walker that uses up to the given number of threads, reading at most io_limit
+	 * directories at once (or NO_IO_LIMIT).
+	 */
+	public LibraryWalker(int threads, int io_limit)
+	{
+		this.threads = threads < 1 ? 1 : threads;
+		this.io_limit = io_limit < 1 ? NO_IO_LIMIT : io_limit;
+	}
+	
+	
+	// *** ACTION *** //
+	/**
+	 * Visits every beatmap set among the given files (files that aren't directories or .osz archives are skipped),
+	 * and returns once all of them have been visited or a visitor stopped the walk. The worker threads
+	 * run at the priority of the calling thread.
+	 * 
+	 * @param dirs The contents of the library directory.
+	 * @param pool The pool the workers' scanners intern metadata strings in.
+	 * @return False if a visitor stopped the walk.
+	 * @throws RuntimeException Whatever a visitor throws. The other workers stop after their current directory.
+	 */
+	public boolean walk(File[] dirs, StringPool pool, Visitor visitor)
+	{
+		Walk walk = new Walk(dirs, visitor, io_limit == NO_IO_LIMIT ? null : new Semaphore(io_limit, true));
+		int workers = Math.min(threads, dirs.length);
+		if (workers <= 1 || dirs.length < MIN_PARALLEL_DIRS)
+		{
+			new Worker(walk, new SummaryScanner(pool)).call();
+			return !walk.stopped;
+		}
+		
+		final int priority = Thread.currentThread().getPriority();
+		ExecutorService executor = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+			private int count = 0;
+			
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r, "LibraryWalker-" + ++count);
+				thread.setPriority(priority); // Background scans stay in the background
+				return thread;
+			}
+		});
+		
+		try {
+			ArrayList<Future<Void>> results = new ArrayList<Future<Void>>(workers);
+			for (int i = 0; i < workers; ++i)
+				results.add(executor.submit(new Worker(walk, new SummaryScanner(pool))));
+			
+			for (int i = 0; i < results.size(); ++i)
+				results.get(i).get();
+		} catch (ExecutionException ex) {
+			walk.stopped = true;
+			if (ex.getCause() instanceof RuntimeException)
+				throw (RuntimeException)ex.getCause();
+			throw new RuntimeException(ex.getCause());
+		} catch (InterruptedException ex) {
+			walk.stopped = true;
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while walking the beatmap library.", ex);
+		} finally {
+			executor.shutdown(); // Let workers finish the directory they're on, like a stopped walk
+		}
+		
+		return !walk.stopped;
+	}
+	
+	
+	/** Returns the maximum number of threads used */
+	public int getThreads() { return threads; }
+	
+	/** Returns the maximum number of directories read at once, or NO_IO_LIMIT */
+	public int getIOLimit() { return io_limit; }
+	
+	
+	// *** WALK *** //
+	/**
+	 * The state shared by the workers of one walk.
+	 */
+	private static class Walk {
+		
+		public File[] dirs;
+		public Visitor visitor;
+		public Semaphore io; // Null for no I/O limit
+		public AtomicInteger next; // The index of the next directory to take
+		public volatile boolean stopped;
+		
+		
+		public Walk(File[] dirs, Visitor visitor, Semaphore io)
+		{
+			this.dirs = dirs;
+			this.visitor = visitor;
+			this.io = io;
+			next = new AtomicInteger(0);
+			stopped = false;
+		}
+		
+	}
+	
+	
+	// *** WORKER *** //
+	/**
+	 * Takes directories from the walk until there are none left, visiting each with its own scanner.
+	 */
+	private static class Worker implements Callable<Void> {
+		
+		private Walk walk;
+		private SummaryScanner scanner;
+		
+		
+		public Worker(Walk walk, SummaryScanner scanner)
+		{
+			this.walk = walk;
+			this.scanner = scanner;
+		}
+		
+		
+		@Override
+		public Void call()
+		{
+			int i;
+			while (!walk.stopped && (i = walk.next.getAndIncrement()) < walk.dirs.length)
+			{
+				File dir = walk.dirs[i];
+				
+				if (walk.io != null)
+					walk.io.acquireUninterruptibly();
+				try {
+					BeatmapSource set = BeatmapSource.forSet(dir); // Reads an archive's directory
+					if (set != null && !walk.visitor.visit(set, set.listBeatmaps(), scanner))
+						walk.stopped = true;
+				} catch (IOException ex) {
+					Log.e("LibraryWalker.Worker", "Can't read beatmap set " + dir.getPath() + ": " + ex.toString());
+				} catch (RuntimeException ex) {
+					walk.stopped = true;
+					throw ex;
+				} finally {
+					if (walk.io != null)
+						walk.io.release();
+				}
+			}
+			
+			return null;
+		}
+		
+	}
+	
+}
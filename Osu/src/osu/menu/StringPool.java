@@ -0,0 +1,154 @@
+package osu.menu;
+
+import java.util.ArrayList;
+
+/**
+ * A symbol table shared by the whole beatmap library. Every distinct string is stored once and
+ * given a small integer id, so that the difficulties of a song (which repeat the same title,
+ * artist, creator, source and tags) share their strings, and so that strings can be compared by
+ * comparing ids.<br><br>
+ * 
+ * Ids start at 0 and are handed out in order. A null string has the id NULL_ID. The strings are
+ * found through an open-addressing table of ids, so each string costs a few ints on top of
+ * itself (a HashMap would add an entry and a boxed Integer per string).<br><br>
+ * 
+ * All methods are synchronized so one pool can be filled by several scanning threads.
+ */
+public class StringPool {
+	
+	// *** CONSTANTS *** //
+	/** The id of the null string */
+	public static final int NULL_ID = -1;
+	
+	
+	private static final int INITIAL_CAPACITY = 1024; // A power of 2
+	
+	
+	// Storage
+	private String[] strings; // Indexed by id
+	private int count;
+	private int[] table; // Hash table of id + 1 (0 = empty), probed linearly; at most half full
+	
+	
+	// *** CONSTRUCTORS *** //
+	public StringPool()
+	{
+		strings = new String[INITIAL_CAPACITY];
+		count = 0;
+		table = new int[INITIAL_CAPACITY * 2];
+	}
+	
+	
+	// *** ACTION *** //
+	/**
+	 * Returns the id of the given string, adding it to the pool if it isn't there yet.
+	 */
+	public synchronized int intern(String s)
+	{
+		if (s == null)
+			return NULL_ID;
+		
+		int slot = slot(s);
+		if (table[slot] != 0)
+			return table[slot] - 1;
+		
+		if (count == strings.length)
+		{
+			String[] bigger = new String[strings.length * 2];
+			System.arraycopy(strings, 0, bigger, 0, count);
+			strings = bigger;
+			
+			rehash(bigger.length * 2);
+			slot = slot(s);
+		}
+		
+		strings[count] = s;
+		table[slot] = ++count;
+		return count - 1;
+	}
+	
+	
+	/**
+	 * Splits the given string at spaces and returns the ids of the words, in order
+	 * (e.g. for the tags of a beatmap). Returns an empty array for null or a blank string.
+	 */
+	public int[] tokenize(String s)
+	{
+		if (s == null)
+			return new int[0];
+		
+		ArrayList<String> words = new ArrayList<String>();
+		int start = 0, n = s.length();
+		while (start < n)
+		{
+			while (start < n && s.charAt(start) == ' ')
+				++start;
+			
+			int end = start;
+			while (end < n && s.charAt(end) != ' ')
+				++end;
+			
+			if (end > start)
+				words.add(s.substring(start, end));
+			start = end;
+		}
+		
+		int[] tokens = new int[words.size()];
+		for (int i = 0; i < tokens.length; ++i)
+			tokens[i] = intern(words.get(i));
+		return tokens;
+	}
+	
+	
+	/**
+	 * Returns the string with the given id (null for NULL_ID).
+	 */
+	public synchronized String get(int id)
+	{
+		if (id == NULL_ID)
+			return null;
+		if (id < 0 || id >= count)
+			throw new IndexOutOfBoundsException("No string with id " + id);
+		return strings[id];
+	}
+	
+	
+	/**
+	 * Returns the id of the given string, or NULL_ID if it isn't in the pool. Never adds it.
+	 */
+	public synchronized int find(String s)
+	{
+		return s == null ? NULL_ID : table[slot(s)] - 1;
+	}
+	
+	
+	/** Returns the number of distinct strings in the pool */
+	public synchronized int size() { return count; }
+	
+	
+	// *** HELPER METHODS *** //
+	/**
+	 * Returns the table slot that holds the given string's id, or the empty slot where it belongs.
+	 */
+	private int slot(String s)
+	{
+		int mask = table.length - 1;
+		int h = s.hashCode();
+		int i = (h ^ (h >>> 16)) & mask;
+		while (table[i] != 0 && !strings[table[i] - 1].equals(s))
+			i = (i + 1) & mask;
+		return i;
+	}
+	
+	
+	/**
+	 * Rebuilds the table with the given size (a power of 2).
+	 */
+	private void rehash(int size)
+	{
+		table = new int[size];
+		for (int id = 0; id < count; ++id)
+			table[slot(strings[id])] = id + 1;
+	}
+	
+}
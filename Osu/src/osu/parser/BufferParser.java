@@ -0,0 +1,999 @@
+package osu.parser;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+
+import osu.beatmap.BeatmapSource;
+import osu.game.*;
+
+import android.util.Log;
+
+/**
+ * A single-pass replacement for Parser that works on the whole file as one character buffer.<br><br>
+ * 
+ * The file is read into memory once and scanned line by line using offsets into the buffer.
+ * Numbers in the TimingPoints, Colours, Events and HitObjects sections are decoded in place, so
+ * no substrings or StringTokenizers are created for those lines. The attribute-based sections
+ * ([General], [Editor], [Metadata], [Difficulty]) still end up in ParserContainer.dict as strings,
+ * so the output is identical to Parser's and can be handed to ParserUtil unchanged.<br><br>
+ * 
+ * The buffer is kept between calls, so reusing a single BufferParser for several files avoids
+ * reallocating it. A BufferParser is not thread-safe.
+ */
+public class BufferParser {
+	
+	// *** CONSTANTS *** //
+	private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+	
+	// Event groups in the [Events] section
+	private static final int EVENT_NONE = 0;
+	private static final int EVENT_BACKGROUND = 1;
+	private static final int EVENT_BREAKS = 2;
+	private static final int EVENT_COLOUR = 3;
+	
+	// Exact powers of ten for the fast float/double paths (see parseFloat/parseDouble)
+	private static final float[] FLOAT_POW10 = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+	private static final double[] DOUBLE_POW10 = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+	
+	
+	// Storage
+	private HashMap<Subsections, HashMap<String, String>> dict;
+	
+	// Buffer
+	private char[] buf; // The contents of the file being parsed
+	private int len; // The number of valid characters in buf
+	private int pos; // The start of the next unread line
+	
+	// Cursors
+	private int line_start, line_end; // Bounds of the current line, excluding the line terminator
+	private int cursor, cursor_end; // Field cursor within the current line (see nextInt(), etc.)
+	
+	private char[] scratch; // Scratch space for building attribute keys
+	
+	private int hit_objects_offset; // The buffer offset of the first line after [HitObjects]
+	private boolean skip_hit_objects; // Stop parsing at [HitObjects] (they are read later, see HitObjectReader)
+	private ParallelHitObjectParser hit_object_parser; // Parses long [HitObjects] sections on several threads
+	
+	
+	// *** CONSTRUCTORS *** //
+	public BufferParser()
+	{
+		buf = new char[INITIAL_BUFFER_SIZE];
+		len = 0;
+		
+		scratch = new char[64];
+		
+		hit_objects_offset = -1;
+		skip_hit_objects = false;
+		hit_object_parser = new ParallelHitObjectParser();
+	}
+	
+	
+	/**
+	 * Creates a parser for hit object lines in an existing buffer (see ParallelHitObjectParser),
+	 * without allocating a buffer of its own.
+	 */
+	BufferParser(char[] data, int length)
+	{
+		buf = data;
+		len = length;
+		
+		scratch = new char[64];
+		
+		hit_objects_offset = -1;
+		skip_hit_objects = false;
+		hit_object_parser = null;
+	}
+	
+	
+	// *** ACTION *** //
+	/**
+	 * Parses an osu file and returns data to the given data structures.
+	 * Reads the entire file at the given path into this parser's buffer before parsing.
+	 * 
+	 * @param path The path to the desired desktop resource to be read.
+	 * @param pc The ParserContainer to store the parsed information in.
+	 * @throws ParseException If anything unexpected happens in the file, causing parsing errors.
+	 * @throws IOException For any problems with java IO.
+	 */
+	public void parseResource(String path, ParserContainer pc) throws ParseException, IOException
+	{
+		readFile(path);
+		parseBuffer(pc);
+	}
+	
+	
+	/**
+	 * Parses osu file data that is already in memory. The array is used directly as this
+	 * parser's buffer (it is not copied), so it should not be modified while parsing.
+	 * 
+	 * @param data The characters of the file.
+	 * @param length The number of valid characters in data.
+	 * @param pc The ParserContainer to store the parsed information in.
+	 * @throws ParseException If anything unexpected happens in the file, causing parsing errors.
+	 */
+	public void parse(char[] data, int length, ParserContainer pc) throws ParseException
+	{
+		buf = data;
+		len = length;
+		parseBuffer(pc);
+	}
+	
+	
+	/**
+	 * Returns the buffer offset of the first line after the [HitObjects] header of the last
+	 * file parsed, or -1 if that file had no [HitObjects] section.
+	 */
+	public int getHitObjectsOffset() { return hit_objects_offset; }
+	
+	
+	/**
+	 * Returns the byte offset in the file of the first line after the [HitObjects] header of the
+	 * last file parsed, or -1 if that file had no [HitObjects] section. Assumes the file is in the
+	 * platform's default charset, as read by parseResource().
+	 */
+	public long getHitObjectsByteOffset()
+	{
+		if (hit_objects_offset < 0)
+			return -1;
+		
+		return new String(buf, 0, hit_objects_offset).getBytes().length;
+	}
+	
+	
+	/**
+	 * Sets whether parsing stops at the [HitObjects] header, leaving ParserContainer.hit_objects empty.
+	 * The hit objects can then be read incrementally with a HitObjectReader starting at
+	 * getHitObjectsByteOffset(). Sections after [HitObjects] are not parsed either.
+	 */
+	public void setSkipHitObjects(boolean skip) { skip_hit_objects = skip; }
+	public boolean getSkipHitObjects() { return skip_hit_objects; }
+	
+	
+	/**
+	 * Sets the maximum number of threads used to parse the [HitObjects] section (1 parses it on
+	 * the calling thread). Defaults to the number of available processors. Sections shorter than
+	 * ParallelHitObjectParser.MIN_PARALLEL_LINES are always parsed on the calling thread.
+	 */
+	public void setHitObjectThreads(int threads) { hit_object_parser = new ParallelHitObjectParser(threads); }
+	public int getHitObjectThreads() { return hit_object_parser.getThreads(); }
+	
+	
+	/**
+	 * Reads the whole file at the given path into buf, growing it as necessary.
+	 * Uses the platform's default charset, like the FileReader used by Parser.
+	 */
+	private void readFile(String path) throws IOException
+	{
+		BeatmapSource set = BeatmapSource.forPath(path); // The file may be in a .osz archive
+		String name = set.nameOf(path);
+		
+		// A decoded file never has more chars than it has bytes
+		long size = set.length(name);
+		if (size >= Integer.MAX_VALUE)
+			throw new IOException("File is too large to parse: " + path);
+		if (buf.length < size + 1)
+			buf = new char[(int)size + 1];
+		
+		InputStreamReader reader = new InputStreamReader(set.open(name));
+		try {
+			len = 0;
+			while (true)
+			{
+				if (len == buf.length) // File grew underneath us, make room
+				{
+					char[] bigger = new char[buf.length * 2];
+					System.arraycopy(buf, 0, bigger, 0, len);
+					buf = bigger;
+				}
+				
+				int read = reader.read(buf, len, buf.length - len);
+				if (read < 0)
+					break;
+				len += read;
+			}
+		} finally {
+			reader.close();
+		}
+	}
+	
+	
+	/**
+	 * Parses the contents of buf into the given ParserContainer.
+	 */
+	private void parseBuffer(ParserContainer pc) throws ParseException
+	{
+		dict = Parser.createDict();
+		pos = 0;
+		hit_objects_offset = -1;
+		
+		if (len > 0 && buf[0] == '\uFEFF') // Skip the byte order mark some editors write
+			pos = 1;
+		
+		if (!nextLine() || !confirmFileFormat()) // Invalid file header
+			throw new ParseException("Invalid file format.");
+		
+		// Find the first header
+		do
+		{
+			if (!nextLine())
+				throw new ParseException("No subsections found.");
+		} while (!isHeader());
+		
+		// Loop on subsections until the end of the file
+		boolean more = true;
+		while (more)
+			more = manageSubsection(pc);
+		
+		pc.dict = dict; // Return dict
+	}
+	
+	
+	/**
+	 * Parses the subsection following the current header line.
+	 * 
+	 * @return True if parsing stopped on the next header line, false if the end of the buffer has been reached.
+	 */
+	private boolean manageSubsection(ParserContainer pc) throws ParseException
+	{
+		int close = line_end - 1;
+		while (buf[close] != ']')
+			--close;
+		String section_name = new String(buf, line_start + 1, close - line_start - 1).toUpperCase();
+		
+		Subsections section_enum;
+		try {
+			section_enum = Subsections.valueOf(section_name);
+		} catch (IllegalArgumentException ex) {
+			throw new ParseException("Unknown section header.");
+		}
+		
+		switch (section_enum)
+		{
+		
+		// Attribute-Based
+		case GENERAL:
+		case EDITOR:
+		case METADATA:
+		case DIFFICULTY:
+			return handleAttributeBased(section_enum);
+		
+		// List-Based
+		case TIMINGPOINTS:
+			return handleTimingPoints(pc);
+		case COLOURS:
+			return handleColours(pc);
+		case HITOBJECTS:
+			hit_objects_offset = pos;
+			if (skip_hit_objects)
+				return false;
+			return handleHitObjects(pc);
+		
+		// Special-Case
+		case EVENTS:
+			return handleEvents(pc);
+		
+		default:
+			throw new ParseException("Coder error in manageSubsection: missed  header title.");
+		}
+	}
+	
+	
+	/**
+	 * Ensures the current line is an osu! file format header with an acceptable version.
+	 */
+	private boolean confirmFileFormat()
+	{
+		String start = ParserConstants.HEADER_START;
+		int n = start.length();
+		
+		if (line_end - line_start <= n)
+			return false;
+		
+		for (int i = 0; i < n; ++i)
+			if (buf[line_start + i] != start.charAt(i))
+				return false;
+		
+		try {
+			int version = parseInt(line_start + n, line_end);
+			for (int i = 0; i < ParserConstants.ACCEPTABLE_FILE_VERSIONS.length; ++i)
+				if (ParserConstants.ACCEPTABLE_FILE_VERSIONS[i] == version)
+					return true;
+		} catch (NumberFormatException ex) {
+			return false;
+		}
+		
+		return false;
+	}
+	
+	
+	// *** HANDLE SUBSECTIONS *** //
+	// Attribute-Based //
+	private boolean handleAttributeBased(Subsections header)
+	{
+		HashMap<String, String> subsect = dict.get(header); // Current subsection we are working in
+		
+		while (nextLine())
+		{
+			if (isHeader()) // Return at next header
+				return true;
+			if (line_start == line_end) // Skip over blank lines
+				continue;
+			
+			int colon = find(':', line_start, line_end);
+			if (colon == line_end)
+			{
+				printError("BufferParser.handleAttributeBased", "Line without an attribute in subsection, \"" + header.toString() + "\".");
+				continue;
+			}
+			
+			// Parse left-side of expression
+			String attrib = attributeKey(line_start, colon);
+			
+			// Parse right-side of expression
+			int val_start = colon + 1;
+			if (val_start == line_end)
+				continue;
+			if (buf[val_start] == ' ')
+				++val_start;
+			
+			// Set values in HashMap
+			if (subsect.containsKey(attrib))
+				subsect.put(attrib, new String(buf, val_start, line_end - val_start));
+			else // Invalid attribute
+				printError("BufferParser.handleAttributeBased", "Invalid Attribute, \"" + attrib + "\" in subsection, \"" + header.toString() + "\".");
+		}
+		
+		return false;
+	}
+	
+	
+	// List-Based //
+	private boolean handleTimingPoints(ParserContainer pc)
+	{
+		while (nextLine())
+		{
+			if (isHeader()) // Return at next header
+				return true;
+			if (line_start == line_end) // Skip over blank lines
+				continue;
+			
+			pc.timing_points.add(parseTimingPoint(line_start, line_end));
+		}
+		
+		return false;
+	}
+	
+	
+	/**
+	 * Parses a single timing point line from buf[start, end).
+	 */
+	private TimingPoint parseTimingPoint(int start, int end)
+	{
+		beginFields(start, end);
+		
+		// Offset, BPM, Time, SampleSet, CustomSampleSet, Vol, Inheritance, KIAI
+		TimingPoint tp = new TimingPoint();
+		tp.setOffset(nextLong());
+		tp.setBPM(nextDouble());
+		tp.setTimeSignature(nextInt());
+		tp.setSampleSet(nextInt());
+		tp.setCustomSampleSet(nextInt());
+		tp.setVolume(nextInt());
+		tp.setInheritance(nextInt() == 1);
+		tp.setKiai(nextInt() == 1);
+		
+		return tp;
+	}
+	
+	
+	/**
+	 * Parses a single timing point line from an external buffer (see IncrementalParser).
+	 * The array becomes this parser's buffer, as with parse().
+	 */
+	TimingPoint parseTimingPoint(char[] data, int start, int end)
+	{
+		buf = data;
+		len = end;
+		return parseTimingPoint(start, end);
+	}
+	
+	private boolean handleColours(ParserContainer pc)
+	{
+		while (nextLine())
+		{
+			if (isHeader()) // Return at next header
+				return true;
+			if (line_start == line_end) // Skip over blank lines
+				continue;
+			
+			if (!startsWithIgnoreCase(line_start, line_end, "combo")) // Make sure we have a combo
+			{
+				printError("BufferParser.handleColours", "Unidentifiable line in \"Colours\" header - " + new String(buf, line_start, line_end - line_start));
+				continue;
+			}
+			
+			// ComboX : r, g, b
+			beginFields(find(':', line_start, line_end) + 1, line_end);
+			int r = nextInt();
+			int g = nextInt();
+			int b = nextInt();
+			
+			if (r < 0 || r > 255 ||
+					g < 0 || g > 255 ||
+					b < 0 || b > 255) // Bounds checking
+			{
+				printError("BufferParser.handleColours", "Color values are too large - " + r + ", " + b + ", " + g + ".");
+				continue;
+			}
+			
+			pc.combo_colors.add(new ComboColor(r, g, b));
+		}
+		
+		return false;
+	}
+	
+	private boolean handleHitObjects(ParserContainer pc)
+	{
+		// Size the store up front; [HitObjects] is almost always the last section
+		int lines = 0;
+		for (int i = pos; i < len; ++i)
+			if (buf[i] == '\n')
+				++lines;
+		pc.hit_objects.ensureCapacity(pc.hit_objects.size() + lines + 1);
+		
+		// Long sections: find where the section ends and parse its lines on several threads
+		if (hit_object_parser.getThreads() > 1 && lines >= ParallelHitObjectParser.MIN_PARALLEL_LINES)
+		{
+			int start = pos;
+			boolean more = false;
+			while (nextLine())
+			{
+				if (isHeader())
+				{
+					more = true;
+					break;
+				}
+			}
+			
+			hit_object_parser.parse(buf, start, more ? line_start : len, lines, pc.hit_objects);
+			return more;
+		}
+		
+		while (nextLine())
+		{
+			if (isHeader()) // Return at next header
+				return true;
+			if (line_start == line_end) // Skip empty lines
+				continue;
+			
+			parseHitObject(line_start, line_end, pc.hit_objects); // Add to ParserContainer store
+		}
+		
+		return false;
+	}
+	
+	
+	// Special-Case //
+	private boolean handleEvents(ParserContainer pc)
+	{
+		int group = EVENT_NONE; // The event group we are in
+		boolean first = false; // Whether the current line is the first line after an event header
+		
+		while (nextLine())
+		{
+			if (isHeader()) // Return at next header
+				return true;
+			
+			if (line_end - line_start >= 2 && buf[line_start] == '/' && buf[line_start + 1] == '/') // Event header
+			{
+				String header = new String(buf, line_start, line_end - line_start).toLowerCase();
+				
+				if (header.equals("//background and video events"))
+					group = EVENT_BACKGROUND;
+				else if (header.equals("//break periods"))
+					group = EVENT_BREAKS;
+				else if (header.equals("//background colour transformations"))
+					group = EVENT_COLOUR;
+				else // Unknown result
+				{
+					printError("BufferParser.handleEvents", "Unknown event header: " + header);
+					group = EVENT_NONE;
+				}
+				
+				first = true;
+				continue;
+			}
+			
+			boolean was_first = first;
+			first = false;
+			
+			switch (group)
+			{
+			case EVENT_BACKGROUND: // Only the first line is the background image, videos are ignored
+				if (was_first && line_start != line_end && buf[line_start] == '0')
+				{
+					Background background = pc.background;
+					
+					beginFields(line_start, line_end);
+					background.setBveUn1(nextFloat());
+					background.setBveUn2(nextFloat());
+					
+					// Remove quotations
+					int end = find(',', cursor, cursor_end);
+					int quote = end - 1;
+					while (quote > cursor && buf[quote] != '"')
+						--quote;
+					if (buf[cursor] == '"' && quote > cursor)
+						background.setImagePath(new String(buf, cursor + 1, quote - cursor - 1));
+					else
+						background.setImagePath(new String(buf, cursor, end - cursor));
+				}
+				break;
+			
+			case EVENT_BREAKS:
+				if (line_start != line_end)
+				{
+					beginFields(line_start, line_end);
+					int unknown = nextInt();
+					long start_time = nextLong();
+					long end_time = nextLong();
+					
+					pc.break_timings.add(new BreakTiming(unknown, start_time, end_time));
+				}
+				break;
+			
+			case EVENT_COLOUR: // Only the first line is used
+				if (was_first && line_start != line_end)
+				{
+					Background background = pc.background;
+					
+					beginFields(line_start, line_end);
+					background.setBctUn1(nextFloat());
+					background.setBctUn2(nextFloat());
+					
+					background.setR(nextInt());
+					background.setG(nextInt());
+					background.setB(nextInt());
+				}
+				break;
+			}
+		}
+		
+		return false;
+	}
+	
+	
+	// *** HIT OBJECTS *** //
+	/**
+	 * Parses a single hit object line and appends it to the given store. Package-visible so other
+	 * parsers can decode hit object lines from a buffer this parser has already read.
+	 * 
+	 * @param start The buffer offset of the first character of the line.
+	 * @param end The buffer offset one past the last character of the line (excluding newlines).
+	 * @param objects The store to add the hit object to.
+	 * @return False if the line describes an unsupported object (nothing is added).
+	 */
+	boolean parseHitObject(int start, int end, HitObjectStore objects)
+	{
+		beginFields(start, end);
+		
+		// x, y, timing, piece_type, sound_type, SPECIAL
+		int x = nextInt();
+		int y = nextInt();
+		long timing = nextLong();
+		int piece_type = nextInt();
+		int sound_type = nextInt();
+		
+		// See Parser.handleHitObjects for the bitflags
+		boolean newcombo = (piece_type & 4) != 0;
+		if ((piece_type & 1) != 0) // button!
+		{
+			objects.addButton(x, y, timing, newcombo, sound_type);
+			return true;
+		}
+		else if ((piece_type & 2) != 0) // slider!
+		{
+			return handleSlider(objects, x, y, timing, newcombo, sound_type);
+		}
+		else if ((piece_type & 8) != 0) // spinner!
+		{
+			objects.addSpinner(x, y, timing, newcombo, sound_type, nextLong());
+			return true;
+		}
+		
+		Log.v("BufferParser.parseHitObject", "Hit-object with type " + piece_type + " is not button, slider, or spinner!");
+		return false;
+	}
+	
+	
+	/**
+	 * Parses a single hit object line from an external buffer (see HitObjectReader and IncrementalParser).
+	 * The array becomes this parser's buffer, as with parse().
+	 * 
+	 * @return False if the line describes an unsupported object (nothing is added).
+	 */
+	boolean parseHitObject(char[] data, int start, int end, HitObjectStore objects)
+	{
+		buf = data;
+		len = end;
+		return parseHitObject(start, end, objects);
+	}
+	
+	
+	/**
+	 * Parses the remaining slider components from the field cursor and adds the slider:
+	 * points, repeats, path length, [sounds]
+	 */
+	private boolean handleSlider(HitObjectStore objects, int x, int y, long timing, boolean newcombo, int sound_type)
+	{
+		int path_end = find(',', cursor, cursor_end);
+		int type_end = find('|', cursor, path_end);
+		
+		// Get slider type
+		int type_start = skipSpaces(cursor, type_end);
+		char type = type_end - type_start == 1 ? buf[type_start] : 0;
+		int i;
+		try {
+			if (type == 'B')
+				i = objects.addSlider(x, y, timing, newcombo, sound_type, HOSliderType.BEZIER);
+			else if (type == 'L')
+				i = objects.addSlider(x, y, timing, newcombo, sound_type, HOSliderType.LINEAR);
+			else if (type == 'C')
+				i = objects.addSlider(x, y, timing, newcombo, sound_type, HOSliderType.CATMULL);
+			else
+			{
+				printError("BufferParser.handleSlider", "Unknown slider type: \"" + new String(buf, cursor, type_end - cursor) + "\".");
+				return false;
+			}
+		} catch (UnsupportedOperationException ex) {
+			printError("BufferParser.handleSlider", ex.toString());
+			return false;
+		}
+		
+		// Parse the points on the path
+		int p = type_end + 1;
+		while (p < path_end)
+		{
+			int point_end = find('|', p, path_end);
+			if (point_end > p) // Skip empty points
+			{
+				int colon = find(':', p, point_end);
+				objects.addPathPoint(parseInt(p, colon), parseInt(colon + 1, point_end));
+			}
+			p = point_end + 1;
+		}
+		cursor = path_end + 1;
+		
+		objects.setRepeats(i, nextInt());
+		objects.setPathLength(i, nextFloat());
+		
+		// Parse the sounds (if they exist)
+		if (cursor < cursor_end) // Sound is not a required attribute
+		{
+			int sound_end = find(',', cursor, cursor_end);
+			p = cursor;
+			while (p < sound_end)
+			{
+				int sound = find('|', p, sound_end);
+				if (sound > p)
+					objects.addSoundPoint(parseInt(p, sound));
+				p = sound + 1;
+			}
+			cursor = sound_end + 1;
+		}
+		
+		return true;
+	}
+	
+	
+	// *** LINES AND FIELDS *** //
+	/**
+	 * Advances to the next line in the buffer, setting line_start and line_end.
+	 * Lines are terminated by "\n", "\r" or "\r\n", as with BufferedReader.readLine().
+	 * 
+	 * @return False if the end of the buffer has been reached.
+	 */
+	private boolean nextLine()
+	{
+		if (pos >= len)
+			return false;
+		
+		int i = pos;
+		while (i < len && buf[i] != '\n' && buf[i] != '\r')
+			++i;
+		
+		line_start = pos;
+		line_end = i;
+		
+		if (i < len && buf[i] == '\r')
+			++i;
+		if (i < len && buf[i] == '\n')
+			++i;
+		pos = i;
+		
+		return true;
+	}
+	
+	
+	/**
+	 * Returns true if the current line is a section header ("[...]").
+	 */
+	private boolean isHeader()
+	{
+		return line_start != line_end && buf[line_start] == '[' && find(']', line_start, line_end) != line_end;
+	}
+	
+	
+	/** Starts reading comma-separated fields from the given range */
+	private void beginFields(int start, int end)
+	{
+		cursor = start;
+		cursor_end = end;
+	}
+	
+	/** Parses the next comma-separated field as an int */
+	private int nextInt()
+	{
+		int end = find(',', cursor, cursor_end);
+		int val = parseInt(cursor, end);
+		cursor = end + 1;
+		return val;
+	}
+	
+	/** Parses the next comma-separated field as a long */
+	private long nextLong()
+	{
+		int end = find(',', cursor, cursor_end);
+		long val = parseLong(cursor, end);
+		cursor = end + 1;
+		return val;
+	}
+	
+	/** Parses the next comma-separated field as a float */
+	private float nextFloat()
+	{
+		int end = find(',', cursor, cursor_end);
+		float val = parseFloat(cursor, end);
+		cursor = end + 1;
+		return val;
+	}
+	
+	/** Parses the next comma-separated field as a double */
+	private double nextDouble()
+	{
+		int end = find(',', cursor, cursor_end);
+		double val = parseDouble(cursor, end);
+		cursor = end + 1;
+		return val;
+	}
+	
+	
+	// *** NUMBER DECODING *** //
+	/**
+	 * Decodes an int from buf[start, end). Spaces are ignored, as Parser removes them before parsing.
+	 * @throws NumberFormatException If the range is not a valid int, as with Integer.parseInt().
+	 */
+	private int parseInt(int start, int end)
+	{
+		long val = parseLong(start, end);
+		if (val < Integer.MIN_VALUE || val > Integer.MAX_VALUE)
+			throw new NumberFormatException("Value out of int range: \"" + new String(buf, start, end - start) + "\"");
+		return (int)val;
+	}
+	
+	/**
+	 * Decodes a long from buf[start, end). Spaces are ignored.
+	 * @throws NumberFormatException If the range is not a valid long, as with Long.parseLong().
+	 */
+	private long parseLong(int start, int end)
+	{
+		start = skipSpaces(start, end);
+		
+		boolean negative = false;
+		if (start < end && (buf[start] == '-' || buf[start] == '+'))
+		{
+			negative = buf[start] == '-';
+			++start;
+		}
+		
+		long val = 0;
+		int digits = 0;
+		for (int i = start; i < end; ++i)
+		{
+			char c = buf[i];
+			if (c == ' ')
+				continue;
+			if (c < '0' || c > '9' || digits == 18)
+				return Long.parseLong(stripSpaces(start, end, negative)); // Throws with the right message, or handles huge values
+			
+			val = val * 10 + (c - '0');
+			++digits;
+		}
+		
+		if (digits == 0)
+			throw new NumberFormatException("Invalid number: \"" + (start <= end ? new String(buf, start, end - start) : "") + "\"");
+		
+		return negative ? -val : val;
+	}
+	
+	/**
+	 * Decodes a float from buf[start, end), giving exactly the same result as Float.parseFloat().
+	 * Plain decimals with at most 24 bits of mantissa and 10 fractional digits are decoded with a
+	 * single float division, which is correctly rounded; anything else falls back to Float.parseFloat().
+	 */
+	private float parseFloat(int start, int end)
+	{
+		start = skipSpaces(start, end);
+		
+		boolean negative = false;
+		if (start < end && (buf[start] == '-' || buf[start] == '+'))
+		{
+			negative = buf[start] == '-';
+			++start;
+		}
+		
+		long mantissa = 0;
+		int digits = 0, fraction = 0;
+		boolean point = false;
+		for (int i = start; i < end; ++i)
+		{
+			char c = buf[i];
+			if (c == ' ')
+				continue;
+			
+			if (c >= '0' && c <= '9' && digits < 18)
+			{
+				mantissa = mantissa * 10 + (c - '0');
+				++digits;
+				if (point)
+					++fraction;
+			}
+			else if (c == '.' && !point)
+				point = true;
+			else
+				return Float.parseFloat(stripSpaces(start, end, negative));
+		}
+		
+		if (digits == 0 || mantissa > (1 << 24) || fraction >= FLOAT_POW10.length)
+			return Float.parseFloat(stripSpaces(start, end, negative));
+		
+		float val = (float)mantissa / FLOAT_POW10[fraction];
+		return negative ? -val : val;
+	}
+	
+	/**
+	 * Decodes a double from buf[start, end), giving exactly the same result as Double.parseDouble().
+	 * See parseFloat() for when the fast path applies.
+	 */
+	private double parseDouble(int start, int end)
+	{
+		start = skipSpaces(start, end);
+		
+		boolean negative = false;
+		if (start < end && (buf[start] == '-' || buf[start] == '+'))
+		{
+			negative = buf[start] == '-';
+			++start;
+		}
+		
+		long mantissa = 0;
+		int digits = 0, fraction = 0;
+		boolean point = false;
+		for (int i = start; i < end; ++i)
+		{
+			char c = buf[i];
+			if (c == ' ')
+				continue;
+			
+			if (c >= '0' && c <= '9' && digits < 18)
+			{
+				mantissa = mantissa * 10 + (c - '0');
+				++digits;
+				if (point)
+					++fraction;
+			}
+			else if (c == '.' && !point)
+				point = true;
+			else
+				return Double.parseDouble(stripSpaces(start, end, negative));
+		}
+		
+		if (digits == 0 || mantissa > (1L << 53) || fraction >= DOUBLE_POW10.length)
+			return Double.parseDouble(stripSpaces(start, end, negative));
+		
+		double val = (double)mantissa / DOUBLE_POW10[fraction];
+		return negative ? -val : val;
+	}
+	
+	
+	// *** HELPER METHODS *** //
+	/**
+	 * Returns the index of the first occurrence of c in buf[start, end), or end if there is none.
+	 */
+	private int find(char c, int start, int end)
+	{
+		int i = start;
+		while (i < end && buf[i] != c)
+			++i;
+		return i;
+	}
+	
+	
+	/**
+	 * Returns the index of the first non-space character in buf[start, end), or end if there is none.
+	 */
+	private int skipSpaces(int start, int end)
+	{
+		while (start < end && buf[start] == ' ')
+			++start;
+		return start;
+	}
+	
+	
+	/**
+	 * Returns true if buf[start, end) begins with the given prefix, ignoring case.
+	 */
+	private boolean startsWithIgnoreCase(int start, int end, String prefix)
+	{
+		int n = prefix.length();
+		if (end - start < n)
+			return false;
+		
+		for (int i = 0; i < n; ++i)
+			if (Character.toLowerCase(buf[start + i]) != prefix.charAt(i))
+				return false;
+		
+		return true;
+	}
+	
+	
+	/**
+	 * Builds an attribute key from buf[start, end) the same way Parser does:
+	 * all spaces removed, then lower-cased.
+	 */
+	private String attributeKey(int start, int end)
+	{
+		if (scratch.length < end - start)
+			scratch = new char[end - start];
+		
+		int n = 0;
+		for (int i = start; i < end; ++i)
+			if (buf[i] != ' ')
+				scratch[n++] = buf[i];
+		
+		return new String(scratch, 0, n).toLowerCase();
+	}
+	
+	
+	/**
+	 * Builds a String of buf[start, end) with all spaces removed, for the slow number parsing paths.
+	 */
+	private String stripSpaces(int start, int end, boolean negative)
+	{
+		StringBuilder sb = new StringBuilder(end - start + 1);
+		if (negative)
+			sb.append('-');
+		for (int i = start; i < end; ++i)
+			if (buf[i] != ' ')
+				sb.append(buf[i]);
+		return sb.toString();
+	}
+	
+	
+	/**
+	 * Prints any non-thrown parse errors to the command line (Logcat and stdout).
+	 * @param tag The tag to put in (LogCat - used in stdout as start entry)
+	 * @param s The message to print
+	 */
+	private void printError(String tag, String s)
+	{
+		Log.e(tag, s);
+		System.err.println(tag + " - " + s);
+	}
+	
+}
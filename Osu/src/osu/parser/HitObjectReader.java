@@ -0,0 +1,182 @@
+package osu.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+import osu.beatmap.BeatmapSource;
+import osu.game.HitObjectStore;
+
+import android.util.Log;
+
+/**
+ * Reads the hit objects of a beatmap file incrementally, a few at a time, starting from the
+ * byte offset of the first line after its [HitObjects] header (see BufferParser.setSkipHitObjects
+ * and BufferParser.getHitObjectsByteOffset).<br><br>
+ *
+ * Only a small read buffer is kept in memory, so very long beatmaps can be streamed without
+ * holding all of their hit objects at once.
+ */
+public class HitObjectReader {
+
+	// *** CONSTANTS *** //
+	private static final int BUFFER_SIZE = 16 * 1024;
+
+
+	// Storage
+	private InputStreamReader reader; // Null once closed
+	private BufferParser parser; // Decodes the individual lines
+
+	private char[] buf;
+	private int len; // Valid chars in buf
+	private int pos; // The start of the next unread line
+	private boolean eof; // The reader has no more data
+	private boolean finished; // No more hit objects (end of file or the next section)
+
+
+	// *** CONSTRUCTORS *** //
+	/**
+	 * Opens the file at the given path for reading hit objects.
+	 *
+	 * @param path The path to the .osu file, which may be in a .osz archive.
+	 * @param byte_offset The byte offset of the first line after the [HitObjects] header.
+	 * @throws IOException If the file can't be opened or is shorter than the offset.
+	 */
+	public HitObjectReader(String path, long byte_offset) throws IOException
+	{
+		BeatmapSource set = BeatmapSource.forPath(path);
+		InputStream in = set.open(set.nameOf(path)); // Skipping seeks, unless the file is compressed in a .osz archive
+		try {
+			long skipped = 0;
+			while (skipped < byte_offset)
+			{
+				long n = in.skip(byte_offset - skipped);
+				if (n <= 0)
+					throw new IOException("Hit object offset " + byte_offset + " is past the end of " + path);
+				skipped += n;
+			}
+		} catch (IOException ex) {
+			in.close();
+			throw ex;
+		}
+
+		reader = new InputStreamReader(in); // Same charset as BufferParser.parseResource()
+		parser = new BufferParser();
+		buf = new char[BUFFER_SIZE];
+		len = 0;
+		pos = 0;
+		eof = false;
+		finished = false;
+	}
+
+
+	// *** ACTION *** //
+	/**
+	 * Decodes up to max_objects hit object lines and appends the objects to the given store.
+	 * Lines describing unsupported or malformed objects are skipped (and count towards the maximum).
+	 *
+	 * @return The number of objects added. Zero only once isFinished() is true (or max_objects is zero).
+	 * @throws IOException For any problems with java IO.
+	 */
+	public int read(HitObjectStore objects, int max_objects) throws IOException
+	{
+		int added = 0;
+		int lines = 0;
+
+		while (lines < max_objects && !finished)
+		{
+			// Find the end of the next line, reading more if it isn't complete
+			int end = pos;
+			while (end < len && buf[end] != '\n' && buf[end] != '\r')
+				++end;
+
+			if (end == len && !eof)
+			{
+				fill();
+				continue;
+			}
+
+			if (end == len && pos == len) // Nothing left
+			{
+				finished = true;
+				close();
+				break;
+			}
+
+			int start = pos;
+			pos = end;
+			while (pos < len && (buf[pos] == '\n' || buf[pos] == '\r'))
+				++pos;
+
+			// Trim, skip blank lines, stop at the next section
+			while (start < end && buf[start] == ' ')
+				++start;
+			if (start == end)
+				continue;
+			if (buf[start] == '[')
+			{
+				finished = true;
+				close();
+				break;
+			}
+
+			++lines;
+			try {
+				if (parser.parseHitObject(buf, start, end, objects))
+					++added;
+			} catch (RuntimeException ex) {
+				Log.e("HitObjectReader.read", "Skipping malformed hit object \"" + new String(buf, start, end - start) + "\": " + ex.toString());
+			}
+		}
+
+		return added;
+	}
+
+
+	/** Returns true once every hit object has been read */
+	public boolean isFinished() { return finished; }
+
+
+	/**
+	 * Closes the underlying file. Further reads return nothing.
+	 */
+	public void close() throws IOException
+	{
+		finished = true;
+		if (reader != null)
+		{
+			reader.close();
+			reader = null;
+		}
+	}
+
+
+	// *** HELPER METHODS *** //
+	/**
+	 * Moves the unread part of buf to the front and reads more characters after it,
+	 * growing buf if a single line doesn't fit.
+	 */
+	private void fill() throws IOException
+	{
+		if (pos > 0)
+		{
+			System.arraycopy(buf, pos, buf, 0, len - pos);
+			len -= pos;
+			pos = 0;
+		}
+
+		if (len == buf.length)
+		{
+			char[] bigger = new char[buf.length * 2];
+			System.arraycopy(buf, 0, bigger, 0, len);
+			buf = bigger;
+		}
+
+		int read = reader.read(buf, len, buf.length - len);
+		if (read < 0)
+			eof = true;
+		else
+			len += read;
+	}
+
+}
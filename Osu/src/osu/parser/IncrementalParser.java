@@ -0,0 +1,278 @@
+package osu.parser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+import osu.game.HitObjectStore;
+import osu.game.TimingPoint;
+
+import android.util.Log;
+
+/**
+ * Re-reads a beatmap file that is being edited and works out which lines of its [HitObjects] and
+ * [TimingPoints] sections changed since the last read, so that only those lines have to be
+ * parsed again (see osu.beatmap.BeatmapWatcher).<br><br>
+ * 
+ * Each section is compared line by line; the lines that both versions start and end with are
+ * unchanged and everything between them is one changed range. Saving an edit to one object (or
+ * a block of them) therefore re-parses just those lines. Blank lines are ignored.<br><br>
+ * 
+ * The other sections are only compared as a whole: Change.header_changed tells whether anything
+ * outside the two sections was edited, in which case the beatmap has to be reloaded completely.
+ */
+public class IncrementalParser {
+	
+	/**
+	 * The difference between two versions of a beatmap file.
+	 */
+	public static class Change {
+		
+		// NOTE: Fields intentionally left public for struct-like interaction.
+		/** Whether anything outside the bodies of [HitObjects] and [TimingPoints] changed */
+		public boolean header_changed;
+		
+		/** The first changed hit object line (counting non-blank lines only) */
+		public int hit_object_start;
+		/** The number of old hit object lines replaced, starting at hit_object_start */
+		public int hit_objects_removed;
+		/** The number of new hit object lines in their place (see getHitObjectLine) */
+		public int hit_objects_added;
+		
+		/** The complete new list of timing points, or null if [TimingPoints] didn't change */
+		public LinkedList<TimingPoint> timing_points;
+		/** The earliest offset (in millis) of any timing point that was removed, added or changed */
+		public long timing_offset;
+		
+		
+		public Change()
+		{
+			header_changed = false;
+			hit_object_start = 0;
+			hit_objects_removed = 0;
+			hit_objects_added = 0;
+			timing_points = null;
+			timing_offset = Long.MAX_VALUE;
+		}
+		
+		/** Returns true if any hit object lines changed */
+		public boolean hitObjectsChanged() { return hit_objects_removed > 0 || hit_objects_added > 0; }
+		
+	}
+	
+	
+	// Storage
+	private String path;
+	private long last_modified, last_length; // Of the version read last, 0 before the first read
+	private BufferParser parser; // Decodes single lines
+	
+	private String header; // Everything except the bodies of [HitObjects] and [TimingPoints]
+	private ArrayList<String> hit_object_lines;
+	private ArrayList<String> timing_lines;
+	private ArrayList<TimingPoint> timing_points; // One per timing line
+	
+	
+	// *** CONSTRUCTORS *** //
+	/**
+	 * Creates a parser for the given file. Nothing is read until update() is called.
+	 */
+	public IncrementalParser(String path)
+	{
+		this.path = path;
+		last_modified = 0;
+		last_length = 0;
+		parser = new BufferParser(new char[0], 0);
+		
+		header = null;
+		hit_object_lines = new ArrayList<String>();
+		timing_lines = new ArrayList<String>();
+		timing_points = new ArrayList<TimingPoint>();
+	}
+	
+	
+	// *** ACTION *** //
+	/**
+	 * Returns true if the file has been modified since it was read last.
+	 */
+	public boolean isModified()
+	{
+		File file = new File(path);
+		return file.lastModified() != last_modified || file.length() != last_length; // Some file systems only store whole seconds
+	}
+	
+	
+	/**
+	 * Reads the file again and compares it to the version read last. The first call treats every
+	 * line as added.
+	 * 
+	 * @return The changes, or null if the file is unchanged.
+	 * @throws IOException For any problems with java IO.
+	 * @throws ParseException If a changed timing point is malformed. The version read is then
+	 * ignored, and the next one is compared to the version before it.
+	 */
+	public Change update() throws IOException, ParseException
+	{
+		File file = new File(path);
+		long modified = file.lastModified();
+		String text = readFile(file);
+		
+		// Don't try the same version again if it fails to parse; the next edit is compared to the last good one
+		last_modified = modified;
+		last_length = file.length();
+		
+		// Split the file into the two sections and everything else
+		StringBuilder new_header = new StringBuilder(1024);
+		ArrayList<String> new_hit_objects = new ArrayList<String>(hit_object_lines.size() + 16);
+		ArrayList<String> new_timing = new ArrayList<String>(timing_lines.size() + 4);
+		
+		ArrayList<String> section = null; // The list lines go into, or null for the header
+		int pos = 0, n = text.length();
+		while (pos < n)
+		{
+			int end = pos;
+			while (end < n && text.charAt(end) != '\n' && text.charAt(end) != '\r')
+				++end;
+			String line = text.substring(pos, end);
+			
+			pos = end;
+			if (pos < n && text.charAt(pos) == '\r')
+				++pos;
+			if (pos < n && text.charAt(pos) == '\n')
+				++pos;
+			
+			if (line.startsWith("[") && line.indexOf(']') > 0) // Section header
+			{
+				String name = line.substring(1, line.indexOf(']')).trim();
+				if (name.equalsIgnoreCase("HitObjects"))
+					section = new_hit_objects;
+				else if (name.equalsIgnoreCase("TimingPoints"))
+					section = new_timing;
+				else
+					section = null;
+			}
+			else if (section != null)
+			{
+				if (line.length() > 0)
+					section.add(line);
+				continue;
+			}
+			
+			new_header.append(line).append('\n');
+		}
+		
+		Change change = new Change();
+		change.header_changed = header != null && !header.equals(new_header.toString());
+		
+		// Timing points are parsed first, so a malformed one leaves everything as it was
+		int t_start = commonPrefix(timing_lines, new_timing);
+		int t_end = commonSuffix(timing_lines, new_timing, t_start);
+		if (t_start < timing_lines.size() - t_end || t_start < new_timing.size() - t_end)
+		{
+			ArrayList<TimingPoint> added = new ArrayList<TimingPoint>();
+			for (int i = t_start; i < new_timing.size() - t_end; ++i)
+			{
+				char[] chars = new_timing.get(i).toCharArray();
+				try {
+					added.add(parser.parseTimingPoint(chars, 0, chars.length));
+				} catch (RuntimeException ex) {
+					throw new ParseException("Malformed timing point \"" + new_timing.get(i) + "\": " + ex.toString());
+				}
+			}
+			
+			for (int i = t_start; i < timing_lines.size() - t_end; ++i)
+				change.timing_offset = Math.min(change.timing_offset, timing_points.get(i).getOffset());
+			for (int i = 0; i < added.size(); ++i)
+				change.timing_offset = Math.min(change.timing_offset, added.get(i).getOffset());
+			
+			timing_points.subList(t_start, timing_lines.size() - t_end).clear();
+			timing_points.addAll(t_start, added);
+			change.timing_points = new LinkedList<TimingPoint>(timing_points);
+		}
+		
+		int h_start = commonPrefix(hit_object_lines, new_hit_objects);
+		int h_end = commonSuffix(hit_object_lines, new_hit_objects, h_start);
+		change.hit_object_start = h_start;
+		change.hit_objects_removed = hit_object_lines.size() - h_end - h_start;
+		change.hit_objects_added = new_hit_objects.size() - h_end - h_start;
+		
+		header = new_header.toString();
+		hit_object_lines = new_hit_objects;
+		timing_lines = new_timing;
+		
+		if (!change.header_changed && !change.hitObjectsChanged() && change.timing_points == null)
+			return null;
+		return change;
+	}
+	
+	
+	/**
+	 * Parses the hit object on the given line (of the version read last) into the given store.
+	 * 
+	 * @return False if the line describes an unsupported or malformed object (nothing is added).
+	 */
+	public boolean parseHitObject(int line, HitObjectStore objects)
+	{
+		char[] chars = hit_object_lines.get(line).toCharArray();
+		try {
+			return parser.parseHitObject(chars, 0, chars.length, objects);
+		} catch (RuntimeException ex) {
+			Log.e("IncrementalParser.parseHitObject", "Skipping malformed hit object \"" + hit_object_lines.get(line) + "\": " + ex.toString());
+			return false;
+		}
+	}
+	
+	
+	/** Returns the number of (non-blank) hit object lines in the version read last */
+	public int getHitObjectLineCount() { return hit_object_lines.size(); }
+	
+	/** Returns a hit object line of the version read last */
+	public String getHitObjectLine(int line) { return hit_object_lines.get(line); }
+	
+	public String getPath() { return path; }
+	
+	
+	// *** HELPER METHODS *** //
+	/**
+	 * Reads the whole file into a string, in the platform's default charset (like BufferParser).
+	 */
+	private static String readFile(File file) throws IOException
+	{
+		InputStreamReader reader = new InputStreamReader(new FileInputStream(file));
+		try {
+			StringBuilder sb = new StringBuilder((int)Math.min(file.length() + 16, Integer.MAX_VALUE));
+			char[] chunk = new char[8 * 1024];
+			int read;
+			while ((read = reader.read(chunk)) > 0)
+				sb.append(chunk, 0, read);
+			return sb.toString();
+		} finally {
+			reader.close();
+		}
+	}
+	
+	
+	/** Returns the number of lines both lists start with */
+	private static int commonPrefix(ArrayList<String> a, ArrayList<String> b)
+	{
+		int n = Math.min(a.size(), b.size());
+		int i = 0;
+		while (i < n && a.get(i).equals(b.get(i)))
+			++i;
+		return i;
+	}
+	
+	
+	/** Returns the number of lines both lists end with, not counting the first skip lines of either */
+	private static int commonSuffix(ArrayList<String> a, ArrayList<String> b, int skip)
+	{
+		int n = Math.min(a.size(), b.size()) - skip;
+		int i = 0;
+		while (i < n && a.get(a.size() - 1 - i).equals(b.get(b.size() - 1 - i)))
+			++i;
+		return i;
+	}
+	
+}
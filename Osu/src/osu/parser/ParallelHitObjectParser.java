@@ -0,0 +1,162 @@
+package osu.parser;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import osu.game.HitObjectStore;
+
+/**
+ * Parses the lines of a [HitObjects] section on several threads.<br><br>
+ * 
+ * Hit object lines don't depend on each other, so the section is split into chunks at line
+ * boundaries, each chunk is parsed into its own HitObjectStore, and the stores are appended
+ * in file order. The result is identical to parsing the lines one after another. The only
+ * sequence that runs across lines (combo colours and numbers, from the new-combo flags) is
+ * assigned afterwards in a single cheap pass over the finished store, when controls are created
+ * (see osu.beatmap.ControlFactory).<br><br>
+ * 
+ * Sections with fewer than MIN_PARALLEL_LINES lines, or a thread count of 1, are parsed on the
+ * calling thread, since starting the threads costs more than it saves.
+ */
+public class ParallelHitObjectParser {
+	
+	// *** CONSTANTS *** //
+	/** Sections with fewer lines than this are parsed sequentially */
+	public static final int MIN_PARALLEL_LINES = 2048;
+	private static final int CHUNKS_PER_THREAD = 4; // Evens out chunks that parse slower (sliders)
+	
+	
+	// Storage
+	private int threads;
+	
+	
+	// *** CONSTRUCTORS *** //
+	/**
+	 * Creates a parser that uses one thread per available processor.
+	 */
+	public ParallelHitObjectParser()
+	{
+		this(Runtime.getRuntime().availableProcessors());
+	}
+	
+	
+	/**
+	 * Creates a parser that uses up to the given number of threads.
+	 */
+	public ParallelHitObjectParser(int threads)
+	{
+		this.threads = threads < 1 ? 1 : threads;
+	}
+	
+	
+	// *** ACTION *** //
+	/**
+	 * Parses the hit object lines in data[start, end) and appends the objects to the given store.
+	 * The range must not include a section header. Blank lines are skipped.
+	 * 
+	 * @param lines The number of lines in the range (an estimate is fine), to decide whether
+	 * parsing in parallel is worthwhile.
+	 * @throws RuntimeException Whatever parsing the first malformed line throws, as when parsing sequentially.
+	 */
+	public void parse(char[] data, int start, int end, int lines, HitObjectStore objects)
+	{
+		if (threads == 1 || lines < MIN_PARALLEL_LINES)
+		{
+			new Chunk(data, start, end, objects).call();
+			return;
+		}
+		
+		// Split into chunks of about the same length, moving each split to the next line start
+		int count = threads * CHUNKS_PER_THREAD;
+		ArrayList<Chunk> chunks = new ArrayList<Chunk>(count);
+		int chunk_start = start;
+		for (int i = 1; i <= count && chunk_start < end; ++i)
+		{
+			int chunk_end = i == count ? end : start + (int)((long)(end - start) * i / count);
+			while (chunk_end < end && data[chunk_end - 1] != '\n' && data[chunk_end - 1] != '\r')
+				++chunk_end;
+			
+			if (chunk_end > chunk_start)
+				chunks.add(new Chunk(data, chunk_start, chunk_end, new HitObjectStore(lines / count + 16)));
+			chunk_start = chunk_end;
+		}
+		
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, chunks.size()));
+		try {
+			ArrayList<Future<HitObjectStore>> results = new ArrayList<Future<HitObjectStore>>(chunks.size());
+			for (int i = 0; i < chunks.size(); ++i)
+				results.add(pool.submit(chunks.get(i)));
+			
+			// Merge in file order
+			for (int i = 0; i < results.size(); ++i)
+				objects.addAll(results.get(i).get());
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof RuntimeException)
+				throw (RuntimeException)ex.getCause();
+			throw new RuntimeException(ex.getCause());
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while parsing hit objects.", ex);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+	
+	
+	/** Returns the maximum number of threads used */
+	public int getThreads() { return threads; }
+	
+	
+	// *** CHUNK *** //
+	/**
+	 * Parses one range of lines with its own BufferParser (BufferParser isn't thread-safe,
+	 * but the character buffer is only read, so it can be shared).
+	 */
+	private static class Chunk implements Callable<HitObjectStore> {
+		
+		private char[] data;
+		private int start, end;
+		private HitObjectStore objects;
+		
+		
+		public Chunk(char[] data, int start, int end, HitObjectStore objects)
+		{
+			this.data = data;
+			this.start = start;
+			this.end = end;
+			this.objects = objects;
+		}
+		
+		
+		@Override
+		public HitObjectStore call()
+		{
+			BufferParser parser = new BufferParser(data, end);
+			
+			int pos = start;
+			while (pos < end)
+			{
+				int line_end = pos;
+				while (line_end < end && data[line_end] != '\n' && data[line_end] != '\r')
+					++line_end;
+				
+				if (line_end > pos) // Skip empty lines
+					parser.parseHitObject(pos, line_end, objects);
+				
+				pos = line_end;
+				if (pos < end && data[pos] == '\r')
+					++pos;
+				if (pos < end && data[pos] == '\n')
+					++pos;
+			}
+			
+			return objects;
+		}
+		
+	}
+	
+}
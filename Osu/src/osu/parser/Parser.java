@@ -33,7 +33,17 @@ public class Parser {
 	 */
 	private void initDict()
 	{
-		dict = new HashMap<Subsections, HashMap<String, String>>();
+		dict = createDict();
+	}
+	
+	
+	/**
+	 * Creates the attribute HashMap for the attribute-based subsections, with every known attribute
+	 * mapped to null. Shared with BufferParser so both parsers fill in the same set of keys.
+	 */
+	static HashMap<Subsections, HashMap<String, String>> createDict()
+	{
+		HashMap<Subsections, HashMap<String, String>> dict = new HashMap<Subsections, HashMap<String, String>>();
 		
 		// Init Subsections
 		dict.put(Subsections.GENERAL, new HashMap<String, String>());
@@ -81,6 +91,8 @@ public class Parser {
 		cur.put("approachrate", null);
 		cur.put("slidermultiplier", null);
 		cur.put("slidertickrate", null);
+		
+		return dict;
 	}
 	
 	
@@ -118,46 +130,48 @@ public class Parser {
 		File file = new File(path);
 		BufferedReader reader = new BufferedReader(new FileReader(file));
 		
-		// Parse for metadata!
-		String line = getSpecificHeader(reader, "metadata");
-		if (line == null)
-			throw new ParseException("Metadata header does not exist.");
-		
-		line = reader.readLine();
-		while (!lineCheck(line)) // Loop until EOF or a new header
-		{
-			if (line.length() == 0) // Error checking
+		try {
+			// Parse for metadata!
+			String line = getSpecificHeader(reader, "metadata");
+			if (line == null)
+				throw new ParseException("Metadata header does not exist.");
+			
+			line = reader.readLine();
+			while (!lineCheck(line)) // Loop until EOF or a new header
 			{
+				if (line.length() == 0) // Error checking
+				{
+					line = reader.readLine();
+					continue;
+				}
+				
+				String to_check = removeSpaces(line.substring(0, line.indexOf(':'))).toLowerCase();
+				String val = removeFirstSpaces(line.substring(line.indexOf(':') + 1));
+				
+				if (to_check.equals("title"))
+					out.title = val;
+				else if (to_check.equals("artist"))
+					out.artist = val;
+				else if (to_check.equals("creator"))
+					out.creator = val;
+				else if (to_check.equals("version"))
+					out.version = val;
+				else if (to_check.equals("source"))
+					out.source = val;
+				else if (to_check.equals("tags"))
+					out.tags = val;
+				
 				line = reader.readLine();
-				continue;
 			}
 			
-			String to_check = removeSpaces(line.substring(0, line.indexOf(':'))).toLowerCase();
-			String val = removeFirstSpaces(line.substring(line.indexOf(':') + 1));
-			
-			if (to_check.equals("title"))
-				out.title = val;
-			else if (to_check.equals("artist"))
-				out.artist = val;
-			else if (to_check.equals("creator"))
-				out.creator = val;
-			else if (to_check.equals("version"))
-				out.version = val;
-			else if (to_check.equals("source"))
-				out.source = val;
-			else if (to_check.equals("tags"))
-				out.tags = val;
-			
-			line = reader.readLine();
+			// Make sure we got good results
+			if (out.anyNull())
+				throw new ParseException("A field in Metadata was not filled in.");
+		} finally {
+			// Close all used resources
+			reader.close();
 		}
 		
-		// Make sure we got good results
-		if (out.anyNull())
-			throw new ParseException("A field in Metadata was not filled in.");
-		
-		// Close all used resources
-		reader.close();
-		
 		return out;
 	}
 
@@ -172,23 +186,27 @@ public class Parser {
 		File file = new File(path);
 		BufferedReader reader = new BufferedReader(new FileReader(file));
 		
-		// Parse for metadata!
-		String line = getSpecificHeader(reader, "difficulty");
-		if (line == null)
-			throw new ParseException("Difficulty header does not exist.");
-		
-		line = reader.readLine();
-		while (!lineCheck(line))
-		{
-			String attrib = removeSpaces(line.substring(0, line.indexOf(":")).toLowerCase()); 
-			
-			if (attrib.equals("overalldifficulty"))
-				return Integer.parseInt(removeFirstSpaces(line.substring(line.indexOf(":") + 1)));
+		try {
+			// Parse for metadata!
+			String line = getSpecificHeader(reader, "difficulty");
+			if (line == null)
+				throw new ParseException("Difficulty header does not exist.");
 			
 			line = reader.readLine();
+			while (!lineCheck(line))
+			{
+				String attrib = removeSpaces(line.substring(0, line.indexOf(":")).toLowerCase()); 
+				
+				if (attrib.equals("overalldifficulty"))
+					return Integer.parseInt(removeFirstSpaces(line.substring(line.indexOf(":") + 1)));
+				
+				line = reader.readLine();
+			}
+			
+			throw new ParseException("OverallDifficulty does not exist in this file!");
+		} finally {
+			reader.close();
 		}
-		
-		throw new ParseException("OverallDifficulty does not exist in this file!");
 	}
 	
 	
@@ -630,7 +648,7 @@ public class Parser {
 		}
 		
 		// Parse the points on the path
-		LinkedList<Point> path_points = slider.getPathPoints();
+		LinkedList<Point> path_points = new LinkedList<Point>();
 		while (points.hasMoreTokens())
 		{
 			String part = points.nextToken();
@@ -638,6 +656,7 @@ public class Parser {
 			path_points.add(new Point(Integer.parseInt(part.substring(0, breakpoint)),
 					Integer.parseInt(part.substring(breakpoint + 1))));
 		}
+		slider.setPathPoints(path_points);
 		
 		slider.setRepeats(Integer.parseInt(tokenizer.nextToken()));
 		slider.setPathLength(Float.parseFloat(tokenizer.nextToken()));
@@ -645,12 +664,13 @@ public class Parser {
 		// Parse the sounds (if they exist)
 		if (tokenizer.hasMoreTokens()) // Sound is not a required attribute
 		{
-			LinkedList<Integer> sound_points = slider.getSoundPoints();
+			LinkedList<Integer> sound_points = new LinkedList<Integer>();
 			
 			String sound_str = tokenizer.nextToken();
 			StringTokenizer sound_tokenizer = new StringTokenizer(sound_str, "|", false);
 			while (sound_tokenizer.hasMoreTokens())
 				sound_points.add(Integer.parseInt(sound_tokenizer.nextToken()));
+			slider.setSoundPoints(sound_points);
 		}
 		
 		return true;
@@ -27,7 +27,7 @@ public class ParserContainer {
 	public Vector<ComboColor> combo_colors;
 	
 	// Hit Objects	
-	public LinkedList<HitObject> hit_objects;
+	public HitObjectStore hit_objects;
 	
 	
 	// *** CONSTRUCTOR *** //
@@ -47,7 +47,7 @@ public class ParserContainer {
 		combo_colors = new Vector<ComboColor>();
 
 		// Hit Objects
-		hit_objects = new LinkedList<HitObject>();
+		hit_objects = new HitObjectStore();
 	}
 	
 }
@@ -127,10 +127,6 @@ public class ParserUtil {
 	
 	private static void setColours(ParserContainer pc, Beatmap beatmap) { beatmap.setComboColors(pc.combo_colors); }
 	
-	private static void setHitObjects(ParserContainer pc, Beatmap beatmap)
-	{
-		// TODO: FILL ME IN
-		// Convert HitObjects to controls (wrap dat shit!)
-	}
+	private static void setHitObjects(ParserContainer pc, Beatmap beatmap) { beatmap.setHitObjects(pc.hit_objects); }
 	
 }
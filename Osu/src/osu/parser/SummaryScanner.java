@@ -0,0 +1,505 @@
+package osu.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+
+import osu.beatmap.BeatmapSource;
+import osu.beatmap.Metadata;
+import osu.menu.BeatmapDescriptor;
+import osu.menu.CompactMetadata;
+import osu.menu.StringPool;
+
+/**
+ * Reads the summary of a beatmap file (everything the beatmap library needs to list it)
+ * in a single pass over a small read-ahead buffer.<br><br>
+ * 
+ * Only the [General], [Metadata] and [Difficulty] sections are parsed, plus the background
+ * image line of [Events]. Scanning stops as soon as that has been found (or the next list-based
+ * section, [TimingPoints] and so on, is reached), unless the hit objects are to be counted, in which case the remaining lines are read as well,
+ * decoding no more than their first few fields: the timing points give the BPM range, and the hit
+ * objects are counted by kind.<br><br>
+ * 
+ * The metadata strings are interned in a StringPool, so that scanning every difficulty of a
+ * song keeps one copy of its title, artist and so on.<br><br>
+ * 
+ * A SummaryScanner keeps its buffers between calls; it is not thread-safe.
+ */
+public class SummaryScanner {
+	
+	// *** CONSTANTS *** //
+	private static final int BUFFER_SIZE = 8 * 1024;
+	private static final String CHARSET = "UTF-8";
+	
+	
+	// Storage
+	private StringPool pool; // Receives the metadata strings
+	private Metadata metadata; // Scratch space for the metadata of the file being scanned
+	
+	private byte[] buf; // Read-ahead buffer
+	private int len, pos; // Valid bytes in buf and the read position
+	private InputStream in; // The file being scanned
+	private CRC32 crc; // Of the bytes read from the file so far
+	
+	private byte[] line; // The current line (without the line terminator)
+	private int line_len;
+	
+	
+	// *** CONSTRUCTORS *** //
+	public SummaryScanner()
+	{
+		this(new StringPool());
+	}
+	
+	
+	/**
+	 * Creates a scanner that interns the metadata strings in the given pool.
+	 */
+	public SummaryScanner(StringPool pool)
+	{
+		this.pool = pool;
+		metadata = new Metadata();
+		buf = new byte[BUFFER_SIZE];
+		crc = new CRC32();
+		line = new byte[256];
+	}
+	
+	
+	// *** ACTION *** //
+	/**
+	 * Scans the beatmap file at the given path and returns its summary.
+	 * 
+	 * @param path The path to the .osu file, which may be in a .osz archive (see BeatmapSource).
+	 * @param count_hit_objects Whether to count the hit objects. This requires reading the rest of
+	 * the file, which also yields its length, BPM range and checksum; otherwise those are left
+	 * unknown and scanning stops early.
+	 * @return A descriptor for the file with its metadata, general and difficulty values filled in.
+	 * @throws ParseException If the metadata or overall difficulty is missing or malformed.
+	 * @throws IOException For any problems with java IO.
+	 */
+	public BeatmapDescriptor scan(String path, boolean count_hit_objects) throws ParseException, IOException
+	{
+		BeatmapSource set = BeatmapSource.forPath(path);
+		return scan(set, set.nameOf(path), count_hit_objects);
+	}
+	
+	
+	/**
+	 * Scans the named beatmap file of a set (a song directory or .osz archive) and returns its summary.
+	 * 
+	 * @see #scan(String, boolean)
+	 */
+	public BeatmapDescriptor scan(BeatmapSource set, String name, boolean count_hit_objects) throws ParseException, IOException
+	{
+		BeatmapDescriptor des = new BeatmapDescriptor(set.pathOf(name));
+		metadata.title = metadata.artist = metadata.creator = metadata.version = metadata.source = metadata.tags = null;
+		
+		des.setFileSize(set.length(name));
+		des.setLastModified(set.lastModified(name));
+		
+		in = set.open(name);
+		crc.reset();
+		len = 0;
+		pos = 0;
+		try {
+			skipByteOrderMark();
+			
+			Subsections section = null;
+			boolean found_metadata = false, found_difficulty = false;
+			while (readLine())
+			{
+				if (line_len == 0)
+					continue;
+				
+				if (line[0] == '[') // Section header
+				{
+					section = headerSection();
+					if (section == Subsections.METADATA)
+						found_metadata = true;
+					else if (section == Subsections.DIFFICULTY)
+						found_difficulty = true;
+					else if (section != Subsections.GENERAL && section != Subsections.EDITOR)
+						break; // Everything we need comes before the list-based sections
+					continue;
+				}
+				
+				int colon = indexOf((byte)':');
+				if (colon < 0 || section == null || section == Subsections.EDITOR)
+					continue;
+				
+				String attrib = attributeKey(colon);
+				int val_start = colon + 1;
+				while (val_start < line_len && line[val_start] == ' ')
+					++val_start;
+				
+				try {
+					switch (section)
+					{
+					case GENERAL:
+						if (attrib.equals("audiofilename"))
+							des.setAudioFilename(value(val_start));
+						else if (attrib.equals("previewtime"))
+							des.setPreviewTime(Long.parseLong(value(val_start).trim()));
+						break;
+					
+					case METADATA:
+						if (attrib.equals("title"))
+							metadata.title = value(val_start);
+						else if (attrib.equals("artist"))
+							metadata.artist = value(val_start);
+						else if (attrib.equals("creator"))
+							metadata.creator = value(val_start);
+						else if (attrib.equals("version"))
+							metadata.version = value(val_start);
+						else if (attrib.equals("source"))
+							metadata.source = value(val_start);
+						else if (attrib.equals("tags"))
+							metadata.tags = value(val_start);
+						break;
+					
+					case DIFFICULTY:
+						if (attrib.equals("hpdrainrate"))
+							des.setHPDrainRate(Integer.parseInt(value(val_start).trim()));
+						else if (attrib.equals("circlesize"))
+							des.setCircleSize(Integer.parseInt(value(val_start).trim()));
+						else if (attrib.equals("overalldifficulty"))
+							des.setOverallDifficulty(Integer.parseInt(value(val_start).trim()));
+						else if (attrib.equals("approachrate"))
+							des.setApproachRate(Integer.parseInt(value(val_start).trim()));
+						else if (attrib.equals("slidermultiplier"))
+							des.setSliderMultiplier(Float.parseFloat(value(val_start).trim()));
+						else if (attrib.equals("slidertickrate"))
+							des.setSliderTickRate(Float.parseFloat(value(val_start).trim()));
+						break;
+					}
+				} catch (NumberFormatException ex) {
+					throw new ParseException("Invalid value for \"" + attrib + "\" in " + section.toString() + ": " + ex.getMessage());
+				}
+			}
+			
+			// Make sure we got good results
+			if (!found_metadata)
+				throw new ParseException("Metadata header does not exist.");
+			if (metadata.anyNull())
+				throw new ParseException("A field in Metadata was not filled in.");
+			if (!found_difficulty)
+				throw new ParseException("Difficulty header does not exist.");
+			if (des.getOverallDifficulty() < 0)
+				throw new ParseException("OverallDifficulty does not exist in this file!");
+			
+			des.setMetadata(new CompactMetadata(pool, metadata));
+			
+			if (section == Subsections.EVENTS)
+				scanBackground(des);
+			
+			if (count_hit_objects)
+			{
+				scanLists(section, des);
+				des.setChecksum((int)crc.getValue());
+			}
+		} finally {
+			in.close();
+			in = null;
+		}
+		
+		return des;
+	}
+	
+	
+	/** Returns the pool the metadata strings are interned in */
+	public StringPool getPool() { return pool; }
+	
+	
+	// *** LIST SECTIONS *** //
+	/**
+	 * Reads the [Events] section up to its background image line (see BufferParser.handleEvents:
+	 * the first line after the background event header, if it starts with a 0), and stores the
+	 * image's file name. Stops after that line, or at the next section header.
+	 */
+	private void scanBackground(BeatmapDescriptor des) throws IOException
+	{
+		boolean first = false; // Whether the current line is the first after the background header
+		while (readLine())
+		{
+			if (line_len == 0)
+				continue;
+			if (line[0] == '[')
+				return;
+			
+			if (line_len >= 2 && line[0] == '/' && line[1] == '/') // Event header
+			{
+				first = new String(line, 0, line_len, CHARSET).equalsIgnoreCase("//background and video events");
+				continue;
+			}
+			if (!first)
+				continue;
+			
+			// 0, 0, "filename" (the quotes are optional), ...
+			int c2 = line[0] == '0' ? indexOf((byte)',', indexOf((byte)',', 0) + 1) : -1;
+			if (c2 >= 0)
+			{
+				int start = c2 + 1, end;
+				if (start < line_len && line[start] == '"')
+				{
+					end = indexOf((byte)'"', ++start);
+					if (end < 0)
+						end = line_len;
+				}
+				else
+				{
+					end = indexOf((byte)',', start);
+					if (end < 0)
+						end = line_len;
+				}
+				
+				if (end > start)
+					des.setBackgroundFilename(new String(line, start, end - start, CHARSET));
+			}
+			return;
+		}
+	}
+	
+	
+	/**
+	 * Reads the rest of the file for the values that come from the list-based sections: the BPM
+	 * range of the [TimingPoints], and the number, kinds and end of the [HitObjects]. Only the
+	 * first few fields of each line are decoded, straight from the line's bytes.
+	 * 
+	 * @param section The section the last line read belongs to.
+	 */
+	private void scanLists(Subsections section, BeatmapDescriptor des) throws IOException
+	{
+		int circles = 0, sliders = 0, spinners = 0;
+		long length = 0;
+		double min_beat = Double.MAX_VALUE, max_beat = 0; // Beat lengths in millis
+		
+		do
+		{
+			if (line_len == 0)
+				continue;
+			if (line[0] == '[')
+			{
+				section = headerSection();
+				continue;
+			}
+			
+			try {
+				if (section == Subsections.TIMINGPOINTS)
+				{
+					// Offset, beat length (negative for inherited timing points), ...
+					int c1 = indexOf((byte)',', 0);
+					if (c1 < 0)
+						continue;
+					int c2 = indexOf((byte)',', c1 + 1);
+					
+					double beat = Double.parseDouble(new String(line, c1 + 1, (c2 < 0 ? line_len : c2) - c1 - 1, CHARSET).trim());
+					if (beat > 0)
+					{
+						min_beat = Math.min(min_beat, beat);
+						max_beat = Math.max(max_beat, beat);
+					}
+				}
+				else if (section == Subsections.HITOBJECTS)
+				{
+					// x, y, timing, piece_type, sound_type, SPECIAL (end time for spinners)
+					int c2 = indexOf((byte)',', indexOf((byte)',', 0) + 1);
+					int c3 = indexOf((byte)',', c2 + 1);
+					int c4 = indexOf((byte)',', c3 + 1);
+					if (c2 < 0 || c3 < 0)
+						continue;
+					
+					long timing = parseLong(c2 + 1, c3);
+					int piece_type = (int)parseLong(c3 + 1, c4 < 0 ? line_len : c4);
+					
+					// See Parser.handleHitObjects for the bitflags
+					if ((piece_type & 1) != 0)
+						++circles;
+					else if ((piece_type & 2) != 0)
+						++sliders;
+					else if ((piece_type & 8) != 0)
+					{
+						++spinners;
+						
+						int c5 = c4 < 0 ? -1 : indexOf((byte)',', c4 + 1);
+						int c6 = c5 < 0 ? -1 : indexOf((byte)',', c5 + 1);
+						if (c5 >= 0)
+							timing = Math.max(timing, parseLong(c5 + 1, c6 < 0 ? line_len : c6));
+					}
+					else
+						continue; // Not counted, as the parsers skip it
+					
+					length = Math.max(length, timing);
+				}
+			} catch (NumberFormatException ex) {
+				// Malformed line; the parsers would reject the file when it is played
+			}
+		} while (readLine());
+		
+		des.setHitObjectCount(circles + sliders + spinners);
+		des.setHitObjectCounts(circles, sliders, spinners);
+		des.setLength(circles + sliders + spinners > 0 ? length : -1);
+		if (max_beat > 0)
+			des.setBPMRange((float)(60000.0 / max_beat), (float)(60000.0 / min_beat));
+	}
+	
+	
+	// *** HELPER METHODS *** //
+	/**
+	 * Refills the read-ahead buffer.
+	 * @return False if the end of the file has been reached.
+	 */
+	private boolean fill() throws IOException
+	{
+		len = in.read(buf, 0, buf.length);
+		pos = 0;
+		if (len <= 0)
+		{
+			len = 0;
+			return false;
+		}
+		crc.update(buf, 0, len);
+		return true;
+	}
+	
+	
+	/**
+	 * Reads the next line into line/line_len, without its "\n", "\r" or "\r\n" terminator.
+	 * @return False if the end of the file has been reached.
+	 */
+	private boolean readLine() throws IOException
+	{
+		if (pos >= len && !fill())
+			return false;
+		
+		line_len = 0;
+		while (pos < len || fill())
+		{
+			byte b = buf[pos++];
+			if (b == '\n')
+				return true;
+			if (b == '\r')
+			{
+				if (pos < len || fill())
+				{
+					if (buf[pos] == '\n')
+						++pos;
+				}
+				return true;
+			}
+			
+			if (line_len == line.length)
+			{
+				byte[] bigger = new byte[line.length * 2];
+				System.arraycopy(line, 0, bigger, 0, line_len);
+				line = bigger;
+			}
+			line[line_len++] = b;
+		}
+		
+		return true;
+	}
+	
+	
+	/**
+	 * Returns the section named by the current header line (ignoring spaces and case),
+	 * or null if it is unknown.
+	 */
+	private Subsections headerSection()
+	{
+		StringBuilder sb = new StringBuilder(line_len);
+		for (int i = 1; i < line_len && line[i] != ']'; ++i)
+		{
+			byte b = line[i];
+			if (b != ' ')
+				sb.append((char)(b >= 'a' && b <= 'z' ? b - ('a' - 'A') : b));
+		}
+		
+		try {
+			return Subsections.valueOf(sb.toString());
+		} catch (IllegalArgumentException ex) {
+			return null;
+		}
+	}
+	
+	
+	/** Skips the UTF-8 byte order mark at the start of the file, if there is one */
+	private void skipByteOrderMark() throws IOException
+	{
+		if (fill() && len >= 3 && buf[0] == (byte)0xEF && buf[1] == (byte)0xBB && buf[2] == (byte)0xBF)
+			pos = 3;
+	}
+	
+	
+	/** Returns the index of the first occurrence of b in the current line, or -1 */
+	private int indexOf(byte b)
+	{
+		return indexOf(b, 0);
+	}
+	
+	
+	/** Returns the index of the first occurrence of b in the current line at or after from, or -1 */
+	private int indexOf(byte b, int from)
+	{
+		for (int i = from; i < line_len; ++i)
+			if (line[i] == b)
+				return i;
+		
+		return -1;
+	}
+	
+	
+	/**
+	 * Parses the integer in line[start, end), ignoring surrounding spaces.
+	 * @throws NumberFormatException If it isn't an integer.
+	 */
+	private long parseLong(int start, int end)
+	{
+		while (start < end && line[start] == ' ')
+			++start;
+		while (end > start && line[end - 1] == ' ')
+			--end;
+		
+		boolean negative = start < end && line[start] == '-';
+		if (negative)
+			++start;
+		if (start == end)
+			throw new NumberFormatException("Empty number");
+		
+		long value = 0;
+		for (int i = start; i < end; ++i)
+		{
+			byte b = line[i];
+			if (b < '0' || b > '9')
+				throw new NumberFormatException("Not a digit: " + (char)b);
+			value = value * 10 + (b - '0');
+		}
+		
+		return negative ? -value : value;
+	}
+	
+	
+	/**
+	 * Builds the attribute key of the current line from the bytes before the colon,
+	 * with spaces removed and lower-cased (as Parser does).
+	 */
+	private String attributeKey(int colon)
+	{
+		StringBuilder sb = new StringBuilder(colon);
+		for (int i = 0; i < colon; ++i)
+		{
+			byte b = line[i];
+			if (b != ' ')
+				sb.append((char)(b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b));
+		}
+		
+		return sb.toString();
+	}
+	
+	
+	/** Decodes the rest of the current line from the given index */
+	private String value(int start) throws IOException
+	{
+		return new String(line, start, line_len - start, CHARSET);
+	}
+	
+}
@@ -4,6 +4,7 @@ import android.graphics.Color;
 import android.graphics.Paint;
 import osu.beatmap.BeatmapLoader;
 import osu.beatmap.BeatmapPlayer;
+import osu.beatmap.BeatmapPreloader;
 import osu.main.R;
 import dkilian.andy.Kernel;
 import dkilian.andy.Prerender;
@@ -23,8 +24,12 @@ public class LoadScreen implements Screen
 	
 	private String _path;
 	
+	private boolean _watch;
+	
 	private BeatmapLoader _loader;
 	
+	private BeatmapPreloader _preloader;
+	
 	private PrerenderContext _context;
 	
 	private TexturedQuad _text;
@@ -38,8 +43,34 @@ public class LoadScreen implements Screen
 	private boolean _drawing = false;
 	
 	public LoadScreen(String path)
+	{
+		this(path, false);
+	}
+	
+	/** Loads the beatmap and, if watch is true, applies edits to its file while it's played (see BeatmapWatcher) */
+	public LoadScreen(String path, boolean watch)
 	{
 		_path = path;
+		_watch = watch;
+	}
+	
+	/** 
+	 * Takes over the preloader's loader of the beatmap if it has one, and frees the preloader's other
+	 * loaders before the game starts 
+	 */
+	public LoadScreen(String path, BeatmapPreloader preloader)
+	{
+		this(path, preloader, false);
+	}
+	
+	/** 
+	 * Takes over the preloader's loader of the beatmap if it has one, as above. If the beatmap has to
+	 * be loaded from scratch and watch is true, edits to its file are applied while it's played
+	 */
+	public LoadScreen(String path, BeatmapPreloader preloader, boolean watch)
+	{
+		this(path, watch);
+		_preloader = preloader;
 	}
 
 	@Override
@@ -51,8 +82,13 @@ public class LoadScreen implements Screen
 	@Override
 	public void load(Kernel kernel) 
 	{
-		_loader = new BeatmapLoader(kernel, _path);
-		_loader.begin();
+		if (_preloader != null)
+			_loader = _preloader.take(_path);
+		if (_loader == null)
+		{
+			_loader = new BeatmapLoader(kernel, _path, _watch);
+			_loader.begin();
+		}
 		_loaded = true;
 	}
 
@@ -65,7 +101,7 @@ public class LoadScreen implements Screen
 	@Override
 	public void update(Kernel kernel, float dt) 
 	{	
-		if (_loader != null && !_loader.isLoading() && _renderedCombos)
+		if (_loader != null && !_loader.isLoading() && _renderedCombos && (_preloader == null || _preloader.isIdle()))
 		{
 			// Clear out all load-time temporary resources before the game starts
 			BeatmapPlayer bp = _loader.getBeatmap();
@@ -81,6 +117,7 @@ public class LoadScreen implements Screen
 			{
 				_path = null;
 				_loader = null;
+				_preloader = null;
 				_context = null;
 				_text = null;
 				_background = null;
@@ -127,6 +164,8 @@ public class LoadScreen implements Screen
 				progress = _loader.getProgress();
 				Prerender.string(_loader.getProgressString(), _context, _text);
 				_loader.doGLTasks();
+				if (_preloader != null)
+					_preloader.doGLTasks();
 			}
 		}
 		
@@ -1,7 +1,11 @@
 package osu.screen;
 
+import java.io.IOException;
+
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.util.Log;
+import osu.beatmap.BeatmapPlayer;
 import osu.main.R;
 import dkilian.andy.Kernel;
 import dkilian.andy.Prerender;
@@ -21,6 +25,8 @@ public class ScoreScreen implements Screen
 	public static final float GRADE_B =   .80f;	// "
 	public static final float GRADE_C =   .70f;	// "
 	public static final float FADE_OUT_TIME = 1.f;
+	public static final float RETRY_FADE_OUT_TIME = .25f;
+	public static final float RETRY_MARGIN = 30.f;	// Between the retry button and the bottom left corner of the screen
 	
 	private boolean _failed;
 	private String _gradestr, _percentstr, _ratiostr;
@@ -29,12 +35,22 @@ public class ScoreScreen implements Screen
 	private TexturedQuad _percent;		// XYZ%
 	private TexturedQuad _ratio;		// (objects not missed) / (total objects)
 	private TexturedQuad _fade;
+	private TexturedQuad _retry;		// Plays the beatmap again, if there's a player to reset
+	private BeatmapPlayer _player;		// The player that played the beatmap, or null
+	private boolean _retrying = false;
 	private float _fadeStart = 0.f;
 	private float _time = 0.f;
 	
 	public ScoreScreen(int hit, int total, boolean failed)
+	{
+		this(hit, total, failed, null);
+	}
+	
+	/** Shows the score, and offers to play the beatmap again with the given player (see BeatmapPlayer.reset()) */
+	public ScoreScreen(int hit, int total, boolean failed, BeatmapPlayer player)
 	{
 		_failed = failed;
+		_player = player;
 		
 		if (!failed)
 		{
@@ -83,14 +99,33 @@ public class ScoreScreen implements Screen
 		
 		if (_time > GRADE_FADE_IN_TIME && kernel.getTouch().isDown())
 		{
+			if (_fadeStart == 0.f)
+				_retrying = isRetryTouched(kernel);
 			_fadeStart = _time;
 		}
 		
 		if (_fadeStart > 0.f)
 		{
-			float fade = (_time - _fadeStart) / FADE_OUT_TIME;
+			float fade = (_time - _fadeStart) / (_retrying ? RETRY_FADE_OUT_TIME : FADE_OUT_TIME);
 			if (fade >= 1.f)
 			{
+				if (_retrying)
+				{
+					// Everything the beatmap needs is still loaded, so skip the load screen
+					try
+					{
+						_player.reset();
+						kernel.swapScreen(new PlayScreen(_player));
+						return;
+					}
+					catch (IOException ex)
+					{
+						Log.e("ScoreScreen", "Can't play the beatmap again: " + ex.toString(), ex);
+					}
+				}
+				
+				if (_player != null)
+					_player.release();
 				kernel.swapScreen(new MainMenuScreen(true));
 				return;
 			}
@@ -118,6 +153,12 @@ public class ScoreScreen implements Screen
 				_ratio = Prerender.string(_ratiostr, p);
 			}
 			
+			if (_player != null)
+			{
+				p.setTextSize(40.f);
+				_retry = Prerender.string("Retry", p);
+			}
+			
 			p.setColor(Color.BLACK);
 			_fade = Prerender.rectangle(kernel.getVirtualScreen().getWidth(), kernel.getVirtualScreen().getHeight(), p);
 		}
@@ -174,13 +215,31 @@ public class ScoreScreen implements Screen
 			_grade.draw(kernel);
 		}
 
+		if (_retry != null)
+		{
+			_retry.getTranslation().x = RETRY_MARGIN + .5f * _retry.getWidth();
+			_retry.getTranslation().y = h - RETRY_MARGIN - .5f * _retry.getHeight();
+			_retry.draw(kernel);
+		}
+
 		if (_fadeStart > 0.f)
 		{
-			float fade = (_time - _fadeStart) / FADE_OUT_TIME;
+			float fade = (_time - _fadeStart) / (_retrying ? RETRY_FADE_OUT_TIME : FADE_OUT_TIME);
 			_fade.setAlpha(fade);
 			_fade.getTranslation().x = .5f * w;
 			_fade.getTranslation().y = .5f * h;
 			_fade.draw(kernel);
 		}
 	}
+	
+	/** Determines whether the touch is on the retry button, or near enough */
+	private boolean isRetryTouched(Kernel kernel)
+	{
+		if (_retry == null)
+			return false;
+		
+		float dx = Math.abs(kernel.getTouch().getX() - _retry.getTranslation().x);
+		float dy = Math.abs(kernel.getTouch().getY() - _retry.getTranslation().y);
+		return dx <= .5f * _retry.getWidth() + RETRY_MARGIN && dy <= .5f * _retry.getHeight() + RETRY_MARGIN;
+	}
 }
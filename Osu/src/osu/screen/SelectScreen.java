@@ -1,20 +1,32 @@
 package osu.screen;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.Rect;
 import android.os.Environment;
 import android.util.FloatMath;
-import android.util.Log;
 
+import osu.beatmap.BeatmapPreloader;
+import osu.graphics.ThumbnailCache;
+import osu.main.MainActivity;
 import osu.main.R;
 import osu.menu.BeatmapDescriptor;
 import osu.menu.BeatmapDir;
-import osu.menu.BeatmapLibraryLoader;
+import osu.menu.CompactMetadata;
+import osu.menu.LibraryIndex;
+import osu.menu.LibraryScanner;
+import osu.menu.LibrarySearch;
+import osu.menu.StringPool;
 import dkilian.andy.Kernel;
 import dkilian.andy.Prerender;
+import dkilian.andy.PrerenderContext;
 import dkilian.andy.Screen;
 import dkilian.andy.TexturedQuad;
 import dkilian.andy.jni.agl;
@@ -25,12 +37,64 @@ public class SelectScreen implements Screen
 	public static final float SNAP_SPEED = 50.f;         // pixels/sec
 	public static final float BOTTOM_MARGIN = 40.f;      // pixels
 	public static final float DRAG_TAP_THRESHOLD = 10.f; // pixels moved before a tap becomes a drag (for hitting the play button)
+	public static final String INDEX_DIRECTORY = "library"; // in the app's cache directory
+	public static final String THUMBNAIL_DIRECTORY = "thumbnails"; // in the app's cache directory
+	public static final int RENDERS_PER_FRAME = 8;       // beatmap names rendered per frame at most, so a big library fills in without stalling
+	public static final int NAME_POOL_SIZE = 32;         // textures beatmap names are rendered to, reused as rows scroll in and out of view
+	public static final int OVERSCAN_ROWS = 3;           // rows rendered above and below the visible ones, so scrolling doesn't uncover empty rows
+	public static final float THUMBNAIL_ALPHA = .75f;    // of the selected beatmap's background thumbnail
+	public static final float SETTLE_TIME = .4f;         // seconds the selection stays put before its beatmap is preloaded
+	
+	/** A texture from the name pool, and the row whose name it currently holds */
+	private static class NameSlot
+	{
+		/** The texture the name is rendered to, at its top left */
+		public TexturedQuad quad;
+		/** The index of the row whose name the texture holds, or -1 if it holds none */
+		public int row = -1;
+	}
+	
+	/** Orders beatmaps like the library: by title, then by song directory, then by difficulty */
+	private static final Comparator<BeatmapDescriptor> LIBRARY_ORDER = new Comparator<BeatmapDescriptor>()
+	{
+		@Override
+		public int compare(BeatmapDescriptor a, BeatmapDescriptor b)
+		{
+			int c = a.getMetadata().getTitle().compareTo(b.getMetadata().getTitle());
+			if (c == 0)
+				c = a.getPath().substring(0, a.getPath().lastIndexOf(File.separatorChar) + 1).compareTo(b.getPath().substring(0, b.getPath().lastIndexOf(File.separatorChar) + 1));
+			return c != 0 ? c : a.compareTo(b);
+		}
+	};
 	
 	private boolean _loaded = false;
 	private TexturedQuad _background, _arrow;
-	private ArrayList<String> _beatmapNames;
-	private HashMap<String, BeatmapDescriptor> _beatmaps;
-	private HashMap<String, TexturedQuad> _renderedBeatmapNames;
+	private StringPool _strings;
+	private LibraryIndex _index;
+	private LibraryScanner _scanner;
+	private ArrayList<LibraryScanner.Change> _changes;
+	private ArrayList<BeatmapDescriptor> _library; // Every beatmap listed, in LIBRARY_ORDER
+	private float[] _libraryHeights; // Parallel to _library: the height of each beatmap's name, measured without rendering it
+	private HashMap<Long, BeatmapDescriptor> _names; // The beatmap listed for each name (see nameKey())
+	private LibrarySearch _search; // Indexes the beatmaps in _library
+	private LibrarySearch.Query _query; // The search the rows match, or null to show the whole library
+	private volatile LibrarySearch.Query _newQuery; // Set by setSearch(), applied on the next draw()
+	private volatile boolean _queryChanged = false;
+	private BitSet _matches = new BitSet();
+	private ArrayList<BeatmapDescriptor> _beatmaps; // The rows: the beatmaps matching the search. Also locks the list, which update() and draw() use from different threads
+	private float[] _heights; // Parallel to _beatmaps, from _libraryHeights
+	private float[] _offsets; // _offsets[i] is the distance from the first row to row i; one more than there are rows
+	private NameSlot[] _slots; // The name pool; created on the first draw()
+	private PrerenderContext _nameContext; // The size of a pool texture
+	private float _slotHeight; // The height of a pool texture, enough for any name
+	private Rect _bounds = new Rect();
+	private Paint _namePaint;
+	private ThumbnailCache _thumbnails; // Background thumbnails of the rows in view, decoded in the background
+	private int _thumbnailFirst = -1, _thumbnailLast = -1; // The rows whose thumbnails were last requested
+	private BeatmapPreloader _preloader; // Loads the selected beatmap once the selection settles, so playing it starts quickly
+	private boolean _watch; // Whether beatmaps apply edits to their files while they're played (see MainActivity.EXTRA_WATCH)
+	private String _focusPath; // The path of the selected beatmap, or null
+	private float _focusTime = 0.f; // How long the selection has been _focusPath, in seconds
 	private float _scroll = 0.f;
 	private int _selectedIndex = -1;
 	private float _time = 0.f;
@@ -39,6 +103,8 @@ public class SelectScreen implements Screen
 	private float _lastY;
 	private boolean _queuePlay = false;
 	private float _totalDrag = 0.f;
+	private volatile String _playPath; // The beatmap to play once the screen's textures are deleted, or null while browsing
+	private volatile boolean _texturesDeleted = false; // Set by draw() once _playPath is set, after which the screen only draws its background
 	
 	@Override
 	public boolean isLoaded() 
@@ -49,49 +115,409 @@ public class SelectScreen implements Screen
 	@Override
 	public void load(Kernel kernel) 
 	{
-		_beatmapNames = new ArrayList<String>();
-		_beatmaps = new HashMap<String, BeatmapDescriptor>();
+		_strings = new StringPool();
+		_library = new ArrayList<BeatmapDescriptor>();
+		_search = new LibrarySearch();
+		_beatmaps = new ArrayList<BeatmapDescriptor>();
+		_names = new HashMap<Long, BeatmapDescriptor>();
+		_changes = new ArrayList<LibraryScanner.Change>();
+		
+		_namePaint = new Paint();
+		_namePaint.setTextSize(30.f);
+		_namePaint.setColor(Color.WHITE);
+		_namePaint.setAntiAlias(true);
+		
+		Paint.FontMetrics metrics = _namePaint.getFontMetrics();
+		_slotHeight = (int)Math.ceil(metrics.bottom - metrics.top);
+		if (((int)_slotHeight & 1) != 0) // Same as Prerender.contextForString()
+			++_slotHeight;
+		
+		// Show the library as it was indexed last time, then apply what the scanner finds as it goes
+		_index = new LibraryIndex(new File(kernel.getActivity().getCacheDir(), INDEX_DIRECTORY), _strings);
+		if (_index.load())
+		{
+			ArrayList<BeatmapDir> dirs = _index.getBeatmapDirs();
+			for (int i = 0; i < dirs.size(); ++i)
+			{
+				ArrayList<BeatmapDescriptor> beatmaps = dirs.get(i).getBeatmapDescriptors();
+				for (int j = 0; j < beatmaps.size(); ++j)
+					if (_names.put(nameKey(beatmaps.get(j)), beatmaps.get(j)) == null)
+						_library.add(beatmaps.get(j));
+			}
+			
+			Collections.sort(_library, LIBRARY_ORDER);
+		}
+		
+		_libraryHeights = new float[Math.max(_library.size(), 16)];
+		_heights = new float[_libraryHeights.length];
+		for (int i = 0; i < _library.size(); ++i)
+		{
+			_search.put(_library.get(i));
+			_libraryHeights[i] = _heights[i] = measureName(_library.get(i));
+			_beatmaps.add(_library.get(i));
+		}
+		_offsets = new float[_heights.length + 1];
+		updateOffsets(0);
+		
+		_scanner = new LibraryScanner(Environment.getExternalStorageDirectory().getAbsolutePath() + "/osu/beatmaps", _index, _strings);
+		_scanner.start();
+		
+		_thumbnails = new ThumbnailCache(new File(kernel.getActivity().getCacheDir(), THUMBNAIL_DIRECTORY));
+		_watch = kernel.getActivity().getIntent().getBooleanExtra(MainActivity.EXTRA_WATCH, false);
+		_preloader = new BeatmapPreloader(kernel, _watch);
+		
+		_loaded = true;
+	}
+
+	@Override
+	public void unload(Kernel kernel) 
+	{
+		_scanner.cancel();
+		_thumbnails.release();
+		_preloader.release(); // Whatever the load screen didn't take over
+		_loaded = false;
+	}
+	
+	/** 
+	 * Identifies a beatmap's displayed name. The strings are pooled, so the pair of ids identifies 
+	 * the name without building it 
+	 */
+	private static long nameKey(BeatmapDescriptor desc)
+	{
+		CompactMetadata m = desc.getMetadata();
+		return ((long)m.getTitleId() << 32) | (m.getVersionId() & 0xFFFFFFFFL);
+	}
+	
+	/**
+	 * Shows only the beatmaps matching the given search (see LibrarySearch), or the whole library
+	 * for null. Takes effect on the next frame, scrolled to the top. Can be called from any thread.
+	 */
+	public void setSearch(LibrarySearch.Query query)
+	{
+		_newQuery = query;
+		_queryChanged = true;
+	}
+	
+	/** Gets the text displayed for a beatmap */
+	private static String nameOf(BeatmapDescriptor desc)
+	{
+		CompactMetadata m = desc.getMetadata();
+		return m.getTitle() + " [" + m.getVersion() + "]";
+	}
+	
+	/** Gets the path of a beatmap's background image, or null if it has none */
+	private static String backgroundOf(BeatmapDescriptor desc)
+	{
+		String filename = desc.getBackgroundFilename();
+		if (filename == null)
+			return null;
 		
-		ArrayList<BeatmapDir> dirs = null;
-		try
+		String path = desc.getPath();
+		return path.substring(0, path.lastIndexOf(File.separatorChar) + 1) + filename;
+	}
+	
+	/**
+	 * Requests the background thumbnails of the given rows, the selected row's last so it is
+	 * decoded first. Rows that scrolled out of view since the last call are dropped from the queue,
+	 * and rows whose thumbnails are already uploaded aren't requested again. Must be called with
+	 * _beatmaps locked, on the GL thread.
+	 */
+	private void requestThumbnails(int first, int last)
+	{
+		if (first == _thumbnailFirst && last == _thumbnailLast)
+			return;
+		_thumbnailFirst = first;
+		_thumbnailLast = last;
+		
+		_thumbnails.cancel();
+		for (int i = first; i <= last; ++i)
+		{
+			String path = i == _selectedIndex ? null : backgroundOf(_beatmaps.get(i));
+			if (path != null)
+				_thumbnails.prefetch(path);
+		}
+		if (_selectedIndex >= first && _selectedIndex <= last)
 		{
-			dirs = BeatmapLibraryLoader.getBeatmapDirs(Environment.getExternalStorageDirectory().getAbsolutePath() + "/osu/beatmaps");
+			String path = backgroundOf(_beatmaps.get(_selectedIndex));
+			if (path != null)
+				_thumbnails.prefetch(path);
 		}
-		catch (Exception ex)
+	}
+	
+	/** Measures the height of a beatmap's name as Prerender renders it, without rendering it */
+	private float measureName(BeatmapDescriptor desc)
+	{
+		String name = nameOf(desc);
+		_namePaint.getTextBounds(name, 0, name.length(), _bounds);
+		int height = _bounds.height();
+		if ((height & 1) != 0)
+			++height;
+		return Math.min(height, _slotHeight);
+	}
+	
+	/** Recomputes the row offsets from the given row on, after rows were added or removed */
+	private void updateOffsets(int from)
+	{
+		int n = _beatmaps.size();
+		if (_offsets.length < n + 1)
 		{
-			Log.e("Beatmap scanner", "", ex);
-			System.exit(0);
+			float[] offsets = new float[_heights.length + 1];
+			System.arraycopy(_offsets, 0, offsets, 0, _offsets.length);
+			_offsets = offsets;
 		}
 		
-		for (int i = 0; i < dirs.size(); ++i)
+		for (int i = from; i < n; ++i)
+			_offsets[i + 1] = _offsets[i] + _heights[i] + MARGIN;
+	}
+	
+	/** 
+	 * Finds the last row that is at most the given distance below the first row (or the first row), 
+	 * by binary search over the row offsets. The list must not be empty
+	 */
+	private int rowAt(float offset)
+	{
+		int lo = 0, hi = _beatmaps.size() - 1;
+		while (lo < hi)
+		{
+			int mid = (lo + hi + 1) >>> 1;
+			if (_offsets[mid] <= offset)
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+		return lo;
+	}
+	
+	/** Inserts a value at i into the first n values of an array, returning a bigger copy if the array is full */
+	private static float[] insert(float[] a, int n, int i, float value)
+	{
+		if (a.length == n)
+		{
+			float[] bigger = new float[2 * n];
+			System.arraycopy(a, 0, bigger, 0, n);
+			a = bigger;
+		}
+		System.arraycopy(a, i, a, i + 1, n - i);
+		a[i] = value;
+		return a;
+	}
+	
+	/** Finds the position a beatmap goes at in a list in LIBRARY_ORDER: after the ones ordered before or with it */
+	private static int insertionPoint(ArrayList<BeatmapDescriptor> list, BeatmapDescriptor desc)
+	{
+		int lo = 0, hi = list.size();
+		while (lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if (LIBRARY_ORDER.compare(list.get(mid), desc) <= 0)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+	
+	/** Finds a beatmap in a list in LIBRARY_ORDER by binary search, or returns -1 */
+	private static int indexOf(ArrayList<BeatmapDescriptor> list, BeatmapDescriptor desc)
+	{
+		int lo = 0, hi = list.size();
+		while (lo < hi)
 		{
-			BeatmapDir d = dirs.get(i);
-			for (int j = 0; j < d.getBeatmapDescriptors().size(); ++j)
+			int mid = (lo + hi) >>> 1;
+			if (LIBRARY_ORDER.compare(list.get(mid), desc) < 0)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		
+		for (; lo < list.size() && LIBRARY_ORDER.compare(list.get(lo), desc) == 0; ++lo)
+			if (list.get(lo) == desc)
+				return lo;
+		return -1;
+	}
+	
+	/** Adds a row to the list and its height to the layout, and moves the name pool's rows after it down */
+	private void insertRow(int i, BeatmapDescriptor desc, float height)
+	{
+		_heights = insert(_heights, _beatmaps.size(), i, height);
+		_beatmaps.add(i, desc);
+		
+		if (_slots != null)
+			for (int j = 0; j < _slots.length; ++j)
+				if (_slots[j].row >= i)
+					++_slots[j].row;
+	}
+	
+	/** Takes a row out of the list and the layout, freeing its pool texture if it has one */
+	private void removeRow(int i)
+	{
+		int n = _beatmaps.size();
+		System.arraycopy(_heights, i + 1, _heights, i, n - i - 1);
+		_beatmaps.remove(i);
+		
+		if (_slots != null)
+		{
+			for (int j = 0; j < _slots.length; ++j)
+			{
+				if (_slots[j].row == i)
+					_slots[j].row = -1;
+				else if (_slots[j].row > i)
+					--_slots[j].row;
+			}
+		}
+	}
+	
+	/** Gets the pool texture holding the given row's name, or null if it isn't rendered */
+	private NameSlot slotFor(int row)
+	{
+		for (int i = 0; i < _slots.length; ++i)
+			if (_slots[i].row == row)
+				return _slots[i];
+		return null;
+	}
+	
+	/** Gets a pool texture that isn't holding the name of a row in [first, last], or null if they all are */
+	private NameSlot freeSlot(int first, int last)
+	{
+		for (int i = 0; i < _slots.length; ++i)
+			if (_slots[i].row < first || _slots[i].row > last)
+				return _slots[i];
+		return null;
+	}
+	
+	/** 
+	 * Applies the changes the library scanner found since the last frame, to the library and to the
+	 * rows if they match the search. Only one beatmap is listed 
+	 * per name. Rows added or removed above the selection scroll the list so the selection stays put;
+	 * if the selected beatmap's own file changed, its new row is selected and centered (or, if it's
+	 * gone, the row that took its place). Must be called with _beatmaps locked.
+	 */
+	private void applyLibraryChanges()
+	{
+		if (_scanner.drain(_changes) == 0)
+			return;
+		
+		int changed = _beatmaps.size(); // The first row whose offset changed
+		boolean recenter = false; // The selected row was replaced, so center its replacement
+		for (int i = 0; i < _changes.size(); ++i)
+		{
+			LibraryScanner.Change change = _changes.get(i);
+			boolean wasSelected = false;
+			
+			// Take the file's old row out, if it's listed
+			int doc = _search.getDocument(change.path);
+			if (doc >= 0)
 			{
-				BeatmapDescriptor desc = d.getBeatmapDescriptors().get(j);
-				String name = desc.getMetadata().title + " [" + desc.getMetadata().version + "]";
-				if (!_beatmaps.containsKey(name))
+				BeatmapDescriptor old = _search.getDescriptor(doc);
+				_names.remove(nameKey(old));
+				_search.remove(change.path);
+				
+				int j = indexOf(_library, old);
+				System.arraycopy(_libraryHeights, j + 1, _libraryHeights, j, _library.size() - j - 1);
+				_library.remove(j);
+				
+				j = indexOf(_beatmaps, old);
+				if (j >= 0)
 				{
-					_beatmapNames.add(name);
-					_beatmaps.put(name, desc);
+					if (j < _selectedIndex)
+					{
+						_scroll += _heights[j] + MARGIN;
+						--_selectedIndex;
+					}
+					else if (j == _selectedIndex)
+						wasSelected = true;
+					
+					removeRow(j);
+					changed = Math.min(changed, j);
+					if (wasSelected) // The next row is where it was, unless the file's new row is listed below
+						_selectedIndex = Math.min(j, _beatmaps.size() - 1);
 				}
 			}
+			
+			// And put the new one in its place in the order
+			BeatmapDescriptor desc = change.descriptor;
+			if (desc == null || _names.containsKey(nameKey(desc)))
+				continue;
+			_names.put(nameKey(desc), desc);
+			_search.put(desc);
+			
+			float height = measureName(desc);
+			int lo = insertionPoint(_library, desc);
+			_libraryHeights = insert(_libraryHeights, _library.size(), lo, height);
+			_library.add(lo, desc);
+			
+			if (_query != null && !_search.matches(desc.getPath(), _query))
+				continue;
+			
+			lo = insertionPoint(_beatmaps, desc);
+			insertRow(lo, desc, height);
+			changed = Math.min(changed, lo);
+			if (wasSelected)
+			{
+				_selectedIndex = lo;
+				recenter = true;
+			}
+			else if (lo <= _selectedIndex)
+			{
+				_scroll -= height + MARGIN;
+				++_selectedIndex;
+			}
 		}
+		_changes.clear();
 		
-		_loaded = true;
+		updateOffsets(changed);
+		if (recenter && _selectedIndex >= 0) // A later change may have emptied the list
+			_scroll = -_offsets[_selectedIndex];
 	}
-
-	@Override
-	public void unload(Kernel kernel) 
+	
+	/** 
+	 * Replaces the rows with the beatmaps matching the search set by setSearch(), if it changed. 
+	 * Must be called with _beatmaps locked, on the GL thread (the name textures are all freed).
+	 */
+	private void applySearch()
 	{
-		_loaded = false;
+		if (!_queryChanged)
+			return;
+		_queryChanged = false;
+		_query = _newQuery;
+		
+		if (_query != null)
+			_search.search(_query, _matches);
+		
+		// The library is already in order, so keep the matches in its order
+		_beatmaps.clear();
+		if (_heights.length < _libraryHeights.length)
+			_heights = new float[_libraryHeights.length];
+		for (int i = 0; i < _library.size(); ++i)
+		{
+			BeatmapDescriptor desc = _library.get(i);
+			if (_query == null || _matches.get(_search.getDocument(desc.getPath())))
+			{
+				_heights[_beatmaps.size()] = _libraryHeights[i];
+				_beatmaps.add(desc);
+			}
+		}
+		
+		for (int i = 0; i < _slots.length; ++i)
+			_slots[i].row = -1;
+		_thumbnailFirst = _thumbnailLast = -1;
+		_scroll = 0.f;
+		updateOffsets(0);
 	}
-
+	
 	@Override
 	public void update(Kernel kernel, float dt) 
 	{
 		_time += dt;
 		
+		// Leaving for the load screen: wait for draw() to delete the textures, which it must do on the GL thread
+		if (_playPath != null)
+		{
+			if (_texturesDeleted)
+				kernel.swapScreen(new LoadScreen(_playPath, _preloader, _watch));
+			return;
+		}
+		
 		// Scrolling
 		if (kernel.getTouch().isDown())
 		{
@@ -115,34 +541,38 @@ public class SelectScreen implements Screen
 		{
 			_dragging = false;
 			
-			if (_queuePlay && _totalDrag < DRAG_TAP_THRESHOLD)
+			if (_queuePlay && _totalDrag < DRAG_TAP_THRESHOLD && _selectedIndex >= 0)
 			{
-				kernel.swapScreen(new LoadScreen(_beatmaps.get(_beatmapNames.get(_selectedIndex)).getPath()));
+				_scanner.cancel();
+				synchronized (_beatmaps)
+				{
+					_playPath = _beatmaps.get(_selectedIndex).getPath();
+				}
 				return;
 			}
 		}
 		
-		// Change the selected item to the one closest to the center of the screen
+		// Change the selected item to the one closest to the center of the screen. Row i is centered
+		// _scroll + _offsets[i] below the center, so that's the row whose offset is closest to -_scroll
 		_selectedIndex = -1;
+		String selectedPath = null;
 		float distFromCenter = Float.MAX_VALUE;
 		float signedDist = Float.MAX_VALUE;
-		float y = kernel.getVirtualScreen().getHeight() * .5f;
-		float center = y;
-		y += _scroll;
 		if (_background != null) 	// An actual 'sprite-loading completed' flag would be a better idea...
 		{
-			for (int i = 0; i < _beatmapNames.size(); ++i)
+			synchronized (_beatmaps)
 			{
-				float dist = Math.abs(y - center);
-				if (dist < distFromCenter)
+				if (!_beatmaps.isEmpty())
 				{
+					int i = rowAt(-_scroll);
+					if (i + 1 < _beatmaps.size() && _offsets[i + 1] + _scroll < -(_offsets[i] + _scroll))
+						++i;
+					
 					_selectedIndex = i;
-					distFromCenter = dist;
-					signedDist = center - y;
+					selectedPath = _beatmaps.get(i).getPath();
+					signedDist = -(_offsets[i] + _scroll);
+					distFromCenter = Math.abs(signedDist);
 				}
-	
-				TexturedQuad s = _renderedBeatmapNames.get(_beatmapNames.get(i));
-				y += s.getHeight() + MARGIN;
 			}
 		}
 		
@@ -154,58 +584,132 @@ public class SelectScreen implements Screen
 				delta = signedDist;
 			_scroll += delta;
 		}
+		
+		// Preload the selected beatmap once the list has stopped on it for a moment
+		if (selectedPath == null ? _focusPath != null : !selectedPath.equals(_focusPath))
+		{
+			_focusPath = selectedPath;
+			_focusTime = 0.f;
+			_preloader.focus(null); // The selection moved on, so stop loading the last one
+		}
+		else if (selectedPath != null && !_dragging && _focusTime < SETTLE_TIME)
+		{
+			_focusTime += dt;
+			if (_focusTime >= SETTLE_TIME)
+				_preloader.focus(selectedPath);
+		}
 	}
 
 	@Override
 	public void draw(Kernel kernel, float dt) 
 	{				
+		float w = kernel.getVirtualScreen().getWidth();
+		float h = kernel.getVirtualScreen().getHeight();
+		
 		if (_background == null)
 		{			
-			Paint p = new Paint();
-			p.setTextSize(30.f);
-			p.setColor(Color.WHITE);
-			p.setAntiAlias(true);
-			
-			_renderedBeatmapNames = new HashMap<String, TexturedQuad>();
-			for (int i = 0; i < _beatmapNames.size(); ++i)
-				_renderedBeatmapNames.put(_beatmapNames.get(i), Prerender.string(_beatmapNames.get(i), p));
-
 			_background = TexturedQuad.fromResource(kernel, R.drawable.beatmap_background);
 			_arrow = TexturedQuad.fromResource(kernel, R.drawable.beatmap_select);
 			_up = TexturedQuad.fromResource(kernel, R.drawable.beatmap_select);
 			_up.setRotation(90.f);
 			_down = TexturedQuad.fromResource(kernel, R.drawable.beatmap_select);
 			_down.setRotation(270.f);
+			
+			// Names are drawn right of the arrows, and cut off at the right edge of the screen
+			int slotWidth = (int)(w - MARGIN - _up.getWidth() - MARGIN);
+			if ((slotWidth & 1) != 0)
+				++slotWidth;
+			_nameContext = new PrerenderContext(slotWidth, (int)_slotHeight, _namePaint);
+			_slots = new NameSlot[NAME_POOL_SIZE];
+			for (int i = 0; i < _slots.length; ++i)
+			{
+				_slots[i] = new NameSlot();
+				_slots[i].quad = new TexturedQuad(_nameContext.getBitmap());
+			}
 		}
 		
-		float w = kernel.getVirtualScreen().getWidth();
-		float h = kernel.getVirtualScreen().getHeight();
-		
 		_background.getTranslation().x = .5f * w;
 		_background.getTranslation().y = .5f * h;
 		_background.draw(kernel);
 		
+		if (_playPath != null)
+		{
+			if (!_texturesDeleted)
+			{
+				_thumbnails.clear();
+				for (int i = 0; i < _slots.length; ++i)
+					agl.DeleteTexture(_slots[i].quad.getTexture());
+				_texturesDeleted = true;
+			}
+			return;
+		}
+		
+		_thumbnails.upload();
+		_preloader.doGLTasks();
+		
 		agl.Clip(0, 0, (int)w, (int)(h - BOTTOM_MARGIN));
 		boolean up = false, down = false;
-		float y = h * .5f;
-		for (int i = 0; i < _beatmapNames.size(); ++i)
+		synchronized (_beatmaps)
 		{
-			TexturedQuad s = _renderedBeatmapNames.get(_beatmapNames.get(i));
-			s.getTranslation().x = MARGIN + .5f * s.getWidth() + _up.getWidth() + MARGIN;
-			s.getTranslation().y = y + _scroll;
-			y += s.getHeight() + MARGIN;
+			applyLibraryChanges();
+			applySearch();
 			
-			if (_selectedIndex >= 0 && s.getTranslation().y + .5f * s.getHeight() > h - BOTTOM_MARGIN)
-				down = true;
-			else if (s.getTranslation().y < 0)
-				up = true;
-			
-			if (i == _selectedIndex)
-				s.setAlpha(.5f + .5f * FloatMath.sin(_time * 4.f));
-			else
-				s.setAlpha(1.f);
-			
-			s.draw(kernel);
+			int n = _beatmaps.size();
+			if (n > 0)
+			{
+				// Only the rows in view (and a few either side) have their names rendered and drawn
+				float top = -.5f * h - _scroll; // Distance from the first row's center to the top of the screen
+				int first = Math.max(rowAt(top - _slotHeight) - OVERSCAN_ROWS, 0);
+				int last = Math.min(rowAt(top + h) + OVERSCAN_ROWS, n - 1);
+				
+				// The selected beatmap's background, behind the names. Only thumbnails are ever
+				// drawn here, so scrolling never waits on decoding a full-size image
+				requestThumbnails(first, last);
+				String bg = _selectedIndex >= 0 && _selectedIndex < n ? backgroundOf(_beatmaps.get(_selectedIndex)) : null;
+				TexturedQuad thumbnail = bg == null ? null : _thumbnails.get(bg);
+				if (thumbnail != null)
+				{
+					thumbnail.getTranslation().x = w - MARGIN - .5f * thumbnail.getWidth();
+					thumbnail.getTranslation().y = .5f * h;
+					thumbnail.setAlpha(THUMBNAIL_ALPHA);
+					thumbnail.draw(kernel);
+				}
+				
+				int renders = 0;
+				for (int i = first; i <= last; ++i)
+				{
+					NameSlot slot = slotFor(i);
+					if (slot == null && renders < RENDERS_PER_FRAME)
+					{
+						// Reuse the texture of a row that went out of view
+						slot = freeSlot(first, last);
+						if (slot != null)
+						{
+							Prerender.string(nameOf(_beatmaps.get(i)), _nameContext, slot.quad);
+							slot.row = i;
+							++renders;
+						}
+					}
+					
+					if (slot == null) // Not rendered yet; leave its row empty
+						continue;
+					
+					// The name is at the top of the texture; center the name on the row, not the texture
+					TexturedQuad s = slot.quad;
+					s.getTranslation().x = MARGIN + _up.getWidth() + MARGIN + .5f * s.getWidth();
+					s.getTranslation().y = .5f * h + _scroll + _offsets[i] + .5f * (s.getHeight() - _heights[i]);
+					
+					if (i == _selectedIndex)
+						s.setAlpha(.5f + .5f * FloatMath.sin(_time * 4.f));
+					else
+						s.setAlpha(1.f);
+					
+					s.draw(kernel);
+				}
+				
+				up = .5f * h + _scroll < 0;
+				down = _selectedIndex >= 0 && .5f * h + _scroll + _offsets[n - 1] + .5f * _heights[n - 1] > h - BOTTOM_MARGIN;
+			}
 		}
 		agl.Clip(0, 0, (int)w, (int)h);
 		
@@ -0,0 +1,153 @@
+package osu.tools;
+
+import java.util.Random;
+
+import osu.graphics.AtlasPacker;
+import osu.graphics.TextureAtlas;
+
+/**
+ * Checks AtlasPacker's placements: every rectangle lies on its page with its padding, no two
+ * rectangles (padding included) overlap, and packing the same rectangles again places them in
+ * the same spots. Packs the game's sprites at their real sizes, then random sets of rectangles,
+ * and exits with status 1 if any check fails.<br><br>
+ * 
+ * Runs on a desktop JVM with the compiled osu classes on the classpath:<br>
+ * <code>java osu.tools.AtlasPackerCheck -sets 2000 -seed 1</code>
+ */
+public class AtlasPackerCheck {
+	
+	// *** CONSTANTS *** //
+	/** The sizes of the sprites BeatmapLoader packs: buttons, rings, slider return, spinner layers, miss icon, health bar */
+	private static final int[][] GAME_SPRITES = {
+		{128, 128}, {128, 128}, {128, 128}, {128, 128}, {128, 128}, {128, 128}, {128, 128},
+		{512, 512}, {684, 512}, {684, 512}, {684, 512}, {684, 512},
+		{128, 128}, {256, 32}, {256, 32}, {256, 32}
+	};
+	
+	
+	public static void main(String[] args)
+	{
+		int sets = 2000;
+		long seed = 1;
+		
+		try {
+			for (int i = 0; i < args.length; ++i)
+			{
+				String arg = args[i];
+				if (i + 1 >= args.length)
+					throw new IllegalArgumentException("Missing value for " + arg);
+				String val = args[++i];
+				
+				if (arg.equals("-sets"))
+					sets = Integer.parseInt(val);
+				else if (arg.equals("-seed"))
+					seed = Long.parseLong(val);
+				else
+					throw new IllegalArgumentException("Unknown option " + arg);
+			}
+		} catch (IllegalArgumentException ex) { // Includes NumberFormatException
+			System.err.println(ex.getMessage());
+			System.err.println("Usage: AtlasPackerCheck [options]");
+			System.err.println("  -sets N  Random sets of rectangles to pack (default 2000)");
+			System.err.println("  -seed N  Seed for the random sets (default 1)");
+			System.exit(1);
+		}
+		
+		// The game's sprites, as BeatmapLoader packs them
+		AtlasPacker game = pack(TextureAtlas.PAGE_WIDTH, TextureAtlas.PAGE_HEIGHT, TextureAtlas.PADDING, GAME_SPRITES);
+		String error = check(game, TextureAtlas.PAGE_WIDTH, TextureAtlas.PAGE_HEIGHT, TextureAtlas.PADDING, GAME_SPRITES);
+		long used = 0, area = 0;
+		for (int i = 0; i < game.getPageCount(); ++i)
+			used += (long)game.getUsedWidth(i) * game.getUsedHeight(i);
+		for (int i = 0; i < GAME_SPRITES.length; ++i)
+			area += GAME_SPRITES[i][0] * GAME_SPRITES[i][1];
+		System.out.print("Game sprites: " + GAME_SPRITES.length + " on " + game.getPageCount() + " pages (");
+		for (int i = 0; i < game.getPageCount(); ++i)
+			System.out.print((i > 0 ? ", " : "") + game.getUsedWidth(i) + "x" + game.getUsedHeight(i));
+		System.out.println(String.format("), %.0f%% used%s", 100.0 * area / used, error == null ? "" : "  FAILED: " + error));
+		boolean all_ok = error == null;
+		
+		// Random rectangles on small pages, so that most sets need several
+		Random rnd = new Random(seed);
+		int failures = 0;
+		long pages = 0, time = 0;
+		for (int s = 0; s < sets; ++s)
+		{
+			int[][] rects = new int[1 + rnd.nextInt(80)][];
+			for (int i = 0; i < rects.length; ++i)
+				rects[i] = new int[] {1 + rnd.nextInt(250), 1 + rnd.nextInt(250)};
+			int padding = rnd.nextInt(4);
+			
+			long start = System.nanoTime();
+			AtlasPacker p = pack(512, 512, padding, rects);
+			time += System.nanoTime() - start;
+			pages += p.getPageCount();
+			
+			error = check(p, 512, 512, padding, rects);
+			if (error != null)
+			{
+				if (failures++ < 10)
+					System.out.println("Set " + s + " (" + rects.length + " rectangles, padding " + padding + ") FAILED: " + error);
+				all_ok = false;
+			}
+		}
+		System.out.println(String.format("Random sets: %d packed onto %d pages in %.1fus average, %d failed", sets, pages,
+		                                 sets == 0 ? 0.0 : time / sets / 1000.0, failures));
+		
+		if (!all_ok)
+			System.exit(1);
+	}
+	
+	
+	/** Packs rectangles onto pages of the given size */
+	private static AtlasPacker pack(int page_width, int page_height, int padding, int[][] rects)
+	{
+		AtlasPacker p = new AtlasPacker(page_width, page_height, padding);
+		for (int i = 0; i < rects.length; ++i)
+			p.add(rects[i][0], rects[i][1]);
+		p.pack();
+		return p;
+	}
+	
+	/**
+	 * Checks a packing of rectangles against itself and a second packing of the same rectangles.
+	 * @return What is wrong, or null if nothing is
+	 */
+	private static String check(AtlasPacker p, int page_width, int page_height, int padding, int[][] rects)
+	{
+		for (int i = 0; i < p.getPageCount(); ++i)
+			if (p.getUsedWidth(i) > page_width || p.getUsedHeight(i) > page_height)
+				return "page " + i + " is larger than a page";
+		
+		for (int i = 0; i < p.getCount(); ++i)
+		{
+			int page = p.getPage(i);
+			int left = p.getX(i) - padding, top = p.getY(i) - padding;
+			int right = p.getX(i) + p.getWidth(i) + padding, bottom = p.getY(i) + p.getHeight(i) + padding;
+			if (p.getWidth(i) != rects[i][0] || p.getHeight(i) != rects[i][1])
+				return "rectangle " + i + " changed size";
+			if (page < 0 || page >= p.getPageCount())
+				return "rectangle " + i + " is on page " + page + " of " + p.getPageCount();
+			if (left < 0 || top < 0 || right > p.getUsedWidth(page) || bottom > p.getUsedHeight(page))
+				return "rectangle " + i + " and its padding run off its page";
+			
+			for (int j = 0; j < i; ++j)
+			{
+				if (p.getPage(j) != page)
+					continue;
+				if (left < p.getX(j) + p.getWidth(j) + padding && p.getX(j) - padding < right &&
+				    top < p.getY(j) + p.getHeight(j) + padding && p.getY(j) - padding < bottom)
+					return "rectangles " + j + " and " + i + " overlap";
+			}
+		}
+		
+		AtlasPacker again = pack(page_width, page_height, padding, rects);
+		if (again.getPageCount() != p.getPageCount())
+			return "packing again gives " + again.getPageCount() + " pages instead of " + p.getPageCount();
+		for (int i = 0; i < p.getCount(); ++i)
+			if (again.getPage(i) != p.getPage(i) || again.getX(i) != p.getX(i) || again.getY(i) != p.getY(i))
+				return "packing again moves rectangle " + i;
+		return null;
+	}
+	
+}
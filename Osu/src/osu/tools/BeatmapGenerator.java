@@ -0,0 +1,479 @@
+package osu.tools;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Writes synthetic but valid .osu files (see beatmap_format/explanation.txt), and whole fake
+ * beatmap libraries, for benchmarking and stress testing the parsers, the library loader and
+ * the beatmap loader at sizes the bundled beatmaps don't reach.<br><br>
+ * 
+ * Everything is derived from the seed, so the same settings always write the same files.
+ * Only plain Java is used, so this runs on any desktop JVM with the compiled osu classes
+ * (or just this class) on the classpath:<br>
+ * <code>java osu.tools.BeatmapGenerator -objects 50000 -sliders 0.4 big.osu</code><br>
+ * <code>java osu.tools.BeatmapGenerator -library 2000 -difficulties 4 /tmp/library</code>
+ */
+public class BeatmapGenerator {
+	
+	// *** CONSTANTS *** //
+	private static final int PLAYFIELD_WIDTH = 512;
+	private static final int PLAYFIELD_HEIGHT = 384;
+	
+	private static final int LEAD_IN = 1000; // Millis before the first timing point
+	private static final int BREAK_LENGTH = 8000; // Millis
+	private static final double[] SLIDER_BEATS = {0.5, 1.0, 1.0, 1.5, 2.0}; // Slider lengths (one pass)
+	
+	private static final int[] HIT_SOUNDS = {0, 0, 0, 2, 4, 8, 10, 14}; // Mostly silent, like real maps
+	private static final double[] VELOCITIES = {-100, -100, -75, -50, -150, -200}; // Inherited timing point values
+	private static final String[] SYLLABLES = {
+		"ka", "ri", "to", "mi", "ne", "su", "ra", "lo", "vi", "an", "el", "or",
+		"dy", "sto", "pia", "gen", "na", "de", "ep", "spa", "ce", "ru", "dev", "il"
+	};
+	private static final String[] VERSIONS = {"Easy", "Normal", "Hard", "Insane", "Expert", "Extra", "Marathon"};
+	
+	
+	// Settings
+	private long seed;
+	private int object_count;
+	private double slider_ratio; // Fraction of objects that are sliders
+	private double spinner_ratio; // Fraction of objects that are spinners
+	private int min_control_points, max_control_points; // Per slider, not counting its start
+	private int max_repeats;
+	private int timing_point_interval; // Millis between inherited timing points, 0 for none
+	private int break_count;
+	private int colour_count; // 0 leaves out [Colours]
+	private double bpm;
+	private int beat_divisor; // Objects are snapped to 1/beat_divisor beats
+	
+	// Generation state
+	private Random random;
+	
+	
+	// *** CONSTRUCTORS *** //
+	/**
+	 * Creates a generator with settings similar to an ordinary, fairly dense beatmap.
+	 */
+	public BeatmapGenerator()
+	{
+		seed = 1;
+		object_count = 500;
+		slider_ratio = 0.3;
+		spinner_ratio = 0.01;
+		min_control_points = 1;
+		max_control_points = 6;
+		max_repeats = 3;
+		timing_point_interval = 10000;
+		break_count = 2;
+		colour_count = 4;
+		bpm = 180.0;
+		beat_divisor = 2;
+	}
+	
+	
+	// *** ACTION *** //
+	/**
+	 * Writes a beatmap with the current settings to the given file.
+	 */
+	public void writeBeatmap(File file, String artist, String title, String version) throws IOException
+	{
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), 64 * 1024);
+		try {
+			writeBeatmap(out, artist, title, version);
+		} finally {
+			out.close();
+		}
+	}
+	
+	
+	/**
+	 * Writes a beatmap with the current settings.
+	 */
+	public void writeBeatmap(Writer out, String artist, String title, String version) throws IOException
+	{
+		random = new Random(seed);
+		double beat_length = 60000.0 / bpm;
+		
+		// Lay out the hit objects first, since the breaks and timing points depend on their times
+		StringBuilder objects = new StringBuilder(object_count * 32);
+		ArrayList<long[]> breaks = new ArrayList<long[]>();
+		long end = writeHitObjects(objects, beat_length, breaks);
+		
+		out.write("osu file format v9\n\n");
+		
+		out.write("[General]\n");
+		out.write("AudioFilename: " + artist + " - " + title + ".mp3\n");
+		out.write("AudioLeadIn: 0\n");
+		out.write("PreviewTime: " + end / 3 + "\n");
+		out.write("Countdown: 0\n");
+		out.write("SampleSet: Normal\n");
+		out.write("StackLeniency: 0.7\n");
+		out.write("Mode: 0\n");
+		out.write("LetterboxInBreaks: 1\n\n");
+		
+		out.write("[Editor]\n");
+		out.write("DistanceSpacing: 1\n");
+		out.write("BeatDivisor: " + beat_divisor + "\n");
+		out.write("GridSize: 8\n\n");
+		
+		out.write("[Metadata]\n");
+		out.write("Title:" + title + "\n");
+		out.write("Artist:" + artist + "\n");
+		out.write("Creator:BeatmapGenerator\n");
+		out.write("Version:" + version + "\n");
+		out.write("Source:\n");
+		out.write("Tags:" + word() + " " + word() + " " + word() + " synthetic\n\n");
+		
+		out.write("[Difficulty]\n");
+		out.write("HPDrainRate:" + (3 + random.nextInt(6)) + "\n");
+		out.write("CircleSize:" + (3 + random.nextInt(4)) + "\n");
+		out.write("OverallDifficulty:" + (3 + random.nextInt(6)) + "\n");
+		out.write("ApproachRate:" + (3 + random.nextInt(6)) + "\n");
+		out.write("SliderMultiplier:" + sliderMultiplier() + "\n");
+		out.write("SliderTickRate:1\n\n");
+		
+		out.write("[Events]\n");
+		out.write("//Background and Video events\n");
+		out.write("0,0,\"background.jpg\"\n");
+		out.write("//Break Periods\n");
+		for (int i = 0; i < breaks.size(); ++i)
+			out.write("2," + breaks.get(i)[0] + "," + breaks.get(i)[1] + "\n");
+		out.write("//Storyboard Layer 0 (Background)\n");
+		out.write("//Storyboard Layer 1 (Fail)\n");
+		out.write("//Storyboard Layer 2 (Pass)\n");
+		out.write("//Storyboard Layer 3 (Foreground)\n");
+		out.write("//Storyboard Sound Samples\n");
+		out.write("//Background Colour Transformations\n");
+		out.write("3,100,0,0,0\n\n");
+		
+		out.write("[TimingPoints]\n");
+		out.write(LEAD_IN + "," + format(beat_length) + ",4,1,0,70,1,0\n");
+		if (timing_point_interval > 0)
+		{
+			boolean kiai = false;
+			for (long t = LEAD_IN + timing_point_interval; t < end; t += timing_point_interval)
+			{
+				if (random.nextInt(8) == 0)
+					kiai = !kiai;
+				out.write(t + "," + format(VELOCITIES[random.nextInt(VELOCITIES.length)]) + ",4,1,0," + (40 + random.nextInt(40)) + ",0," + (kiai ? 1 : 0) + "\n");
+			}
+		}
+		out.write("\n");
+		
+		if (colour_count > 0)
+		{
+			out.write("[Colours]\n");
+			for (int i = 1; i <= colour_count; ++i)
+				out.write("Combo" + i + " : " + random.nextInt(256) + "," + random.nextInt(256) + "," + random.nextInt(256) + "\n");
+			out.write("\n");
+		}
+		
+		out.write("[HitObjects]\n");
+		out.append(objects);
+	}
+	
+	
+	/**
+	 * Writes a library of fake beatmap sets into the given directory (created if needed): one
+	 * directory per set, named like the bundled ones ("id Artist - Title"), each with the given
+	 * number of difficulties. Harder difficulties get more objects, up to the current object count.
+	 * The seed is varied per beatmap and restored afterwards.
+	 * 
+	 * @return The number of .osu files written.
+	 */
+	public int writeLibrary(File root, int sets, int difficulties) throws IOException
+	{
+		if (!root.isDirectory() && !root.mkdirs())
+			throw new IOException("Can't create library directory: " + root.getAbsolutePath());
+		
+		long base_seed = seed;
+		int base_objects = object_count;
+		Random names = new Random(base_seed);
+		int written = 0;
+		
+		try {
+			for (int s = 0; s < sets; ++s)
+			{
+				random = names;
+				String artist = capitalize(word()) + " " + capitalize(word());
+				String title = capitalize(word()) + " " + word() + " " + word();
+				
+				File dir = new File(root, (10000 + s) + " " + artist + " - " + title);
+				if (!dir.isDirectory() && !dir.mkdirs())
+					throw new IOException("Can't create beatmap directory: " + dir.getAbsolutePath());
+				
+				for (int d = 0; d < difficulties; ++d)
+				{
+					String version = VERSIONS[d % VERSIONS.length] + (d < VERSIONS.length ? "" : " " + (d / VERSIONS.length + 1));
+					
+					seed = base_seed * 31 + s * 1009 + d;
+					object_count = Math.max(1, base_objects * (d + 1) / difficulties);
+					writeBeatmap(new File(dir, artist + " - " + title + " (BeatmapGenerator) [" + version + "].osu"), artist, title, version);
+					++written;
+				}
+			}
+		} finally {
+			seed = base_seed;
+			object_count = base_objects;
+		}
+		
+		return written;
+	}
+	
+	
+	// *** HELPER METHODS *** //
+	/**
+	 * Appends the hit object lines and fills in the break periods.
+	 * 
+	 * @return The time the last object ends at.
+	 */
+	private long writeHitObjects(StringBuilder out, double beat_length, ArrayList<long[]> breaks)
+	{
+		double slider_multiplier = sliderMultiplier();
+		double step = beat_length / beat_divisor;
+		double time = LEAD_IN;
+		int x = PLAYFIELD_WIDTH / 2, y = PLAYFIELD_HEIGHT / 2;
+		int combo_left = 0;
+		
+		// Breaks go between evenly spaced objects
+		int break_every = break_count > 0 ? object_count / (break_count + 1) : 0;
+		
+		for (int i = 0; i < object_count; ++i)
+		{
+			if (break_every > 0 && i > 0 && i % break_every == 0 && breaks.size() < break_count)
+			{
+				long start = (long)time + (long)beat_length;
+				breaks.add(new long[] {start, start + BREAK_LENGTH});
+				time = start + BREAK_LENGTH + beat_length;
+				combo_left = 0;
+			}
+			
+			boolean new_combo = combo_left-- <= 0;
+			if (new_combo)
+				combo_left = 3 + random.nextInt(6);
+			
+			// Move a bit from the last object, staying on the playfield
+			x = clamp(x + random.nextInt(161) - 80, 0, PLAYFIELD_WIDTH);
+			y = clamp(y + random.nextInt(161) - 80, 0, PLAYFIELD_HEIGHT);
+			long t = (long)time;
+			int sound = HIT_SOUNDS[random.nextInt(HIT_SOUNDS.length)];
+			
+			double r = random.nextDouble();
+			if (r < spinner_ratio)
+			{
+				long spin_end = t + (long)(beat_length * (4 + random.nextInt(5)));
+				out.append(PLAYFIELD_WIDTH / 2).append(',').append(PLAYFIELD_HEIGHT / 2).append(',').append(t).append(",12,").append(sound)
+				   .append(',').append(spin_end).append('\n');
+				time = spin_end + beat_length;
+				combo_left = 0; // Spinners end a combo
+			}
+			else if (r < spinner_ratio + slider_ratio)
+			{
+				int count = min_control_points + random.nextInt(max_control_points - min_control_points + 1);
+				int repeats = 1 + random.nextInt(max_repeats);
+				double length = SLIDER_BEATS[random.nextInt(SLIDER_BEATS.length)] * 100.0 * slider_multiplier;
+				
+				// Wander about the slider's length in total, however many control points there are
+				int reach = Math.max(2, (int)(2.0 * length / count));
+				int px = x, py = y;
+				out.append(x).append(',').append(y).append(',').append(t).append(new_combo ? ",6," : ",2,").append(sound).append(",B");
+				for (int p = 1; p <= count; ++p)
+				{
+					px = clamp(px + random.nextInt(2 * reach + 1) - reach, 0, PLAYFIELD_WIDTH);
+					py = clamp(py + random.nextInt(2 * reach + 1) - reach, 0, PLAYFIELD_HEIGHT);
+					out.append('|').append(px).append(':').append(py);
+				}
+				
+				out.append(',').append(repeats).append(',').append(format(length)).append(',');
+				for (int e = 0; e <= repeats; ++e)
+				{
+					if (e > 0)
+						out.append('|');
+					out.append(HIT_SOUNDS[random.nextInt(HIT_SOUNDS.length)]);
+				}
+				out.append('\n');
+				
+				// The slider ends where its ball stops, after which the next object can come
+				double duration = length / (100.0 * slider_multiplier) * beat_length * repeats;
+				time += Math.ceil(duration / step) * step + step;
+				if ((repeats & 1) != 0)
+				{
+					x = px;
+					y = py;
+				}
+			}
+			else
+			{
+				out.append(x).append(',').append(y).append(',').append(t).append(new_combo ? ",5," : ",1,").append(sound).append('\n');
+				time += step;
+			}
+		}
+		
+		return (long)time;
+	}
+	
+	
+	/** The slider multiplier written to [Difficulty] (fixed so slider durations can be computed) */
+	private static double sliderMultiplier() { return 1.4; }
+	
+	private static int clamp(int v, int min, int max) { return v < min ? min : v > max ? max : v; }
+	
+	/** Formats a number with two decimals and a '.' separator, whatever the default locale */
+	private static String format(double d) { return String.format(Locale.US, "%.2f", d); }
+	
+	/** Makes up a word from two or three syllables */
+	private String word()
+	{
+		StringBuilder sb = new StringBuilder();
+		int n = 2 + random.nextInt(2);
+		for (int i = 0; i < n; ++i)
+			sb.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+		return sb.toString();
+	}
+	
+	private static String capitalize(String s) { return Character.toUpperCase(s.charAt(0)) + s.substring(1); }
+	
+	
+	// *** GETTERS/SETTERS *** //
+	public long getSeed() { return seed; }
+	public void setSeed(long seed) { this.seed = seed; }
+	
+	public int getObjectCount() { return object_count; }
+	public void setObjectCount(int count) { object_count = Math.max(0, count); }
+	
+	public double getSliderRatio() { return slider_ratio; }
+	public void setSliderRatio(double ratio) { slider_ratio = ratio; }
+	
+	public double getSpinnerRatio() { return spinner_ratio; }
+	public void setSpinnerRatio(double ratio) { spinner_ratio = ratio; }
+	
+	/** Sets the range of control points per slider (not counting its start point) */
+	public void setControlPoints(int min, int max)
+	{
+		min_control_points = Math.max(1, min);
+		max_control_points = Math.max(min_control_points, max);
+	}
+	public int getMinControlPoints() { return min_control_points; }
+	public int getMaxControlPoints() { return max_control_points; }
+	
+	public int getMaxRepeats() { return max_repeats; }
+	public void setMaxRepeats(int repeats) { max_repeats = Math.max(1, repeats); }
+	
+	/** Sets the millis between inherited timing points (0 for only the initial one) */
+	public void setTimingPointInterval(int millis) { timing_point_interval = Math.max(0, millis); }
+	public int getTimingPointInterval() { return timing_point_interval; }
+	
+	public int getBreakCount() { return break_count; }
+	public void setBreakCount(int count) { break_count = Math.max(0, count); }
+	
+	/** Sets the number of combo colours (0 leaves out the [Colours] section) */
+	public void setColourCount(int count) { colour_count = Math.max(0, count); }
+	public int getColourCount() { return colour_count; }
+	
+	public double getBPM() { return bpm; }
+	public void setBPM(double bpm) { this.bpm = bpm; }
+	
+	public int getBeatDivisor() { return beat_divisor; }
+	public void setBeatDivisor(int divisor) { beat_divisor = Math.max(1, divisor); }
+	
+	
+	// *** MAIN *** //
+	/**
+	 * Command line entry point. Run without arguments for usage.
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		BeatmapGenerator gen = new BeatmapGenerator();
+		int sets = 0, difficulties = 4;
+		String target = null;
+		
+		try {
+			for (int i = 0; i < args.length; ++i)
+			{
+				String arg = args[i];
+				if (!arg.startsWith("-"))
+				{
+					target = arg;
+					continue;
+				}
+				if (i + 1 >= args.length)
+					throw new IllegalArgumentException("Missing value for " + arg);
+				String val = args[++i];
+				
+				if (arg.equals("-seed"))
+					gen.setSeed(Long.parseLong(val));
+				else if (arg.equals("-objects"))
+					gen.setObjectCount(Integer.parseInt(val));
+				else if (arg.equals("-sliders"))
+					gen.setSliderRatio(Double.parseDouble(val));
+				else if (arg.equals("-spinners"))
+					gen.setSpinnerRatio(Double.parseDouble(val));
+				else if (arg.equals("-points"))
+				{
+					int dash = val.indexOf('-');
+					if (dash < 0)
+						gen.setControlPoints(Integer.parseInt(val), Integer.parseInt(val));
+					else
+						gen.setControlPoints(Integer.parseInt(val.substring(0, dash)), Integer.parseInt(val.substring(dash + 1)));
+				}
+				else if (arg.equals("-repeats"))
+					gen.setMaxRepeats(Integer.parseInt(val));
+				else if (arg.equals("-timing"))
+					gen.setTimingPointInterval(Integer.parseInt(val));
+				else if (arg.equals("-breaks"))
+					gen.setBreakCount(Integer.parseInt(val));
+				else if (arg.equals("-colours"))
+					gen.setColourCount(Integer.parseInt(val));
+				else if (arg.equals("-bpm"))
+					gen.setBPM(Double.parseDouble(val));
+				else if (arg.equals("-library"))
+					sets = Integer.parseInt(val);
+				else if (arg.equals("-difficulties"))
+					difficulties = Integer.parseInt(val);
+				else
+					throw new IllegalArgumentException("Unknown option " + arg);
+			}
+		} catch (IllegalArgumentException ex) { // Includes NumberFormatException
+			System.err.println(ex.getMessage());
+			target = null;
+		}
+		
+		if (target == null)
+		{
+			System.err.println("Usage: BeatmapGenerator [options] <file.osu | library directory>");
+			System.err.println("  -seed N          Random seed (default 1)");
+			System.err.println("  -objects N       Hit objects per beatmap (default 500)");
+			System.err.println("  -sliders F       Fraction of sliders (default 0.3)");
+			System.err.println("  -spinners F      Fraction of spinners (default 0.01)");
+			System.err.println("  -points N[-M]    Control points per slider (default 1-6)");
+			System.err.println("  -repeats N       Maximum slider repeats (default 3)");
+			System.err.println("  -timing MS       Millis between inherited timing points, 0 for none (default 10000)");
+			System.err.println("  -breaks N        Break periods (default 2)");
+			System.err.println("  -colours N       Combo colours, 0 for none (default 4)");
+			System.err.println("  -bpm F           Beats per minute (default 180)");
+			System.err.println("  -library N       Write a library of N beatmap sets into the directory");
+			System.err.println("  -difficulties N  Beatmaps per set in a library (default 4)");
+			System.exit(1);
+		}
+		
+		long start = System.nanoTime();
+		if (sets > 0)
+		{
+			int written = gen.writeLibrary(new File(target), sets, difficulties);
+			System.out.println("Wrote " + written + " beatmaps in " + sets + " sets to " + target + " in " + (System.nanoTime() - start) / 1000000 + "ms");
+		}
+		else
+		{
+			gen.writeBeatmap(new File(target), "BeatmapGenerator", "Synthetic " + gen.getObjectCount(), "Generated");
+			System.out.println("Wrote " + gen.getObjectCount() + " hit objects to " + target + " in " + (System.nanoTime() - start) / 1000000 + "ms");
+		}
+	}
+	
+}
@@ -0,0 +1,127 @@
+package osu.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import osu.menu.BeatmapDescriptor;
+import osu.menu.BeatmapDir;
+import osu.menu.BeatmapLibraryLoader;
+import osu.menu.LibraryWalker;
+import osu.menu.StringPool;
+
+/**
+ * Times full scans of a beatmap library (BeatmapLibraryLoader without an index) at several
+ * thread counts, and checks that every thread count lists the library exactly like one thread
+ * does. A library is generated with BeatmapGenerator first if the directory doesn't exist.<br><br>
+ * 
+ * Runs on a desktop JVM with the compiled osu classes and android.jar (for android.util.Log,
+ * which is only called on errors) on the classpath:<br>
+ * <code>java osu.tools.LibraryScanBenchmark -sets 5000 -threads 1,2,4,8 /tmp/library</code><br>
+ * Later runs read the files from the OS cache; use -io with a cold cache (or an SD card) to see
+ * the effect of the I/O limit.
+ */
+public class LibraryScanBenchmark {
+	
+	public static void main(String[] args) throws IOException
+	{
+		int sets = 5000, difficulties = 4, repeats = 3, io_limit = LibraryWalker.NO_IO_LIMIT;
+		int[] threads = {1, 2, 4, 8};
+		String target = null;
+		
+		try {
+			for (int i = 0; i < args.length; ++i)
+			{
+				String arg = args[i];
+				if (!arg.startsWith("-"))
+				{
+					target = arg;
+					continue;
+				}
+				if (i + 1 >= args.length)
+					throw new IllegalArgumentException("Missing value for " + arg);
+				String val = args[++i];
+				
+				if (arg.equals("-sets"))
+					sets = Integer.parseInt(val);
+				else if (arg.equals("-difficulties"))
+					difficulties = Integer.parseInt(val);
+				else if (arg.equals("-repeats"))
+					repeats = Math.max(1, Integer.parseInt(val));
+				else if (arg.equals("-io"))
+					io_limit = Integer.parseInt(val);
+				else if (arg.equals("-threads"))
+				{
+					String[] counts = val.split(",");
+					threads = new int[counts.length];
+					for (int j = 0; j < counts.length; ++j)
+						threads[j] = Integer.parseInt(counts[j].trim());
+				}
+				else
+					throw new IllegalArgumentException("Unknown option " + arg);
+			}
+		} catch (IllegalArgumentException ex) { // Includes NumberFormatException
+			System.err.println(ex.getMessage());
+			target = null;
+		}
+		
+		if (target == null)
+		{
+			System.err.println("Usage: LibraryScanBenchmark [options] <library directory>");
+			System.err.println("  -sets N          Beatmap sets to generate if the directory doesn't exist (default 5000)");
+			System.err.println("  -difficulties N  Beatmaps per generated set (default 4)");
+			System.err.println("  -threads N,M,..  Thread counts to time (default 1,2,4,8)");
+			System.err.println("  -io N            Song directories read at once, 0 for no limit (default 0)");
+			System.err.println("  -repeats N       Scans per thread count; the fastest is reported (default 3)");
+			System.exit(1);
+		}
+		
+		File lib_dir = new File(target);
+		if (!lib_dir.exists())
+		{
+			long start = System.nanoTime();
+			int written = new BeatmapGenerator().writeLibrary(lib_dir, sets, difficulties);
+			System.out.println("Wrote " + written + " beatmaps in " + sets + " sets to " + target + " in " + (System.nanoTime() - start) / 1000000 + "ms");
+		}
+		
+		// Warm up the OS cache and the JIT, and keep the listing to compare against
+		ArrayList<String> expected = list(BeatmapLibraryLoader.getBeatmapDirs(target, new StringPool(), null, new LibraryWalker(1, io_limit)));
+		System.out.println(expected.size() + " beatmaps, " + Runtime.getRuntime().availableProcessors() + " processors" +
+		                   (io_limit == LibraryWalker.NO_IO_LIMIT ? "" : ", I/O limit " + io_limit));
+		
+		long base = 0;
+		for (int i = 0; i < threads.length; ++i)
+		{
+			LibraryWalker walker = new LibraryWalker(threads[i], io_limit);
+			long best = Long.MAX_VALUE;
+			boolean same = true;
+			for (int r = 0; r < repeats; ++r)
+			{
+				long start = System.nanoTime();
+				ArrayList<BeatmapDir> lib = BeatmapLibraryLoader.getBeatmapDirs(target, new StringPool(), null, walker);
+				best = Math.min(best, System.nanoTime() - start);
+				same &= list(lib).equals(expected);
+			}
+			
+			if (i == 0)
+				base = best;
+			System.out.println(String.format("%2d threads: %6dms  %.2fx%s", threads[i], best / 1000000, (double)base / best,
+			                                 same ? "" : "  MISMATCH"));
+		}
+	}
+	
+	
+	/** Returns the paths of all beatmaps in the library, in listing order */
+	private static ArrayList<String> list(ArrayList<BeatmapDir> lib)
+	{
+		ArrayList<String> paths = new ArrayList<String>();
+		for (int i = 0; i < lib.size(); ++i)
+		{
+			ArrayList<BeatmapDescriptor> beatmaps = lib.get(i).getBeatmapDescriptors();
+			for (int j = 0; j < beatmaps.size(); ++j)
+				paths.add(beatmaps.get(j).getPath());
+		}
+		return paths;
+	}
+	
+}
@@ -0,0 +1,174 @@
+package osu.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Locale;
+
+import osu.menu.BeatmapDescriptor;
+import osu.menu.BeatmapDir;
+import osu.menu.BeatmapLibraryLoader;
+import osu.menu.CompactMetadata;
+import osu.menu.LibrarySearch;
+import osu.menu.StringPool;
+
+/**
+ * Times LibrarySearch queries over a beatmap library, typed one keystroke at a time, and checks
+ * every result against a brute force search. A library is generated with BeatmapGenerator first
+ * if the directory doesn't exist (small beatmaps, since only the metadata matters).<br><br>
+ * 
+ * Runs on a desktop JVM with the compiled osu classes and android.jar on the classpath:<br>
+ * <code>java osu.tools.LibrarySearchBenchmark -sets 12500 /tmp/library</code>
+ */
+public class LibrarySearchBenchmark {
+	
+	// *** CONSTANTS *** //
+	private static final int REPEATS = 200; // Per query; the average and the slowest are reported
+	
+	
+	public static void main(String[] args) throws IOException
+	{
+		int sets = 12500, difficulties = 4;
+		String target = null;
+		
+		try {
+			for (int i = 0; i < args.length; ++i)
+			{
+				String arg = args[i];
+				if (!arg.startsWith("-"))
+				{
+					target = arg;
+					continue;
+				}
+				if (i + 1 >= args.length)
+					throw new IllegalArgumentException("Missing value for " + arg);
+				String val = args[++i];
+				
+				if (arg.equals("-sets"))
+					sets = Integer.parseInt(val);
+				else if (arg.equals("-difficulties"))
+					difficulties = Integer.parseInt(val);
+				else
+					throw new IllegalArgumentException("Unknown option " + arg);
+			}
+		} catch (IllegalArgumentException ex) { // Includes NumberFormatException
+			System.err.println(ex.getMessage());
+			target = null;
+		}
+		
+		if (target == null)
+		{
+			System.err.println("Usage: LibrarySearchBenchmark [options] <library directory>");
+			System.err.println("  -sets N          Beatmap sets to generate if the directory doesn't exist (default 12500)");
+			System.err.println("  -difficulties N  Beatmaps per generated set (default 4)");
+			System.exit(1);
+		}
+		
+		File lib_dir = new File(target);
+		if (!lib_dir.exists())
+		{
+			BeatmapGenerator gen = new BeatmapGenerator();
+			gen.setObjectCount(40);
+			gen.setBreakCount(0);
+			long start = System.nanoTime();
+			int written = gen.writeLibrary(lib_dir, sets, difficulties);
+			System.out.println("Wrote " + written + " beatmaps in " + sets + " sets to " + target + " in " + (System.nanoTime() - start) / 1000000 + "ms");
+		}
+		
+		ArrayList<BeatmapDescriptor> beatmaps = new ArrayList<BeatmapDescriptor>();
+		ArrayList<BeatmapDir> dirs = BeatmapLibraryLoader.getBeatmapDirs(target, new StringPool());
+		for (int i = 0; i < dirs.size(); ++i)
+			beatmaps.addAll(dirs.get(i).getBeatmapDescriptors());
+		
+		LibrarySearch search = new LibrarySearch();
+		long start = System.nanoTime();
+		for (int i = 0; i < beatmaps.size(); ++i)
+			search.put(beatmaps.get(i));
+		System.out.println("Indexed " + search.size() + " beatmaps (" + search.getWordCount() + " words) in " + (System.nanoTime() - start) / 1000000 + "ms");
+		
+		// Type a title and an artist of the library, a keystroke at a time, then add filters
+		CompactMetadata meta = beatmaps.get(beatmaps.size() / 3).getMetadata();
+		String typed = meta.getTitle().toLowerCase(Locale.ENGLISH) + " " + meta.getArtist().split(" ")[0].toLowerCase(Locale.ENGLISH);
+		ArrayList<LibrarySearch.Query> queries = new ArrayList<LibrarySearch.Query>();
+		for (int i = 1; i <= typed.length(); ++i)
+			queries.add(new LibrarySearch.Query(typed.substring(0, i)));
+		
+		LibrarySearch.Query query = new LibrarySearch.Query("");
+		query.min_difficulty = 5;
+		queries.add(query);
+		query = new LibrarySearch.Query(typed.substring(0, 1));
+		query.min_bpm = 150;
+		query.max_bpm = 200;
+		query.max_length = 60000;
+		queries.add(query);
+		query = new LibrarySearch.Query("insane");
+		query.min_objects = 20;
+		queries.add(query);
+		queries.add(new LibrarySearch.Query("nothing matches this"));
+		
+		BitSet out = new BitSet();
+		for (int r = 0; r < REPEATS; ++r) // Warm up the JIT
+			for (int q = 0; q < queries.size(); ++q)
+				search.search(queries.get(q), out);
+		
+		long worst = 0, total = 0;
+		boolean all_ok = true;
+		for (int q = 0; q < queries.size(); ++q)
+		{
+			query = queries.get(q);
+			long slowest = 0, sum = 0;
+			int matches = 0;
+			for (int r = 0; r < REPEATS; ++r)
+			{
+				start = System.nanoTime();
+				matches = search.search(query, out);
+				long time = System.nanoTime() - start;
+				slowest = Math.max(slowest, time);
+				sum += time;
+			}
+			
+			boolean ok = check(search, beatmaps, query, out);
+			all_ok &= ok;
+			worst = Math.max(worst, slowest);
+			total += sum / REPEATS;
+			System.out.println(String.format("%-40s %6d matches  %7.1fus avg  %7.1fus max%s", "\"" + query.text + "\"" + (query.hasRanges() ? " +ranges" : ""),
+			                                 matches, sum / REPEATS / 1000.0, slowest / 1000.0, ok ? "" : "  MISMATCH"));
+		}
+		
+		System.out.println(String.format("%d queries: %.1fus average, %.1fus slowest%s", queries.size(), total / queries.size() / 1000.0,
+		                                 worst / 1000.0, all_ok ? "" : ", MISMATCHES FOUND"));
+	}
+	
+	
+	/**
+	 * Compares search results with matching every beatmap's metadata directly.
+	 */
+	private static boolean check(LibrarySearch search, ArrayList<BeatmapDescriptor> beatmaps, LibrarySearch.Query query, BitSet out)
+	{
+		String[] words = query.text.toLowerCase(Locale.ENGLISH).split("[^\\p{L}\\p{N}]+");
+		for (int i = 0; i < beatmaps.size(); ++i)
+		{
+			BeatmapDescriptor des = beatmaps.get(i);
+			CompactMetadata meta = des.getMetadata();
+			String[] fields = {meta.getTitle(), meta.getArtist(), meta.getCreator(), meta.getSource(), meta.getVersion(), meta.getTags()};
+			String text = " ";
+			for (int j = 0; j < fields.length; ++j)
+				if (fields[j] != null)
+					text += fields[j].toLowerCase(Locale.ENGLISH).replaceAll("[^\\p{L}\\p{N}]+", " ") + " ";
+			
+			boolean expected = des.getOverallDifficulty() >= query.min_difficulty && des.getOverallDifficulty() <= query.max_difficulty &&
+			                   des.getLength() >= query.min_length && des.getLength() <= query.max_length &&
+			                   des.getMaxBPM() >= query.min_bpm && des.getMinBPM() <= query.max_bpm &&
+			                   des.getHitObjectCount() >= query.min_objects && des.getHitObjectCount() <= query.max_objects;
+			for (int j = 0; j < words.length && expected; ++j)
+				if (words[j].length() > 0 && text.indexOf(" " + words[j]) < 0)
+					expected = false;
+			
+			if (out.get(search.getDocument(des.getPath())) != expected || search.matches(des.getPath(), query) != expected)
+				return false;
+		}
+		return true;
+	}
+	
+}
@@ -0,0 +1,287 @@
+package osu.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import osu.game.BreakTiming;
+import osu.game.ComboColor;
+import osu.game.HitObjectStore;
+import osu.game.TimingPoint;
+import osu.parser.BufferParser;
+import osu.parser.ParseException;
+import osu.parser.Parser;
+import osu.parser.ParserContainer;
+import osu.parser.Subsections;
+
+/**
+ * Times BufferParser against Parser, and checks that both give the same beatmap: every field of
+ * the ParserContainers they fill must match exactly (ParserUtil turns a container into a Beatmap,
+ * so equal containers make equal beatmaps). Beatmaps of several sizes are generated with
+ * BeatmapGenerator into a temporary directory; any .osu files or directories given (such as the
+ * bundled assets/beatmaps) are checked and timed as well. Exits with status 1 on a mismatch.<br><br>
+ * 
+ * Runs on a desktop JVM with the compiled osu classes on the classpath. The parsers also use
+ * android.graphics.Point (Parser builds slider paths with it) and android.util.Log, but android.jar
+ * can't stand in for them, as its classes only throw "Stub!". Compile small stand-ins into the same
+ * directory instead: a Point with public int fields x and y set by Point(int x, int y), and a Log
+ * whose static v(), w() and e() methods (tag, message, and optionally a Throwable) print or do
+ * nothing. Nothing else from Android is needed; combo colours are compared without
+ * android.graphics.Color.<br>
+ * <code>java -cp bin:stand-ins osu.tools.ParserBenchmark -objects 500,5000,50000 -threads 4 assets/beatmaps</code>
+ */
+public class ParserBenchmark {
+	
+	public static void main(String[] args) throws IOException
+	{
+		int[] objects = {500, 5000, 50000};
+		int repeats = 20, threads = Runtime.getRuntime().availableProcessors();
+		ArrayList<File> files = new ArrayList<File>();
+		
+		try {
+			for (int i = 0; i < args.length; ++i)
+			{
+				String arg = args[i];
+				if (!arg.startsWith("-"))
+				{
+					File f = new File(arg);
+					if (!f.exists())
+						throw new IllegalArgumentException("No such file or directory " + arg);
+					addBeatmaps(f, files);
+					continue;
+				}
+				if (i + 1 >= args.length)
+					throw new IllegalArgumentException("Missing value for " + arg);
+				String val = args[++i];
+				
+				if (arg.equals("-objects"))
+				{
+					String[] counts = val.split(",");
+					objects = new int[counts.length];
+					for (int j = 0; j < counts.length; ++j)
+						objects[j] = Integer.parseInt(counts[j].trim());
+				}
+				else if (arg.equals("-threads"))
+					threads = Integer.parseInt(val);
+				else if (arg.equals("-repeats"))
+					repeats = Math.max(1, Integer.parseInt(val));
+				else
+					throw new IllegalArgumentException("Unknown option " + arg);
+			}
+		} catch (IllegalArgumentException ex) { // Includes NumberFormatException
+			System.err.println(ex.getMessage());
+			System.err.println("Usage: ParserBenchmark [options] [file.osu | directory]...");
+			System.err.println("  -objects N,M,..  Hit objects in each generated beatmap (default 500,5000,50000)");
+			System.err.println("  -threads N       BufferParser's hit object threads (default every processor)");
+			System.err.println("  -repeats N       Parses timed per beatmap; the fastest is reported (default 20)");
+			System.exit(1);
+		}
+		
+		// Generated beatmaps come first, so a short run still covers the large ones
+		File tmp_dir = File.createTempFile("parser", "");
+		tmp_dir.delete();
+		tmp_dir.mkdir();
+		ArrayList<File> generated = new ArrayList<File>();
+		BeatmapGenerator gen = new BeatmapGenerator();
+		for (int i = 0; i < objects.length; ++i)
+		{
+			File f = new File(tmp_dir, objects[i] + ".osu");
+			gen.setObjectCount(objects[i]);
+			gen.writeBeatmap(f, "Generated", objects[i] + " objects", "Benchmark");
+			generated.add(f);
+		}
+		files.addAll(0, generated);
+		
+		BufferParser buffer_parser = new BufferParser();
+		buffer_parser.setHitObjectThreads(threads);
+		System.out.println(files.size() + " beatmaps, BufferParser on " + threads + " threads");
+		
+		boolean all_ok = true;
+		long parser_total = 0, buffer_total = 0;
+		try {
+			for (int i = 0; i < files.size(); ++i)
+			{
+				String path = files.get(i).getPath();
+				ParserContainer expected = new ParserContainer(), actual = new ParserContainer();
+				String error;
+				try {
+					new Parser().parseResource(path, expected);
+					buffer_parser.parseResource(path, actual);
+					error = compare(expected, actual);
+				} catch (ParseException ex) {
+					error = ex.getMessage();
+				}
+				all_ok &= error == null;
+				
+				// Time both. The first runs warm up the JIT and the OS cache
+				long parser_best = Long.MAX_VALUE, buffer_best = Long.MAX_VALUE;
+				for (int r = 0; error == null && r < repeats + 2; ++r)
+				{
+					long start = System.nanoTime();
+					new Parser().parseResource(path, new ParserContainer());
+					long parser_time = System.nanoTime() - start;
+					
+					start = System.nanoTime();
+					buffer_parser.parseResource(path, new ParserContainer());
+					long buffer_time = System.nanoTime() - start;
+					
+					if (r >= 2)
+					{
+						parser_best = Math.min(parser_best, parser_time);
+						buffer_best = Math.min(buffer_best, buffer_time);
+					}
+				}
+				
+				if (error == null)
+				{
+					parser_total += parser_best;
+					buffer_total += buffer_best;
+					System.out.println(String.format("%-48s %6d objects  Parser %8.2fms  BufferParser %8.2fms  %5.2fx",
+					                                 name(files.get(i)), expected.hit_objects.size(), parser_best / 1e6,
+					                                 buffer_best / 1e6, (double)parser_best / buffer_best));
+				}
+				else
+					System.out.println(String.format("%-48s MISMATCH: %s", name(files.get(i)), error));
+			}
+		} catch (ParseException ex) {
+			throw new IOException("A beatmap stopped parsing while being timed: " + ex.getMessage());
+		} finally {
+			for (int i = 0; i < generated.size(); ++i)
+				generated.get(i).delete();
+			tmp_dir.delete();
+		}
+		
+		if (buffer_total > 0)
+			System.out.println(String.format("Total: Parser %.2fms, BufferParser %.2fms, %.2fx", parser_total / 1e6, buffer_total / 1e6,
+			                                 (double)parser_total / buffer_total));
+		if (!all_ok)
+			System.exit(1);
+	}
+	
+	
+	/** Adds a .osu file, or every .osu file under a directory, to a list */
+	private static void addBeatmaps(File f, ArrayList<File> files)
+	{
+		if (f.isDirectory())
+		{
+			File[] children = f.listFiles();
+			Arrays.sort(children);
+			for (int i = 0; i < children.length; ++i)
+				addBeatmaps(children[i], files);
+		}
+		else if (f.getName().endsWith(".osu"))
+			files.add(f);
+	}
+	
+	/** Gets a short name for a beatmap to report it by */
+	private static String name(File f)
+	{
+		String name = f.getName();
+		return name.length() <= 48 ? name : name.substring(0, 45) + "...";
+	}
+	
+	/**
+	 * Compares everything two parsers put in their containers.
+	 * @return The first difference, or null if there is none
+	 */
+	private static String compare(ParserContainer a, ParserContainer b)
+	{
+		Subsections[] sections = {Subsections.GENERAL, Subsections.EDITOR, Subsections.METADATA, Subsections.DIFFICULTY};
+		for (int i = 0; i < sections.length; ++i)
+		{
+			HashMap<String, String> x = a.dict.get(sections[i]), y = b.dict.get(sections[i]);
+			if (!x.equals(y))
+				return sections[i] + " attributes differ: " + x + " vs " + y;
+		}
+		
+		if (!equal(a.background.getImagePath(), b.background.getImagePath()) ||
+		    a.background.getBveUn1() != b.background.getBveUn1() || a.background.getBveUn2() != b.background.getBveUn2() ||
+		    a.background.getBctUn1() != b.background.getBctUn1() || a.background.getBctUn2() != b.background.getBctUn2() ||
+		    a.background.getR() != b.background.getR() || a.background.getG() != b.background.getG() ||
+		    a.background.getB() != b.background.getB())
+			return "backgrounds differ";
+		
+		if (a.break_timings.size() != b.break_timings.size())
+			return a.break_timings.size() + " vs " + b.break_timings.size() + " break timings";
+		Iterator<BreakTiming> bx = a.break_timings.iterator(), by = b.break_timings.iterator();
+		for (int i = 0; bx.hasNext(); ++i)
+		{
+			BreakTiming x = bx.next(), y = by.next();
+			if (x.getUnknown() != y.getUnknown() || x.getStartTime() != y.getStartTime() || x.getEndTime() != y.getEndTime())
+				return "break timing " + i + " differs";
+		}
+		
+		String error = compareTimingPoints(a.timing_points, b.timing_points);
+		if (error != null)
+			return error;
+		
+		if (a.combo_colors.size() != b.combo_colors.size())
+			return a.combo_colors.size() + " vs " + b.combo_colors.size() + " combo colours";
+		for (int i = 0; i < a.combo_colors.size(); ++i)
+		{
+			ComboColor x = a.combo_colors.get(i), y = b.combo_colors.get(i);
+			if (x.getR() != y.getR() || x.getG() != y.getG() || x.getB() != y.getB()) // ComboColor.equals() needs android.graphics.Color
+				return "combo colour " + i + " differs";
+		}
+		
+		return compareHitObjects(a.hit_objects, b.hit_objects);
+	}
+	
+	/** Compares two lists of timing points, returning the first difference or null */
+	private static String compareTimingPoints(LinkedList<TimingPoint> a, LinkedList<TimingPoint> b)
+	{
+		if (a.size() != b.size())
+			return a.size() + " vs " + b.size() + " timing points";
+		Iterator<TimingPoint> ix = a.iterator(), iy = b.iterator();
+		for (int i = 0; ix.hasNext(); ++i)
+		{
+			TimingPoint x = ix.next(), y = iy.next();
+			if (x.getOffset() != y.getOffset() || x.getBPM() != y.getBPM() || x.getTimeSignature() != y.getTimeSignature() ||
+			    x.getSampleSet() != y.getSampleSet() || x.getCustomSampleSet() != y.getCustomSampleSet() ||
+			    x.getVolume() != y.getVolume() || x.getInheritance() != y.getInheritance() || x.getKiai() != y.getKiai())
+				return "timing point " + i + " differs";
+		}
+		return null;
+	}
+	
+	/** Compares two stores of hit objects, returning the first difference or null */
+	private static String compareHitObjects(HitObjectStore a, HitObjectStore b)
+	{
+		if (a.size() != b.size())
+			return a.size() + " vs " + b.size() + " hit objects";
+		for (int i = 0; i < a.size(); ++i)
+		{
+			if (a.getType(i) != b.getType(i) || a.getX(i) != b.getX(i) || a.getY(i) != b.getY(i) ||
+			    a.getTiming(i) != b.getTiming(i) || a.getFlags(i) != b.getFlags(i) || a.getSoundType(i) != b.getSoundType(i))
+				return "hit object " + i + " differs";
+			
+			if (a.getType(i) == HitObjectStore.SLIDER)
+			{
+				if (a.getSliderType(i) != b.getSliderType(i) || a.getRepeats(i) != b.getRepeats(i) ||
+				    a.getPathLength(i) != b.getPathLength(i) || a.getPathPointCount(i) != b.getPathPointCount(i) ||
+				    a.getSoundPointCount(i) != b.getSoundPointCount(i))
+					return "slider " + i + " differs";
+				for (int p = 0; p < a.getPathPointCount(i); ++p)
+					if (a.getPathX(i, p) != b.getPathX(i, p) || a.getPathY(i, p) != b.getPathY(i, p))
+						return "slider " + i + "'s path differs at point " + p;
+				for (int p = 0; p < a.getSoundPointCount(i); ++p)
+					if (a.getSoundPoint(i, p) != b.getSoundPoint(i, p))
+						return "slider " + i + "'s sounds differ at point " + p;
+			}
+			else if (a.getType(i) == HitObjectStore.SPINNER && a.getEndTiming(i) != b.getEndTiming(i))
+				return "spinner " + i + " ends at a different time";
+		}
+		return null;
+	}
+	
+	/** Compares two strings, either of which may be null */
+	private static boolean equal(String a, String b)
+	{
+		return a == null ? b == null : a.equals(b);
+	}
+	
+}
@@ -0,0 +1,271 @@
+package osu.tools;
+
+import java.util.Random;
+
+import osu.graphics.TintKernel;
+
+/**
+ * Compares TintKernel with the floating-point loops it replaced, for accuracy and speed. tint()
+ * is checked against BitmapTint's old per-pixel float loop, and compose() against compositing the
+ * tinted body over its shadow and under its chrome in double precision, as Canvas did. Images are
+ * synthetic sprites (a soft disc of noise, like the button parts), so no device is needed.<br><br>
+ * 
+ * Prints the largest error in any color channel, and the time each takes per image. compose()'s
+ * error is measured where the result is at least half opaque, since unpremultiplying nearly
+ * transparent pixels magnifies rounding that can't be seen; even so, a few channels of half opaque
+ * pixels can be off by 4, as compose() rounds to 8 bits between layers, so the number of channels
+ * off by more than 2 is printed too. Exits with status 1 if either error is over its limit.<br><br>
+ * 
+ * Runs on a desktop JVM with the compiled osu classes on the classpath:<br>
+ * <code>java osu.tools.TintKernelBenchmark -sizes 128x128,684x512 -threads 1,4</code>
+ */
+public class TintKernelBenchmark {
+	
+	// *** CONSTANTS *** //
+	private static final int MAX_TINT_ERROR = 1;     // Per channel, against the old float loop
+	private static final int MAX_COMPOSE_ERROR = 4;  // Per channel, against double precision, where alpha >= 128 (the kernel rounds to 8 bits between layers)
+	private static final int[][] COLORS = {          // Tints to check, including white (exact) and black
+		{255, 255, 255}, {0, 0, 0}, {255, 0, 0}, {255, 128, 0}, {18, 170, 255}, {200, 60, 140}, {1, 254, 127}
+	};
+	
+	
+	public static void main(String[] args)
+	{
+		int[][] sizes = {{128, 128}, {684, 512}};
+		int[] threads = {1, Runtime.getRuntime().availableProcessors()};
+		int repeats = 50;
+		
+		try {
+			for (int i = 0; i < args.length; ++i)
+			{
+				String arg = args[i];
+				if (i + 1 >= args.length)
+					throw new IllegalArgumentException("Missing value for " + arg);
+				String val = args[++i];
+				
+				if (arg.equals("-sizes"))
+				{
+					String[] list = val.split(",");
+					sizes = new int[list.length][];
+					for (int j = 0; j < list.length; ++j)
+					{
+						String[] wh = list[j].trim().split("x");
+						if (wh.length != 2)
+							throw new IllegalArgumentException("Sizes are WxH, not " + list[j]);
+						sizes[j] = new int[] {Integer.parseInt(wh[0]), Integer.parseInt(wh[1])};
+					}
+				}
+				else if (arg.equals("-threads"))
+				{
+					String[] counts = val.split(",");
+					threads = new int[counts.length];
+					for (int j = 0; j < counts.length; ++j)
+						threads[j] = Integer.parseInt(counts[j].trim());
+				}
+				else if (arg.equals("-repeats"))
+					repeats = Math.max(1, Integer.parseInt(val));
+				else
+					throw new IllegalArgumentException("Unknown option " + arg);
+			}
+		} catch (IllegalArgumentException ex) { // Includes NumberFormatException
+			System.err.println(ex.getMessage());
+			System.err.println("Usage: TintKernelBenchmark [options]");
+			System.err.println("  -sizes WxH,..    Image sizes to check and time (default 128x128,684x512)");
+			System.err.println("  -threads N,M,..  Kernel thread counts to time (default 1 and every processor)");
+			System.err.println("  -repeats N       Runs timed per image; the average is reported (default 50)");
+			System.exit(1);
+		}
+		
+		boolean all_ok = true;
+		for (int s = 0; s < sizes.length; ++s)
+		{
+			int w = sizes[s][0], h = sizes[s][1], n = w * h;
+			int[] shadow = sprite(w, h, 1, .95f), body = sprite(w, h, 2, .8f), chrome = sprite(w, h, 3, .6f);
+			int[] dst = new int[n], expected = new int[n];
+			
+			// Accuracy, on one thread and on several (the bands must meet without seams)
+			int tint_error = 0, compose_error = 0, compose_over = 0, compose_channels = 0;
+			for (int t = 0; t < threads.length; ++t)
+			{
+				TintKernel kernel = new TintKernel(threads[t]);
+				for (int c = 0; c < COLORS.length; ++c)
+				{
+					int r = COLORS[c][0], g = COLORS[c][1], b = COLORS[c][2];
+					
+					floatTint(body, expected, r, g, b);
+					kernel.tint(body, dst, w, h, r, g, b);
+					int error = maxError(dst, expected, 0);
+					if (r == 255 && g == 255 && b == 255 && error != 0)
+						error = Integer.MAX_VALUE; // White must leave the image unchanged
+					tint_error = Math.max(tint_error, error);
+					
+					doubleCompose(shadow, body, chrome, expected, r, g, b);
+					kernel.compose(shadow, body, chrome, dst, w, h, r, g, b);
+					compose_error = Math.max(compose_error, maxError(dst, expected, 128));
+					compose_over += countOver(dst, expected, 128, 2);
+					for (int i = 0; i < n; ++i)
+						if ((expected[i] >>> 24) >= 128)
+							compose_channels += 4;
+				}
+				kernel.release();
+			}
+			
+			boolean ok = tint_error <= MAX_TINT_ERROR && compose_error <= MAX_COMPOSE_ERROR;
+			all_ok &= ok;
+			System.out.println(String.format("%dx%d: tint error %s, compose error %d (%d of %d channels off by more than 2)%s", w, h,
+			                                 tint_error == Integer.MAX_VALUE ? "(white changed the image)" : Integer.toString(tint_error),
+			                                 compose_error, compose_over, compose_channels, ok ? "" : "  OVER LIMIT"));
+			
+			// Speed. Each is run a few times first to warm up the JIT
+			int r = COLORS[3][0], g = COLORS[3][1], b = COLORS[3][2];
+			long start;
+			for (int i = 0; i < 5; ++i)
+				floatTint(body, expected, r, g, b);
+			start = System.nanoTime();
+			for (int i = 0; i < repeats; ++i)
+				floatTint(body, expected, r, g, b);
+			System.out.println(String.format("  float tint         %8.3fms", (System.nanoTime() - start) / repeats / 1e6));
+			
+			for (int i = 0; i < 5; ++i)
+				doubleCompose(shadow, body, chrome, expected, r, g, b);
+			start = System.nanoTime();
+			for (int i = 0; i < repeats; ++i)
+				doubleCompose(shadow, body, chrome, expected, r, g, b);
+			System.out.println(String.format("  double compose     %8.3fms", (System.nanoTime() - start) / repeats / 1e6));
+			
+			for (int t = 0; t < threads.length; ++t)
+			{
+				TintKernel kernel = new TintKernel(threads[t]);
+				for (int i = 0; i < 5; ++i)
+					kernel.tint(body, dst, w, h, r, g, b);
+				start = System.nanoTime();
+				for (int i = 0; i < repeats; ++i)
+					kernel.tint(body, dst, w, h, r, g, b);
+				long tint = System.nanoTime() - start;
+				
+				for (int i = 0; i < 5; ++i)
+					kernel.compose(shadow, body, chrome, dst, w, h, r, g, b);
+				start = System.nanoTime();
+				for (int i = 0; i < repeats; ++i)
+					kernel.compose(shadow, body, chrome, dst, w, h, r, g, b);
+				long compose = System.nanoTime() - start;
+				kernel.release();
+				
+				System.out.println(String.format("  kernel, %2d threads: tint %8.3fms, compose %8.3fms", threads[t], tint / repeats / 1e6, compose / repeats / 1e6));
+			}
+		}
+		
+		if (!all_ok)
+			System.exit(1);
+	}
+	
+	
+	/**
+	 * Makes a synthetic sprite: a disc whose alpha falls off towards its edge, filled with noise
+	 * @param seed Seeds the noise
+	 * @param radius The radius of the disc, as a fraction of half the image's size
+	 */
+	private static int[] sprite(int w, int h, long seed, float radius)
+	{
+		Random rnd = new Random(seed);
+		int[] pixels = new int[w * h];
+		for (int y = 0; y < h; ++y)
+		{
+			for (int x = 0; x < w; ++x)
+			{
+				double dx = (x + .5 - .5 * w) / (.5 * w * radius), dy = (y + .5 - .5 * h) / (.5 * h * radius);
+				double d = Math.sqrt(dx * dx + dy * dy);
+				int a = d >= 1. ? 0 : Math.min(255, (int)(255 * (1. - d) * 3.));
+				if (a > 0 && rnd.nextInt(8) == 0)
+					a = rnd.nextInt(a + 1); // Some partly transparent pixels inside the disc too
+				pixels[y * w + x] = (a << 24) | (rnd.nextInt(256) << 16) | (rnd.nextInt(256) << 8) | rnd.nextInt(256);
+			}
+		}
+		return pixels;
+	}
+	
+	/** BitmapTint.apply()'s loop before TintKernel, with android.graphics.Color's accessors inlined */
+	private static void floatTint(int[] src, int[] dst, int ri, int gi, int bi)
+	{
+		float div = 1.f / 255.f;
+		float r = ri * div, g = gi * div, b = bi * div;
+		float norm = 1.f / 255.f;
+		float unnorm = 255.f;
+		
+		for (int i = 0; i < src.length; ++i)
+		{
+			int p = src[i];
+			float red = r * (norm * ((p >> 16) & 0xff));
+			float green = g * (norm * ((p >> 8) & 0xff));
+			float blue = b * (norm * (p & 0xff));
+			
+			dst[i] = (p & 0xff000000) | ((int)(red * unnorm) << 16) | ((int)(green * unnorm) << 8) | (int)(blue * unnorm);
+		}
+	}
+	
+	/** Tints the body and draws it over the shadow and under the chrome (source over, as Canvas does), in double precision */
+	private static void doubleCompose(int[] shadow, int[] body, int[] chrome, int[] dst, int r, int g, int b)
+	{
+		double[] tint = {r / 255., g / 255., b / 255.};
+		double[] white = {1., 1., 1.};
+		double[] p = new double[4]; // Premultiplied: alpha, red, green, blue in [0, 1]
+		for (int i = 0; i < dst.length; ++i)
+		{
+			p[0] = p[1] = p[2] = p[3] = 0.;
+			over(p, shadow[i], white);
+			over(p, body[i], tint);
+			over(p, chrome[i], white);
+			
+			int a = (int)Math.round(p[0] * 255.);
+			if (a == 0)
+			{
+				dst[i] = 0;
+				continue;
+			}
+			dst[i] = a << 24;
+			for (int c = 1; c < 4; ++c)
+				dst[i] |= (int)Math.min(255, Math.round(p[c] / p[0] * 255.)) << (8 * (3 - c));
+		}
+	}
+	
+	/** Draws a non-premultiplied pixel, tinted, over a premultiplied one */
+	private static void over(double[] p, int src, double[] tint)
+	{
+		double a = (src >>> 24) / 255.;
+		double inv = 1. - a;
+		p[1] = ((src >>> 16) & 0xff) / 255. * tint[0] * a + p[1] * inv;
+		p[2] = ((src >>> 8) & 0xff) / 255. * tint[1] * a + p[2] * inv;
+		p[3] = (src & 0xff) / 255. * tint[2] * a + p[3] * inv;
+		p[0] = a + p[0] * inv;
+	}
+	
+	/** Gets the largest difference in any channel between two images, over the pixels of the expected image at least min_alpha opaque */
+	private static int maxError(int[] actual, int[] expected, int min_alpha)
+	{
+		int error = 0;
+		for (int i = 0; i < actual.length; ++i)
+		{
+			if ((expected[i] >>> 24) < min_alpha)
+				continue;
+			for (int shift = 0; shift < 32; shift += 8)
+				error = Math.max(error, Math.abs(((actual[i] >>> shift) & 0xff) - ((expected[i] >>> shift) & 0xff)));
+		}
+		return error;
+	}
+	
+	/** Counts the channels that differ by more than limit between two images, over the pixels of the expected image at least min_alpha opaque */
+	private static int countOver(int[] actual, int[] expected, int min_alpha, int limit)
+	{
+		int count = 0;
+		for (int i = 0; i < actual.length; ++i)
+		{
+			if ((expected[i] >>> 24) < min_alpha)
+				continue;
+			for (int shift = 0; shift < 32; shift += 8)
+				if (Math.abs(((actual[i] >>> shift) & 0xff) - ((expected[i] >>> shift) & 0xff)) > limit)
+					++count;
+		}
+		return count;
+	}
+	
+}